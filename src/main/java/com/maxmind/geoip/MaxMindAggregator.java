@@ -0,0 +1,195 @@
+package com.maxmind.geoip;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/*
+ * Counts rows per key (group-by values, time window and looked up fields) for the aggregation mode of the lookup
+ * step, so only one row per key leaves the step instead of every enriched row.
+ *
+ * Every column of the key numbers its distinct values, and the counters sit in an open addressing table keyed by
+ * the value numbers of a row, with the counts and sums in primitive arrays.  The looked up values are pooled, so a
+ * column mostly finds the number of a value by reference without hashing it; columns whose values are new objects
+ * on every row (input fields) stop remembering references and compare by value only.
+ *
+ * The caller fills one key array per row and hands it in, it is not kept.
+ */
+final class MaxMindAggregator {
+
+  private static final int MIN_CAPACITY = 64;
+
+  // a column stops looking up values by reference once it saw this many references per distinct value
+  private static final int MAX_REFERENCES_PER_VALUE = 4;
+
+  private static final class Column {
+    final HashMap<Object, Integer> numbers = new HashMap<Object, Integer>();
+    IdentityHashMap<Object, Integer> references = new IdentityHashMap<Object, Integer>();
+    final ArrayList<Object> values = new ArrayList<Object>();
+
+    int number(Object value) {
+      Integer number = (references == null) ? null : references.get(value);
+      if (number == null) {
+        // binary string values are byte arrays, ByteBuffer compares their contents
+        Object key = (value instanceof byte[]) ? ByteBuffer.wrap((byte[]) value) : value;
+        number = numbers.get(key);
+        if (number == null) {
+          number = values.size();
+          numbers.put(key, number);
+          values.add(value);
+        }
+        if (references != null) {
+          if (references.size() >= MAX_REFERENCES_PER_VALUE * (values.size() + 16)) {
+            references = null;
+          } else {
+            references.put(value, number);
+          }
+        }
+      }
+      return number;
+    }
+  }
+
+  private Column[] columns;
+  private int[] rowNumbers;
+
+  // group i has the value numbers groupKeys[i * width ...], the groups come out in the order they were first seen
+  private int width;
+  private int groups = 0;
+  private int[] groupKeys;
+  private long[] counts;
+  private double[] sums;
+  private boolean[] summed; // false while no value was added to the sum of the group
+
+  // group index + 1 per slot, 0 for an empty slot
+  private int[] table;
+
+  /**
+   * Counts one row.
+   *
+   * @param key the key values of the row, may be reused by the caller after the call
+   * @param value the value to add to the sum of the key, null for none
+   */
+  void add(Object[] key, Double value) {
+    if (columns == null) {
+      start(key.length);
+    }
+    int hash = 0;
+    for (int i = 0; i < width; i++) {
+      rowNumbers[i] = columns[i].number(key[i]);
+      hash = (hash + rowNumbers[i]) * 0x9E3779B9;
+    }
+    hash ^= hash >>> 16;
+
+    int mask = table.length - 1;
+    int slot = hash & mask;
+    int group;
+    while (true) {
+      group = table[slot] - 1;
+      if (group < 0) {
+        group = addGroup();
+        table[slot] = group + 1;
+        if (groups * 2 > table.length) {
+          grow();
+        }
+        break;
+      }
+      if (isGroup(group)) {
+        break;
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    counts[group]++;
+    if (value != null) {
+      sums[group] += value;
+      summed[group] = true;
+    }
+  }
+
+  private void start(int width) {
+    this.width = width;
+    columns = new Column[width];
+    for (int i = 0; i < width; i++) {
+      columns[i] = new Column();
+    }
+    rowNumbers = new int[width];
+    groupKeys = new int[MIN_CAPACITY * Math.max(width, 1)];
+    counts = new long[MIN_CAPACITY];
+    sums = new double[MIN_CAPACITY];
+    summed = new boolean[MIN_CAPACITY];
+    table = new int[MIN_CAPACITY * 2];
+  }
+
+  private boolean isGroup(int group) {
+    int offset = group * width;
+    for (int i = 0; i < width; i++) {
+      if (groupKeys[offset + i] != rowNumbers[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int addGroup() {
+    if (groups == counts.length) {
+      int capacity = counts.length * 2;
+      groupKeys = Arrays.copyOf(groupKeys, capacity * Math.max(width, 1));
+      counts = Arrays.copyOf(counts, capacity);
+      sums = Arrays.copyOf(sums, capacity);
+      summed = Arrays.copyOf(summed, capacity);
+    }
+    System.arraycopy(rowNumbers, 0, groupKeys, groups * width, width);
+    return groups++;
+  }
+
+  private void grow() {
+    table = new int[table.length * 2];
+    int mask = table.length - 1;
+    for (int group = 0; group < groups; group++) {
+      int hash = 0;
+      for (int i = 0; i < width; i++) {
+        hash = (hash + groupKeys[group * width + i]) * 0x9E3779B9;
+      }
+      hash ^= hash >>> 16;
+      int slot = hash & mask;
+      while (table[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = group + 1;
+    }
+  }
+
+  /**
+   * @return number of keys counted since the last drain()
+   */
+  int size() {
+    return groups;
+  }
+
+  /**
+   * Returns the counted keys and starts over.
+   *
+   * @return a row per key: the key values followed by the row count (Long) and the sum (Double, null if no value
+   * was added)
+   */
+  List<Object[]> drain() {
+    List<Object[]> rows = new ArrayList<Object[]>(groups);
+    for (int group = 0; group < groups; group++) {
+      Object[] row = new Object[width + 2];
+      for (int i = 0; i < width; i++) {
+        row[i] = columns[i].values.get(groupKeys[group * width + i]);
+      }
+      row[width] = Long.valueOf(counts[group]);
+      row[width + 1] = summed[group] ? Double.valueOf(sums[group]) : null;
+      rows.add(row);
+    }
+    // the value numbers start over too, so a long running step only keeps the values of the current window
+    columns = null;
+    groups = 0;
+    return rows;
+  }
+}
@@ -0,0 +1,161 @@
+package com.maxmind.geoip;
+
+/*
+ * Admission policy of the lookup caches, so that streams with hardly any repeats (scans, floods of spoofed
+ * addresses) don't pay for caching they get nothing from.
+ *
+ * A count-min sketch of four bit counters estimates how often every key was looked up recently (TinyLFU).  A full
+ * cache only replaces its eviction victim by a new key that was looked up more often than the victim, so a burst of
+ * one-off addresses can't push out the hot ones.  The counters are halved every ten lookups per cache entry, older
+ * lookups fade out that way.
+ *
+ * On top of that the hit ratio is sampled in windows of lookups.  After two windows below 5% the cache bypasses
+ * itself: it is only used for the sixteenth of the keys whose hash ends with four zero bits, every other lookup goes
+ * straight to the database without hashing into the table or copying a record.  Once those sample keys hit 10% or
+ * more the cache is used for all keys again.
+ *
+ * Not synchronized.  Caches shared between threads may lose some of the counts, which only blurs the estimates.
+ */
+final class MaxMindCacheAdmission {
+
+  // four bit counters per long
+  private static final int COUNTERS_PER_LONG = 16;
+  private static final long COUNTER_MASK = 0xFL;
+  private static final long HALVE_MASK = 0x7777777777777777L;
+
+  // the sketch for large caches stays at 8 MB, the estimates get coarser beyond a few million entries
+  private static final int MAX_TABLE_LENGTH = 1 << 20;
+  private static final int MIN_TABLE_LENGTH = 64;
+
+  private static final long[] SEEDS = { 0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L,
+    0xD6E8FEB86659FD93L };
+
+  // lookups per hit ratio sample, and one key in sixteen keeps using a bypassed cache
+  static final int WINDOW = 4096;
+  static final int SAMPLE_MASK = 15;
+  static final int SAMPLE_WINDOW = WINDOW / (SAMPLE_MASK + 1);
+
+  private final long[] table;
+  private final int tableMask;
+  private final long resetAt;
+  private long additions = 0;
+
+  private volatile boolean bypassed = false;
+  private int lowWindows = 0;
+  private int windowLookups = 0;
+  private int windowHits = 0;
+
+  /**
+   * @param maxEntries the number of entries the cache holds when it is full
+   */
+  MaxMindCacheAdmission(long maxEntries) {
+    long length = MIN_TABLE_LENGTH;
+    while (length < maxEntries / 2 && length < MAX_TABLE_LENGTH) {
+      length <<= 1;
+    }
+    table = new long[(int) length];
+    tableMask = table.length - 1;
+    resetAt = 10L * 2 * length;
+  }
+
+  /**
+   * @return a well spread hash of a key, the policy takes its bits from all over it
+   */
+  static long hash(long hi, long lo) {
+    long h = (hi * 0x9E3779B97F4A7C15L) ^ lo;
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  /**
+   * @return true when the cache is bypassed for the key, the lookup must neither read nor fill it
+   */
+  boolean isBypassed(long hash) {
+    return bypassed && (hash & SAMPLE_MASK) != 0;
+  }
+
+  boolean isBypassing() {
+    return bypassed;
+  }
+
+  /**
+   * Counts a lookup of the key that was not bypassed.
+   *
+   * @param hit true if the cache had the key
+   */
+  void record(long hash, boolean hit) {
+    increment(hash);
+    windowLookups++;
+    if (hit) {
+      windowHits++;
+    }
+    if (bypassed) {
+      if (windowLookups >= SAMPLE_WINDOW) {
+        if (windowHits * 10 >= windowLookups) {
+          bypassed = false;
+          lowWindows = 0;
+        }
+        windowLookups = 0;
+        windowHits = 0;
+      }
+    } else if (windowLookups >= WINDOW) {
+      if (windowHits * 20 < windowLookups) {
+        if (++lowWindows >= 2) {
+          bypassed = true;
+        }
+      } else {
+        lowWindows = 0;
+      }
+      windowLookups = 0;
+      windowHits = 0;
+    }
+  }
+
+  /**
+   * @return true if a new key should replace the eviction victim of a full cache
+   */
+  boolean admit(long candidateHash, long victimHash) {
+    return frequency(candidateHash) > frequency(victimHash);
+  }
+
+  /**
+   * @return the estimated number of recent lookups of the key, at most 15
+   */
+  int frequency(long hash) {
+    int frequency = Integer.MAX_VALUE;
+    for (int i = 0; i < SEEDS.length; i++) {
+      long h = hash * SEEDS[i];
+      h ^= h >>> 32;
+      int shift = (int) ((h >>> 40) & (COUNTERS_PER_LONG - 1)) << 2;
+      frequency = Math.min(frequency, (int) ((table[(int) h & tableMask] >>> shift) & COUNTER_MASK));
+    }
+    return frequency;
+  }
+
+  private void increment(long hash) {
+    for (int i = 0; i < SEEDS.length; i++) {
+      long h = hash * SEEDS[i];
+      h ^= h >>> 32;
+      int index = (int) h & tableMask;
+      int shift = (int) ((h >>> 40) & (COUNTERS_PER_LONG - 1)) << 2;
+      if (((table[index] >>> shift) & COUNTER_MASK) != COUNTER_MASK) {
+        table[index] += 1L << shift;
+      }
+    }
+    if (++additions >= resetAt) {
+      for (int i = 0; i < table.length; i++) {
+        table[i] = (table[i] >>> 1) & HALVE_MASK;
+      }
+      additions /= 2;
+    }
+  }
+
+  /**
+   * @return the heap size of the sketch
+   */
+  long getEstimatedBytes() {
+    return 8L * table.length;
+  }
+}
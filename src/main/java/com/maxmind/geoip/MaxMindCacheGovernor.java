@@ -0,0 +1,199 @@
+package com.maxmind.geoip;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.pentaho.di.core.Const;
+
+/*
+ * Process wide memory budget for every cache of the plugin (node caches of the readers, result caches of the steps,
+ * ...).  Once a budget is set, the governor hands each cache a share of it once a second: every cache gets a small
+ * guaranteed floor, the rest is split by the hits each cache produced recently, so memory flows to the caches that
+ * pay for it.  The caches enforce their share themselves, on their own thread, by evicting or shrinking.
+ *
+ * The budget is taken from the MAXMIND_GEOIP_CACHE_BUDGET variable (in MB).  Without a budget every cache keeps its
+ * own configured limit.
+ */
+final class MaxMindCacheGovernor {
+
+  /** Kettle variable (or system property) with the budget in MB */
+  static final String BUDGET_VARIABLE = "MAXMIND_GEOIP_CACHE_BUDGET"; //$NON-NLS-1$
+
+  static final long NO_LIMIT = Long.MAX_VALUE;
+
+  private static final long REBALANCE_INTERVAL_MS = 1000;
+
+  // part of the budget every cache gets regardless of its hits
+  private static final int FLOOR_DIVISOR = 4;
+
+  // weight of the history when smoothing the hit value, keeps the shares from flapping
+  private static final double DECAY = 0.5;
+
+  /*
+   * A cache that lives within the budget.
+   */
+  interface Participant {
+    /** @return current memory use, on and off heap */
+    long getEstimatedBytes();
+
+    /** @return total number of hits so far */
+    long getHits();
+
+    /** Sets the most memory the cache may use, enforced by the cache itself; NO_LIMIT lifts the limit. */
+    void setBudget(long maxBytes);
+  }
+
+  private static class Entry {
+    final WeakReference<Participant> participant;
+    long lastHits;
+    double value;
+
+    Entry(Participant participant) {
+      this.participant = new WeakReference<Participant>(participant);
+      this.lastHits = participant.getHits();
+    }
+  }
+
+  private static final List<Entry> participants = new ArrayList<Entry>();
+  private static long budget = Const.toLong(System.getProperty(BUDGET_VARIABLE), 0) * 1024 * 1024;
+  private static ScheduledExecutorService rebalancer = null;
+
+  private MaxMindCacheGovernor() {
+  }
+
+  static synchronized void register(Participant participant) {
+    // without a budget nothing else drops the caches that were collected, like those of the databases Spoon opens
+    prune();
+    participants.add(new Entry(participant));
+    if (budget > 0) {
+      startRebalancer();
+      rebalance();
+    }
+  }
+
+  static synchronized boolean isRegistered(Participant participant) {
+    for (Entry entry : participants) {
+      if (entry.participant.get() == participant) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  static synchronized int size() {
+    return participants.size();
+  }
+
+  private static void prune() {
+    for (Iterator<Entry> it = participants.iterator(); it.hasNext();) {
+      if (it.next().participant.get() == null) {
+        it.remove();
+      }
+    }
+  }
+
+  static synchronized void unregister(Participant participant) {
+    for (Iterator<Entry> it = participants.iterator(); it.hasNext();) {
+      Participant p = it.next().participant.get();
+      if (p == null || p == participant) {
+        it.remove();
+      }
+    }
+    if (budget > 0) {
+      rebalance();
+    }
+  }
+
+  /**
+   * @param bytes the process wide budget, 0 or less lifts it
+   */
+  static synchronized void setBudget(long bytes) {
+    budget = Math.max(0, bytes);
+    if (budget > 0) {
+      startRebalancer();
+    }
+    rebalance();
+  }
+
+  static synchronized long getBudget() {
+    return budget;
+  }
+
+  /**
+   * @return estimated memory use of all registered caches
+   */
+  static synchronized long getEstimatedBytes() {
+    long bytes = 0;
+    for (Entry entry : participants) {
+      Participant p = entry.participant.get();
+      if (p != null) {
+        bytes += p.getEstimatedBytes();
+      }
+    }
+    return bytes;
+  }
+
+  static synchronized void rebalance() {
+    List<Participant> live = new ArrayList<Participant>();
+    List<Entry> entries = new ArrayList<Entry>();
+    for (Iterator<Entry> it = participants.iterator(); it.hasNext();) {
+      Entry entry = it.next();
+      Participant p = entry.participant.get();
+      if (p == null) {
+        it.remove();
+      } else {
+        live.add(p);
+        entries.add(entry);
+      }
+    }
+    if (live.isEmpty()) {
+      return;
+    }
+    if (budget <= 0) {
+      for (Participant p : live) {
+        p.setBudget(NO_LIMIT);
+      }
+      return;
+    }
+
+    double totalValue = 0;
+    for (int i = 0; i < live.size(); i++) {
+      Entry entry = entries.get(i);
+      long hits = live.get(i).getHits();
+      entry.value = entry.value * DECAY + Math.max(0, hits - entry.lastHits);
+      entry.lastHits = hits;
+      totalValue += entry.value;
+    }
+
+    long floor = budget / FLOOR_DIVISOR / live.size();
+    long spare = budget - floor * live.size();
+    for (int i = 0; i < live.size(); i++) {
+      double weight = (totalValue > 0) ? entries.get(i).value / totalValue : 1.0 / live.size();
+      live.get(i).setBudget(floor + (long) (spare * weight));
+    }
+  }
+
+  private static void startRebalancer() {
+    if (rebalancer != null) {
+      return;
+    }
+    rebalancer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "MaxMind GeoIP cache governor"); //$NON-NLS-1$
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    rebalancer.scheduleWithFixedDelay(new Runnable() {
+      public void run() {
+        rebalance();
+      }
+    }, REBALANCE_INTERVAL_MS, REBALANCE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+  }
+}
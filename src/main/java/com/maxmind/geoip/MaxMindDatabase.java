@@ -4,21 +4,27 @@
  * 
  */package com.maxmind.geoip;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
 
-import org.apache.commons.vfs2.FileObject;
 import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleFileException;
 import org.pentaho.di.core.exception.KettlePluginException;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.ValueMetaInterface;
 import org.pentaho.di.core.row.value.ValueMetaFactory;
-import org.pentaho.di.core.vfs.KettleVFS;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.hash.Hashing;
 import com.google.common.net.InetAddresses;
-import com.maxmind.db.CHMCache;
+import com.maxmind.db.Metadata;
+import com.maxmind.db.Reader;
 import com.maxmind.geoip2.exception.AddressNotFoundException;
 import com.maxmind.geoip2.exception.GeoIp2Exception;
 import com.maxmind.geoip2.model.CityResponse;
@@ -39,12 +45,39 @@ import com.maxmind.geoip2.DatabaseReader;
  */
 public abstract class MaxMindDatabase {
   DatabaseReader lookupService = null;
+  String dbLocation = null;
 
-  // TODO: Default values needs to handle non string types for long and lat on city DB.  Convert this to object and 
-  // have the setter verify the type and do the conversion so it is ready at runtime.
   String[] defaultValues = null;
   String[] overrideFieldNames = null;
 
+  // Optional cache of projected records keyed by IP, only set up by the running step
+  MaxMindOffHeapCache resultCache = null;
+
+  // Optional results kept on disk between runs, shared by all step copies using the same file
+  MaxMindPersistentCache persistentCache = null;
+
+  // defaultValues converted to the type of each selected field, for the selected fields array they were built for
+  private Object[] defaultRecord = null;
+  private IMaxmindMetaInterface[] defaultRecordFields = null;
+
+  // Canonical instances of the looked up values, shared by all rows of this step copy
+  final MaxMindValuePool valuePool = new MaxMindValuePool();
+
+  // Text fields are handed on as UTF-8 bytes with binary string storage
+  boolean binaryStringOutput = false;
+
+  // Set when field paths are selected, all fields are then read from the raw database record
+  MaxMindFieldPath[] fieldPaths = null;
+  Reader recordReader = null;
+
+  // Computes the fields derived from the location, for the databases that have any
+  MaxMindGeoComputer geoComputer = null;
+
+  // Optional backend answering the lookups instead of the lookup service, see MaxMindLookupBackend
+  MaxMindLookupBackend.Lookup backendLookup = null;
+  private MaxMindFieldPath[] remoteFields = null;
+  private int[] remoteOffsets = null; // where the values of each field start in the projected record
+
   /*
    * Returns info about all database fields in the database
    */
@@ -60,7 +93,304 @@ public abstract class MaxMindDatabase {
  * @throws GeoIp2Exception 
  * @throws IOException 
    */
-  public abstract void getRowData(Object[] outputRow, int firstNewFieldIndex, String ip) throws IOException, GeoIp2Exception;
+  public void getRowData(Object[] outputRow, int firstNewFieldIndex, String ip) throws IOException, GeoIp2Exception {
+    if (resultCache == null && persistentCache == null) {
+      lookup(outputRow, firstNewFieldIndex, getAddressFromIpV4(ip));
+      return;
+    }
+
+    // Dotted quads are turned into the cache key without creating any objects, everything else goes through InetAddresses
+    long ipv4 = MaxMindIpParser.parseIpv4(ip);
+    if (ipv4 >= 0) {
+      getRowData(outputRow, firstNewFieldIndex, 0L, MaxMindIpParser.keyLo(ipv4), null);
+      return;
+    }
+    InetAddress ipAddr = getAddressFromIpV4(ip);
+    byte[] address = ipAddr.getAddress();
+    getRowData(outputRow, firstNewFieldIndex, MaxMindIpParser.keyHi(address), MaxMindIpParser.keyLo(address), ipAddr);
+  }
+
+  /**
+   * Version of getRowData() for an IPv4 address that was already parsed, e.g. straight from the bytes of a lazily 
+   * converted field.
+   * 
+   * @param outputRow One row of data, sized like for the String version
+   * @param firstNewFieldIndex The index of the outputRow (column) to start adding the data to
+   * @param ipv4 the unsigned 32 bit address to lookup
+   * @throws GeoIp2Exception 
+   * @throws IOException 
+   */
+  public void getRowData(Object[] outputRow, int firstNewFieldIndex, long ipv4) throws IOException, GeoIp2Exception {
+    long lo = MaxMindIpParser.keyLo(ipv4);
+    if (resultCache == null && persistentCache == null) {
+      lookup(outputRow, firstNewFieldIndex, MaxMindIpParser.toInetAddress(0L, lo));
+      return;
+    }
+    getRowData(outputRow, firstNewFieldIndex, 0L, lo, null);
+  }
+
+  /**
+   * Bulk version of getRowData() for batches of rows held in memory.  The addresses are sorted, so the database is
+   * read in address order, and every distinct address is only resolved once, no matter how many rows share it.
+   * 
+   * @param outputRows the rows to fill, each sized like for the single row version
+   * @param firstNewFieldIndex The index of the outputRow (column) to start adding the data to
+   * @param ips the ip address to lookup for each row
+   * @throws GeoIp2Exception 
+   * @throws IOException 
+   */
+  public void getRowData(Object[][] outputRows, int firstNewFieldIndex, String[] ips) throws IOException, GeoIp2Exception {
+    if (outputRows.length != ips.length) {
+      throw new IllegalArgumentException("Got " + outputRows.length + " rows for " + ips.length + " IP addresses");
+    }
+    int n = ips.length;
+    long[] his = new long[n];
+    long[] los = new long[n];
+    for (int i = 0; i < n; i++) {
+      long ipv4 = MaxMindIpParser.parseIpv4(ips[i]);
+      if (ipv4 >= 0) {
+        los[i] = MaxMindIpParser.keyLo(ipv4);
+      } else {
+        byte[] address = getAddressFromIpV4(ips[i]).getAddress();
+        his[i] = MaxMindIpParser.keyHi(address);
+        los[i] = MaxMindIpParser.keyLo(address);
+      }
+    }
+    getRowData(outputRows, firstNewFieldIndex, his, los);
+  }
+
+  /**
+   * Version of the bulk getRowData() for addresses that were already turned into keys, see MaxMindIpParser.  With a
+   * lookup backend, the distinct addresses are resolved together.
+   * 
+   * @param outputRows the rows to fill, each sized like for the single row version
+   * @param firstNewFieldIndex The index of the outputRow (column) to start adding the data to
+   * @param his the high half of the key of each row
+   * @param los the low half of the key of each row
+   * @throws GeoIp2Exception 
+   * @throws IOException 
+   */
+  public void getRowData(Object[][] outputRows, int firstNewFieldIndex, long[] his, long[] los) throws IOException, GeoIp2Exception {
+    if (outputRows.length != his.length || his.length != los.length) {
+      throw new IllegalArgumentException("Got " + outputRows.length + " rows for " + his.length + " keys");
+    }
+    int n = his.length;
+    int[] order = MaxMindIpParser.sortByKey(his, los);
+    if (backendLookup != null) {
+      getRemoteRowData(outputRows, firstNewFieldIndex, his, los, order);
+      return;
+    }
+    int width = getOutputFields().length;
+    for (int start = 0; start < n;) {
+      int first = order[start];
+      getRowData(outputRows[first], firstNewFieldIndex, his[first], los[first], null);
+      int end = start + 1;
+      while (end < n && his[order[end]] == his[first] && los[order[end]] == los[first]) {
+        System.arraycopy(outputRows[first], firstNewFieldIndex, outputRows[order[end]], firstNewFieldIndex, width);
+        end++;
+      }
+      start = end;
+    }
+  }
+
+  /*
+   * Resolves one key through the result cache, the persistent cache and finally the database.
+   */
+  private void getRowData(Object[] outputRow, int firstNewFieldIndex, long hi, long lo, InetAddress ipAddr) throws IOException, GeoIp2Exception {
+    if (getCachedRowData(outputRow, firstNewFieldIndex, hi, lo)) {
+      return;
+    }
+    if (ipAddr == null) {
+      ipAddr = MaxMindIpParser.toInetAddress(hi, lo);
+    }
+    lookup(outputRow, firstNewFieldIndex, ipAddr);
+    cacheRowData(outputRow, firstNewFieldIndex, hi, lo);
+  }
+
+  /*
+   * @return true if one of the caches had the key and the row was filled from it
+   */
+  private boolean getCachedRowData(Object[] outputRow, int firstNewFieldIndex, long hi, long lo) {
+    Object[] record = (resultCache == null) ? null : resultCache.get(hi, lo);
+    if (record == null && persistentCache != null) {
+      record = persistentCache.get(hi, lo);
+      if (record != null) {
+        valuePool.internAll(record, 0, record.length);
+        if (resultCache != null) {
+          resultCache.put(hi, lo, record);
+        }
+      }
+    }
+    if (record == null) {
+      return false;
+    }
+    System.arraycopy(record, 0, outputRow, firstNewFieldIndex, record.length);
+    return true;
+  }
+
+  private void cacheRowData(Object[] outputRow, int firstNewFieldIndex, long hi, long lo) {
+    if ((resultCache == null || !resultCache.isActive(hi, lo)) && persistentCache == null) {
+      return; // no copy of the record while the result cache is bypassed
+    }
+    Object[] record = Arrays.copyOfRange(outputRow, firstNewFieldIndex, firstNewFieldIndex + getOutputFields().length);
+    if (resultCache != null) {
+      resultCache.put(hi, lo, record);
+    }
+    if (persistentCache != null) {
+      persistentCache.put(hi, lo, record);
+    }
+  }
+
+  /*
+   * Bulk lookup through the backend: the distinct keys the caches don't have are resolved together.
+   */
+  private void getRemoteRowData(Object[][] outputRows, int firstNewFieldIndex, long[] his, long[] los, int[] order)
+      throws IOException {
+    int n = order.length;
+    int width = getOutputFields().length;
+    int[] missing = new int[n];
+    long[] missingHis = new long[n];
+    long[] missingLos = new long[n];
+    int nrMissing = 0;
+    for (int start = 0; start < n;) {
+      int first = order[start];
+      if (!getCachedRowData(outputRows[first], firstNewFieldIndex, his[first], los[first])) {
+        missing[nrMissing] = first;
+        missingHis[nrMissing] = his[first];
+        missingLos[nrMissing++] = los[first];
+      }
+      start = nextKey(his, los, order, start);
+    }
+
+    Object[] handles = backendLookup.resolve(missingHis, missingLos, nrMissing);
+    for (int i = 0; i < nrMissing; i++) {
+      putRemoteRecord(outputRows[missing[i]], firstNewFieldIndex, (handles[i] == null) ? null : backendLookup.project(handles[i]));
+      finishRecord(outputRows[missing[i]], firstNewFieldIndex);
+      cacheRowData(outputRows[missing[i]], firstNewFieldIndex, missingHis[i], missingLos[i]);
+    }
+
+    // the rows sharing a key get a copy of the first one
+    for (int start = 0; start < n;) {
+      int first = order[start];
+      int end = nextKey(his, los, order, start);
+      for (int i = start + 1; i < end; i++) {
+        System.arraycopy(outputRows[first], firstNewFieldIndex, outputRows[order[i]], firstNewFieldIndex, width);
+      }
+      start = end;
+    }
+  }
+
+  /*
+   * @return the position in order of the first key after the one at start
+   */
+  private static int nextKey(long[] his, long[] los, int[] order, int start) {
+    int first = order[start];
+    int end = start + 1;
+    while (end < order.length && his[order[end]] == his[first] && los[order[end]] == los[first]) {
+      end++;
+    }
+    return end;
+  }
+
+  private void lookup(Object[] outputRow, int firstNewFieldIndex, InetAddress ipAddr) throws IOException, GeoIp2Exception {
+    if (backendLookup != null) {
+      byte[] address = ipAddr.getAddress();
+      Object handle = backendLookup.resolve(new long[] { MaxMindIpParser.keyHi(address) },
+          new long[] { MaxMindIpParser.keyLo(address) }, 1)[0];
+      putRemoteRecord(outputRow, firstNewFieldIndex, (handle == null) ? null : backendLookup.project(handle));
+    } else if (fieldPaths == null) {
+      getRowData(outputRow, firstNewFieldIndex, ipAddr);
+    } else {
+      getPathRowData(outputRow, firstNewFieldIndex, ipAddr);
+    }
+    finishRecord(outputRow, firstNewFieldIndex);
+  }
+
+  /*
+   * Encodes and interns the values a lookup put into the row.
+   */
+  private void finishRecord(Object[] outputRow, int firstNewFieldIndex) {
+    int length = getOutputFields().length;
+    if (binaryStringOutput) {
+      // only text fields produce Strings, each distinct one is encoded once
+      for (int i = firstNewFieldIndex; i < firstNewFieldIndex + length; i++) {
+        if (outputRow[i] instanceof String) {
+          outputRow[i] = valuePool.utf8((String) outputRow[i]);
+        }
+      }
+    }
+    valuePool.internAll(outputRow, firstNewFieldIndex, length);
+  }
+
+  /*
+   * Reads the selected field paths from the raw record of the address.
+   */
+  private void getPathRowData(Object[] outputRow, int firstNewFieldIndex, InetAddress ipAddr) throws IOException {
+    if (recordReader == null) {
+      recordReader = MaxMindGeoIP.initRecordReader(dbLocation);
+    }
+    JsonNode record = recordReader.get(ipAddr);
+    Object[] defaults = getDefaultRecord();
+    for (int i = 0; i < fieldPaths.length; i++) {
+      Object o = (record == null) ? null : fieldPaths[i].getVal(record);
+      outputRow[firstNewFieldIndex + i] = (o == null) ? defaults[i] : o;
+    }
+  }
+
+  /*
+   * Writes the fields from the values a backend projected, null for an address it doesn't have.
+   */
+  private void putRemoteRecord(Object[] outputRow, int firstNewFieldIndex, Object[] values) {
+    Object[] defaults = getDefaultRecord();
+    for (int i = 0; i < remoteFields.length; i++) {
+      Object o = (values == null) ? null : remoteFields[i].getVal(values, remoteOffsets[i]);
+      outputRow[firstNewFieldIndex + i] = (o == null) ? defaults[i] : o;
+    }
+  }
+
+  /**
+   * Returns the paths of the fields written by getRowData(), the selected predefined fields are wrapped, so any
+   * selection can be read from raw records.
+   */
+  final MaxMindFieldPath[] getOutputFieldPaths() {
+    if (fieldPaths != null) {
+      return fieldPaths;
+    }
+    IMaxmindMetaInterface[] fields = getSelectedFields();
+    MaxMindFieldPath[] paths = new MaxMindFieldPath[fields.length];
+    for (int i = 0; i < fields.length; i++) {
+      paths[i] = pathOf(fields[i]);
+    }
+    return paths;
+  }
+
+  /**
+   * Projects a raw database record onto the selected fields, used by the network dump.  Unlike the lookups this is
+   * thread safe once getDefaultRecord() was called: nothing goes through the value pool, the caller shares the
+   * projected record between the networks pointing to it.
+   *
+   * @param paths the paths returned by getOutputFieldPaths()
+   * @param record the raw record, null for none
+   */
+  final Object[] getRecordData(MaxMindFieldPath[] paths, JsonNode record) {
+    Object[] defaults = getDefaultRecord();
+    Object[] data = new Object[paths.length];
+    for (int i = 0; i < paths.length; i++) {
+      Object o = (record == null) ? null : paths[i].getVal(record);
+      if (o == null) {
+        o = defaults[i];
+      }
+      // text defaults are Strings too, the lookups encode them in finishRecord()
+      data[i] = (binaryStringOutput && o instanceof String) ? ((String) o).getBytes(MaxMindValuePool.ENCODING) : o;
+    }
+    return data;
+  }
+
+  /**
+   * Looks up one address in the database and writes the selected fields into the row.  Implemented by each
+   * database type, the result cache sits in front of it.
+   */
+  abstract void getRowData(Object[] outputRow, int firstNewFieldIndex, InetAddress ipAddr) throws IOException, GeoIp2Exception;
 
   /**
    * Sets the fields (columns) and metadata that will be returned when getRowData() is called.  Each of these arrays 
@@ -74,7 +404,104 @@ public abstract class MaxMindDatabase {
   public void setSelectedFields(String[] selectedFieldNames, String[] overrideFieldNames, String[] defaultValues) {
     this.defaultValues = defaultValues;
     this.overrideFieldNames = overrideFieldNames;
-    setSelectedFields(selectedFieldNames);
+    fieldPaths = compileFieldPaths(selectedFieldNames);
+    setSelectedFields((fieldPaths == null) ? selectedFieldNames : new String[0]);
+    getDefaultRecord(); // fails fast on a default that doesn't fit its field
+  }
+
+  /*
+   * Returns null when only predefined fields are selected, otherwise the paths of all selected fields.  The predefined 
+   * ones keep their name and type.  Only names with a . or [ are taken as paths, a misspelled or stale field name 
+   * still fails.
+   */
+  private MaxMindFieldPath[] compileFieldPaths(String[] selectedFieldNames) {
+    if (selectedFieldNames == null) {
+      return null;
+    }
+    MaxMindFieldPath[] paths = new MaxMindFieldPath[selectedFieldNames.length];
+    boolean anyPath = false;
+    for (int i = 0; i < selectedFieldNames.length; i++) {
+      IMaxmindMetaInterface field = findField(selectedFieldNames[i]);
+      if (field != null) {
+        paths[i] = pathOf(field);
+      } else {
+        paths[i] = getFieldPath(selectedFieldNames[i]);
+        anyPath = true;
+      }
+    }
+    return anyPath ? paths : null;
+  }
+
+  /**
+   * Returns the path of a predefined field of this database, or name compiled as a field path.
+   * 
+   * @throws IllegalArgumentException if name is neither
+   */
+  final MaxMindFieldPath getFieldPath(String name) {
+    IMaxmindMetaInterface field = findField(name);
+    if (field != null) {
+      return pathOf(field);
+    }
+    if (!MaxMindFieldPath.isFieldPath(name)) {
+      throw new IllegalArgumentException("Unknown field '" + name + "', field paths contain a . or [");
+    }
+    return new MaxMindFieldPath(name);
+  }
+
+  private IMaxmindMetaInterface findField(String name) {
+    for (IMaxmindMetaInterface field : getAllFields()) {
+      if (field.toString().equals(name)) {
+        return field;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the path a predefined field is read from in raw records.  Overridden for the computed fields.
+   */
+  MaxMindFieldPath pathOf(IMaxmindMetaInterface field) {
+    return new MaxMindFieldPath(field.getPath(), field.toString(), field.getValueMetadata());
+  }
+
+  /**
+   * Returns the fields written by getRowData(), in their order: the selected predefined fields, or all selected 
+   * fields as paths once a field path is among them.
+   */
+  public final IMaxmindMetaInterface[] getOutputFields() {
+    return (fieldPaths != null) ? fieldPaths : getSelectedFields();
+  }
+
+  /**
+   * Returns the default values, typed like the selected fields, to use for a missing address or value.  The values 
+   * are converted once per field selection, a miss copies them into the row as they are.
+   * 
+   * @throws IllegalArgumentException if a default value can't be converted to the type of its field
+   */
+  final Object[] getDefaultRecord() {
+    IMaxmindMetaInterface[] fields = getOutputFields();
+    if (defaultRecordFields == fields) {
+      return defaultRecord;
+    }
+    Object[] defaults = new Object[fields.length];
+    for (int i = 0; i < fields.length; i++) {
+      String value = (defaultValues == null || i >= defaultValues.length) ? null : defaultValues[i];
+      ValueMetaInterface valueMeta = fields[i].getValueMetadata();
+      if (value == null || valueMeta.isString()) {
+        defaults[i] = value;
+      } else if (!Const.isEmpty(value)) {
+        try {
+          ValueMetaInterface stringMeta = ValueMetaFactory.createValueMeta(fields[i].toString(), ValueMetaInterface.TYPE_STRING);
+          defaults[i] = valueMeta.convertData(stringMeta, value);
+        } catch (KettleException e) {
+          throw new IllegalArgumentException("Default value '" + value + "' of field " + fields[i] + " is not a valid " 
+              + valueMeta.getTypeDesc(), e);
+        }
+      }
+    }
+    defaultRecord = defaults;
+    defaultRecordFields = fields;
+    return defaults;
   }
 
   /**
@@ -112,15 +539,55 @@ public abstract class MaxMindDatabase {
    * @param origin Step Origin 
    */
   public final void getFields(RowMetaInterface r, String origin) {
-    IMaxmindMetaInterface[] selectedFelds = getSelectedFields();
+    getFields(r, origin, "");
+  }
+
+  /**
+   * Version of getFields() for the fields of an additional IP address, which only differ by their name prefix.
+   * @param r Row Metadata
+   * @param origin Step Origin 
+   * @param prefix put before every field name
+   */
+  public final void getFields(RowMetaInterface r, String origin, String prefix) {
+    IMaxmindMetaInterface[] selectedFelds = getOutputFields();
     for ( int i = 0; i < selectedFelds.length; ++i ) {
-      ValueMetaInterface v = selectedFelds[i].getValueMetadata();
-      v.setName( Const.isEmpty( overrideFieldNames[i] ) ? selectedFelds[i].toString(): overrideFieldNames[i] );
+      // the enum metadata is shared by every step, so each one gets its own copy
+      ValueMetaInterface v = selectedFelds[i].getValueMetadata().clone();
+      v.setName( prefix + ( Const.isEmpty( overrideFieldNames[i] ) ? selectedFelds[i].toString(): overrideFieldNames[i] ) );
       v.setOrigin(origin);
+      if ( binaryStringOutput && v.isString() ) {
+        v.setStringEncoding( MaxMindValuePool.ENCODING.name() );
+        ValueMetaInterface storageMetadata = v.clone();
+        storageMetadata.setStorageType( ValueMetaInterface.STORAGE_TYPE_NORMAL );
+        v.setStorageMetadata( storageMetadata );
+        v.setStorageType( ValueMetaInterface.STORAGE_TYPE_BINARY_STRING );
+      }
       r.addValueMeta(v);
     }
   }
 
+  /**
+   * Configures the fields computed from the location of a record, like the geohash and the distance to the nearest
+   * reference point.  Call this before the fields are selected.
+   * 
+   * @param referencePoints points like "FRA=50.11,8.68; IAD=38.95,-77.45", null or empty for none
+   * @param geohashPrecision number of geohash characters, 1 to 12
+   * @throws IllegalArgumentException if a reference point or the precision is not valid
+   */
+  public void setComputedFieldOptions(String referencePoints, int geohashPrecision) {
+    geoComputer = new MaxMindGeoComputer(referencePoints, geohashPrecision);
+  }
+
+  /**
+   * Hands the text fields on as UTF-8 bytes with Kettle's binary string storage.  Steps that only pass them through 
+   * or write them out never decode them, the others convert them on first use.
+   * 
+   * @param binaryStringOutput true for binary string storage, false for plain Strings
+   */
+  public void setBinaryStringOutput(boolean binaryStringOutput) {
+    this.binaryStringOutput = binaryStringOutput;
+  }
+
   /**
    * Sets that location on the filesystem of the MaxMind Database
    * 
@@ -129,9 +596,15 @@ public abstract class MaxMindDatabase {
  * @throws KettleFileException 
    */
   public void setDbLocation(String dbLocation) throws IOException, KettleFileException {
-    FileObject dbFile = KettleVFS.getFileObject(dbLocation);
-    InputStream dbStream = KettleVFS.getInputStream(dbFile);
-    lookupService = new DatabaseReader.Builder(dbStream).withCache(new CHMCache()).build();
+    lookupService = MaxMindGeoIP.initLookupService(dbLocation);
+    this.dbLocation = dbLocation;
+  }
+
+  /**
+   * @return the local file the lookup service reads from, a cached copy for remote locations
+   */
+  public File getLocalDatabaseFile() {
+    return (dbLocation == null) ? null : MaxMindGeoIP.getLocalDatabaseFile(dbLocation);
   }
 
   /**
@@ -170,6 +643,121 @@ public abstract class MaxMindDatabase {
   public DatabaseReader getLookupService() {
     return lookupService;
   }
+
+  /**
+   * Answers the lookups with a backend instead of the lookup service.  The backend has to answer for the same build
+   * of the database as the database file.  Call this after the database location and the selected fields are set.
+   * 
+   * @param backend the backend to open
+   * @param address where the backend finds its engine, like the port of a lookup server, null for none
+   * @throws IOException if the backend can't be opened or answers for another database
+   */
+  public void openLookupBackend(MaxMindLookupBackend backend, String address) throws IOException {
+    closeLookupBackend();
+    MaxMindFieldPath[] paths = getOutputFieldPaths();
+    int[] offsets = new int[paths.length];
+    List<String> projected = new ArrayList<String>();
+    for (int i = 0; i < paths.length; i++) {
+      offsets[i] = projected.size();
+      projected.addAll(Arrays.asList(paths[i].getRemotePaths()));
+    }
+    MaxMindLookupBackend.Lookup lookup = backend.open(getLocalDatabaseFile(), projected.toArray(new String[projected.size()]), address);
+    Metadata metadata = getLookupService().getMetadata();
+    if (!metadata.getDatabaseType().equals(lookup.getDatabaseType())
+        || metadata.getBuildDate().getTime() != lookup.getBuildDate()) {
+      lookup.close();
+      throw new IOException("The " + backend.getName() + " backend answers for " + lookup.getDatabaseType() + " built "
+          + new Date(lookup.getBuildDate()) + ", not for the " + metadata.getDatabaseType() + " built "
+          + metadata.getBuildDate() + " of '" + dbLocation + "'");
+    }
+    remoteFields = paths;
+    remoteOffsets = offsets;
+    backendLookup = lookup;
+  }
+
+  /**
+   * Closes the lookup backend, if any, the lookups go to the lookup service again.
+   */
+  public void closeLookupBackend() {
+    if (backendLookup != null) {
+      backendLookup.close();
+      backendLookup = null;
+      remoteFields = null;
+      remoteOffsets = null;
+    }
+  }
+
+  /**
+   * Puts an off-heap result cache in front of the database lookups.
+   * 
+   * @param maxBytes size limit of the cache, 0 or less disables it
+   */
+  public void setResultCacheSize(long maxBytes) {
+    setResultCacheSize(maxBytes, false);
+  }
+
+  /**
+   * Puts an off-heap result cache in front of the database lookups.
+   * 
+   * @param maxBytes size limit of the cache, 0 or less disables it
+   * @param adaptive true to admit addresses by their frequency and bypass the cache while it hardly has any hits,
+   * see MaxMindCacheAdmission
+   */
+  public void setResultCacheSize(long maxBytes, boolean adaptive) {
+    if (resultCache != null) {
+      resultCache.close();
+    }
+    resultCache = (maxBytes > 0) ? new MaxMindOffHeapCache(maxBytes, adaptive) : null;
+  }
+
+  /**
+   * Attaches to a persistent cache file.  The file is wiped when it was written for another database build
+   * or a different field selection.  Call this after the database location and the selected fields are set.
+   * 
+   * @param cacheFile the memory mapped file to keep the results in
+   * @param maxBytes size of the file
+   * @throws IOException
+   */
+  public void attachPersistentCache(File cacheFile, long maxBytes) throws IOException {
+    releasePersistentCache();
+    Date buildDate = getLookupService().getMetadata().getBuildDate();
+    persistentCache = MaxMindPersistentCache.attach(cacheFile, maxBytes, buildDate.getTime(), getFieldSignature());
+  }
+
+  /**
+   * Flushes and detaches the persistent cache, if any.
+   * @throws IOException
+   */
+  public void releasePersistentCache() throws IOException {
+    if (persistentCache != null) {
+      MaxMindPersistentCache cache = persistentCache;
+      persistentCache = null;
+      cache.release();
+    }
+  }
+
+  /*
+   * Identifies what ends up in a projected record: the database type, the selected fields, their types, defaults and 
+   * storage.
+   */
+  long getFieldSignature() {
+    StringBuilder signature = new StringBuilder(getClass().getName());
+    if (binaryStringOutput) {
+      signature.append("|binary");
+    }
+    for (IMaxmindMetaInterface field : getOutputFields()) {
+      signature.append('|').append(field).append(':').append(field.getValueMetadata().getType());
+    }
+    if (defaultValues != null) {
+      for (String defaultValue : defaultValues) {
+        signature.append('|').append(defaultValue);
+      }
+    }
+    if (geoComputer != null) {
+      signature.append("|computed:").append(geoComputer.getSignature());
+    }
+    return Hashing.murmur3_128().hashUnencodedChars(signature).asLong();
+  }
 }
 
 /*
@@ -177,6 +765,11 @@ public abstract class MaxMindDatabase {
  */
 interface IMaxmindMetaInterface {
   public ValueMetaInterface getValueMetadata();
+
+  /*
+   * Where the value is found in the database record, see MaxMindFieldPath
+   */
+  public String getPath();
 }
 
 
@@ -195,51 +788,64 @@ interface IMaxmindMetaInterface {
  */
 class MaxMindCityData extends MaxMindDatabase {
   enum CityFields implements IMaxmindMetaInterface {
-    country_code(ValueMetaInterface.TYPE_STRING, 2, 0) {
+    country_code(ValueMetaInterface.TYPE_STRING, 2, 0, "country.iso_code") {
       Object getVal(CityResponse l) {
         return (l.getCountry().getIsoCode());
       }
     },
-    country_name(ValueMetaInterface.TYPE_STRING, 50, 0) {
+    country_name(ValueMetaInterface.TYPE_STRING, 50, 0, "country.names.en") {
       Object getVal(CityResponse l) {
         return (l.getCountry().getName());
       }
     },
-    region_code(ValueMetaInterface.TYPE_STRING, 2, 0) {
+    region_code(ValueMetaInterface.TYPE_STRING, 2, 0, "subdivisions[-1].iso_code") {
       Object getVal(CityResponse l) {
         return (l.getMostSpecificSubdivision().getIsoCode());
       }
     },
-    region_name(ValueMetaInterface.TYPE_STRING, 50, 0) {
+    region_name(ValueMetaInterface.TYPE_STRING, 50, 0, "subdivisions[-1].names.en") {
       Object getVal(CityResponse l) {
         return (l.getMostSpecificSubdivision().getName());
       }
     },
-    city_name(ValueMetaInterface.TYPE_STRING, 255, 0) {
+    city_name(ValueMetaInterface.TYPE_STRING, 255, 0, "city.names.en") {
       Object getVal(CityResponse l) {
         return (l.getCity().getName());
       }
     },
-    latitude(ValueMetaInterface.TYPE_NUMBER, 10, 4) {
+    latitude(ValueMetaInterface.TYPE_NUMBER, 10, 4, "location.latitude") {
       Object getVal(CityResponse l) {
-        return ((double) l.getLocation().getLatitude());
+        return (l.getLocation().getLatitude());
       }
     },
-    longitude(ValueMetaInterface.TYPE_NUMBER, 10, 4) {
+    longitude(ValueMetaInterface.TYPE_NUMBER, 10, 4, "location.longitude") {
       Object getVal(CityResponse l) {
-        return ((double) 
-            l.getLocation().getLongitude());
+        return (l.getLocation().getLongitude());
       }
     },
-    timezone(ValueMetaInterface.TYPE_STRING, 255, 0) {
+    timezone(ValueMetaInterface.TYPE_STRING, 255, 0, "location.time_zone") {
       Object getVal(CityResponse l) {
         return (l.getLocation().getTimeZone());
       }
-    };
+    },
+    geohash(ValueMetaInterface.TYPE_STRING, 12, 0, MaxMindGeoComputer.GEOHASH),
+    reference_distance(ValueMetaInterface.TYPE_NUMBER, 10, 3, MaxMindGeoComputer.REFERENCE_DISTANCE),
+    nearest_reference(ValueMetaInterface.TYPE_STRING, 50, 0, MaxMindGeoComputer.NEAREST_REFERENCE);
 
     ValueMetaInterface valueMeta;
+    String path;
+    int computedIndex = -1; // a field computed from the location, see MaxMindGeoComputer
+
+    /*
+     * A field computed from the location of the record.
+     */
+    private CityFields(int type, int length, int precision, int computedIndex) {
+      this(type, length, precision, "location");
+      this.computedIndex = computedIndex;
+    }
 
-    private CityFields(int type, int length, int precision) {
+    private CityFields(int type, int length, int precision, String path) {
+      this.path = path;
       try {
         this.valueMeta = ValueMetaFactory.createValueMeta(this.name(), type, length, precision);
       } catch (KettlePluginException e) {
@@ -251,11 +857,26 @@ class MaxMindCityData extends MaxMindDatabase {
       return (valueMeta);
     }
 
-    abstract Object getVal(CityResponse l);
+    public String getPath() {
+      return (path);
+    }
+
+    Object getVal(CityResponse l) {
+      return null; // computed fields
+    }
   }
 
   CityFields[] selectedFields = new CityFields[0];
 
+  @Override
+  MaxMindFieldPath pathOf(IMaxmindMetaInterface field) {
+    if (field instanceof CityFields && ((CityFields) field).computedIndex >= 0) {
+      return new MaxMindFieldPath(field.getPath(), field.toString(), field.getValueMetadata(), geoComputer,
+          ((CityFields) field).computedIndex);
+    }
+    return super.pathOf(field);
+  }
+
   @Override
   public void setSelectedFields(String[] fieldNames) {
     selectedFields = (fieldNames == null) ? new CityFields[0] : new CityFields[fieldNames.length];
@@ -275,24 +896,27 @@ class MaxMindCityData extends MaxMindDatabase {
   }
 
   @Override
-  public void getRowData(Object[] outputRow, int firstNewFieldIndex, String ip) throws IOException, GeoIp2Exception {
-	InetAddress ipAddr = getAddressFromIpV4(ip);
+  void getRowData(Object[] outputRow, int firstNewFieldIndex, InetAddress ipAddr) throws IOException, GeoIp2Exception {
 	CityResponse location = null;
 	try {
       location = getLookupService().city(ipAddr);
 	} catch (AddressNotFoundException e) {
 	  location = null; //Ignore, use default values
 	}
-    if (location != null) {
-      Object o;
-      for ( int i = 0; i < selectedFields.length; ++i) {
+    if (location == null) {
+      System.arraycopy(getDefaultRecord(), 0, outputRow, firstNewFieldIndex, selectedFields.length);
+      return;
+    }
+    Object[] defaults = getDefaultRecord();
+    Object o;
+    for ( int i = 0; i < selectedFields.length; ++i) {
+      if ( selectedFields[i].computedIndex < 0 ) {
         o = selectedFields[i].getVal(location);
-        outputRow[firstNewFieldIndex++] = ( o == null ) ? defaultValues[i] : o ;
-      }
-    } else {
-      for (String field : defaultValues) {
-        outputRow[firstNewFieldIndex++] = field;
+      } else {
+        o = ( geoComputer == null ) ? null : geoComputer.getVal(selectedFields[i].computedIndex,
+            location.getLocation().getLatitude(), location.getLocation().getLongitude());
       }
+      outputRow[firstNewFieldIndex++] = ( o == null ) ? defaults[i] : o ;
     }
   }
 }
@@ -302,20 +926,22 @@ class MaxMindCityData extends MaxMindDatabase {
  */
 class MaxMindCountryData extends MaxMindDatabase {
   enum CountryFields implements IMaxmindMetaInterface {
-    country_code(ValueMetaInterface.TYPE_STRING, 2, 0) {
+    country_code(ValueMetaInterface.TYPE_STRING, 2, 0, "country.iso_code") {
       Object getVal(CountryResponse co) {
         return (co.getCountry().getIsoCode());
       }
     },
-    country_name(ValueMetaInterface.TYPE_STRING, 50, 0) {
+    country_name(ValueMetaInterface.TYPE_STRING, 50, 0, "country.names.en") {
       Object getVal(CountryResponse co) {
         return (co.getCountry().getName());
       }
     };
 
     ValueMetaInterface valueMeta;
+    String path;
 
-    private CountryFields(int type, int length, int precision) {
+    private CountryFields(int type, int length, int precision, String path) {
+      this.path = path;
       try {
         this.valueMeta = ValueMetaFactory.createValueMeta(this.name(), type, length, precision);
       } catch (KettlePluginException e) {
@@ -327,6 +953,10 @@ class MaxMindCountryData extends MaxMindDatabase {
       return (valueMeta);
     }
 
+    public String getPath() {
+      return (path);
+    }
+
     abstract Object getVal(CountryResponse co);
   }
 
@@ -351,23 +981,22 @@ class MaxMindCountryData extends MaxMindDatabase {
   }
 
   @Override
-  public void getRowData(Object[] outputRow, int firstNewFieldIndex, String ip) throws IOException, GeoIp2Exception {
+  void getRowData(Object[] outputRow, int firstNewFieldIndex, InetAddress ipAddr) throws IOException, GeoIp2Exception {
     CountryResponse co;
 	try {
-      co = getLookupService().country(getAddressFromIpV4(ip));
+      co = getLookupService().country(ipAddr);
 	} catch (AddressNotFoundException e) {
       co = null; // Ignore, use default values
 	}
-    if (co != null) {
-      Object o;
-      for ( int i = 0; i < selectedFields.length; ++i) {
-        o = selectedFields[i].getVal(co);
-        outputRow[firstNewFieldIndex++] = ( o == null ) ? defaultValues[i] : o ;
-      }
-    } else {
-      for (String field : defaultValues) {
-        outputRow[firstNewFieldIndex++] = field;
-      }
+    if (co == null) {
+      System.arraycopy(getDefaultRecord(), 0, outputRow, firstNewFieldIndex, selectedFields.length);
+      return;
+    }
+    Object[] defaults = getDefaultRecord();
+    Object o;
+    for ( int i = 0; i < selectedFields.length; ++i) {
+      o = selectedFields[i].getVal(co);
+      outputRow[firstNewFieldIndex++] = ( o == null ) ? defaults[i] : o ;
     }
   }
 }
@@ -377,15 +1006,17 @@ class MaxMindCountryData extends MaxMindDatabase {
  */
 class MaxMindIspData extends MaxMindDatabase {
   enum IspFields implements IMaxmindMetaInterface {
-    isp_name(ValueMetaInterface.TYPE_STRING, 255, 0) {
+    isp_name(ValueMetaInterface.TYPE_STRING, 255, 0, "isp") {
       Object getVal(IspResponse isp) {
         return (isp.getIsp());
       } // yes, this is correct, they use Org for both ISP and Org DB
     };
 
     ValueMetaInterface valueMeta;
+    String path;
 
-    private IspFields(int type, int length, int precision) {
+    private IspFields(int type, int length, int precision, String path) {
+      this.path = path;
       try {
         this.valueMeta = ValueMetaFactory.createValueMeta(this.name(), type, length, precision);
       } catch (KettlePluginException e) {
@@ -397,6 +1028,10 @@ class MaxMindIspData extends MaxMindDatabase {
       return (valueMeta);
     }
 
+    public String getPath() {
+      return (path);
+    }
+
     abstract Object getVal(IspResponse isp);
   }
 
@@ -421,17 +1056,22 @@ class MaxMindIspData extends MaxMindDatabase {
   }
 
   @Override
-  public void getRowData(Object[] outputRow, int firstNewFieldIndex, String ip) throws IOException, GeoIp2Exception {
+  void getRowData(Object[] outputRow, int firstNewFieldIndex, InetAddress ipAddr) throws IOException, GeoIp2Exception {
     Object o;
     IspResponse isp = null;
     try {
-      isp = getLookupService().isp(getAddressFromIpV4(ip));
+      isp = getLookupService().isp(ipAddr);
     } catch (AddressNotFoundException e) {
       isp = null; //Ignore, use default values
     }
+    if (isp == null) {
+      System.arraycopy(getDefaultRecord(), 0, outputRow, firstNewFieldIndex, selectedFields.length);
+      return;
+    }
+    Object[] defaults = getDefaultRecord();
     for ( int i = 0; i < selectedFields.length; ++i) {
       o = selectedFields[i].getVal(isp);
-      outputRow[firstNewFieldIndex++] = (o == null) ? defaultValues[i] : o;
+      outputRow[firstNewFieldIndex++] = (o == null) ? defaults[i] : o;
     }
   }
 }
@@ -441,15 +1081,17 @@ class MaxMindIspData extends MaxMindDatabase {
  */
 class MaxMindOrgData extends MaxMindDatabase {
   enum OrgFields implements IMaxmindMetaInterface {
-    organization_name(ValueMetaInterface.TYPE_STRING, 255, 0) {
+    organization_name(ValueMetaInterface.TYPE_STRING, 255, 0, "organization") {
       Object getVal(IspResponse isp) {
         return (isp.getOrganization());
       }
     };
 
     ValueMetaInterface valueMeta;
+    String path;
 
-    private OrgFields(int type, int length, int precision) {
+    private OrgFields(int type, int length, int precision, String path) {
+      this.path = path;
       try {
         this.valueMeta = ValueMetaFactory.createValueMeta(this.name(), type, length, precision);
       } catch (KettlePluginException e) {
@@ -461,6 +1103,10 @@ class MaxMindOrgData extends MaxMindDatabase {
       return (valueMeta);
     }
 
+    public String getPath() {
+      return (path);
+    }
+
     abstract Object getVal(IspResponse isp);
   }
 
@@ -485,17 +1131,22 @@ class MaxMindOrgData extends MaxMindDatabase {
   }
 
   @Override
-  public void getRowData(Object[] outputRow, int firstNewFieldIndex, String ip) throws IOException, GeoIp2Exception {
+  void getRowData(Object[] outputRow, int firstNewFieldIndex, InetAddress ipAddr) throws IOException, GeoIp2Exception {
     Object o;
     IspResponse isp = null;
     try {
-      isp = getLookupService().isp(getAddressFromIpV4(ip));
+      isp = getLookupService().isp(ipAddr);
     } catch (AddressNotFoundException e) {
       isp = null; //Ignore, use default values
     }
+    if (isp == null) {
+      System.arraycopy(getDefaultRecord(), 0, outputRow, firstNewFieldIndex, selectedFields.length);
+      return;
+    }
+    Object[] defaults = getDefaultRecord();
     for ( int i = 0; i < selectedFields.length; ++i) {
       o = selectedFields[i].getVal(isp);
-      outputRow[firstNewFieldIndex++] = (o == null) ? defaultValues[i] : o;
+      outputRow[firstNewFieldIndex++] = (o == null) ? defaults[i] : o;
     }
   }
 }
@@ -506,15 +1157,17 @@ class MaxMindOrgData extends MaxMindDatabase {
  */
 class MaxMindDomainData extends MaxMindDatabase {
   enum DomainFields implements IMaxmindMetaInterface {
-    domain_name(ValueMetaInterface.TYPE_STRING, 255, 0) {
+    domain_name(ValueMetaInterface.TYPE_STRING, 255, 0, "domain") {
       Object getVal(DomainResponse domain) {
         return (domain.getDomain());
       }
     };
 
     ValueMetaInterface valueMeta;
+    String path;
 
-    private DomainFields(int type, int length, int precision) {
+    private DomainFields(int type, int length, int precision, String path) {
+      this.path = path;
       try {
         this.valueMeta = ValueMetaFactory.createValueMeta(this.name(), type, length, precision);
       } catch (KettlePluginException e) {
@@ -526,6 +1179,10 @@ class MaxMindDomainData extends MaxMindDatabase {
       return (valueMeta);
     }
 
+    public String getPath() {
+      return (path);
+    }
+
     abstract Object getVal(DomainResponse domain);
   }
 
@@ -550,18 +1207,22 @@ class MaxMindDomainData extends MaxMindDatabase {
   }
 
   @Override
-  public void getRowData(Object[] outputRow, int firstNewFieldIndex, String ip) throws IOException, GeoIp2Exception {
+  void getRowData(Object[] outputRow, int firstNewFieldIndex, InetAddress ipAddr) throws IOException, GeoIp2Exception {
     Object o;
-    InetAddress ipAddr = getAddressFromIpV4(ip);
     DomainResponse domain = null;
     try {
       domain = getLookupService().domain(ipAddr);
     } catch (AddressNotFoundException e ) {
       domain = null; //Ignore, use default values
     }
+    if (domain == null) {
+      System.arraycopy(getDefaultRecord(), 0, outputRow, firstNewFieldIndex, selectedFields.length);
+      return;
+    }
+    Object[] defaults = getDefaultRecord();
     for ( int i = 0; i < selectedFields.length; ++i) {
       o = selectedFields[i].getVal(domain);
-      outputRow[firstNewFieldIndex++] = (o == null) ? defaultValues[i] : o;
+      outputRow[firstNewFieldIndex++] = (o == null) ? defaults[i] : o;
     }
   }
 }
\ No newline at end of file
@@ -0,0 +1,263 @@
+package com.maxmind.geoip;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.pentaho.di.core.exception.KettlePluginException;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/*
+ * A user defined field, given as a path into the database record like "subdivisions[0].names.de" or
+ * "location.accuracy_radius".  The path is compiled once into its keys and array indexes, so a lookup only walks
+ * the (cached) decoded record, without parsing the path or any reflection per row.  Negative indexes count from the
+ * end, "subdivisions[-1]" is the most specific subdivision.
+ *
+ * The type of the field follows from the attribute at the end of the path, see the MaxMind database documentation.
+ */
+final class MaxMindFieldPath implements IMaxmindMetaInterface {
+
+  private static final String[] INTEGER_ATTRIBUTES = { "accuracy_radius", "autonomous_system_number", "average_income",
+    "confidence", "geoname_id", "metro_code", "population_density", "user_count" };
+
+  private static final String[] NUMBER_ATTRIBUTES = { "latitude", "longitude", "static_ip_score" };
+
+  private final String path;
+  private final String name;
+
+  // a String for each object key, an Integer for each array index
+  private final Object[] steps;
+
+  private final ValueMetaInterface valueMeta;
+
+  // set for a value computed from the location the path leads to, see MaxMindGeoComputer
+  private final MaxMindGeoComputer computer;
+  private final int computedIndex;
+
+  /**
+   * @param path the path to compile
+   * @throws IllegalArgumentException if path is not a valid field path
+   */
+  MaxMindFieldPath(String path) {
+    this(path, null, null);
+  }
+
+  /*
+   * Path of a predefined field, keeping its name and metadata.
+   */
+  MaxMindFieldPath(String path, String name, ValueMetaInterface valueMeta) {
+    this(path, name, valueMeta, null, -1);
+  }
+
+  /*
+   * Path of a computed field, the path leads to the location object the value is computed from.  Without a computer
+   * the value is always missing.
+   */
+  MaxMindFieldPath(String path, String name, ValueMetaInterface valueMeta, MaxMindGeoComputer computer, int computedIndex) {
+    this.computer = computer;
+    this.computedIndex = computedIndex;
+    this.path = path;
+    this.steps = compile(path);
+    this.name = (name != null) ? name : path.replaceAll("[^A-Za-z0-9_]+", "_").replaceAll("^_+|_+$", ""); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+    this.valueMeta = (valueMeta != null) ? valueMeta : createValueMeta(this.name, typeOf(steps));
+  }
+
+  /**
+   * @return true if name is meant as a field path rather than the name of a predefined field: it has a . or [
+   */
+  static boolean isFieldPath(String name) {
+    return name != null && (name.indexOf('.') >= 0 || name.indexOf('[') >= 0);
+  }
+
+  /**
+   * @return the value at the end of the path, null if the record doesn't have it
+   */
+  Object getVal(JsonNode record) {
+    JsonNode node = walk(record, steps);
+    if (node == null) {
+      return null;
+    }
+    if (computedIndex >= 0) {
+      return (computer == null) ? null : computer.getVal(computedIndex, number(node.get("latitude")), //$NON-NLS-1$
+          number(node.get("longitude"))); //$NON-NLS-1$
+    }
+    switch (valueMeta.getType()) {
+      case ValueMetaInterface.TYPE_INTEGER:
+        return node.isNumber() ? Long.valueOf(node.longValue()) : null;
+      case ValueMetaInterface.TYPE_NUMBER:
+        return node.isNumber() ? Double.valueOf(node.doubleValue()) : null;
+      case ValueMetaInterface.TYPE_BOOLEAN:
+        return node.isBoolean() ? Boolean.valueOf(node.booleanValue()) : null;
+      default:
+        // objects and arrays come out as JSON
+        return node.isContainerNode() ? node.toString() : node.asText();
+    }
+  }
+
+  private static Double number(JsonNode node) {
+    return (node != null && node.isNumber()) ? Double.valueOf(node.doubleValue()) : null;
+  }
+
+  /**
+   * @return the node at the end of the compiled path, null if the record doesn't have it
+   */
+  static JsonNode walk(JsonNode record, Object[] steps) {
+    JsonNode node = record;
+    for (int i = 0; i < steps.length && node != null; i++) {
+      Object step = steps[i];
+      if (step instanceof String) {
+        node = node.get((String) step);
+      } else {
+        int index = (Integer) step;
+        node = node.get((index < 0) ? node.size() + index : index);
+      }
+    }
+    return (node == null || node.isNull() || node.isMissingNode()) ? null : node;
+  }
+
+  /**
+   * Projects a record onto compiled paths the way lookup backends do, see MaxMindLookupBackend.
+   *
+   * @return the values at the end of the paths, in the types that travel
+   */
+  static Object[] project(JsonNode record, Object[][] paths) {
+    Object[] values = new Object[paths.length];
+    for (int i = 0; i < paths.length; i++) {
+      JsonNode node = walk(record, paths[i]);
+      if (node == null) {
+        continue;
+      }
+      if (node.isIntegralNumber()) {
+        values[i] = Long.valueOf(node.longValue());
+      } else if (node.isNumber()) {
+        values[i] = Double.valueOf(node.doubleValue());
+      } else if (node.isBoolean()) {
+        values[i] = Boolean.valueOf(node.booleanValue());
+      } else {
+        values[i] = node.isContainerNode() ? node.toString() : node.asText();
+      }
+    }
+    return values;
+  }
+
+  /**
+   * @return the paths a lookup backend projects for this field: the path itself, or the coordinates of the location
+   * a computed field is computed from
+   */
+  String[] getRemotePaths() {
+    return (computedIndex >= 0) ? new String[] { path + ".latitude", path + ".longitude" } : new String[] { path }; //$NON-NLS-1$ //$NON-NLS-2$
+  }
+
+  /**
+   * Version of getVal() for the values a lookup backend projected for the remote paths, see MaxMindLookupBackend.
+   *
+   * @param values the projected values, starting with the ones of this field
+   * @param offset index of the first value of this field
+   */
+  Object getVal(Object[] values, int offset) {
+    Object value = values[offset];
+    if (computedIndex >= 0) {
+      return (computer == null) ? null : computer.getVal(computedIndex, number(value), number(values[offset + 1]));
+    }
+    if (value == null) {
+      return null;
+    }
+    switch (valueMeta.getType()) {
+      case ValueMetaInterface.TYPE_INTEGER:
+        return (value instanceof Number) ? Long.valueOf(((Number) value).longValue()) : null;
+      case ValueMetaInterface.TYPE_NUMBER:
+        return number(value);
+      case ValueMetaInterface.TYPE_BOOLEAN:
+        return (value instanceof Boolean) ? value : null;
+      default:
+        return value.toString();
+    }
+  }
+
+  private static Double number(Object value) {
+    return (value instanceof Number) ? Double.valueOf(((Number) value).doubleValue()) : null;
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  public ValueMetaInterface getValueMetadata() {
+    return valueMeta;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+  static Object[] compile(String path) {
+    List<Object> steps = new ArrayList<Object>();
+    int length = (path == null) ? 0 : path.length();
+    int i = 0;
+    while (i < length) {
+      int start = i;
+      while (i < length && (Character.isLetterOrDigit(path.charAt(i)) || path.charAt(i) == '_' || path.charAt(i) == '-')) {
+        i++;
+      }
+      if (i == start) {
+        throw new IllegalArgumentException("Invalid field path '" + path + "' at position " + i);
+      }
+      steps.add(path.substring(start, i));
+      while (i < length && path.charAt(i) == '[') {
+        int close = path.indexOf(']', i);
+        if (close < 0) {
+          throw new IllegalArgumentException("Invalid field path '" + path + "', missing ]");
+        }
+        try {
+          steps.add(Integer.valueOf(path.substring(i + 1, close).trim()));
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException("Invalid array index in field path '" + path + "'", e);
+        }
+        i = close + 1;
+      }
+      if (i < length) {
+        if (path.charAt(i) != '.' || i == length - 1) {
+          throw new IllegalArgumentException("Invalid field path '" + path + "' at position " + i);
+        }
+        i++;
+      }
+    }
+    if (steps.isEmpty()) {
+      throw new IllegalArgumentException("Empty field path");
+    }
+    return steps.toArray();
+  }
+
+  private static int typeOf(Object[] steps) {
+    Object last = steps[steps.length - 1];
+    if (!(last instanceof String)) {
+      return ValueMetaInterface.TYPE_STRING;
+    }
+    String attribute = (String) last;
+    if (attribute.startsWith("is_")) { //$NON-NLS-1$
+      return ValueMetaInterface.TYPE_BOOLEAN;
+    }
+    for (String integer : INTEGER_ATTRIBUTES) {
+      if (integer.equals(attribute)) {
+        return ValueMetaInterface.TYPE_INTEGER;
+      }
+    }
+    for (String number : NUMBER_ATTRIBUTES) {
+      if (number.equals(attribute)) {
+        return ValueMetaInterface.TYPE_NUMBER;
+      }
+    }
+    return ValueMetaInterface.TYPE_STRING;
+  }
+
+  private static ValueMetaInterface createValueMeta(String name, int type) {
+    try {
+      return ValueMetaFactory.createValueMeta(name, type);
+    } catch (KettlePluginException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,204 @@
+package com.maxmind.geoip;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Computes the fields the City database doesn't have but that follow from the location of a record: its geohash,
+ * the great-circle distance to the nearest of a list of reference points (POPs, data centers, ...) and the name of
+ * that point.
+ *
+ * The records of a database share a limited number of locations, so the values are computed once per location and
+ * kept, a lookup that misses the result cache still only finds them in a map.  Thread safe, the network dump
+ * projects records from several threads.
+ */
+final class MaxMindGeoComputer {
+
+  // indexes of the computed values
+  static final int GEOHASH = 0;
+  static final int REFERENCE_DISTANCE = 1;
+  static final int NEAREST_REFERENCE = 2;
+
+  static final int DEFAULT_GEOHASH_PRECISION = 7;
+
+  // mean earth radius in km
+  private static final double EARTH_RADIUS = 6371.0088;
+
+  private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray(); //$NON-NLS-1$
+
+  // the values of more locations are computed again
+  private static final int MAX_LOCATIONS = 1 << 16;
+
+  private static final class Location {
+    final double latitude;
+    final double longitude;
+
+    Location(double latitude, double longitude) {
+      this.latitude = latitude;
+      this.longitude = longitude;
+    }
+
+    @Override
+    public int hashCode() {
+      long bits = Double.doubleToLongBits(latitude) * 31 + Double.doubleToLongBits(longitude);
+      return (int) (bits ^ (bits >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Location && ((Location) o).latitude == latitude && ((Location) o).longitude == longitude;
+    }
+  }
+
+  private final String[] referenceNames;
+  private final double[] referenceLatitudes;
+  private final double[] referenceLongitudes;
+  private final int geohashPrecision;
+  private final String signature;
+
+  private final ConcurrentHashMap<Location, Object[]> values = new ConcurrentHashMap<Location, Object[]>();
+
+  /**
+   * @param referencePoints points like "FRA=50.11,8.68; IAD=38.95,-77.45", null or empty for none
+   * @param geohashPrecision number of geohash characters, 1 to 12
+   * @throws IllegalArgumentException if a reference point or the precision is not valid
+   */
+  MaxMindGeoComputer(String referencePoints, int geohashPrecision) {
+    if (geohashPrecision < 1 || geohashPrecision > 12) {
+      throw new IllegalArgumentException("Geohash precision " + geohashPrecision + " is not between 1 and 12");
+    }
+    List<String> names = new ArrayList<String>();
+    List<double[]> points = new ArrayList<double[]>();
+    if (referencePoints != null) {
+      for (String point : referencePoints.split("[;\\n]")) { //$NON-NLS-1$
+        point = point.trim();
+        if (point.length() > 0) {
+          names.add(parseName(point));
+          points.add(parseLocation(point));
+        }
+      }
+    }
+    this.referenceNames = names.toArray(new String[names.size()]);
+    this.referenceLatitudes = new double[points.size()];
+    this.referenceLongitudes = new double[points.size()];
+    StringBuilder signature = new StringBuilder().append(geohashPrecision);
+    for (int i = 0; i < referenceNames.length; i++) {
+      referenceLatitudes[i] = points.get(i)[0];
+      referenceLongitudes[i] = points.get(i)[1];
+      signature.append('|').append(referenceNames[i]).append('=').append(referenceLatitudes[i]).append(',')
+          .append(referenceLongitudes[i]);
+    }
+    this.geohashPrecision = geohashPrecision;
+    this.signature = signature.toString();
+  }
+
+  private static String parseName(String point) {
+    int equals = point.indexOf('=');
+    if (equals <= 0) {
+      throw new IllegalArgumentException("Reference point '" + point + "' is not name=latitude,longitude");
+    }
+    return point.substring(0, equals).trim();
+  }
+
+  private static double[] parseLocation(String point) {
+    String[] coordinates = point.substring(point.indexOf('=') + 1).split(","); //$NON-NLS-1$
+    try {
+      double latitude = Double.parseDouble(coordinates[0].trim());
+      double longitude = Double.parseDouble(coordinates[1].trim());
+      if (coordinates.length == 2 && Math.abs(latitude) <= 90 && Math.abs(longitude) <= 180) {
+        return new double[] { latitude, longitude };
+      }
+    } catch (NumberFormatException e) {
+      // reported below
+    } catch (ArrayIndexOutOfBoundsException e) {
+      // reported below
+    }
+    throw new IllegalArgumentException("Reference point '" + point + "' is not name=latitude,longitude");
+  }
+
+  /**
+   * @param index GEOHASH, REFERENCE_DISTANCE or NEAREST_REFERENCE
+   * @return the computed value for the location, null without a location (or reference points)
+   */
+  Object getVal(int index, Double latitude, Double longitude) {
+    if (latitude == null || longitude == null) {
+      return null;
+    }
+    Location location = new Location(latitude, longitude);
+    Object[] computed = values.get(location);
+    if (computed == null) {
+      computed = compute(latitude, longitude);
+      if (values.size() >= MAX_LOCATIONS) {
+        values.clear();
+      }
+      values.put(location, computed);
+    }
+    return computed[index];
+  }
+
+  private Object[] compute(double latitude, double longitude) {
+    Object[] computed = new Object[3];
+    computed[GEOHASH] = geohash(latitude, longitude, geohashPrecision);
+    double nearest = Double.MAX_VALUE;
+    for (int i = 0; i < referenceNames.length; i++) {
+      double distance = distance(latitude, longitude, referenceLatitudes[i], referenceLongitudes[i]);
+      if (distance < nearest) {
+        nearest = distance;
+        computed[REFERENCE_DISTANCE] = Double.valueOf(distance);
+        computed[NEAREST_REFERENCE] = referenceNames[i];
+      }
+    }
+    return computed;
+  }
+
+  /**
+   * @return what the computed values depend on, for the persistent cache and the resolved filter ranges
+   */
+  String getSignature() {
+    return signature;
+  }
+
+  /**
+   * @return the geohash of a location with the given number of characters
+   */
+  static String geohash(double latitude, double longitude, int precision) {
+    double[] latitudeRange = { -90, 90 };
+    double[] longitudeRange = { -180, 180 };
+    char[] hash = new char[precision];
+    boolean evenBit = true; // longitude first
+    int bit = 0;
+    int ch = 0;
+    int length = 0;
+    while (length < precision) {
+      double[] range = evenBit ? longitudeRange : latitudeRange;
+      double value = evenBit ? longitude : latitude;
+      double middle = (range[0] + range[1]) / 2;
+      ch <<= 1;
+      if (value >= middle) {
+        ch |= 1;
+        range[0] = middle;
+      } else {
+        range[1] = middle;
+      }
+      evenBit = !evenBit;
+      if (++bit == 5) {
+        hash[length++] = BASE32[ch];
+        bit = 0;
+        ch = 0;
+      }
+    }
+    return new String(hash);
+  }
+
+  /**
+   * @return the great-circle distance between two locations in km (haversine formula)
+   */
+  static double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+    double dLatitude = Math.toRadians(latitude2 - latitude1);
+    double dLongitude = Math.toRadians(longitude2 - longitude1);
+    double a = Math.sin(dLatitude / 2) * Math.sin(dLatitude / 2) + Math.cos(Math.toRadians(latitude1))
+        * Math.cos(Math.toRadians(latitude2)) * Math.sin(dLongitude / 2) * Math.sin(dLongitude / 2);
+    return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+  }
+}
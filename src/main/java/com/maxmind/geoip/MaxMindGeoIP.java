@@ -2,22 +2,20 @@ package com.maxmind.geoip;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.lang.ref.WeakReference;
 import java.util.HashMap;
 
 import org.apache.commons.vfs2.FileName;
 import org.apache.commons.vfs2.FileObject;
 import org.apache.commons.vfs2.FileType;
-import org.apache.commons.vfs2.Selectors;
 import org.eclipse.swt.widgets.Display;
 import org.pentaho.di.core.Const;
 import org.pentaho.di.core.variables.VariableSpace;
 import org.pentaho.di.core.vfs.KettleVFS;
 import org.pentaho.di.ui.core.dialog.ErrorDialog;
 
-import com.maxmind.db.CHMCache;
 import com.maxmind.db.Metadata;
+import com.maxmind.db.Reader;
 import com.maxmind.geoip2.DatabaseReader;
 
 /*
@@ -26,6 +24,14 @@ import com.maxmind.geoip2.DatabaseReader;
 public class MaxMindGeoIP {
 
   private static final HashMap<String, WeakReference<DatabaseReader>> globalLookupServices = new HashMap<String, WeakReference<DatabaseReader>>();
+
+  // Raw record readers for field paths, on the same files as the lookup services
+  private static final HashMap<String, WeakReference<Reader>> globalRecordReaders = new HashMap<String, WeakReference<Reader>>();
+
+  // The file each reader maps, a local copy for remote locations
+  private static final HashMap<String, File> localDatabaseFiles = new HashMap<String, File>();
+
+  private static MaxMindLocalDatabaseCache localDatabaseCache = MaxMindLocalDatabaseCache.getDefault();
   
   /*
    * Should probably change this to enum at some point
@@ -79,11 +85,24 @@ public class MaxMindGeoIP {
     return( ( mmDb == null ) ? new String[]{} : mmDb.getFieldNames() );
   }
 
+  /**
+   * Sets the directory the local copies of remote databases are kept in.  Process wide, the last step to start
+   * decides.
+   * @param dir the value of MAXMIND_GEOIP_CACHE_DIR in the variables of the step, empty for the default
+   */
+  public static final synchronized void setLocalDatabaseCacheDir(String dir) {
+    File cacheDir = MaxMindLocalDatabaseCache.getDirectory(dir);
+    if (!cacheDir.equals(localDatabaseCache.getCacheDir())) {
+      localDatabaseCache = new MaxMindLocalDatabaseCache(cacheDir);
+    }
+  }
+
   /**
    * Let's just keep one copy of each database type in memory (avoid, multiple caches).
    * We're adding support for VFS in this step. The maxmindgeoip.jar requires random access
    * to the file, so we can't add there proper support. If it's a vfs path, we'll
-   * copy the file to the tmp folder
+   * use a copy in the local database cache directory (see MAXMIND_GEOIP_CACHE_DIR), which
+   * is only downloaded again when the remote file changes.
    * @param dbLocation The path to the binary database
    * @return a reference to the global instance of the lookup service
    * @throws IOException
@@ -94,47 +113,62 @@ public class MaxMindGeoIP {
     WeakReference<DatabaseReader> wrLs = globalLookupServices.get(dbLocation);
     if ((wrLs == null) || ((ls = wrLs.get()) == null)) {
         
-        FileObject localDbLocation = null;
+        File localDbFile = null;
 
         try {
             FileObject source = KettleVFS.getFileObject(dbLocation);
             
             FileName dbVfs = source.getName();
             if (dbVfs.getScheme().equals("file")) {
-                localDbLocation = KettleVFS.getFileObject(source.getURL().getFile());
+                localDbFile = new File(KettleVFS.getFilename(source));
             } else {
-                // It's remote - copy it locally
-
-                if (source.exists() && source.getType().equals(FileType.FILE) && source.isReadable()) {
-
-                    // copy to a tmp file, that will be deleted in the end
-                    //
-                    File localDbFile = File.createTempFile(dbVfs.getBaseName(), "." + dbVfs.getExtension());
-                    localDbFile.deleteOnExit();
-                    FileObject localDbFileObject = KettleVFS.getFileObject(localDbFile.getAbsolutePath());
-                    localDbFileObject.copyFrom(source, Selectors.SELECT_SELF);
-                    
-                    // Closing references - we don't need them
-                    source.close();
-                    localDbFileObject.close();
-                    
-                    // this.log(Level.INFO, "Successfully copied file from " + dbLocation + " to " + localDbFile.getAbsolutePath());
-                    //localDbLocation = localDbFile.getAbsolutePath();
-                    localDbLocation = KettleVFS.getFileObject(localDbFileObject.getPublicURIString());
+                // It's remote - use the local copy, downloading it if needed
+                if (!source.exists() || !source.getType().equals(FileType.FILE) || !source.isReadable()) {
+                    throw new IOException("Database file '" + dbLocation + "' is not a readable file");
                 }
+                localDbFile = localDatabaseCache.getLocalCopy(source);
+
+                // Closing references - we don't need them
+                source.close();
             }
         } catch (Exception e) {
           throw new IOException("Unable to copy database file to local storage", e);
         }
 
-      // Logger.getLogger(MaxMindGeoIP.class.getName()).log(Level.INFO, "GeoIP using database " + localDbLocation);
-      InputStream dbStream = KettleVFS.getInputStream(localDbLocation);
-      ls = new DatabaseReader.Builder(dbStream).withCache(new CHMCache()).build();
+      // Logger.getLogger(MaxMindGeoIP.class.getName()).log(Level.INFO, "GeoIP using database " + localDbFile);
+      ls = new DatabaseReader.Builder(localDbFile).withCache(new MaxMindNodeCache()).build();
       globalLookupServices.put(dbLocation, new WeakReference<DatabaseReader>(ls));
+      localDatabaseFiles.put(dbLocation, localDbFile);
     }
     return ls;
   }
 
+  /**
+   * Returns the shared reader giving access to the whole database records, needed for field paths.  Like the lookup 
+   * service, there is one per database and it reads the same local file.
+   * @param dbLocation The path to the binary database, as passed to initLookupService()
+   * @return a reference to the global instance of the record reader
+   * @throws IOException
+   */
+  public static final synchronized Reader initRecordReader(String dbLocation) throws IOException {
+    Reader reader = null;
+    WeakReference<Reader> wrReader = globalRecordReaders.get(dbLocation);
+    if ((wrReader == null) || ((reader = wrReader.get()) == null)) {
+      initLookupService(dbLocation);
+      reader = new Reader(localDatabaseFiles.get(dbLocation), new MaxMindNodeCache());
+      globalRecordReaders.put(dbLocation, new WeakReference<Reader>(reader));
+    }
+    return reader;
+  }
+
+  /**
+   * @param dbLocation The path to the binary database, as passed to initLookupService()
+   * @return the local file the lookup service reads from, null if the service was never initialized
+   */
+  public static final synchronized File getLocalDatabaseFile(String dbLocation) {
+    return localDatabaseFiles.get(dbLocation);
+  }
+
   /*
    * Returns the database info string from the database files.  The API from the MaxMind
    * classes is broken.  Returns the wrong database type for some DBs, on error it assumes 
@@ -156,8 +190,8 @@ public class MaxMindGeoIP {
 
       Metadata dbInfo = ls.getMetadata();
 
+      // no close(), the reader is shared with everything else using this database
       dbInfoStr = (dbInfo == null) ? null : dbInfo.toString();
-      ls.close();
     } catch (Exception e) {
       dbInfoStr = "Error opening DB file: '" + meta.getDbLocation() + "'";
       new ErrorDialog(Display.getCurrent().getActiveShell(), "Error", dbInfoStr, e);
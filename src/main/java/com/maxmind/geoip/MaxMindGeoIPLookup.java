@@ -1,8 +1,16 @@
 package com.maxmind.geoip;
 
+import java.io.File;
 import java.io.IOException;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
 
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.RowSet;
 import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleStepException;
 import org.pentaho.di.core.exception.KettleValueException;
 import org.pentaho.di.core.row.RowDataUtil;
 import org.pentaho.di.i18n.BaseMessages;
@@ -14,6 +22,7 @@ import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
 import org.pentaho.di.trans.step.StepMetaInterface;
 
+import com.google.common.net.InetAddresses;
 import com.maxmind.geoip2.exception.GeoIp2Exception;
 
 
@@ -25,6 +34,9 @@ import com.maxmind.geoip2.exception.GeoIp2Exception;
 public class MaxMindGeoIPLookup extends BaseStep implements StepInterface
 {
   private static Class<?> PKG = MaxMindGeoIPLookup.class;
+
+  // rows looked up together when each row picks its database version, or a lookup backend answers
+  private static final int BATCH_SIZE = 1000;
   
   private MaxMindGeoIPLookupData data;
   private MaxMindGeoIPLookupMeta meta;
@@ -43,6 +55,12 @@ public class MaxMindGeoIPLookup extends BaseStep implements StepInterface
     Object[] r = getRow(); // get row, blocks when needed!
     if (r == null) // no more input to be expected...
     {
+      if (data.batchRows != null && !data.batchRows.isEmpty() && !flushBatch()) {
+        return false;
+      }
+      if (data.aggregator != null) {
+        putAggregates();
+      }
       setOutputDone();
       return false;
     }
@@ -54,41 +72,502 @@ public class MaxMindGeoIPLookup extends BaseStep implements StepInterface
       data.firstNewFieldIndex = getInputRowMeta().size();
       data.outputRowMeta = getInputRowMeta().clone();
       
-      data.ipAddressFieldIndex = data.outputRowMeta.indexOfValue(meta.getIpAddressFieldName());
+      data.ipAddressFieldIndex = getInputRowMeta().indexOfValue(meta.getIpAddressFieldName());
 
       meta.getFields(data.outputRowMeta, getStepname(), null, null, this);
 
       // only String type allowed
-      if (!data.outputRowMeta.getValueMeta(data.ipAddressFieldIndex).isString())
+      if (!getInputRowMeta().getValueMeta(data.ipAddressFieldIndex).isString())
       {
         throw new KettleValueException((BaseMessages.getString(PKG, "MaxMindGeoIPLookup.Log.IpAddressFieldNotValid",meta.getIpAddressFieldName()))); //$NON-NLS-1$ 
       }
-    }
+      data.ipAddressBinary = getInputRowMeta().getValueMeta(data.ipAddressFieldIndex).isStorageBinaryString();
+      data.ipExtraction = MaxMindIpExtractor.Mode.fromCode(meta.getIpExtraction());
 
-    // reserve room
-    Object[] outputRow = RowDataUtil.allocateRowData(data.outputRowMeta.size());
+      // the results of every additional address follow those of the main one, in the same layout
+      int width = maxMindDatabase.getOutputFields().length;
+      int nrIpFields = meta.getAdditionalIpFieldName().length;
+      data.additionalIpFieldIndexes = new int[nrIpFields];
+      data.additionalIpAddressBinary = new boolean[nrIpFields];
+      data.additionalFirstNewFieldIndexes = new int[nrIpFields];
+      for (int i = 0; i < nrIpFields; i++) {
+        String fieldName = environmentSubstitute(meta.getAdditionalIpFieldName()[i]);
+        data.additionalIpFieldIndexes[i] = getInputRowMeta().indexOfValue(fieldName);
+        if (data.additionalIpFieldIndexes[i] < 0 || !getInputRowMeta().getValueMeta(data.additionalIpFieldIndexes[i]).isString()) {
+          throw new KettleValueException((BaseMessages.getString(PKG, "MaxMindGeoIPLookup.Log.IpAddressFieldNotValid", fieldName))); //$NON-NLS-1$ 
+        }
+        data.additionalIpAddressBinary[i] = getInputRowMeta().getValueMeta(data.additionalIpFieldIndexes[i]).isStorageBinaryString();
+        data.additionalFirstNewFieldIndexes[i] = data.firstNewFieldIndex + (i + 1) * width;
+      }
+      data.lookupRowSize = data.firstNewFieldIndex + (nrIpFields + 1) * width;
+      data.lookupFieldCount = width;
+      data.localTimeIndex = -1;
+      if (!Const.isEmpty(meta.getLocalTimeInputField())) {
+        initLocalTime();
+      }
+      data.filterFlagIndex = -1;
+      if (data.filter != null && !Const.isEmpty(meta.getFilterFlagField())) {
+        data.filterFlagIndex = data.lookupRowSize++;
+      }
 
-    for (int i = 0; i < data.firstNewFieldIndex; i++)
-    {
-      outputRow[i] = r[i];
+      if (meta.isAggregate()) {
+        initAggregation();
+      }
+      if (data.filter != null) {
+        data.trueRowSet = findFilterRowSet(meta.getFilterTrueStepName());
+        data.falseRowSet = findFilterRowSet(meta.getFilterFalseStepName());
+        if (data.falseRowSet != null && data.aggregator != null) {
+          throw new KettleException("Aggregated rows can't be combined with a step for the rows not matching the filter");
+        }
+        if (data.trueRowSet != null || data.falseRowSet != null) {
+          data.otherRowSets = new ArrayList<RowSet>(getOutputRowSets());
+          data.otherRowSets.remove(data.trueRowSet);
+          data.otherRowSets.remove(data.falseRowSet);
+        }
+      }
+      if (data.history != null) {
+        String timeField = environmentSubstitute(meta.getHistoryTimeField());
+        data.historyTimeFieldIndex = getInputRowMeta().indexOfValue(timeField);
+        if (data.historyTimeFieldIndex < 0 || !getInputRowMeta().getValueMeta(data.historyTimeFieldIndex).isDate()) {
+          throw new KettleException("Database version time field '" + timeField + "' is not a Date field of the input");
+        }
+      }
     }
 
-    try {
-		maxMindDatabase.getRowData(outputRow, data.firstNewFieldIndex, data.outputRowMeta.getString(r, data.ipAddressFieldIndex) );
-	} catch (IOException | GeoIp2Exception e) {
-		logError(e.toString());
-		setErrors(1);
-		setOutputDone();
-		return false;
-	}
-    
-    putRow(data.outputRowMeta, outputRow); // copy row to possible alternate rowset(s).
+    if (data.batchRows != null) {
+      data.batchRows.add(r);
+      if (data.batchRows.size() >= BATCH_SIZE && !flushBatch()) {
+        return false;
+      }
+    } else {
+      // reserve room, rows usually have spare capacity so the input row is extended in place
+      Object[] outputRow = RowDataUtil.resizeArray(r, data.lookupRowSize);
+      try {
+        processInputRow(r, outputRow, false, data.filter);
+      } catch (IOException | GeoIp2Exception e) {
+        logError(e.toString());
+        setErrors(1);
+        setOutputDone();
+        return false;
+      }
+    }
 
     if (checkFeedback(getLinesRead())) logBasic("Linenr " + getLinesRead()); // Some basic logging every 5000 rows.
 
     return true;
   }
 
+  /*
+   * Looks up the buffered rows, grouped by the database version that was current at their time and in one bulk
+   * lookup per IP field and version, then passes them on in their original order.  Rows without a time, and all rows
+   * without database versions, get the configured database.  The filter condition is tested in the version of a row
+   * too.
+   *
+   * @return false after an error
+   */
+  private boolean flushBatch() throws KettleException {
+    int n = data.batchRows.size();
+    Object[][] outputRows = new Object[n][];
+    long[] order = new long[n];
+    int[] versions = new int[n];
+    for (int i = 0; i < n; i++) {
+      Object[] r = data.batchRows.get(i);
+      outputRows[i] = RowDataUtil.resizeArray(r, data.lookupRowSize);
+      int version = -1;
+      if (data.history != null) {
+        Date time = getInputRowMeta().getDate(r, data.historyTimeFieldIndex);
+        version = (time == null) ? -1 : data.history.versionAt(time.getTime());
+      }
+      versions[i] = version;
+      order[i] = ((long) (version + 1) << 32) | i; // by version, then row
+    }
+    Arrays.sort(order);
+
+    try {
+      if (data.lookupFieldCount > 0) {
+        int[] rows = new int[n];
+        for (int start = 0; start < n;) {
+          int version = (int) (order[start] >>> 32) - 1;
+          MaxMindIntervalSet filter = filterFor(version);
+          int count = 0;
+          int end = start;
+          for (; end < n && (int) (order[end] >>> 32) - 1 == version; end++) {
+            int row = (int) order[end];
+            if (filter == null || accepted(data.batchRows.get(row), filter)) {
+              rows[count++] = row;
+            }
+          }
+          MaxMindDatabase database = (version < 0) ? maxMindDatabase : openVersion(version);
+          lookupBatch(database, outputRows, rows, count, data.ipAddressFieldIndex, data.ipAddressBinary,
+              data.firstNewFieldIndex);
+          for (int i = 0; i < data.additionalIpFieldIndexes.length; i++) {
+            lookupBatch(database, outputRows, rows, count, data.additionalIpFieldIndexes[i],
+                data.additionalIpAddressBinary[i], data.additionalFirstNewFieldIndexes[i]);
+          }
+          start = end;
+        }
+      }
+      for (int i = 0; i < n; i++) {
+        processInputRow(data.batchRows.get(i), outputRows[i], true, filterFor(versions[i]));
+      }
+    } catch (IOException | GeoIp2Exception e) {
+      logError(e.toString());
+      setErrors(1);
+      setOutputDone();
+      return false;
+    }
+    data.batchRows.clear();
+    return true;
+  }
+
+  /*
+   * Looks up one IP field of the first count of the given rows in a single bulk lookup.  Addresses that don't parse
+   * get the single row lookup, like without batches.
+   */
+  private void lookupBatch(MaxMindDatabase database, Object[][] outputRows, int[] rows, int count, int ipAddressFieldIndex,
+      boolean ipAddressBinary, int firstNewFieldIndex) throws KettleValueException, IOException, GeoIp2Exception {
+    Object[][] batch = new Object[count][];
+    long[] his = new long[count];
+    long[] los = new long[count];
+    int k = 0;
+    for (int i = 0; i < count; i++) {
+      long ipv4 = extractAddress(data.batchRows.get(rows[i]), ipAddressFieldIndex, ipAddressBinary);
+      if (ipv4 >= 0) {
+        his[k] = 0L;
+        los[k] = MaxMindIpParser.keyLo(ipv4);
+      } else if (data.ipText != null && InetAddresses.isInetAddress(data.ipText)) {
+        byte[] address = InetAddresses.forString(data.ipText).getAddress();
+        his[k] = MaxMindIpParser.keyHi(address);
+        los[k] = MaxMindIpParser.keyLo(address);
+      } else {
+        database.getRowData(outputRows[rows[i]], firstNewFieldIndex, data.ipText);
+        continue;
+      }
+      batch[k++] = outputRows[rows[i]];
+    }
+    if (k < count) {
+      batch = Arrays.copyOf(batch, k);
+      his = Arrays.copyOf(his, k);
+      los = Arrays.copyOf(los, k);
+    }
+    database.getRowData(batch, firstNewFieldIndex, his, los);
+  }
+
+  private MaxMindDatabase openVersion(int version) throws KettleException {
+    try {
+      MaxMindDatabase database = data.history.get(version);
+      if (log.isDetailed() && version != data.historyVersion) {
+        logDetailed("Looking up in database version '" + data.history.getFile(version) + "'");
+      }
+      data.historyVersion = version;
+      return database;
+    } catch (Exception e) {
+      throw new KettleException("Unable to open database version '" + data.history.getFile(version) + "'", e);
+    }
+  }
+
+  /*
+   * Returns the ranges of the filter condition in a database version, resolved when a row first needs them, or the
+   * ranges in the configured database for version -1.  Null without a filter.
+   */
+  private MaxMindIntervalSet filterFor(int version) throws KettleException {
+    if (data.filter == null || version < 0) {
+      return data.filter;
+    }
+    MaxMindIntervalSet filter = data.historyFilters[version];
+    if (filter == null) {
+      File file = data.history.getFile(version);
+      try {
+        filter = MaxMindPredicate.resolve(data.filterCondition, maxMindDatabase, file, null);
+      } catch (IOException e) {
+        throw new KettleException("Unable to resolve the filter condition in database version '" + file + "'", e);
+      }
+      logDetailed("Filter condition resolved to " + filter.size() + " address ranges in '" + file + "'");
+      data.historyFilters[version] = filter;
+    }
+    return filter;
+  }
+
+  /*
+   * Filters with the ranges of the database version of the row, looks up (unless done already), and passes on a row.
+   */
+  private void processInputRow(Object[] r, Object[] outputRow, boolean lookedUp, MaxMindIntervalSet filter)
+      throws KettleException, IOException, GeoIp2Exception {
+    if (filter != null && !accepted(r, filter)) {
+      // no lookup for the rejected rows, they only get empty fields
+      Arrays.fill(outputRow, data.firstNewFieldIndex, data.lookupRowSize, null);
+      if (data.filterFlagIndex >= 0) {
+        outputRow[data.filterFlagIndex] = Boolean.FALSE;
+        if (data.aggregator != null) {
+          aggregate(r, outputRow);
+        } else {
+          putFiltered(outputRow, data.falseRowSet);
+        }
+      } else if (data.falseRowSet != null) {
+        putRowTo(data.outputRowMeta, outputRow, data.falseRowSet);
+      }
+      return;
+    }
+
+    // with only the flag to put out, the membership test is all there is to do
+    if (!lookedUp && data.lookupFieldCount > 0) {
+      lookupAll(r, outputRow, maxMindDatabase);
+    }
+    if (data.localTimeIndex >= 0) {
+      putLocalTime(r, outputRow);
+    }
+    if (data.filterFlagIndex >= 0) {
+      outputRow[data.filterFlagIndex] = Boolean.TRUE;
+    }
+
+    if (data.aggregator != null) {
+      aggregate(r, outputRow);
+    } else {
+      putFiltered(outputRow, data.trueRowSet);
+    }
+  }
+
+  /*
+   * Puts out a row to its filter target step.  Without one the row goes to the next steps that are no filter target,
+   * so the rows of one target never reach the other.
+   */
+  private void putFiltered(Object[] row, RowSet target) throws KettleStepException {
+    if (target != null) {
+      putRowTo(data.outputRowMeta, row, target);
+    } else if (data.otherRowSets == null) {
+      putRow(data.outputRowMeta, row); // copy row to possible alternate rowset(s).
+    } else if (getStepMeta().isDistributes()) {
+      if (!data.otherRowSets.isEmpty()) {
+        data.otherRowSetIndex = (data.otherRowSetIndex + 1) % data.otherRowSets.size();
+        putRowTo(data.outputRowMeta, row, data.otherRowSets.get(data.otherRowSetIndex));
+      }
+    } else {
+      for (RowSet rowSet : data.otherRowSets) {
+        putRowTo(data.outputRowMeta, row, rowSet);
+      }
+    }
+  }
+
+  /*
+   * Looks up the main and the additional IP fields of a row.
+   */
+  private void lookupAll(Object[] r, Object[] outputRow, MaxMindDatabase database)
+      throws KettleValueException, IOException, GeoIp2Exception {
+    lookup(database, r, outputRow, data.ipAddressFieldIndex, data.ipAddressBinary, data.firstNewFieldIndex);
+    for (int i = 0; i < data.additionalIpFieldIndexes.length; i++) {
+      lookup(database, r, outputRow, data.additionalIpFieldIndexes[i], data.additionalIpAddressBinary[i], data.additionalFirstNewFieldIndexes[i]);
+    }
+  }
+
+  /*
+   * Finds the timestamp input field and the looked up timezone the local time is computed from, the local time and
+   * offset follow the looked up fields.
+   */
+  private void initLocalTime() throws KettleException {
+    String inputField = environmentSubstitute(meta.getLocalTimeInputField());
+    data.localTimeInputIndex = getInputRowMeta().indexOfValue(inputField);
+    if (data.localTimeInputIndex < 0 || !getInputRowMeta().getValueMeta(data.localTimeInputIndex).isDate()) {
+      throw new KettleException("Local time input field '" + inputField + "' is not a Date field of the input");
+    }
+    IMaxmindMetaInterface[] fields = maxMindDatabase.getOutputFields();
+    data.timezoneIndex = -1;
+    for (int i = 0; i < fields.length && data.timezoneIndex < 0; i++) {
+      if (MaxMindCityData.CityFields.timezone.getPath().equals(fields[i].getPath())) {
+        data.timezoneIndex = data.firstNewFieldIndex + i;
+      }
+    }
+    if (data.timezoneIndex < 0) {
+      throw new KettleException("The local time needs the timezone field to be looked up");
+    }
+    data.localTimeIndex = data.lookupRowSize;
+    data.lookupRowSize += 2;
+    data.localTime = new MaxMindLocalTime();
+  }
+
+  /*
+   * Puts the local time and UTC offset of the row's timestamp in its looked up timezone.
+   */
+  private void putLocalTime(Object[] r, Object[] outputRow) throws KettleValueException {
+    Date timestamp = getInputRowMeta().getDate(r, data.localTimeInputIndex);
+    Object timezone = outputRow[data.timezoneIndex];
+    String zone = (timezone instanceof byte[]) ? new String((byte[]) timezone, MaxMindValuePool.ENCODING) : (String) timezone;
+    ZoneOffset offset = (timestamp == null) ? null : data.localTime.getOffset(zone, timestamp.getTime());
+    if (offset == null) {
+      outputRow[data.localTimeIndex] = null;
+      outputRow[data.localTimeIndex + 1] = null;
+    } else {
+      outputRow[data.localTimeIndex] = data.localTime.getLocalTime(zone, timestamp.getTime());
+      outputRow[data.localTimeIndex + 1] = Long.valueOf(offset.getTotalSeconds());
+    }
+  }
+
+  /*
+   * Returns the index of an input field the aggregation reads, a missing one is an error rather than left out.
+   */
+  private int aggregateFieldIndex(String role, String field) throws KettleException {
+    String name = environmentSubstitute(field);
+    int index = getInputRowMeta().indexOfValue(name);
+    if (index < 0) {
+      throw new KettleException("Aggregate " + role + " field '" + name + "' is not a field of the input");
+    }
+    return index;
+  }
+
+  /*
+   * Finds the input fields the rows are aggregated by.  The key of a row is its group field values, the start of its
+   * time window and the looked up fields.
+   */
+  private void initAggregation() throws KettleException {
+    String[] groupFields = meta.getAggregateGroupField();
+    data.aggregateGroupFieldIndexes = new int[groupFields.length];
+    for (int i = 0; i < groupFields.length; i++) {
+      data.aggregateGroupFieldIndexes[i] = aggregateFieldIndex("group", groupFields[i]);
+    }
+    data.aggregateTimeFieldIndex = Const.isEmpty(meta.getAggregateTimeField()) ? -1
+        : aggregateFieldIndex("time", meta.getAggregateTimeField());
+    data.aggregateSumFieldIndex = Const.isEmpty(meta.getAggregateSumField()) ? -1
+        : aggregateFieldIndex("sum", meta.getAggregateSumField());
+    if (data.aggregateTimeFieldIndex >= 0) {
+      data.aggregateWindowMillis = Const.toLong(environmentSubstitute(meta.getAggregateWindow()), 3600) * 1000;
+      if (data.aggregateWindowMillis <= 0) {
+        throw new KettleException("Invalid aggregation window '" + meta.getAggregateWindow() + "'");
+      }
+    }
+    data.aggregateCurrentWindow = Long.MIN_VALUE;
+    data.aggregateKey = new Object[groupFields.length + ((data.aggregateTimeFieldIndex >= 0) ? 1 : 0)
+        + data.lookupRowSize - data.firstNewFieldIndex];
+    // the flag is one of the looked up fields of the key
+    data.aggregateFlagIndex = (data.filterFlagIndex < 0) ? -1 : groupFields.length
+        + ((data.aggregateTimeFieldIndex >= 0) ? 1 : 0) + data.filterFlagIndex - data.firstNewFieldIndex;
+    data.aggregator = new MaxMindAggregator();
+  }
+
+  /*
+   * Counts a looked up row.  A row of a later time window first puts out the counts of the earlier ones.  Late rows
+   * of a window that was already put out are counted in the current window, so no window comes out twice.
+   */
+  private void aggregate(Object[] r, Object[] outputRow) throws KettleException {
+    Object[] key = data.aggregateKey;
+    int k = 0;
+    for (int index : data.aggregateGroupFieldIndexes) {
+      key[k++] = getInputRowMeta().getValueMeta(index).convertToNormalStorageType(r[index]);
+    }
+    if (data.aggregateTimeFieldIndex >= 0) {
+      Date time = getInputRowMeta().getDate(r, data.aggregateTimeFieldIndex);
+      if (time == null) {
+        key[k++] = null;
+      } else {
+        long window = Math.floorDiv(time.getTime(), data.aggregateWindowMillis) * data.aggregateWindowMillis;
+        if (window < data.aggregateCurrentWindow) {
+          window = data.aggregateCurrentWindow;
+        } else if (window > data.aggregateCurrentWindow) {
+          if (data.aggregateCurrentWindow != Long.MIN_VALUE) {
+            putAggregates();
+          }
+          data.aggregateCurrentWindow = window;
+        }
+        key[k++] = new Date(window);
+      }
+    }
+    System.arraycopy(outputRow, data.firstNewFieldIndex, key, k, data.lookupRowSize - data.firstNewFieldIndex);
+
+    Double value = (data.aggregateSumFieldIndex < 0) ? null : getInputRowMeta().getNumber(r, data.aggregateSumFieldIndex);
+    data.aggregator.add(key, value);
+  }
+
+  /*
+   * Puts out a row per counted key.
+   */
+  private void putAggregates() throws KettleStepException {
+    int size = data.outputRowMeta.size();
+    for (Object[] counted : data.aggregator.drain()) {
+      // without a sum field the trailing sum is left out by the row metadata
+      Object[] row = RowDataUtil.allocateRowData(size);
+      System.arraycopy(counted, 0, row, 0, Math.min(size, counted.length));
+      boolean accepted = data.aggregateFlagIndex < 0 || !Boolean.FALSE.equals(row[data.aggregateFlagIndex]);
+      putFiltered(row, accepted ? data.trueRowSet : null);
+    }
+  }
+
+
+  /*
+   * Finds the output row set of a filter target step, null for none.
+   */
+  private RowSet findFilterRowSet(String stepName) throws KettleException {
+    if (Const.isEmpty(stepName)) {
+      return null;
+    }
+    RowSet rowSet = findOutputRowSet(getStepname(), getCopy(), stepName, 0);
+    if (rowSet == null) {
+      throw new KettleException("Unable to find the filter target step '" + stepName + "'");
+    }
+    return rowSet;
+  }
+
+  /*
+   * Tests the main address of a row against the ranges the filter condition was resolved to, no record is decoded.
+   * Rows without a valid address are rejected.
+   */
+  private boolean accepted(Object[] r, MaxMindIntervalSet filter) throws KettleValueException {
+    long ipv4 = extractAddress(r, data.ipAddressFieldIndex, data.ipAddressBinary);
+    if (ipv4 >= 0) {
+      return filter.contains(ipv4);
+    }
+    if (data.ipText == null || !InetAddresses.isInetAddress(data.ipText)) {
+      return false;
+    }
+    byte[] address = InetAddresses.forString(data.ipText).getAddress();
+    return filter.contains(MaxMindIpParser.keyHi(address), MaxMindIpParser.keyLo(address));
+  }
+
+  /*
+   * Looks up the address of an IP field, picked out of a list or host:port value first when configured.
+   */
+  private void lookup(MaxMindDatabase database, Object[] r, Object[] outputRow, int ipAddressFieldIndex, boolean ipAddressBinary,
+      int firstNewFieldIndex) throws KettleValueException, IOException, GeoIp2Exception {
+    long ipv4 = extractAddress(r, ipAddressFieldIndex, ipAddressBinary);
+    if (ipv4 >= 0) {
+      database.getRowData(outputRow, firstNewFieldIndex, ipv4);
+    } else {
+      database.getRowData(outputRow, firstNewFieldIndex, data.ipText);
+    }
+  }
+
+  /*
+   * Picks the address out of an IP field.  Dotted quads are parsed straight from the value, anything else is
+   * converted to a String first.
+   *
+   * @return the IPv4 address, or -1 with the address text (null for none) left in data.ipText
+   */
+  private long extractAddress(Object[] r, int ipAddressFieldIndex, boolean ipAddressBinary) throws KettleValueException {
+    Object value = r[ipAddressFieldIndex];
+    if (ipAddressBinary && value != null) {
+      byte[] bytes = (byte[]) value;
+      long range = (data.ipExtraction == MaxMindIpExtractor.Mode.none) ? bytes.length
+          : MaxMindIpExtractor.find(data.ipAddressBytes.wrap(bytes, 0, bytes.length), data.ipExtraction);
+      int start = MaxMindIpExtractor.start(range);
+      long ipv4 = (range < 0) ? -1 : MaxMindIpParser.parseIpv4(bytes, start, MaxMindIpExtractor.end(range) - start);
+      if (ipv4 >= 0) {
+        return ipv4;
+      }
+    }
+
+    String ip = getInputRowMeta().getString(r, ipAddressFieldIndex);
+    if (ip != null && data.ipExtraction != MaxMindIpExtractor.Mode.none) {
+      long range = MaxMindIpExtractor.find(ip, data.ipExtraction);
+      if (range >= 0) {
+        int start = MaxMindIpExtractor.start(range);
+        int end = MaxMindIpExtractor.end(range);
+        long ipv4 = MaxMindIpParser.parseIpv4(ip, start, end);
+        if (ipv4 >= 0) {
+          return ipv4;
+        }
+        ip = ip.substring(start, end);
+      }
+    }
+    data.ipText = ip;
+    return -1;
+  }
 
   public boolean init(StepMetaInterface smi, StepDataInterface sdi) 
   {
@@ -99,8 +578,76 @@ public class MaxMindGeoIPLookup extends BaseStep implements StepInterface
     {
       MaxMindHelper helper = new MaxMindHelper(this, meta);
       try {
+        // process wide, the last step to start decides
+        String budget = getVariable(MaxMindCacheGovernor.BUDGET_VARIABLE);
+        if (!Const.isEmpty(budget)) {
+          MaxMindCacheGovernor.setBudget(Const.toLong(budget, 0) * 1024 * 1024);
+          logDetailed("Caches share a memory budget of " + budget + " MB");
+        }
+
         helper.setupMaxMindDatabase();
         maxMindDatabase = helper.getMaxMindDatabase();
+
+        long cacheSize = Const.toLong(environmentSubstitute(meta.getResultCacheSize()), 0);
+        if (cacheSize > 0) {
+          maxMindDatabase.setResultCacheSize(cacheSize * 1024 * 1024, meta.isAdaptiveCaching());
+          logDetailed("Using an " + (meta.isAdaptiveCaching() ? "adaptive " : "") + "off-heap result cache of "
+              + cacheSize + " MB");
+        }
+
+        String persistentCacheFile = environmentSubstitute(meta.getPersistentCacheFile());
+        if (!Const.isEmpty(persistentCacheFile)) {
+          long persistentCacheSize = Const.toLong(environmentSubstitute(meta.getPersistentCacheSize()), 256);
+          try {
+            maxMindDatabase.attachPersistentCache(new File(persistentCacheFile), persistentCacheSize * 1024 * 1024);
+            logDetailed("Using persistent cache file '" + persistentCacheFile + "'");
+          } catch (MaxMindPersistentCache.InUseException e) {
+            // an overlapping run keeps its cache, this one just runs uncached
+            logBasic("Continuing without the persistent cache: " + e.getMessage());
+          }
+        }
+
+        String historyDirectory = environmentSubstitute(meta.getHistoryDirectory());
+        if (!Const.isEmpty(historyDirectory)) {
+          final MaxMindHelper versionHelper = helper;
+          data.history = new MaxMindHistory<MaxMindDatabase>(new File(historyDirectory),
+              (int) Const.toLong(environmentSubstitute(meta.getHistoryMaxOpen()), 4), new MaxMindHistory.Opener<MaxMindDatabase>() {
+                public MaxMindDatabase open(File file) throws Exception {
+                  return versionHelper.openVersion(file.getAbsolutePath());
+                }
+              });
+          data.historyVersion = -1;
+          logDetailed("Found " + data.history.size() + " database versions in '" + historyDirectory + "'");
+        }
+
+        String backendName = environmentSubstitute(meta.getLookupBackend());
+        String lookupServer = environmentSubstitute(meta.getLookupServer());
+        if (MaxMindLookupBackends.isDefault(backendName) && !Const.isEmpty(lookupServer)) {
+          backendName = MaxMindServerBackend.NAME; // a lookup server alone selects its backend
+        }
+        MaxMindLookupBackend backend = MaxMindLookupBackends.get(backendName);
+        if (backend != null) {
+          maxMindDatabase.openLookupBackend(backend, Const.isEmpty(lookupServer) ? null : lookupServer);
+          logDetailed("Looking up with the " + backend.getName() + " backend");
+        }
+        if (data.history != null || backend != null) {
+          data.batchRows = new ArrayList<Object[]>(BATCH_SIZE);
+        }
+
+        String condition = environmentSubstitute(meta.getFilterCondition());
+        if (!Const.isEmpty(condition)) {
+          String setFile = environmentSubstitute(meta.getFilterSetFile());
+          data.filter = MaxMindPredicate.resolve(condition, maxMindDatabase, maxMindDatabase.getLocalDatabaseFile(),
+              Const.isEmpty(setFile) ? null : new File(setFile));
+          logDetailed("Filter condition resolved to " + data.filter.size() + " address ranges");
+          if (data.history != null) {
+            // the rows of older database versions are filtered with the ranges in their version
+            data.filterCondition = condition;
+            data.historyFilters = new MaxMindIntervalSet[data.history.size()];
+          }
+        }
+
+        warmup();
       } catch(Exception e) {
         logError("Error initializing max mind database file location '"+helper.getFilenameLocation()+"'", e);
         return false;
@@ -113,11 +660,79 @@ public class MaxMindGeoIPLookup extends BaseStep implements StepInterface
     }
   }
 
+  /*
+   * Gets the database pages and caches hot before the first row arrives.
+   */
+  private void warmup() throws IOException, GeoIp2Exception {
+    if (meta.isWarmupPreload()) {
+      File dbFile = maxMindDatabase.getLocalDatabaseFile();
+      if (dbFile != null) {
+        long bytes = MaxMindWarmup.preloadPages(dbFile);
+        if (bytes > 0) {
+          logDetailed("Preloaded " + bytes + " bytes of database '" + dbFile + "'");
+        }
+      }
+    }
+
+    String ipFile = environmentSubstitute(meta.getWarmupIpFile());
+    String snapshotFile = environmentSubstitute(meta.getWarmupSnapshotFile());
+    File[] files = { Const.isEmpty(ipFile) ? null : new File(ipFile), getSnapshotFile(snapshotFile) };
+    if (files[1] != null && !files[1].isFile()) {
+      // no snapshot of this copy yet, the one of a single copy run is better than none
+      files[1] = new File(snapshotFile);
+    }
+    for (File file : files) {
+      // the snapshot is missing on the very first run
+      if (file != null && file.isFile()) {
+        int count = MaxMindWarmup.prepopulate(maxMindDatabase, file);
+        logDetailed("Warmed up the caches with " + count + " addresses from '" + file + "'");
+      }
+    }
+  }
+
+  /*
+   * @return the snapshot file of this step copy, null without a snapshot
+   */
+  private File getSnapshotFile(String snapshotFile) {
+    return Const.isEmpty(snapshotFile) ? null
+        : MaxMindWarmup.getSnapshotFile(snapshotFile, getCopy(), getStepMeta().getCopies());
+  }
+
   public void dispose(StepMetaInterface smi, StepDataInterface sdi)
   {
     meta = (MaxMindGeoIPLookupMeta) smi;
     data = (MaxMindGeoIPLookupData) sdi;
 
+    File snapshotFile = getSnapshotFile(environmentSubstitute(meta.getWarmupSnapshotFile()));
+    if (maxMindDatabase != null && maxMindDatabase.resultCache != null && snapshotFile != null) {
+      try {
+        int count = MaxMindWarmup.writeSnapshot(maxMindDatabase.resultCache, snapshotFile);
+        logDetailed("Wrote " + count + " cached addresses to snapshot '" + snapshotFile + "'");
+      } catch (IOException e) {
+        logError("Unable to write the warmup snapshot '" + snapshotFile + "'", e);
+      }
+    }
+
+    if (maxMindDatabase != null && maxMindDatabase.resultCache != null) {
+      MaxMindOffHeapCache cache = maxMindDatabase.resultCache;
+      logDetailed("Result cache hits: " + cache.getHits() + ", misses: " + cache.getMisses() + ", evictions: "
+          + cache.getEvictions() + ", rejected: " + cache.getRejections() + ", bypassed: " + cache.getBypassed()
+          + ", distinct records: " + cache.getRecordCount());
+      maxMindDatabase.setResultCacheSize(0); // lets the direct buffers go
+    }
+    if (data.history != null) {
+      data.history.close();
+    }
+    if (maxMindDatabase != null) {
+      maxMindDatabase.valuePool.close();
+      maxMindDatabase.closeLookupBackend();
+      try {
+        maxMindDatabase.releasePersistentCache();
+      } catch (IOException e) {
+        logError("Unable to flush the persistent cache file", e);
+      }
+    }
+
     super.dispose(smi, sdi);
   }
 }
@@ -5,6 +5,9 @@
 
 package com.maxmind.geoip;
 
+import java.util.List;
+
+import org.pentaho.di.core.RowSet;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.trans.step.BaseStepData;
 import org.pentaho.di.trans.step.StepDataInterface;
@@ -18,6 +21,53 @@ public class MaxMindGeoIPLookupData extends BaseStepData implements StepDataInte
 	public int ipAddressFieldIndex;
 	public RowMetaInterface outputRowMeta;
 	public int firstNewFieldIndex;
+	public boolean ipAddressBinary; // lazy conversion, the address is still the raw bytes of the input
+	public MaxMindIpExtractor.Mode ipExtraction;
+
+	// the additional IP address fields, their storage and where their lookup results go
+	public int[] additionalIpFieldIndexes;
+	public boolean[] additionalIpAddressBinary;
+	public int[] additionalFirstNewFieldIndexes;
+	public final MaxMindIpExtractor.ByteSequence ipAddressBytes = new MaxMindIpExtractor.ByteSequence();
+
+	// the input row with the looked up fields, the output row unless the rows are aggregated
+	public int lookupRowSize;
+	public int lookupFieldCount; // per IP field
+
+	// aggregation mode: the counters, the key of the current row and the input fields it is built from
+	MaxMindAggregator aggregator;
+	Object[] aggregateKey;
+	public int[] aggregateGroupFieldIndexes;
+	public int aggregateTimeFieldIndex;
+	public int aggregateSumFieldIndex;
+	public long aggregateWindowMillis;
+	public long aggregateCurrentWindow;
+
+	// filter mode: the address ranges of the records matching the condition, and where the rows go
+	MaxMindIntervalSet filter;
+	String filterCondition;
+	MaxMindIntervalSet[] historyFilters; // per database version, null until a row of the version needs them
+	public RowSet trueRowSet;
+	public RowSet falseRowSet;
+	public int filterFlagIndex; // -1 for no flag field
+	public List<RowSet> otherRowSets; // the next steps that are no filter target, null without targets
+	public int otherRowSetIndex;
+	public int aggregateFlagIndex; // -1 for no flag field
+
+	// local time: the timestamp input field, the looked up timezone and where the local time and offset go
+	MaxMindLocalTime localTime;
+	public int localTimeInputIndex;
+	public int timezoneIndex;
+	public int localTimeIndex; // -1 for no local time, the offset follows it
+
+	// database versions: the dated files and the time field picking one
+	MaxMindHistory<MaxMindDatabase> history;
+	public int historyTimeFieldIndex;
+	int historyVersion; // the version looked up in last
+
+	// the rows waiting to be looked up together, with database versions or a lookup backend
+	List<Object[]> batchRows;
+	String ipText; // the address text of the last extracted field, unless it was a dotted quad
 	
 
 	protected MaxMindGeoIPLookupData()
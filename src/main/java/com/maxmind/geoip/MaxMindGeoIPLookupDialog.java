@@ -8,6 +8,8 @@ package com.maxmind.geoip;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.CCombo;
+import org.eclipse.swt.custom.CTabFolder;
+import org.eclipse.swt.custom.CTabItem;
 import org.eclipse.swt.events.FocusListener;
 import org.eclipse.swt.events.ModifyEvent;
 import org.eclipse.swt.events.ModifyListener;
@@ -20,6 +22,7 @@ import org.eclipse.swt.layout.FormAttachment;
 import org.eclipse.swt.layout.FormData;
 import org.eclipse.swt.layout.FormLayout;
 import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Event;
@@ -31,6 +34,7 @@ import org.eclipse.swt.widgets.Table;
 import org.eclipse.swt.widgets.TableItem;
 import org.eclipse.swt.widgets.Text;
 import org.pentaho.di.core.Const;
+import org.pentaho.di.core.Props;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.i18n.BaseMessages;
@@ -54,6 +58,7 @@ public class MaxMindGeoIPLookupDialog extends BaseStepDialog implements StepDial
 
   private Label        wlDbType;
   private CCombo       wDbType;
+  private CCombo       wIpExtraction;
   private FormData     fdlDbType;
 
   private TextVar      wFilename;
@@ -63,11 +68,46 @@ public class MaxMindGeoIPLookupDialog extends BaseStepDialog implements StepDial
   private Label        wlDbInfo;
   private FormData     fdlDbInfo, fdDbInfo;
   
+  private CTabFolder   wTabFolder;
+
 	private Label        wlFields;
 	private TableView    wFields;
 	private FormData     fdlFields, fdFields;
 
+  private TextVar      wResultCacheSize;
+  private Button       wAdaptiveCaching;
+  private TextVar      wPersistentCacheFile;
+  private TextVar      wPersistentCacheSize;
+  private Button       wWarmupPreload;
+  private TextVar      wWarmupIpFile;
+  private TextVar      wWarmupSnapshotFile;
+  private TextVar      wLookupServer;
+  private CCombo       wLookupBackend;
+  private Button       wBinaryStringOutput;
+  private Button       wAggregate;
+  private TextVar      wAggregateCountField;
+  private TextVar      wAggregateSumField;
+  private TextVar      wAggregateTimeField;
+  private TextVar      wAggregateWindow;
+  private TableView    wAggregateGroupFields;
+  private TextVar      wFilterCondition;
+  private CCombo       wFilterTrueStep;
+  private CCombo       wFilterFalseStep;
+  private TextVar      wFilterFlagField;
+  private TextVar      wFilterSetFile;
+  private TextVar      wReferencePoints;
+  private TextVar      wGeohashPrecision;
+  private TextVar      wLocalTimeInputField;
+  private TextVar      wLocalTimeField;
+  private TextVar      wUtcOffsetField;
+  private TextVar      wHistoryDirectory;
+  private TextVar      wHistoryTimeField;
+  private TextVar      wHistoryMaxOpen;
+  private ColumnInfo[] groupColinf;
+
 	private ColumnInfo[] colinf;
+  private TableView    wIpFields;
+  private ColumnInfo[] ipColinf;
 	private MaxMindGeoIPLookupMeta  input;
 	private boolean gotPreviousFields=false;
 	
@@ -145,6 +185,30 @@ public class MaxMindGeoIPLookupDialog extends BaseStepDialog implements StepDial
     fdFieldname.right= new FormAttachment(100, 0);
     wFieldname.setLayoutData(fdFieldname);
     lastControl = wFieldname;
+
+    // How the address is picked out of the field
+    Label wlIpExtraction = new Label(shell, SWT.RIGHT);
+    wlIpExtraction.setText(BaseMessages.getString(PKG, "MaxMindGeoIPLookupDialog.IpExtraction.Label")); //$NON-NLS-1$
+    wlIpExtraction.setToolTipText(BaseMessages.getString(PKG, "MaxMindGeoIPLookupDialog.IpExtraction.Tooltip")); //$NON-NLS-1$
+    props.setLook(wlIpExtraction);
+    FormData fdlIpExtraction = new FormData();
+    fdlIpExtraction.left = new FormAttachment(0, 0);
+    fdlIpExtraction.right = new FormAttachment(middle, -margin);
+    fdlIpExtraction.top = new FormAttachment(lastControl, margin);
+    wlIpExtraction.setLayoutData(fdlIpExtraction);
+
+    wIpExtraction = new CCombo(shell, SWT.BORDER | SWT.READ_ONLY);
+    props.setLook(wIpExtraction);
+    wIpExtraction.addModifyListener(lsMod);
+    FormData fdIpExtraction = new FormData();
+    fdIpExtraction.left = new FormAttachment(middle, 0);
+    fdIpExtraction.top = new FormAttachment(lastControl, margin);
+    fdIpExtraction.right = new FormAttachment(100, 0);
+    wIpExtraction.setLayoutData(fdIpExtraction);
+    for (MaxMindIpExtractor.Mode mode : MaxMindIpExtractor.Mode.values()) {
+      wIpExtraction.add(BaseMessages.getString(PKG, "MaxMindGeoIPLookupDialog.IpExtraction." + mode.name())); //$NON-NLS-1$
+    }
+    lastControl = wIpExtraction;
     
     // Filename...
     // The filename browse button
@@ -216,14 +280,6 @@ public class MaxMindGeoIPLookupDialog extends BaseStepDialog implements StepDial
     fdDbInfo.right= new FormAttachment(100, 0);
     wlDbInfo.setLayoutData(fdDbInfo);
     lastControl = wbDbInfo;
-    
-    wlFields=new Label(shell, SWT.RIGHT);
-		wlFields.setText(BaseMessages.getString(PKG, "MaxMindGeoIPLookupDialog.Fields.Label")); //$NON-NLS-1$
- 		props.setLook(wlFields);
-		fdlFields=new FormData();
-		fdlFields.left = new FormAttachment(0, 0);
-		fdlFields.top  = new FormAttachment(lastControl, margin);
-		wlFields.setLayoutData(fdlFields);
 
 		wOK=new Button(shell, SWT.PUSH);
 		wOK.setText(BaseMessages.getString(PKG, "System.Button.OK")); //$NON-NLS-1$
@@ -232,6 +288,31 @@ public class MaxMindGeoIPLookupDialog extends BaseStepDialog implements StepDial
 
 		setButtonPositions(new Button[] { wOK, wCancel }, margin, null);
 
+    wTabFolder = new CTabFolder(shell, SWT.BORDER);
+    props.setLook(wTabFolder, Props.WIDGET_STYLE_TAB);
+    FormData fdTabFolder = new FormData();
+    fdTabFolder.left = new FormAttachment(0, 0);
+    fdTabFolder.top = new FormAttachment(lastControl, margin);
+    fdTabFolder.right = new FormAttachment(100, 0);
+    fdTabFolder.bottom = new FormAttachment(wOK, -2*margin);
+    wTabFolder.setLayoutData(fdTabFolder);
+
+    // Fields tab
+    CTabItem wFieldsTab = new CTabItem(wTabFolder, SWT.NONE);
+    wFieldsTab.setText(BaseMessages.getString(PKG, "MaxMindGeoIPLookupDialog.FieldsTab.Title")); //$NON-NLS-1$
+    Composite wFieldsComp = newTabComposite();
+    wFieldsTab.setControl(wFieldsComp);
+
+    wBinaryStringOutput = addCheckbox(wFieldsComp, null, "MaxMindGeoIPLookupDialog.BinaryStringOutput"); //$NON-NLS-1$
+
+    wlFields=new Label(wFieldsComp, SWT.RIGHT);
+		wlFields.setText(BaseMessages.getString(PKG, "MaxMindGeoIPLookupDialog.Fields.Label")); //$NON-NLS-1$
+ 		props.setLook(wlFields);
+		fdlFields=new FormData();
+		fdlFields.left = new FormAttachment(0, 0);
+		fdlFields.top  = new FormAttachment(wBinaryStringOutput, margin);
+		wlFields.setLayoutData(fdlFields);
+
 		//TODO: Support list of fields to add
 		//TODO: Need an enum of geoip data types
     final int fieldsRows = 0;
@@ -243,16 +324,125 @@ public class MaxMindGeoIPLookupDialog extends BaseStepDialog implements StepDial
             BaseMessages.getString(PKG, "MaxMindGeoIPLookupDialog.ColumnInfo.LookupType"), ColumnInfo.COLUMN_TYPE_CCOMBO, new String[] { "" }), //$NON-NLS-1$ //$NON-NLS-2$
         new ColumnInfo(
             BaseMessages.getString(PKG, "MaxMindGeoIPLookupDialog.ColumnInfo.IfNull"), ColumnInfo.COLUMN_TYPE_TEXT, false) }; //$NON-NLS-1$
-    wFields = new TableView(transMeta, shell, SWT.BORDER | SWT.FULL_SELECTION | SWT.MULTI, colinf, fieldsRows, lsMod,
+    wFields = new TableView(transMeta, wFieldsComp, SWT.BORDER | SWT.FULL_SELECTION | SWT.MULTI, colinf, fieldsRows, lsMod,
         props);
 
     fdFields = new FormData();
     fdFields.left = new FormAttachment(0, 0);
     fdFields.top = new FormAttachment(wlFields, margin);
 		fdFields.right  = new FormAttachment(100, 0);
-		fdFields.bottom = new FormAttachment(wOK, -2*margin);
+		fdFields.bottom = new FormAttachment(100, 0);
 		wFields.setLayoutData(fdFields);
 
+    // Additional IP fields tab
+    CTabItem wIpFieldsTab = new CTabItem(wTabFolder, SWT.NONE);
+    wIpFieldsTab.setText(BaseMessages.getString(PKG, "MaxMindGeoIPLookupDialog.IpFieldsTab.Title")); //$NON-NLS-1$
+    wIpFieldsTab.setToolTipText(BaseMessages.getString(PKG, "MaxMindGeoIPLookupDialog.IpFieldsTab.Tooltip")); //$NON-NLS-1$
+    Composite wIpFieldsComp = newTabComposite();
+    wIpFieldsTab.setControl(wIpFieldsComp);
+
+    ipColinf = new ColumnInfo[] {
+        new ColumnInfo(
+            BaseMessages.getString(PKG, "MaxMindGeoIPLookupDialog.ColumnInfo.IpField"), ColumnInfo.COLUMN_TYPE_CCOMBO, new String[] { "" }), //$NON-NLS-1$ //$NON-NLS-2$
+        new ColumnInfo(
+            BaseMessages.getString(PKG, "MaxMindGeoIPLookupDialog.ColumnInfo.Prefix"), ColumnInfo.COLUMN_TYPE_TEXT, false) }; //$NON-NLS-1$
+    wIpFields = new TableView(transMeta, wIpFieldsComp, SWT.BORDER | SWT.FULL_SELECTION | SWT.MULTI, ipColinf, 0, lsMod,
+        props);
+
+    FormData fdIpFields = new FormData();
+    fdIpFields.left = new FormAttachment(0, 0);
+    fdIpFields.top = new FormAttachment(0, margin);
+    fdIpFields.right = new FormAttachment(100, 0);
+    fdIpFields.bottom = new FormAttachment(100, 0);
+    wIpFields.setLayoutData(fdIpFields);
+
+    // Cache tab
+    CTabItem wCacheTab = new CTabItem(wTabFolder, SWT.NONE);
+    wCacheTab.setText(BaseMessages.getString(PKG, "MaxMindGeoIPLookupDialog.CacheTab.Title")); //$NON-NLS-1$
+    Composite wCacheComp = newTabComposite();
+    wCacheTab.setControl(wCacheComp);
+
+    wResultCacheSize = addTextVar(wCacheComp, null, "MaxMindGeoIPLookupDialog.ResultCacheSize", lsMod); //$NON-NLS-1$
+    wAdaptiveCaching = addCheckbox(wCacheComp, wResultCacheSize, "MaxMindGeoIPLookupDialog.AdaptiveCaching"); //$NON-NLS-1$
+    wPersistentCacheFile = addTextVar(wCacheComp, wAdaptiveCaching, "MaxMindGeoIPLookupDialog.PersistentCacheFile", lsMod); //$NON-NLS-1$
+    wPersistentCacheSize = addTextVar(wCacheComp, wPersistentCacheFile, "MaxMindGeoIPLookupDialog.PersistentCacheSize", lsMod); //$NON-NLS-1$
+    wWarmupPreload = addCheckbox(wCacheComp, wPersistentCacheSize, "MaxMindGeoIPLookupDialog.WarmupPreload"); //$NON-NLS-1$
+    wWarmupIpFile = addTextVar(wCacheComp, wWarmupPreload, "MaxMindGeoIPLookupDialog.WarmupIpFile", lsMod); //$NON-NLS-1$
+    wWarmupSnapshotFile = addTextVar(wCacheComp, wWarmupIpFile, "MaxMindGeoIPLookupDialog.WarmupSnapshotFile", lsMod); //$NON-NLS-1$
+    wLookupBackend = addCombo(wCacheComp, wWarmupSnapshotFile, "MaxMindGeoIPLookupDialog.LookupBackend", //$NON-NLS-1$
+        MaxMindLookupBackends.getNames(), lsMod);
+    wLookupServer = addTextVar(wCacheComp, wLookupBackend, "MaxMindGeoIPLookupDialog.LookupServer", lsMod); //$NON-NLS-1$
+
+    // Aggregation tab
+    CTabItem wAggregateTab = new CTabItem(wTabFolder, SWT.NONE);
+    wAggregateTab.setText(BaseMessages.getString(PKG, "MaxMindGeoIPLookupDialog.AggregateTab.Title")); //$NON-NLS-1$
+    Composite wAggregateComp = newTabComposite();
+    wAggregateTab.setControl(wAggregateComp);
+
+    wAggregate = addCheckbox(wAggregateComp, null, "MaxMindGeoIPLookupDialog.Aggregate"); //$NON-NLS-1$
+    wAggregateCountField = addTextVar(wAggregateComp, wAggregate, "MaxMindGeoIPLookupDialog.AggregateCountField", lsMod); //$NON-NLS-1$
+    wAggregateSumField = addTextVar(wAggregateComp, wAggregateCountField, "MaxMindGeoIPLookupDialog.AggregateSumField", lsMod); //$NON-NLS-1$
+    wAggregateTimeField = addTextVar(wAggregateComp, wAggregateSumField, "MaxMindGeoIPLookupDialog.AggregateTimeField", lsMod); //$NON-NLS-1$
+    wAggregateWindow = addTextVar(wAggregateComp, wAggregateTimeField, "MaxMindGeoIPLookupDialog.AggregateWindow", lsMod); //$NON-NLS-1$
+
+    Label wlAggregateGroupFields = new Label(wAggregateComp, SWT.RIGHT);
+    wlAggregateGroupFields.setText(BaseMessages.getString(PKG, "MaxMindGeoIPLookupDialog.AggregateGroupFields.Label")); //$NON-NLS-1$
+    props.setLook(wlAggregateGroupFields);
+    FormData fdlAggregateGroupFields = new FormData();
+    fdlAggregateGroupFields.left = new FormAttachment(0, 0);
+    fdlAggregateGroupFields.top = new FormAttachment(wAggregateWindow, margin);
+    wlAggregateGroupFields.setLayoutData(fdlAggregateGroupFields);
+
+    groupColinf = new ColumnInfo[] {
+        new ColumnInfo(
+            BaseMessages.getString(PKG, "MaxMindGeoIPLookupDialog.ColumnInfo.GroupField"), ColumnInfo.COLUMN_TYPE_CCOMBO, new String[] { "" }) }; //$NON-NLS-1$ //$NON-NLS-2$
+    wAggregateGroupFields = new TableView(transMeta, wAggregateComp, SWT.BORDER | SWT.FULL_SELECTION | SWT.MULTI, groupColinf, 0, lsMod,
+        props);
+
+    FormData fdAggregateGroupFields = new FormData();
+    fdAggregateGroupFields.left = new FormAttachment(0, 0);
+    fdAggregateGroupFields.top = new FormAttachment(wlAggregateGroupFields, margin);
+    fdAggregateGroupFields.right = new FormAttachment(100, 0);
+    fdAggregateGroupFields.bottom = new FormAttachment(100, 0);
+    wAggregateGroupFields.setLayoutData(fdAggregateGroupFields);
+
+    // Filter tab
+    CTabItem wFilterTab = new CTabItem(wTabFolder, SWT.NONE);
+    wFilterTab.setText(BaseMessages.getString(PKG, "MaxMindGeoIPLookupDialog.FilterTab.Title")); //$NON-NLS-1$
+    Composite wFilterComp = newTabComposite();
+    wFilterTab.setControl(wFilterComp);
+
+    String[] nextSteps = transMeta.getNextStepNames(stepMeta);
+    wFilterCondition = addTextVar(wFilterComp, null, "MaxMindGeoIPLookupDialog.FilterCondition", lsMod); //$NON-NLS-1$
+    wFilterTrueStep = addCombo(wFilterComp, wFilterCondition, "MaxMindGeoIPLookupDialog.FilterTrueStep", nextSteps, lsMod); //$NON-NLS-1$
+    wFilterFalseStep = addCombo(wFilterComp, wFilterTrueStep, "MaxMindGeoIPLookupDialog.FilterFalseStep", nextSteps, lsMod); //$NON-NLS-1$
+    wFilterFlagField = addTextVar(wFilterComp, wFilterFalseStep, "MaxMindGeoIPLookupDialog.FilterFlagField", lsMod); //$NON-NLS-1$
+    wFilterSetFile = addTextVar(wFilterComp, wFilterFlagField, "MaxMindGeoIPLookupDialog.FilterSetFile", lsMod); //$NON-NLS-1$
+
+    // Computed fields tab
+    CTabItem wComputedTab = new CTabItem(wTabFolder, SWT.NONE);
+    wComputedTab.setText(BaseMessages.getString(PKG, "MaxMindGeoIPLookupDialog.ComputedTab.Title")); //$NON-NLS-1$
+    Composite wComputedComp = newTabComposite();
+    wComputedTab.setControl(wComputedComp);
+
+    wReferencePoints = addTextVar(wComputedComp, null, "MaxMindGeoIPLookupDialog.ReferencePoints", lsMod); //$NON-NLS-1$
+    wGeohashPrecision = addTextVar(wComputedComp, wReferencePoints, "MaxMindGeoIPLookupDialog.GeohashPrecision", lsMod); //$NON-NLS-1$
+    wLocalTimeInputField = addTextVar(wComputedComp, wGeohashPrecision, "MaxMindGeoIPLookupDialog.LocalTimeInputField", lsMod); //$NON-NLS-1$
+    wLocalTimeField = addTextVar(wComputedComp, wLocalTimeInputField, "MaxMindGeoIPLookupDialog.LocalTimeField", lsMod); //$NON-NLS-1$
+    wUtcOffsetField = addTextVar(wComputedComp, wLocalTimeField, "MaxMindGeoIPLookupDialog.UtcOffsetField", lsMod); //$NON-NLS-1$
+
+    // Database versions tab
+    CTabItem wHistoryTab = new CTabItem(wTabFolder, SWT.NONE);
+    wHistoryTab.setText(BaseMessages.getString(PKG, "MaxMindGeoIPLookupDialog.HistoryTab.Title")); //$NON-NLS-1$
+    Composite wHistoryComp = newTabComposite();
+    wHistoryTab.setControl(wHistoryComp);
+
+    wHistoryDirectory = addTextVar(wHistoryComp, null, "MaxMindGeoIPLookupDialog.HistoryDirectory", lsMod); //$NON-NLS-1$
+    wHistoryTimeField = addTextVar(wHistoryComp, wHistoryDirectory, "MaxMindGeoIPLookupDialog.HistoryTimeField", lsMod); //$NON-NLS-1$
+    wHistoryMaxOpen = addTextVar(wHistoryComp, wHistoryTimeField, "MaxMindGeoIPLookupDialog.HistoryMaxOpen", lsMod); //$NON-NLS-1$
+
+    wTabFolder.setSelection(0);
+
 		// Add listeners
 		lsOK       = new Listener() { public void handleEvent(Event e) { ok();     } };
 		lsCancel   = new Listener() { public void handleEvent(Event e) { cancel(); } };
@@ -337,12 +527,41 @@ public class MaxMindGeoIPLookupDialog extends BaseStepDialog implements StepDial
 
     if (input.getIpAddressFieldName() != null)
       wFieldname.setText(input.getIpAddressFieldName());
+    wIpExtraction.select(MaxMindIpExtractor.Mode.fromCode(input.getIpExtraction()).ordinal());
     if (input.getDbLocation() != null) {
       wFilename.setText(input.getDbLocation());
     }
     if (input.getDbType() != null) {
       wDbType.setText(input.getDbType());
     }
+    wResultCacheSize.setText(Const.NVL(input.getResultCacheSize(), "")); //$NON-NLS-1$
+    wAdaptiveCaching.setSelection(input.isAdaptiveCaching());
+    wPersistentCacheFile.setText(Const.NVL(input.getPersistentCacheFile(), "")); //$NON-NLS-1$
+    wPersistentCacheSize.setText(Const.NVL(input.getPersistentCacheSize(), "")); //$NON-NLS-1$
+    wWarmupPreload.setSelection(input.isWarmupPreload());
+    wWarmupIpFile.setText(Const.NVL(input.getWarmupIpFile(), "")); //$NON-NLS-1$
+    wWarmupSnapshotFile.setText(Const.NVL(input.getWarmupSnapshotFile(), "")); //$NON-NLS-1$
+    wLookupServer.setText(Const.NVL(input.getLookupServer(), "")); //$NON-NLS-1$
+    wLookupBackend.setText(Const.NVL(input.getLookupBackend(), MaxMindLookupBackends.DEFAULT));
+    wBinaryStringOutput.setSelection(input.isBinaryStringOutput());
+    wAggregate.setSelection(input.isAggregate());
+    wAggregateCountField.setText(Const.NVL(input.getAggregateCountField(), "")); //$NON-NLS-1$
+    wAggregateSumField.setText(Const.NVL(input.getAggregateSumField(), "")); //$NON-NLS-1$
+    wAggregateTimeField.setText(Const.NVL(input.getAggregateTimeField(), "")); //$NON-NLS-1$
+    wAggregateWindow.setText(Const.NVL(input.getAggregateWindow(), "")); //$NON-NLS-1$
+    wFilterCondition.setText(Const.NVL(input.getFilterCondition(), "")); //$NON-NLS-1$
+    wFilterTrueStep.setText(Const.NVL(input.getFilterTrueStepName(), "")); //$NON-NLS-1$
+    wFilterFalseStep.setText(Const.NVL(input.getFilterFalseStepName(), "")); //$NON-NLS-1$
+    wFilterFlagField.setText(Const.NVL(input.getFilterFlagField(), "")); //$NON-NLS-1$
+    wFilterSetFile.setText(Const.NVL(input.getFilterSetFile(), "")); //$NON-NLS-1$
+    wReferencePoints.setText(Const.NVL(input.getReferencePoints(), "")); //$NON-NLS-1$
+    wGeohashPrecision.setText(Const.NVL(input.getGeohashPrecision(), "")); //$NON-NLS-1$
+    wLocalTimeInputField.setText(Const.NVL(input.getLocalTimeInputField(), "")); //$NON-NLS-1$
+    wLocalTimeField.setText(Const.NVL(input.getLocalTimeField(), "")); //$NON-NLS-1$
+    wUtcOffsetField.setText(Const.NVL(input.getUtcOffsetField(), "")); //$NON-NLS-1$
+    wHistoryDirectory.setText(Const.NVL(input.getHistoryDirectory(), "")); //$NON-NLS-1$
+    wHistoryTimeField.setText(Const.NVL(input.getHistoryTimeField(), "")); //$NON-NLS-1$
+    wHistoryMaxOpen.setText(Const.NVL(input.getHistoryMaxOpen(), "")); //$NON-NLS-1$
     
     updateDbInfo();
     
@@ -359,9 +578,131 @@ public class MaxMindGeoIPLookupDialog extends BaseStepDialog implements StepDial
     wFields.setRowNums();
     wFields.optWidth(true);
 
+    Table ipTable = wIpFields.table;
+    if (input.getAdditionalIpFieldName().length>0) ipTable.removeAll();
+    for (int i=0;i<input.getAdditionalIpFieldName().length;i++)
+    {
+      TableItem ti = new TableItem(ipTable, SWT.NONE);
+      ti.setText(0, ""+(i+1)); //$NON-NLS-1$
+      ti.setText(1, Const.NVL(input.getAdditionalIpFieldName()[i], "")); //$NON-NLS-1$
+      ti.setText(2, Const.NVL(input.getAdditionalIpFieldPrefix()[i], "")); //$NON-NLS-1$
+    }
+    wIpFields.setRowNums();
+    wIpFields.optWidth(true);
+
+    Table groupTable = wAggregateGroupFields.table;
+    if (input.getAggregateGroupField().length>0) groupTable.removeAll();
+    for (int i=0;i<input.getAggregateGroupField().length;i++)
+    {
+      TableItem ti = new TableItem(groupTable, SWT.NONE);
+      ti.setText(0, ""+(i+1)); //$NON-NLS-1$
+      ti.setText(1, Const.NVL(input.getAggregateGroupField()[i], "")); //$NON-NLS-1$
+    }
+    wAggregateGroupFields.setRowNums();
+    wAggregateGroupFields.optWidth(true);
+
     wStepname.selectAll();
   }
 
+  private Composite newTabComposite() {
+    Composite comp = new Composite(wTabFolder, SWT.NONE);
+    props.setLook(comp);
+    FormLayout layout = new FormLayout();
+    layout.marginWidth = Const.FORM_MARGIN;
+    layout.marginHeight = Const.FORM_MARGIN;
+    comp.setLayout(layout);
+    return comp;
+  }
+
+  /*
+   * Adds a label and variable aware text field below the previous control of a tab.
+   */
+  private TextVar addTextVar(Composite parent, Control lastControl, String messageKey, ModifyListener lsMod) {
+    int middle = props.getMiddlePct();
+    int margin = Const.MARGIN;
+
+    Label wlText = new Label(parent, SWT.RIGHT);
+    wlText.setText(BaseMessages.getString(PKG, messageKey + ".Label")); //$NON-NLS-1$
+    wlText.setToolTipText(BaseMessages.getString(PKG, messageKey + ".Tooltip")); //$NON-NLS-1$
+    props.setLook(wlText);
+    FormData fdlText = new FormData();
+    fdlText.left = new FormAttachment(0, 0);
+    fdlText.right = new FormAttachment(middle, -margin);
+    fdlText.top = (lastControl == null) ? new FormAttachment(0, margin) : new FormAttachment(lastControl, margin);
+    wlText.setLayoutData(fdlText);
+
+    TextVar wText = new TextVar(transMeta, parent, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+    props.setLook(wText);
+    wText.addModifyListener(lsMod);
+    FormData fdText = new FormData();
+    fdText.left = new FormAttachment(middle, 0);
+    fdText.right = new FormAttachment(100, 0);
+    fdText.top = (lastControl == null) ? new FormAttachment(0, margin) : new FormAttachment(lastControl, margin);
+    wText.setLayoutData(fdText);
+    return wText;
+  }
+
+  /*
+   * Adds a label and combo box below the previous control of a tab.
+   */
+  private CCombo addCombo(Composite parent, Control lastControl, String messageKey, String[] items, ModifyListener lsMod) {
+    int middle = props.getMiddlePct();
+    int margin = Const.MARGIN;
+
+    Label wlCombo = new Label(parent, SWT.RIGHT);
+    wlCombo.setText(BaseMessages.getString(PKG, messageKey + ".Label")); //$NON-NLS-1$
+    wlCombo.setToolTipText(BaseMessages.getString(PKG, messageKey + ".Tooltip")); //$NON-NLS-1$
+    props.setLook(wlCombo);
+    FormData fdlCombo = new FormData();
+    fdlCombo.left = new FormAttachment(0, 0);
+    fdlCombo.right = new FormAttachment(middle, -margin);
+    fdlCombo.top = (lastControl == null) ? new FormAttachment(0, margin) : new FormAttachment(lastControl, margin);
+    wlCombo.setLayoutData(fdlCombo);
+
+    CCombo wCombo = new CCombo(parent, SWT.BORDER);
+    props.setLook(wCombo);
+    wCombo.setItems(items);
+    wCombo.addModifyListener(lsMod);
+    FormData fdCombo = new FormData();
+    fdCombo.left = new FormAttachment(middle, 0);
+    fdCombo.right = new FormAttachment(100, 0);
+    fdCombo.top = (lastControl == null) ? new FormAttachment(0, margin) : new FormAttachment(lastControl, margin);
+    wCombo.setLayoutData(fdCombo);
+    return wCombo;
+  }
+
+  /*
+   * Adds a label and check box below the previous control of a tab.
+   */
+  private Button addCheckbox(Composite parent, Control lastControl, String messageKey) {
+    int middle = props.getMiddlePct();
+    int margin = Const.MARGIN;
+
+    Label wlCheck = new Label(parent, SWT.RIGHT);
+    wlCheck.setText(BaseMessages.getString(PKG, messageKey + ".Label")); //$NON-NLS-1$
+    wlCheck.setToolTipText(BaseMessages.getString(PKG, messageKey + ".Tooltip")); //$NON-NLS-1$
+    props.setLook(wlCheck);
+    FormData fdlCheck = new FormData();
+    fdlCheck.left = new FormAttachment(0, 0);
+    fdlCheck.right = new FormAttachment(middle, -margin);
+    fdlCheck.top = (lastControl == null) ? new FormAttachment(0, margin) : new FormAttachment(lastControl, margin);
+    wlCheck.setLayoutData(fdlCheck);
+
+    Button wCheck = new Button(parent, SWT.CHECK);
+    props.setLook(wCheck);
+    FormData fdCheck = new FormData();
+    fdCheck.left = new FormAttachment(middle, 0);
+    fdCheck.right = new FormAttachment(100, 0);
+    fdCheck.top = (lastControl == null) ? new FormAttachment(0, margin) : new FormAttachment(lastControl, margin);
+    wCheck.setLayoutData(fdCheck);
+    wCheck.addSelectionListener(new SelectionAdapter() {
+      public void widgetSelected(SelectionEvent e) {
+        input.setChanged();
+      }
+    });
+    return wCheck;
+  }
+
 	private void updateDbInfo() {
 	  
 	  MaxMindGeoIPLookupMeta meta = new MaxMindGeoIPLookupMeta();
@@ -382,13 +723,16 @@ public class MaxMindGeoIPLookupDialog extends BaseStepDialog implements StepDial
       wFieldname.removeAll();
       RowMetaInterface r = transMeta.getPrevStepFields(stepname);
       if (r!=null)
-      { // Only let them select the string fields
+      {
+        groupColinf[0].setComboValues( r.getFieldNames() );
+        // Only let them select the string fields
         for ( int i = 0; i < r.size(); ++i ) {
            if ( r.getValueMeta(i).isString() ) {
              wFieldname.add( r.getValueMeta(i).getName() );
            }
         }
         if(fieldname!=null) wFieldname.setText(fieldname);
+        ipColinf[0].setComboValues( wFieldname.getItems() );
       }
     }
     catch(KettleException ke)
@@ -417,8 +761,38 @@ public class MaxMindGeoIPLookupDialog extends BaseStepDialog implements StepDial
   
   public void getInfo(MaxMindGeoIPLookupMeta meta) {
     meta.setIpAddressFieldName(wFieldname.getText());
+    meta.setIpExtraction(MaxMindIpExtractor.Mode.values()[Math.max(0, wIpExtraction.getSelectionIndex())].name());
     meta.setDbLocation(wFilename.getText());
     meta.setDbType(wDbType.getText());
+    meta.setResultCacheSize(wResultCacheSize.getText());
+    meta.setAdaptiveCaching(wAdaptiveCaching.getSelection());
+    meta.setPersistentCacheFile(wPersistentCacheFile.getText());
+    meta.setPersistentCacheSize(wPersistentCacheSize.getText());
+    meta.setWarmupPreload(wWarmupPreload.getSelection());
+    meta.setWarmupIpFile(wWarmupIpFile.getText());
+    meta.setWarmupSnapshotFile(wWarmupSnapshotFile.getText());
+    meta.setLookupServer(wLookupServer.getText());
+    meta.setLookupBackend(wLookupBackend.getText());
+    meta.setBinaryStringOutput(wBinaryStringOutput.getSelection());
+    meta.setAggregate(wAggregate.getSelection());
+    meta.setAggregateCountField(wAggregateCountField.getText());
+    meta.setAggregateSumField(wAggregateSumField.getText());
+    meta.setAggregateTimeField(wAggregateTimeField.getText());
+    meta.setAggregateWindow(wAggregateWindow.getText());
+    meta.setFilterCondition(wFilterCondition.getText());
+    meta.setFilterTrueStepName(wFilterTrueStep.getText());
+    meta.setFilterFalseStepName(wFilterFalseStep.getText());
+    meta.searchInfoAndTargetSteps(transMeta.getSteps());
+    meta.setFilterFlagField(wFilterFlagField.getText());
+    meta.setFilterSetFile(wFilterSetFile.getText());
+    meta.setReferencePoints(wReferencePoints.getText());
+    meta.setGeohashPrecision(wGeohashPrecision.getText());
+    meta.setLocalTimeInputField(wLocalTimeInputField.getText());
+    meta.setLocalTimeField(wLocalTimeField.getText());
+    meta.setUtcOffsetField(wUtcOffsetField.getText());
+    meta.setHistoryDirectory(wHistoryDirectory.getText());
+    meta.setHistoryTimeField(wHistoryTimeField.getText());
+    meta.setHistoryMaxOpen(wHistoryMaxOpen.getText());
 
     //Table table = wFields.table;
     int nrfields = wFields.nrNonEmpty();
@@ -433,5 +807,25 @@ public class MaxMindGeoIPLookupDialog extends BaseStepDialog implements StepDial
       meta.getFieldLookupType()[i] = ti.getText(2);
       meta.getFieldIfNull()[i] = ti.getText(3);
     }
+
+    int nrIpFields = wIpFields.nrNonEmpty();
+
+    meta.allocateAdditionalIpFields(nrIpFields);
+
+    for (int i = 0; i < nrIpFields; i++)
+    {
+      final TableItem ti = wIpFields.getNonEmpty(i);
+      meta.getAdditionalIpFieldName()[i] = ti.getText(1);
+      meta.getAdditionalIpFieldPrefix()[i] = ti.getText(2);
+    }
+
+    int nrGroupFields = wAggregateGroupFields.nrNonEmpty();
+
+    meta.allocateAggregateGroupFields(nrGroupFields);
+
+    for (int i = 0; i < nrGroupFields; i++)
+    {
+      meta.getAggregateGroupField()[i] = wAggregateGroupFields.getNonEmpty(i).getText(1);
+    }
   }
 }
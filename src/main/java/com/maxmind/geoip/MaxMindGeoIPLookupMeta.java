@@ -1,6 +1,8 @@
 package com.maxmind.geoip;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import org.eclipse.swt.widgets.Shell;
 import org.pentaho.di.core.CheckResult;
@@ -10,11 +12,16 @@ import org.pentaho.di.core.annotations.Step;
 import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.exception.KettleDatabaseException;
 import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettlePluginException;
 import org.pentaho.di.core.exception.KettleStepException;
 import org.pentaho.di.core.exception.KettleXMLException;
 import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaBoolean;
+import org.pentaho.di.core.row.value.ValueMetaFactory;
 import org.pentaho.di.core.variables.VariableSpace;
 import org.pentaho.di.core.xml.XMLHandler;
+import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.repository.ObjectId;
 import org.pentaho.di.repository.Repository;
 import org.pentaho.di.trans.Trans;
@@ -22,9 +29,15 @@ import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.step.BaseStepMeta;
 import org.pentaho.di.trans.step.StepDataInterface;
 import org.pentaho.di.trans.step.StepDialogInterface;
+import org.pentaho.di.trans.step.StepIOMeta;
+import org.pentaho.di.trans.step.StepIOMetaInterface;
 import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
 import org.pentaho.di.trans.step.StepMetaInterface;
+import org.pentaho.di.trans.step.errorhandling.Stream;
+import org.pentaho.di.trans.step.errorhandling.StreamIcon;
+import org.pentaho.di.trans.step.errorhandling.StreamInterface;
+import org.pentaho.di.trans.step.errorhandling.StreamInterface.StreamType;
 import org.pentaho.metastore.api.IMetaStore;
 import org.w3c.dom.Node;
 
@@ -34,8 +47,16 @@ import org.w3c.dom.Node;
  */
 @Step(id = "MaxMindGeoIPLookup", name = "MaxMindGeoIPLookupMeta.TypeLongDesc.MaxMindGeoIPLookup", image = "com/maxmind/geoip/MGL.png", description = "MaxMindGeoIPLookupMeta.TypeTooltipDesc.MaxMindGeoIPLookup", i18nPackageName = "com.maxmind.geoip", categoryDescription = "MaxMindGeoIPLookupMeta.Category", isSeparateClassLoaderNeeded = true)
 public class MaxMindGeoIPLookupMeta extends BaseStepMeta implements StepMetaInterface {
+  private static Class<?> PKG = MaxMindGeoIPLookupMeta.class;
+
   private String ipAddressFieldName;
 
+  private String ipExtraction;
+
+  private String additionalIpFieldName[] = new String[0];
+
+  private String additionalIpFieldPrefix[] = new String[0];
+
   private String dbLocation;
 
   private String dbType;
@@ -46,6 +67,64 @@ public class MaxMindGeoIPLookupMeta extends BaseStepMeta implements StepMetaInte
 
   private String fieldIfNull[];
 
+  private String resultCacheSize;
+
+  private boolean adaptiveCaching;
+
+  private String persistentCacheFile;
+
+  private String persistentCacheSize;
+
+  private boolean warmupPreload;
+
+  private String warmupIpFile;
+
+  private String warmupSnapshotFile;
+
+  private boolean binaryStringOutput;
+
+  private boolean aggregate;
+
+  private String aggregateGroupField[] = new String[0];
+
+  private String aggregateTimeField;
+
+  private String aggregateWindow;
+
+  private String aggregateSumField;
+
+  private String aggregateCountField;
+
+  private String filterCondition;
+
+  private String filterTrueStepName;
+
+  private String filterFalseStepName;
+
+  private String filterFlagField;
+
+  private String filterSetFile;
+
+  private String referencePoints;
+
+  private String geohashPrecision;
+
+  private String localTimeInputField;
+
+  private String localTimeField;
+
+  private String utcOffsetField;
+
+  private String historyDirectory;
+
+  private String historyTimeField;
+
+  private String historyMaxOpen;
+
+  private String lookupServer;
+
+  private String lookupBackend;
+
   public String getIpAddressFieldName() {
     return ipAddressFieldName;
   }
@@ -54,6 +133,39 @@ public class MaxMindGeoIPLookupMeta extends BaseStepMeta implements StepMetaInte
     this.ipAddressFieldName = ipAddressFieldName;
   }
 
+  /**
+   * @return how the address is picked out of the IP field: none, first, last or first_public
+   */
+  public String getIpExtraction() {
+    return ipExtraction;
+  }
+
+  public void setIpExtraction(String ipExtraction) {
+    this.ipExtraction = ipExtraction;
+  }
+
+  /**
+   * @return further IP address fields of the row, looked up with the same fields, reader and caches
+   */
+  public String[] getAdditionalIpFieldName() {
+    return additionalIpFieldName;
+  }
+
+  public void setAdditionalIpFieldName(String[] additionalIpFieldName) {
+    this.additionalIpFieldName = additionalIpFieldName;
+  }
+
+  /**
+   * @return prefix put before the output field names of each additional IP address field
+   */
+  public String[] getAdditionalIpFieldPrefix() {
+    return additionalIpFieldPrefix;
+  }
+
+  public void setAdditionalIpFieldPrefix(String[] additionalIpFieldPrefix) {
+    this.additionalIpFieldPrefix = additionalIpFieldPrefix;
+  }
+
   public String getDbLocation() {
     return dbLocation;
   }
@@ -94,6 +206,352 @@ public class MaxMindGeoIPLookupMeta extends BaseStepMeta implements StepMetaInte
     this.fieldIfNull = fieldIfNull;
   }
 
+  /**
+   * @return size of the off-heap result cache in MB, empty or 0 disables the cache
+   */
+  public String getResultCacheSize() {
+    return resultCacheSize;
+  }
+
+  public void setResultCacheSize(String resultCacheSize) {
+    this.resultCacheSize = resultCacheSize;
+  }
+
+  /**
+   * @return true if the result cache admits addresses by their frequency and bypasses itself on streams without
+   * repeats
+   */
+  public boolean isAdaptiveCaching() {
+    return adaptiveCaching;
+  }
+
+  public void setAdaptiveCaching(boolean adaptiveCaching) {
+    this.adaptiveCaching = adaptiveCaching;
+  }
+
+  /**
+   * @return memory mapped file that keeps the lookup results between runs, empty disables it
+   */
+  public String getPersistentCacheFile() {
+    return persistentCacheFile;
+  }
+
+  public void setPersistentCacheFile(String persistentCacheFile) {
+    this.persistentCacheFile = persistentCacheFile;
+  }
+
+  /**
+   * @return size of the persistent cache file in MB
+   */
+  public String getPersistentCacheSize() {
+    return persistentCacheSize;
+  }
+
+  public void setPersistentCacheSize(String persistentCacheSize) {
+    this.persistentCacheSize = persistentCacheSize;
+  }
+
+  /**
+   * @return true to load all database pages into memory at init
+   */
+  public boolean isWarmupPreload() {
+    return warmupPreload;
+  }
+
+  public void setWarmupPreload(boolean warmupPreload) {
+    this.warmupPreload = warmupPreload;
+  }
+
+  /**
+   * @return file with frequent IP addresses (one per line) that are looked up at init to fill the caches
+   */
+  public String getWarmupIpFile() {
+    return warmupIpFile;
+  }
+
+  public void setWarmupIpFile(String warmupIpFile) {
+    this.warmupIpFile = warmupIpFile;
+  }
+
+  /**
+   * @return file the cached IP addresses are written to at dispose, and read back to fill the caches at init
+   */
+  public String getWarmupSnapshotFile() {
+    return warmupSnapshotFile;
+  }
+
+  public void setWarmupSnapshotFile(String warmupSnapshotFile) {
+    this.warmupSnapshotFile = warmupSnapshotFile;
+  }
+
+  /**
+   * @return true to hand the looked up text fields on as UTF-8 bytes (binary string storage) instead of Strings
+   */
+  public boolean isBinaryStringOutput() {
+    return binaryStringOutput;
+  }
+
+  public void setBinaryStringOutput(boolean binaryStringOutput) {
+    this.binaryStringOutput = binaryStringOutput;
+  }
+
+  /**
+   * @return true to count the rows per distinct looked up fields (and group fields) instead of passing them on
+   */
+  public boolean isAggregate() {
+    return aggregate;
+  }
+
+  public void setAggregate(boolean aggregate) {
+    this.aggregate = aggregate;
+  }
+
+  /**
+   * @return input fields the rows are grouped by, in addition to the looked up fields
+   */
+  public String[] getAggregateGroupField() {
+    return aggregateGroupField;
+  }
+
+  public void setAggregateGroupField(String[] aggregateGroupField) {
+    this.aggregateGroupField = aggregateGroupField;
+  }
+
+  /**
+   * @return Date field that puts the rows into time windows, empty to count until the end of the stream
+   */
+  public String getAggregateTimeField() {
+    return aggregateTimeField;
+  }
+
+  public void setAggregateTimeField(String aggregateTimeField) {
+    this.aggregateTimeField = aggregateTimeField;
+  }
+
+  /**
+   * @return length of a time window in seconds
+   */
+  public String getAggregateWindow() {
+    return aggregateWindow;
+  }
+
+  public void setAggregateWindow(String aggregateWindow) {
+    this.aggregateWindow = aggregateWindow;
+  }
+
+  /**
+   * @return numeric field summed up per group, empty for none
+   */
+  public String getAggregateSumField() {
+    return aggregateSumField;
+  }
+
+  public void setAggregateSumField(String aggregateSumField) {
+    this.aggregateSumField = aggregateSumField;
+  }
+
+  /**
+   * @return name of the output field with the number of rows per group
+   */
+  public String getAggregateCountField() {
+    return aggregateCountField;
+  }
+
+  public void setAggregateCountField(String aggregateCountField) {
+    this.aggregateCountField = aggregateCountField;
+  }
+
+  /**
+   * @return condition on the database fields the rows are filtered by, see MaxMindPredicate; empty for no filter
+   */
+  public String getFilterCondition() {
+    return filterCondition;
+  }
+
+  public void setFilterCondition(String filterCondition) {
+    this.filterCondition = filterCondition;
+  }
+
+  /**
+   * @return step the rows matching the filter condition are sent to, empty to pass them on to the next steps that
+   * are no filter target
+   */
+  public String getFilterTrueStepName() {
+    return getTargetStepName(0, filterTrueStepName);
+  }
+
+  public void setFilterTrueStepName(String filterTrueStepName) {
+    this.filterTrueStepName = filterTrueStepName;
+    setTargetStepName(0, filterTrueStepName);
+  }
+
+  /**
+   * @return step the other rows are sent to, empty to drop them.  Not with aggregation.
+   */
+  public String getFilterFalseStepName() {
+    return getTargetStepName(1, filterFalseStepName);
+  }
+
+  public void setFilterFalseStepName(String filterFalseStepName) {
+    this.filterFalseStepName = filterFalseStepName;
+    setTargetStepName(1, filterFalseStepName);
+  }
+
+  /*
+   * The name of the step a target stream was connected to, it follows renames of the step.  Before the steps are
+   * searched it is the name that was set.
+   */
+  private String getTargetStepName(int index, String name) {
+    StreamInterface stream = getStepIOMeta().getTargetStreams().get(index);
+    return (stream.getStepMeta() == null) ? name : stream.getStepname();
+  }
+
+  private void setTargetStepName(int index, String name) {
+    if (ioMeta != null) {
+      StreamInterface stream = ioMeta.getTargetStreams().get(index);
+      stream.setSubject(name);
+      stream.setStepMeta(null);
+    }
+  }
+
+  /**
+   * @return name of the Boolean output field telling if the row matches the filter condition, empty for none.  With
+   * a flag field the other rows are not dropped.
+   */
+  public String getFilterFlagField() {
+    return filterFlagField;
+  }
+
+  public void setFilterFlagField(String filterFlagField) {
+    this.filterFlagField = filterFlagField;
+  }
+
+  /**
+   * @return file the address ranges of the filter condition are kept in between runs, empty for none
+   */
+  public String getFilterSetFile() {
+    return filterSetFile;
+  }
+
+  public void setFilterSetFile(String filterSetFile) {
+    this.filterSetFile = filterSetFile;
+  }
+
+  /**
+   * @return points like "FRA=50.11,8.68; IAD=38.95,-77.45" the reference_distance and nearest_reference fields are
+   * computed for
+   */
+  public String getReferencePoints() {
+    return referencePoints;
+  }
+
+  public void setReferencePoints(String referencePoints) {
+    this.referencePoints = referencePoints;
+  }
+
+  /**
+   * @return number of characters of the geohash field
+   */
+  public String getGeohashPrecision() {
+    return geohashPrecision;
+  }
+
+  public void setGeohashPrecision(String geohashPrecision) {
+    this.geohashPrecision = geohashPrecision;
+  }
+
+  /**
+   * @return Date input field with the UTC timestamps to turn into the local time of the looked up timezone, empty
+   * for none
+   */
+  public String getLocalTimeInputField() {
+    return localTimeInputField;
+  }
+
+  public void setLocalTimeInputField(String localTimeInputField) {
+    this.localTimeInputField = localTimeInputField;
+  }
+
+  /**
+   * @return name of the output field with the local date and time
+   */
+  public String getLocalTimeField() {
+    return localTimeField;
+  }
+
+  public void setLocalTimeField(String localTimeField) {
+    this.localTimeField = localTimeField;
+  }
+
+  /**
+   * @return name of the output field with the offset of the local time from UTC in seconds
+   */
+  public String getUtcOffsetField() {
+    return utcOffsetField;
+  }
+
+  public void setUtcOffsetField(String utcOffsetField) {
+    this.utcOffsetField = utcOffsetField;
+  }
+
+  /**
+   * @return directory with dated versions of the database, like GeoIP2-City_20160301.mmdb, to look up each row in
+   * the version current at its time.  Empty to look up all rows in the database file.
+   */
+  public String getHistoryDirectory() {
+    return historyDirectory;
+  }
+
+  public void setHistoryDirectory(String historyDirectory) {
+    this.historyDirectory = historyDirectory;
+  }
+
+  /**
+   * @return Date input field picking the database version of a row
+   */
+  public String getHistoryTimeField() {
+    return historyTimeField;
+  }
+
+  public void setHistoryTimeField(String historyTimeField) {
+    this.historyTimeField = historyTimeField;
+  }
+
+  /**
+   * @return number of database versions kept open
+   */
+  public String getHistoryMaxOpen() {
+    return historyMaxOpen;
+  }
+
+  public void setHistoryMaxOpen(String historyMaxOpen) {
+    this.historyMaxOpen = historyMaxOpen;
+  }
+
+  /**
+   * @return "port" or "host:port" of a MaxMindLookupServer serving the database file, empty to read the file in
+   * this JVM
+   */
+  public String getLookupServer() {
+    return lookupServer;
+  }
+
+  public void setLookupServer(String lookupServer) {
+    this.lookupServer = lookupServer;
+  }
+
+  /**
+   * @return name of the MaxMindLookupBackend answering the lookups, DatabaseReader for the lookup service of the
+   * database type
+   */
+  public String getLookupBackend() {
+    return lookupBackend;
+  }
+
+  public void setLookupBackend(String lookupBackend) {
+    this.lookupBackend = lookupBackend;
+  }
+
   public MaxMindGeoIPLookupMeta() {
     super(); // allocate BaseStepInfo
   }
@@ -103,8 +561,37 @@ public class MaxMindGeoIPLookupMeta extends BaseStepMeta implements StepMetaInte
     final StringBuilder retval = new StringBuilder(500);
 
     retval.append("   ").append(XMLHandler.addTagValue("ip_address_field_name", ipAddressFieldName)); //$NON-NLS-1$ //$NON-NLS-2$
+    retval.append("   ").append(XMLHandler.addTagValue("ip_extraction", ipExtraction)); //$NON-NLS-1$ //$NON-NLS-2$
     retval.append("   ").append(XMLHandler.addTagValue("db_location", dbLocation)); //$NON-NLS-1$ //$NON-NLS-2$
     retval.append("   ").append(XMLHandler.addTagValue("db_type", dbType)); //$NON-NLS-1$ //$NON-NLS-2$
+    retval.append("   ").append(XMLHandler.addTagValue("result_cache_size", resultCacheSize)); //$NON-NLS-1$ //$NON-NLS-2$
+    retval.append("   ").append(XMLHandler.addTagValue("adaptive_caching", adaptiveCaching)); //$NON-NLS-1$ //$NON-NLS-2$
+    retval.append("   ").append(XMLHandler.addTagValue("persistent_cache_file", persistentCacheFile)); //$NON-NLS-1$ //$NON-NLS-2$
+    retval.append("   ").append(XMLHandler.addTagValue("persistent_cache_size", persistentCacheSize)); //$NON-NLS-1$ //$NON-NLS-2$
+    retval.append("   ").append(XMLHandler.addTagValue("warmup_preload", warmupPreload)); //$NON-NLS-1$ //$NON-NLS-2$
+    retval.append("   ").append(XMLHandler.addTagValue("warmup_ip_file", warmupIpFile)); //$NON-NLS-1$ //$NON-NLS-2$
+    retval.append("   ").append(XMLHandler.addTagValue("warmup_snapshot_file", warmupSnapshotFile)); //$NON-NLS-1$ //$NON-NLS-2$
+    retval.append("   ").append(XMLHandler.addTagValue("binary_string_output", binaryStringOutput)); //$NON-NLS-1$ //$NON-NLS-2$
+    retval.append("   ").append(XMLHandler.addTagValue("aggregate", aggregate)); //$NON-NLS-1$ //$NON-NLS-2$
+    retval.append("   ").append(XMLHandler.addTagValue("aggregate_time_field", aggregateTimeField)); //$NON-NLS-1$ //$NON-NLS-2$
+    retval.append("   ").append(XMLHandler.addTagValue("aggregate_window", aggregateWindow)); //$NON-NLS-1$ //$NON-NLS-2$
+    retval.append("   ").append(XMLHandler.addTagValue("aggregate_sum_field", aggregateSumField)); //$NON-NLS-1$ //$NON-NLS-2$
+    retval.append("   ").append(XMLHandler.addTagValue("aggregate_count_field", aggregateCountField)); //$NON-NLS-1$ //$NON-NLS-2$
+    retval.append("   ").append(XMLHandler.addTagValue("filter_condition", filterCondition)); //$NON-NLS-1$ //$NON-NLS-2$
+    retval.append("   ").append(XMLHandler.addTagValue("filter_send_true_to", getFilterTrueStepName())); //$NON-NLS-1$ //$NON-NLS-2$
+    retval.append("   ").append(XMLHandler.addTagValue("filter_send_false_to", getFilterFalseStepName())); //$NON-NLS-1$ //$NON-NLS-2$
+    retval.append("   ").append(XMLHandler.addTagValue("filter_flag_field", filterFlagField)); //$NON-NLS-1$ //$NON-NLS-2$
+    retval.append("   ").append(XMLHandler.addTagValue("filter_set_file", filterSetFile)); //$NON-NLS-1$ //$NON-NLS-2$
+    retval.append("   ").append(XMLHandler.addTagValue("reference_points", referencePoints)); //$NON-NLS-1$ //$NON-NLS-2$
+    retval.append("   ").append(XMLHandler.addTagValue("geohash_precision", geohashPrecision)); //$NON-NLS-1$ //$NON-NLS-2$
+    retval.append("   ").append(XMLHandler.addTagValue("local_time_input_field", localTimeInputField)); //$NON-NLS-1$ //$NON-NLS-2$
+    retval.append("   ").append(XMLHandler.addTagValue("local_time_field", localTimeField)); //$NON-NLS-1$ //$NON-NLS-2$
+    retval.append("   ").append(XMLHandler.addTagValue("utc_offset_field", utcOffsetField)); //$NON-NLS-1$ //$NON-NLS-2$
+    retval.append("   ").append(XMLHandler.addTagValue("history_directory", historyDirectory)); //$NON-NLS-1$ //$NON-NLS-2$
+    retval.append("   ").append(XMLHandler.addTagValue("history_time_field", historyTimeField)); //$NON-NLS-1$ //$NON-NLS-2$
+    retval.append("   ").append(XMLHandler.addTagValue("history_max_open", historyMaxOpen)); //$NON-NLS-1$ //$NON-NLS-2$
+    retval.append("   ").append(XMLHandler.addTagValue("lookup_server", lookupServer)); //$NON-NLS-1$ //$NON-NLS-2$
+    retval.append("   ").append(XMLHandler.addTagValue("lookup_backend", lookupBackend)); //$NON-NLS-1$ //$NON-NLS-2$
 
     retval.append("    <fields>"); //$NON-NLS-1$
     for (int i = 0; i < fieldName.length; i++) {
@@ -115,15 +602,104 @@ public class MaxMindGeoIPLookupMeta extends BaseStepMeta implements StepMetaInte
       retval.append("      </field>"); //$NON-NLS-1$
     }
     retval.append("    </fields>"); //$NON-NLS-1$
+
+    retval.append("    <additional_ip_fields>"); //$NON-NLS-1$
+    for (int i = 0; i < additionalIpFieldName.length; i++) {
+      retval.append("      <ip_field>"); //$NON-NLS-1$
+      retval.append("        ").append(XMLHandler.addTagValue("name", additionalIpFieldName[i])); //$NON-NLS-1$ //$NON-NLS-2$
+      retval.append("        ").append(XMLHandler.addTagValue("prefix", additionalIpFieldPrefix[i])); //$NON-NLS-1$ //$NON-NLS-2$
+      retval.append("      </ip_field>"); //$NON-NLS-1$
+    }
+    retval.append("    </additional_ip_fields>"); //$NON-NLS-1$
+
+    retval.append("    <aggregate_group_fields>"); //$NON-NLS-1$
+    for (int i = 0; i < aggregateGroupField.length; i++) {
+      retval.append("      <group_field>"); //$NON-NLS-1$
+      retval.append("        ").append(XMLHandler.addTagValue("name", aggregateGroupField[i])); //$NON-NLS-1$ //$NON-NLS-2$
+      retval.append("      </group_field>"); //$NON-NLS-1$
+    }
+    retval.append("    </aggregate_group_fields>"); //$NON-NLS-1$
     return retval.toString();
   }
 
   @Override
   public void getFields(RowMetaInterface r, String origin, RowMetaInterface[] info, StepMeta nextStep,
       VariableSpace space) throws KettleStepException {
+    RowMetaInterface input = aggregate ? r.clone() : null;
+    if (aggregate) {
+      // the group fields come first, the looked up fields keep their place after them
+      r.clear();
+      for (String groupField : aggregateGroupField) {
+        r.addValueMeta(aggregateInputField(input, space.environmentSubstitute(groupField), origin));
+      }
+      if (!Const.isEmpty(aggregateTimeField)) {
+        r.addValueMeta(aggregateInputField(input, space.environmentSubstitute(aggregateTimeField), origin));
+      }
+    }
+
     MaxMindHelper helper = new MaxMindHelper(space, this);
     helper.setupMaxMindDatabase();
     helper.getMaxMindDatabase().getFields(r, origin);
+    for (int i = 0; i < additionalIpFieldName.length; i++) {
+      helper.getMaxMindDatabase().getFields(r, origin, Const.NVL(space.environmentSubstitute(additionalIpFieldPrefix[i]), "")); //$NON-NLS-1$
+    }
+    if (!Const.isEmpty(localTimeInputField)) {
+      try {
+        ValueMetaInterface localTime = ValueMetaFactory.createValueMeta(space.environmentSubstitute(localTimeField), ValueMetaInterface.TYPE_STRING);
+        localTime.setOrigin(origin);
+        r.addValueMeta(localTime);
+        ValueMetaInterface utcOffset = ValueMetaFactory.createValueMeta(space.environmentSubstitute(utcOffsetField), ValueMetaInterface.TYPE_INTEGER);
+        utcOffset.setOrigin(origin);
+        r.addValueMeta(utcOffset);
+      } catch (KettlePluginException e) {
+        throw new KettleStepException(e);
+      }
+    }
+    if (!Const.isEmpty(filterCondition) && !Const.isEmpty(filterFlagField)) {
+      ValueMetaInterface flag = new ValueMetaBoolean(space.environmentSubstitute(filterFlagField));
+      flag.setOrigin(origin);
+      r.addValueMeta(flag);
+    }
+
+    if (aggregate) {
+      try {
+        ValueMetaInterface count = ValueMetaFactory.createValueMeta(space.environmentSubstitute(aggregateCountField), ValueMetaInterface.TYPE_INTEGER);
+        count.setOrigin(origin);
+        r.addValueMeta(count);
+        if (!Const.isEmpty(aggregateSumField)) {
+          ValueMetaInterface sum = ValueMetaFactory.createValueMeta(space.environmentSubstitute(aggregateSumField), ValueMetaInterface.TYPE_NUMBER);
+          sum.setOrigin(origin);
+          r.addValueMeta(sum);
+        }
+      } catch (KettlePluginException e) {
+        throw new KettleStepException(e);
+      }
+    }
+  }
+
+  /*
+   * An input field as it is passed on by the aggregation, always with normal storage.
+   */
+  private static ValueMetaInterface aggregateInputField(RowMetaInterface input, String name, String origin)
+      throws KettleStepException {
+    ValueMetaInterface v = input.searchValueMeta(name);
+    if (v == null) {
+      throw new KettleStepException("Field '" + name + "' to aggregate by not found");
+    }
+    v = v.clone();
+    v.setStorageType(ValueMetaInterface.STORAGE_TYPE_NORMAL);
+    v.setStorageMetadata(null);
+    v.setOrigin(origin);
+    return v;
+  }
+
+  public void allocateAdditionalIpFields(int nrfields) {
+    additionalIpFieldName = new String[nrfields];
+    additionalIpFieldPrefix = new String[nrfields];
+  }
+
+  public void allocateAggregateGroupFields(int nrfields) {
+    aggregateGroupField = new String[nrfields];
   }
 
   public void allocate(int nrfields) {
@@ -144,15 +720,103 @@ public class MaxMindGeoIPLookupMeta extends BaseStepMeta implements StepMetaInte
       retval.fieldLookupType[i] = fieldLookupType[i];
       retval.fieldIfNull[i] = fieldIfNull[i];
     }
+
+    retval.allocateAdditionalIpFields(additionalIpFieldName.length);
+    System.arraycopy(additionalIpFieldName, 0, retval.additionalIpFieldName, 0, additionalIpFieldName.length);
+    System.arraycopy(additionalIpFieldPrefix, 0, retval.additionalIpFieldPrefix, 0, additionalIpFieldPrefix.length);
+
+    retval.allocateAggregateGroupFields(aggregateGroupField.length);
+    System.arraycopy(aggregateGroupField, 0, retval.aggregateGroupField, 0, aggregateGroupField.length);
+
+    // the copy gets target streams of its own
+    retval.filterTrueStepName = getFilterTrueStepName();
+    retval.filterFalseStepName = getFilterFalseStepName();
+    retval.ioMeta = null;
     return retval;
   }
 
+  /**
+   * The filter's steps for the matching and the other rows are target streams, like the ones of Filter rows.
+   */
+  @Override
+  public StepIOMetaInterface getStepIOMeta() {
+    if (ioMeta == null) {
+      ioMeta = new StepIOMeta(true, true, false, false, false, false);
+      ioMeta.addStream(new Stream(StreamType.TARGET, null, BaseMessages.getString(PKG,
+          "MaxMindGeoIPLookupMeta.TargetStream.True.Description"), StreamIcon.TRUE, filterTrueStepName)); //$NON-NLS-1$
+      ioMeta.addStream(new Stream(StreamType.TARGET, null, BaseMessages.getString(PKG,
+          "MaxMindGeoIPLookupMeta.TargetStream.False.Description"), StreamIcon.FALSE, filterFalseStepName)); //$NON-NLS-1$
+    }
+    return ioMeta;
+  }
+
+  @Override
+  public void searchInfoAndTargetSteps(List<StepMeta> steps) {
+    for (StreamInterface stream : getStepIOMeta().getTargetStreams()) {
+      stream.setStepMeta(StepMeta.findStep(steps, (String) stream.getSubject()));
+    }
+  }
+
+  @Override
+  public void resetStepIoMeta() {
+    // the target streams hold the filter's steps, they are kept
+  }
+
+  @Override
+  public boolean excludeFromCopyDistributeVerification() {
+    return true;
+  }
+
+  @Override
+  public void handleStreamSelection(StreamInterface stream) {
+    List<StreamInterface> targets = getStepIOMeta().getTargetStreams();
+    int index = targets.indexOf(stream);
+    if (index >= 0) {
+      targets.get(index).setStepMeta(stream.getStepMeta());
+      if (index == 0) {
+        filterTrueStepName = stream.getStepname();
+      } else {
+        filterFalseStepName = stream.getStepname();
+      }
+    }
+  }
+
   public void loadXML(Node stepnode, List<DatabaseMeta> databases, IMetaStore metaStore)
       throws KettleXMLException {
     try {
       setIpAddressFieldName(XMLHandler.getTagValue(stepnode, "ip_address_field_name"));
+      setIpExtraction(XMLHandler.getTagValue(stepnode, "ip_extraction")); //$NON-NLS-1$
       setDbLocation(XMLHandler.getTagValue(stepnode, "db_location"));
       setDbType(XMLHandler.getTagValue(stepnode, "db_type"));
+      setResultCacheSize(XMLHandler.getTagValue(stepnode, "result_cache_size")); //$NON-NLS-1$
+      // off for steps saved before the option existed
+      setAdaptiveCaching("Y".equalsIgnoreCase(XMLHandler.getTagValue(stepnode, "adaptive_caching"))); //$NON-NLS-1$ //$NON-NLS-2$
+      setPersistentCacheFile(XMLHandler.getTagValue(stepnode, "persistent_cache_file")); //$NON-NLS-1$
+      setPersistentCacheSize(XMLHandler.getTagValue(stepnode, "persistent_cache_size")); //$NON-NLS-1$
+      setWarmupPreload("Y".equalsIgnoreCase(XMLHandler.getTagValue(stepnode, "warmup_preload"))); //$NON-NLS-1$ //$NON-NLS-2$
+      setWarmupIpFile(XMLHandler.getTagValue(stepnode, "warmup_ip_file")); //$NON-NLS-1$
+      setWarmupSnapshotFile(XMLHandler.getTagValue(stepnode, "warmup_snapshot_file")); //$NON-NLS-1$
+      setBinaryStringOutput("Y".equalsIgnoreCase(XMLHandler.getTagValue(stepnode, "binary_string_output"))); //$NON-NLS-1$ //$NON-NLS-2$
+      setAggregate("Y".equalsIgnoreCase(XMLHandler.getTagValue(stepnode, "aggregate"))); //$NON-NLS-1$ //$NON-NLS-2$
+      setAggregateTimeField(XMLHandler.getTagValue(stepnode, "aggregate_time_field")); //$NON-NLS-1$
+      setAggregateWindow(XMLHandler.getTagValue(stepnode, "aggregate_window")); //$NON-NLS-1$
+      setAggregateSumField(XMLHandler.getTagValue(stepnode, "aggregate_sum_field")); //$NON-NLS-1$
+      setAggregateCountField(XMLHandler.getTagValue(stepnode, "aggregate_count_field")); //$NON-NLS-1$
+      setFilterCondition(XMLHandler.getTagValue(stepnode, "filter_condition")); //$NON-NLS-1$
+      setFilterTrueStepName(XMLHandler.getTagValue(stepnode, "filter_send_true_to")); //$NON-NLS-1$
+      setFilterFalseStepName(XMLHandler.getTagValue(stepnode, "filter_send_false_to")); //$NON-NLS-1$
+      setFilterFlagField(XMLHandler.getTagValue(stepnode, "filter_flag_field")); //$NON-NLS-1$
+      setFilterSetFile(XMLHandler.getTagValue(stepnode, "filter_set_file")); //$NON-NLS-1$
+      setReferencePoints(XMLHandler.getTagValue(stepnode, "reference_points")); //$NON-NLS-1$
+      setGeohashPrecision(XMLHandler.getTagValue(stepnode, "geohash_precision")); //$NON-NLS-1$
+      setLocalTimeInputField(XMLHandler.getTagValue(stepnode, "local_time_input_field")); //$NON-NLS-1$
+      setLocalTimeField(XMLHandler.getTagValue(stepnode, "local_time_field")); //$NON-NLS-1$
+      setUtcOffsetField(XMLHandler.getTagValue(stepnode, "utc_offset_field")); //$NON-NLS-1$
+      setHistoryDirectory(XMLHandler.getTagValue(stepnode, "history_directory")); //$NON-NLS-1$
+      setHistoryTimeField(XMLHandler.getTagValue(stepnode, "history_time_field")); //$NON-NLS-1$
+      setHistoryMaxOpen(XMLHandler.getTagValue(stepnode, "history_max_open")); //$NON-NLS-1$
+      setLookupServer(XMLHandler.getTagValue(stepnode, "lookup_server")); //$NON-NLS-1$
+      setLookupBackend(XMLHandler.getTagValue(stepnode, "lookup_backend")); //$NON-NLS-1$
 
       final Node fields = XMLHandler.getSubNode(stepnode, "fields"); //$NON-NLS-1$
       final int nrfields = XMLHandler.countNodes(fields, "field"); //$NON-NLS-1$
@@ -166,6 +830,29 @@ public class MaxMindGeoIPLookupMeta extends BaseStepMeta implements StepMetaInte
         fieldLookupType[i] = XMLHandler.getTagValue(fnode, "lookup_type"); //$NON-NLS-1$
         fieldIfNull[i] = XMLHandler.getTagValue(fnode, "ifnull"); //$NON-NLS-1$
       }
+
+      final Node ipFields = XMLHandler.getSubNode(stepnode, "additional_ip_fields"); //$NON-NLS-1$
+      final int nrIpFields = XMLHandler.countNodes(ipFields, "ip_field"); //$NON-NLS-1$
+
+      allocateAdditionalIpFields(nrIpFields);
+
+      for (int i = 0; i < nrIpFields; i++) {
+        final Node fnode = XMLHandler.getSubNodeByNr(ipFields, "ip_field", i); //$NON-NLS-1$
+
+        additionalIpFieldName[i] = XMLHandler.getTagValue(fnode, "name"); //$NON-NLS-1$
+        additionalIpFieldPrefix[i] = XMLHandler.getTagValue(fnode, "prefix"); //$NON-NLS-1$
+      }
+
+      final Node groupFields = XMLHandler.getSubNode(stepnode, "aggregate_group_fields"); //$NON-NLS-1$
+      final int nrGroupFields = XMLHandler.countNodes(groupFields, "group_field"); //$NON-NLS-1$
+
+      allocateAggregateGroupFields(nrGroupFields);
+
+      for (int i = 0; i < nrGroupFields; i++) {
+        final Node fnode = XMLHandler.getSubNodeByNr(groupFields, "group_field", i); //$NON-NLS-1$
+
+        aggregateGroupField[i] = XMLHandler.getTagValue(fnode, "name"); //$NON-NLS-1$
+      }
     } catch (Exception e) {
       throw new KettleXMLException("Unable to read step info from XML node", e);
     }
@@ -173,18 +860,78 @@ public class MaxMindGeoIPLookupMeta extends BaseStepMeta implements StepMetaInte
 
   public void setDefault() {
     ipAddressFieldName = ""; //$NON-NLS-1$
+    ipExtraction = MaxMindIpExtractor.Mode.none.name();
     dbLocation = ""; //$NON-NLS-1$
     dbType = ""; //$NON-NLS-1$
+    resultCacheSize = ""; //$NON-NLS-1$
+    adaptiveCaching = true;
+    persistentCacheFile = ""; //$NON-NLS-1$
+    persistentCacheSize = "256"; //$NON-NLS-1$
+    warmupPreload = false;
+    warmupIpFile = ""; //$NON-NLS-1$
+    warmupSnapshotFile = ""; //$NON-NLS-1$
+    binaryStringOutput = false;
+    aggregate = false;
+    aggregateTimeField = ""; //$NON-NLS-1$
+    aggregateWindow = "3600"; //$NON-NLS-1$
+    aggregateSumField = ""; //$NON-NLS-1$
+    aggregateCountField = "count"; //$NON-NLS-1$
+    filterCondition = ""; //$NON-NLS-1$
+    setFilterTrueStepName(""); //$NON-NLS-1$
+    setFilterFalseStepName(""); //$NON-NLS-1$
+    filterFlagField = ""; //$NON-NLS-1$
+    filterSetFile = ""; //$NON-NLS-1$
+    referencePoints = ""; //$NON-NLS-1$
+    geohashPrecision = "7"; //$NON-NLS-1$
+    localTimeInputField = ""; //$NON-NLS-1$
+    localTimeField = "local_time"; //$NON-NLS-1$
+    utcOffsetField = "utc_offset"; //$NON-NLS-1$
+    historyDirectory = ""; //$NON-NLS-1$
+    historyTimeField = ""; //$NON-NLS-1$
+    historyMaxOpen = "4"; //$NON-NLS-1$
+    lookupServer = ""; //$NON-NLS-1$
+    lookupBackend = MaxMindLookupBackends.DEFAULT;
 
     allocate(0);
+    allocateAdditionalIpFields(0);
+    allocateAggregateGroupFields(0);
   }
 
   public void readRep(Repository rep, IMetaStore metaStore, ObjectId idStep, List<DatabaseMeta> databases)
       throws KettleException {
     try {
       setIpAddressFieldName(rep.getStepAttributeString(idStep, "ip_address_field_name")); //$NON-NLS-1$
+      setIpExtraction(rep.getStepAttributeString(idStep, "ip_extraction")); //$NON-NLS-1$
       setDbLocation(rep.getStepAttributeString(idStep, "db_location")); //$NON-NLS-1$
       setDbType(rep.getStepAttributeString(idStep, "db_type")); //$NON-NLS-1$
+      setResultCacheSize(rep.getStepAttributeString(idStep, "result_cache_size")); //$NON-NLS-1$
+      setAdaptiveCaching(rep.getStepAttributeBoolean(idStep, "adaptive_caching")); //$NON-NLS-1$
+      setPersistentCacheFile(rep.getStepAttributeString(idStep, "persistent_cache_file")); //$NON-NLS-1$
+      setPersistentCacheSize(rep.getStepAttributeString(idStep, "persistent_cache_size")); //$NON-NLS-1$
+      setWarmupPreload(rep.getStepAttributeBoolean(idStep, "warmup_preload")); //$NON-NLS-1$
+      setWarmupIpFile(rep.getStepAttributeString(idStep, "warmup_ip_file")); //$NON-NLS-1$
+      setWarmupSnapshotFile(rep.getStepAttributeString(idStep, "warmup_snapshot_file")); //$NON-NLS-1$
+      setBinaryStringOutput(rep.getStepAttributeBoolean(idStep, "binary_string_output")); //$NON-NLS-1$
+      setAggregate(rep.getStepAttributeBoolean(idStep, "aggregate")); //$NON-NLS-1$
+      setAggregateTimeField(rep.getStepAttributeString(idStep, "aggregate_time_field")); //$NON-NLS-1$
+      setAggregateWindow(rep.getStepAttributeString(idStep, "aggregate_window")); //$NON-NLS-1$
+      setAggregateSumField(rep.getStepAttributeString(idStep, "aggregate_sum_field")); //$NON-NLS-1$
+      setAggregateCountField(rep.getStepAttributeString(idStep, "aggregate_count_field")); //$NON-NLS-1$
+      setFilterCondition(rep.getStepAttributeString(idStep, "filter_condition")); //$NON-NLS-1$
+      setFilterTrueStepName(rep.getStepAttributeString(idStep, "filter_send_true_to")); //$NON-NLS-1$
+      setFilterFalseStepName(rep.getStepAttributeString(idStep, "filter_send_false_to")); //$NON-NLS-1$
+      setFilterFlagField(rep.getStepAttributeString(idStep, "filter_flag_field")); //$NON-NLS-1$
+      setFilterSetFile(rep.getStepAttributeString(idStep, "filter_set_file")); //$NON-NLS-1$
+      setReferencePoints(rep.getStepAttributeString(idStep, "reference_points")); //$NON-NLS-1$
+      setGeohashPrecision(rep.getStepAttributeString(idStep, "geohash_precision")); //$NON-NLS-1$
+      setLocalTimeInputField(rep.getStepAttributeString(idStep, "local_time_input_field")); //$NON-NLS-1$
+      setLocalTimeField(rep.getStepAttributeString(idStep, "local_time_field")); //$NON-NLS-1$
+      setUtcOffsetField(rep.getStepAttributeString(idStep, "utc_offset_field")); //$NON-NLS-1$
+      setHistoryDirectory(rep.getStepAttributeString(idStep, "history_directory")); //$NON-NLS-1$
+      setHistoryTimeField(rep.getStepAttributeString(idStep, "history_time_field")); //$NON-NLS-1$
+      setHistoryMaxOpen(rep.getStepAttributeString(idStep, "history_max_open")); //$NON-NLS-1$
+      setLookupServer(rep.getStepAttributeString(idStep, "lookup_server")); //$NON-NLS-1$
+      setLookupBackend(rep.getStepAttributeString(idStep, "lookup_backend")); //$NON-NLS-1$
 
       int nrfields = rep.countNrStepAttributes(idStep, "field_name"); //$NON-NLS-1$
 
@@ -195,6 +942,23 @@ public class MaxMindGeoIPLookupMeta extends BaseStepMeta implements StepMetaInte
         fieldLookupType[i] = rep.getStepAttributeString(idStep, i, "field_lookup_type"); //$NON-NLS-1$
         fieldIfNull[i] = rep.getStepAttributeString(idStep, i, "field_ifnull"); //$NON-NLS-1$
       }
+
+      int nrIpFields = rep.countNrStepAttributes(idStep, "additional_ip_field_name"); //$NON-NLS-1$
+
+      allocateAdditionalIpFields(nrIpFields);
+
+      for (int i = 0; i < nrIpFields; i++) {
+        additionalIpFieldName[i] = rep.getStepAttributeString(idStep, i, "additional_ip_field_name"); //$NON-NLS-1$
+        additionalIpFieldPrefix[i] = rep.getStepAttributeString(idStep, i, "additional_ip_field_prefix"); //$NON-NLS-1$
+      }
+
+      int nrGroupFields = rep.countNrStepAttributes(idStep, "aggregate_group_field_name"); //$NON-NLS-1$
+
+      allocateAggregateGroupFields(nrGroupFields);
+
+      for (int i = 0; i < nrGroupFields; i++) {
+        aggregateGroupField[i] = rep.getStepAttributeString(idStep, i, "aggregate_group_field_name"); //$NON-NLS-1$
+      }
     } catch (KettleDatabaseException dbe) {
       throw new KettleException("error reading step with id_step=" + idStep + " from the repository", dbe);
     } catch (Exception e) {
@@ -206,14 +970,52 @@ public class MaxMindGeoIPLookupMeta extends BaseStepMeta implements StepMetaInte
   public void saveRep(Repository rep, IMetaStore metaStore, ObjectId idTransformation, ObjectId idStep) throws KettleException {
     try {
       rep.saveStepAttribute(idTransformation, idStep, "ip_address_field_name", getIpAddressFieldName()); //$NON-NLS-1$
+      rep.saveStepAttribute(idTransformation, idStep, "ip_extraction", getIpExtraction()); //$NON-NLS-1$
       rep.saveStepAttribute(idTransformation, idStep, "db_location", getDbLocation()); //$NON-NLS-1$
       rep.saveStepAttribute(idTransformation, idStep, "db_type", getDbType()); //$NON-NLS-1$
+      rep.saveStepAttribute(idTransformation, idStep, "result_cache_size", getResultCacheSize()); //$NON-NLS-1$
+      rep.saveStepAttribute(idTransformation, idStep, "adaptive_caching", isAdaptiveCaching()); //$NON-NLS-1$
+      rep.saveStepAttribute(idTransformation, idStep, "persistent_cache_file", getPersistentCacheFile()); //$NON-NLS-1$
+      rep.saveStepAttribute(idTransformation, idStep, "persistent_cache_size", getPersistentCacheSize()); //$NON-NLS-1$
+      rep.saveStepAttribute(idTransformation, idStep, "warmup_preload", isWarmupPreload()); //$NON-NLS-1$
+      rep.saveStepAttribute(idTransformation, idStep, "warmup_ip_file", getWarmupIpFile()); //$NON-NLS-1$
+      rep.saveStepAttribute(idTransformation, idStep, "warmup_snapshot_file", getWarmupSnapshotFile()); //$NON-NLS-1$
+      rep.saveStepAttribute(idTransformation, idStep, "binary_string_output", isBinaryStringOutput()); //$NON-NLS-1$
+      rep.saveStepAttribute(idTransformation, idStep, "aggregate", isAggregate()); //$NON-NLS-1$
+      rep.saveStepAttribute(idTransformation, idStep, "aggregate_time_field", getAggregateTimeField()); //$NON-NLS-1$
+      rep.saveStepAttribute(idTransformation, idStep, "aggregate_window", getAggregateWindow()); //$NON-NLS-1$
+      rep.saveStepAttribute(idTransformation, idStep, "aggregate_sum_field", getAggregateSumField()); //$NON-NLS-1$
+      rep.saveStepAttribute(idTransformation, idStep, "aggregate_count_field", getAggregateCountField()); //$NON-NLS-1$
+      rep.saveStepAttribute(idTransformation, idStep, "filter_condition", getFilterCondition()); //$NON-NLS-1$
+      rep.saveStepAttribute(idTransformation, idStep, "filter_send_true_to", getFilterTrueStepName()); //$NON-NLS-1$
+      rep.saveStepAttribute(idTransformation, idStep, "filter_send_false_to", getFilterFalseStepName()); //$NON-NLS-1$
+      rep.saveStepAttribute(idTransformation, idStep, "filter_flag_field", getFilterFlagField()); //$NON-NLS-1$
+      rep.saveStepAttribute(idTransformation, idStep, "filter_set_file", getFilterSetFile()); //$NON-NLS-1$
+      rep.saveStepAttribute(idTransformation, idStep, "reference_points", getReferencePoints()); //$NON-NLS-1$
+      rep.saveStepAttribute(idTransformation, idStep, "geohash_precision", getGeohashPrecision()); //$NON-NLS-1$
+      rep.saveStepAttribute(idTransformation, idStep, "local_time_input_field", getLocalTimeInputField()); //$NON-NLS-1$
+      rep.saveStepAttribute(idTransformation, idStep, "local_time_field", getLocalTimeField()); //$NON-NLS-1$
+      rep.saveStepAttribute(idTransformation, idStep, "utc_offset_field", getUtcOffsetField()); //$NON-NLS-1$
+      rep.saveStepAttribute(idTransformation, idStep, "history_directory", getHistoryDirectory()); //$NON-NLS-1$
+      rep.saveStepAttribute(idTransformation, idStep, "history_time_field", getHistoryTimeField()); //$NON-NLS-1$
+      rep.saveStepAttribute(idTransformation, idStep, "history_max_open", getHistoryMaxOpen()); //$NON-NLS-1$
+      rep.saveStepAttribute(idTransformation, idStep, "lookup_server", getLookupServer()); //$NON-NLS-1$
+      rep.saveStepAttribute(idTransformation, idStep, "lookup_backend", getLookupBackend()); //$NON-NLS-1$
 
       for (int i = 0; i < fieldName.length; i++) {
         rep.saveStepAttribute(idTransformation, idStep, i, "field_name", fieldName[i]); //$NON-NLS-1$
         rep.saveStepAttribute(idTransformation, idStep, i, "field_lookup_type", fieldLookupType[i]); //$NON-NLS-1$
         rep.saveStepAttribute(idTransformation, idStep, i, "field_ifnull", fieldIfNull[i]); //$NON-NLS-1$
       }
+
+      for (int i = 0; i < additionalIpFieldName.length; i++) {
+        rep.saveStepAttribute(idTransformation, idStep, i, "additional_ip_field_name", additionalIpFieldName[i]); //$NON-NLS-1$
+        rep.saveStepAttribute(idTransformation, idStep, i, "additional_ip_field_prefix", additionalIpFieldPrefix[i]); //$NON-NLS-1$
+      }
+
+      for (int i = 0; i < aggregateGroupField.length; i++) {
+        rep.saveStepAttribute(idTransformation, idStep, i, "aggregate_group_field_name", aggregateGroupField[i]); //$NON-NLS-1$
+      }
     } catch (KettleDatabaseException dbe) {
       throw new KettleException("Unable to save step information to the repository, id_step=" + idStep, dbe);
     }
@@ -268,6 +1070,28 @@ public class MaxMindGeoIPLookupMeta extends BaseStepMeta implements StepMetaInte
       remarks.add(cr);
     }
 
+    if (aggregate && !Const.isEmpty(getFilterCondition()) && !Const.isEmpty(getFilterFalseStepName())) {
+      cr = new CheckResult(CheckResult.TYPE_RESULT_ERROR, "Aggregated rows can't be combined with a step for the rows not matching the filter.", stepMeta);
+      remarks.add(cr);
+    }
+
+    if (aggregate && prev != null) {
+      List<String> aggregateFields = new ArrayList<String>(Arrays.asList(aggregateGroupField));
+      if (!Const.isEmpty(aggregateTimeField)) {
+        aggregateFields.add(aggregateTimeField);
+      }
+      if (!Const.isEmpty(aggregateSumField)) {
+        aggregateFields.add(aggregateSumField);
+      }
+      for (String field : aggregateFields) {
+        String name = transmeta.environmentSubstitute(field);
+        if (prev.indexOfValue(name) < 0) {
+          cr = new CheckResult(CheckResult.TYPE_RESULT_ERROR, "Field '" + name + "' to aggregate not found.", stepMeta);
+          remarks.add(cr);
+        }
+      }
+    }
+
     if (getDbType() == null || getDbType().length() == 0) {
       cr = new CheckResult(CheckResult.TYPE_RESULT_ERROR, "MaxMind GeoIP DB Type not specified.", stepMeta);
       remarks.add(cr);
@@ -1,5 +1,6 @@
 package com.maxmind.geoip;
 
+import org.pentaho.di.core.Const;
 import org.pentaho.di.core.exception.KettleStepException;
 import org.pentaho.di.core.variables.VariableSpace;
 
@@ -7,29 +8,71 @@ public class MaxMindHelper {
 
   private MaxMindDatabase maxMindDatabase = null;
   private VariableSpace space;
-  private MaxMindGeoIPLookupMeta meta;
+  private String dbType;
+  private String dbLocation;
+  private boolean binaryStringOutput;
+  private String[] fieldLookupType;
+  private String[] fieldName;
+  private String[] fieldIfNull;
   private String filenameLocation;
+  private String referencePoints;
+  private String geohashPrecision;
 
   public MaxMindHelper(VariableSpace space, MaxMindGeoIPLookupMeta meta) {
+    this(space, meta.getDbType(), meta.getDbLocation(), meta.isBinaryStringOutput(), meta.getFieldLookupType(),
+        meta.getFieldName(), meta.getFieldIfNull());
+    this.referencePoints = meta.getReferencePoints();
+    this.geohashPrecision = meta.getGeohashPrecision();
+  }
+
+  public MaxMindHelper(VariableSpace space, MaxMindNetworkDumpMeta meta) {
+    this(space, meta.getDbType(), meta.getDbLocation(), meta.isBinaryStringOutput(), meta.getFieldLookupType(),
+        meta.getFieldName(), meta.getFieldIfNull());
+    this.referencePoints = meta.getReferencePoints();
+    this.geohashPrecision = meta.getGeohashPrecision();
+  }
+
+  private MaxMindHelper(VariableSpace space, String dbType, String dbLocation, boolean binaryStringOutput,
+      String[] fieldLookupType, String[] fieldName, String[] fieldIfNull) {
     this.space = space;
-    this.meta = meta;
+    this.dbType = dbType;
+    this.dbLocation = dbLocation;
+    this.binaryStringOutput = binaryStringOutput;
+    this.fieldLookupType = fieldLookupType;
+    this.fieldName = fieldName;
+    this.fieldIfNull = fieldIfNull;
   }
 
   public void setupMaxMindDatabase() throws KettleStepException {
-    maxMindDatabase = null;
-    if (meta.getDbType() != null) {
-      maxMindDatabase = MaxMindGeoIP.getDatabase(meta.getDbType());
-      if (maxMindDatabase != null) {
-        filenameLocation = space.environmentSubstitute(meta.getDbLocation());
-        try {
-          maxMindDatabase.setDbLocation(filenameLocation);
-          maxMindDatabase.setSelectedFields(meta.getFieldLookupType());
-          maxMindDatabase.setSelectedFields(meta.getFieldLookupType(), meta.getFieldName(), meta.getFieldIfNull());
-        } catch (Exception e) { // Invalid Location
-          throw new KettleStepException("Unable to set up MaxMind database '" + filenameLocation + "'", e);
-        }
+    MaxMindGeoIP.setLocalDatabaseCacheDir(space.getVariable(MaxMindLocalDatabaseCache.CACHE_DIR_VARIABLE));
+    filenameLocation = space.environmentSubstitute(dbLocation);
+    maxMindDatabase = createDatabase(filenameLocation);
+  }
+
+  /**
+   * Sets up another file of the same database type, with the same fields, like an older version of the database.
+   * 
+   * @param location the database file
+   * @return the database, null without a known database type
+   */
+  public MaxMindDatabase openVersion(String location) throws KettleStepException {
+    return createDatabase(location);
+  }
+
+  private MaxMindDatabase createDatabase(String location) throws KettleStepException {
+    MaxMindDatabase database = (dbType == null) ? null : MaxMindGeoIP.getDatabase(dbType);
+    if (database != null) {
+      try {
+        database.setDbLocation(location);
+        database.setBinaryStringOutput(binaryStringOutput);
+        database.setComputedFieldOptions(space.environmentSubstitute(referencePoints),
+            (int) Const.toLong(space.environmentSubstitute(geohashPrecision), MaxMindGeoComputer.DEFAULT_GEOHASH_PRECISION));
+        database.setSelectedFields(fieldLookupType, fieldName, fieldIfNull);
+      } catch (Exception e) { // Invalid Location
+        throw new KettleStepException("Unable to set up MaxMind database '" + location + "'", e);
       }
     }
+    return database;
   }
 
   public String getFilenameLocation() {
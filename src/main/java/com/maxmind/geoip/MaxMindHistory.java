@@ -0,0 +1,196 @@
+package com.maxmind.geoip;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * The versions of a database kept as dated files in one directory, like GeoIP2-City_20160301.mmdb, for enriching
+ * events with the version that was current at the event time.  A version is valid from the date in its name (UTC
+ * midnight) until the next one, timestamps before the first version get the first one.
+ *
+ * Opened versions are kept in a bounded LRU.  When a version is opened, the next one is opened in the background, as
+ * a backfill in time order will need it soon.
+ */
+final class MaxMindHistory<T> {
+
+  /**
+   * Opens the database of a version.
+   */
+  interface Opener<T> {
+    T open(File file) throws Exception;
+  }
+
+  // yyyyMMdd or yyyy-MM-dd anywhere in the file name
+  private static final Pattern DATE = Pattern.compile("(\\d{4})-?(\\d{2})-?(\\d{2})"); //$NON-NLS-1$
+
+  private final File[] files;
+  private final long[] validFrom;
+  private final Opener<T> opener;
+  private final int maxOpen;
+  private final LinkedHashMap<Integer, Future<T>> open;
+  private final ExecutorService executor;
+
+  /**
+   * @param directory directory with the dated .mmdb files
+   * @param maxOpen number of versions kept open
+   * @throws IOException if the directory has no dated database file
+   */
+  MaxMindHistory(File directory, int maxOpen, Opener<T> opener) throws IOException {
+    File[] candidates = directory.listFiles();
+    if (candidates == null) {
+      throw new IOException("'" + directory + "' is not a readable directory");
+    }
+    List<Object[]> versions = new ArrayList<Object[]>();
+    for (File file : candidates) {
+      long date = file.isFile() && file.getName().endsWith(".mmdb") ? parseDate(file.getName()) : -1; //$NON-NLS-1$
+      if (date != -1) {
+        versions.add(new Object[] { Long.valueOf(date), file });
+      }
+    }
+    if (versions.isEmpty()) {
+      throw new IOException("No dated .mmdb files found in '" + directory + "'");
+    }
+    Object[][] sorted = versions.toArray(new Object[versions.size()][]);
+    Arrays.sort(sorted, new Comparator<Object[]>() {
+      public int compare(Object[] a, Object[] b) {
+        return ((Long) a[0]).compareTo((Long) b[0]);
+      }
+    });
+    this.files = new File[sorted.length];
+    this.validFrom = new long[sorted.length];
+    for (int i = 0; i < sorted.length; i++) {
+      validFrom[i] = (Long) sorted[i][0];
+      files[i] = (File) sorted[i][1];
+    }
+    this.opener = opener;
+    this.maxOpen = Math.max(1, maxOpen);
+    this.open = new LinkedHashMap<Integer, Future<T>>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, Future<T>> eldest) {
+        return size() > MaxMindHistory.this.maxOpen;
+      }
+    };
+    this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "MaxMind history open"); //$NON-NLS-1$
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * @return the millis of UTC midnight of the date in the name, -1 for none
+   */
+  static long parseDate(String name) {
+    Matcher matcher = DATE.matcher(name);
+    while (matcher.find()) {
+      int year = Integer.parseInt(matcher.group(1));
+      int month = Integer.parseInt(matcher.group(2));
+      int day = Integer.parseInt(matcher.group(3));
+      if (month >= 1 && month <= 12 && day >= 1 && day <= 31) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC")); //$NON-NLS-1$
+        calendar.clear();
+        calendar.set(year, month - 1, day);
+        return calendar.getTimeInMillis();
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return number of versions
+   */
+  int size() {
+    return files.length;
+  }
+
+  File getFile(int version) {
+    return files[version];
+  }
+
+  /**
+   * @return the version current at the time
+   */
+  int versionAt(long millis) {
+    int found = Arrays.binarySearch(validFrom, millis);
+    if (found < 0) {
+      found = -found - 2; // the one before the insertion point
+    } else {
+      while (found + 1 < validFrom.length && validFrom[found + 1] == millis) {
+        found++; // the last of equally dated files
+      }
+    }
+    return Math.max(0, found);
+  }
+
+  /**
+   * Returns the database of a version, opening it if needed (or waiting for the background open), and starts opening
+   * the next version if there is room for it.
+   */
+  T get(int version) throws Exception {
+    Future<T> future = submit(version);
+    if (version + 1 < files.length && maxOpen > 1) {
+      submit(version + 1);
+      open.get(version); // keeps the requested one the most recently used
+    }
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      open.remove(version); // tried again next time
+      throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+    }
+  }
+
+  private Future<T> submit(final int version) {
+    Future<T> future = open.get(version);
+    if (future == null) {
+      future = executor.submit(new Callable<T>() {
+        public T call() throws Exception {
+          return opener.open(files[version]);
+        }
+      });
+      open.put(version, future);
+    }
+    return future;
+  }
+
+  /**
+   * @return the versions that are open or being opened, least recently used first
+   */
+  int[] getOpenVersions() {
+    int[] versions = new int[open.size()];
+    int i = 0;
+    for (Iterator<Integer> it = open.keySet().iterator(); it.hasNext();) {
+      versions[i++] = it.next();
+    }
+    return versions;
+  }
+
+  /**
+   * Stops the background opening, the open databases are left to the garbage collector.
+   */
+  void close() {
+    executor.shutdownNow();
+    open.clear();
+  }
+}
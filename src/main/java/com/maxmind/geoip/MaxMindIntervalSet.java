@@ -0,0 +1,251 @@
+package com.maxmind.geoip;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/*
+ * Immutable set of address ranges in the (hi, lo) key space of MaxMindIpParser, sorted and merged, so membership is a
+ * binary search over primitive arrays.  Built from the networks a MaxMindNetworkWalker reports.
+ *
+ * IPv4 addresses mostly don't get that far.  Like a roaring bitmap, the IPv4 space is split into /16 containers,
+ * each either empty, full, or a bitmap of its /24 blocks in two halves: the blocks fully in the set and the blocks
+ * only partly in it.  Only an address of a partly covered block falls back to the binary search.
+ */
+final class MaxMindIntervalSet {
+
+  private static final int FORMAT_VERSION = 1;
+
+  // container of a /16 that is fully in the set
+  private static final long[] FULL = new long[0];
+
+  private final long[] startHi;
+  private final long[] startLo;
+  private final long[] endHi;
+  private final long[] endLo;
+
+  // per /16 of the IPv4 space: null, FULL, or 4 longs of full /24 bits followed by 4 longs of partial /24 bits
+  private final long[][] ipv4Containers = new long[1 << 16][];
+
+  private MaxMindIntervalSet(long[] startHi, long[] startLo, long[] endHi, long[] endLo) {
+    this.startHi = startHi;
+    this.startLo = startLo;
+    this.endHi = endHi;
+    this.endLo = endLo;
+    for (int i = 0; i < startHi.length; i++) {
+      indexIpv4(startHi[i], startLo[i], endHi[i], endLo[i]);
+    }
+  }
+
+  /*
+   * Marks the /24 blocks of the part of a range in the IPv4 space.
+   */
+  private void indexIpv4(long fromHi, long fromLo, long toHi, long toLo) {
+    long ipv4Start = MaxMindIpParser.keyLo(0L);
+    long ipv4End = MaxMindIpParser.keyLo(0xFFFFFFFFL);
+    if (compare(toHi, toLo, 0L, ipv4Start) < 0 || compare(fromHi, fromLo, 0L, ipv4End) > 0) {
+      return;
+    }
+    long from = (compare(fromHi, fromLo, 0L, ipv4Start) < 0) ? 0L : fromLo & 0xFFFFFFFFL;
+    long to = (compare(toHi, toLo, 0L, ipv4End) > 0) ? 0xFFFFFFFFL : toLo & 0xFFFFFFFFL;
+
+    long firstBlock = from >>> 8;
+    long lastBlock = to >>> 8;
+    long block = firstBlock;
+    while (block <= lastBlock) {
+      int container = (int) (block >>> 8);
+      boolean blockFull = (block != firstBlock || (from & 0xFF) == 0) && (block != lastBlock || (to & 0xFF) == 0xFF);
+      if (blockFull && (block & 0xFF) == 0 && block + 0xFF <= lastBlock
+          && (block + 0xFF != lastBlock || (to & 0xFF) == 0xFF)) {
+        // the whole /16
+        ipv4Containers[container] = FULL;
+        block += 0x100;
+        continue;
+      }
+      long[] bits = ipv4Containers[container];
+      if (bits == FULL) {
+        block++;
+        continue;
+      }
+      if (bits == null) {
+        bits = new long[8];
+        ipv4Containers[container] = bits;
+      }
+      int index = (int) (block & 0xFF);
+      if (blockFull) {
+        bits[index >>> 6] |= 1L << index;
+        bits[4 + (index >>> 6)] &= ~(1L << index);
+      } else if ((bits[index >>> 6] & (1L << index)) == 0) {
+        bits[4 + (index >>> 6)] |= 1L << index;
+      }
+      block++;
+    }
+  }
+
+  /**
+   * @return true if the IPv4 address is in one of the ranges
+   */
+  boolean contains(long ipv4) {
+    long[] bits = ipv4Containers[(int) (ipv4 >>> 16)];
+    if (bits == null) {
+      return false;
+    }
+    if (bits == FULL) {
+      return true;
+    }
+    int index = (int) ((ipv4 >>> 8) & 0xFF);
+    if ((bits[index >>> 6] & (1L << index)) != 0) {
+      return true;
+    }
+    return (bits[4 + (index >>> 6)] & (1L << index)) != 0 && search(0L, MaxMindIpParser.keyLo(ipv4));
+  }
+
+  /**
+   * @return true if the address with the key (hi, lo) is in one of the ranges
+   */
+  boolean contains(long hi, long lo) {
+    if (MaxMindIpParser.isIpv4(hi, lo)) {
+      return contains(lo & 0xFFFFFFFFL);
+    }
+    return search(hi, lo);
+  }
+
+  private boolean search(long hi, long lo) {
+    // last range starting at or before the key
+    int low = 0;
+    int high = startHi.length - 1;
+    int found = -1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      if (compare(startHi[middle], startLo[middle], hi, lo) <= 0) {
+        found = middle;
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return found >= 0 && compare(hi, lo, endHi[found], endLo[found]) <= 0;
+  }
+
+  /**
+   * @return number of ranges, after merging the adjacent ones
+   */
+  int size() {
+    return startHi.length;
+  }
+
+  /**
+   * Writes the ranges, read() builds the set again from them.
+   */
+  void write(DataOutputStream out) throws IOException {
+    out.writeInt(FORMAT_VERSION);
+    out.writeInt(startHi.length);
+    for (int i = 0; i < startHi.length; i++) {
+      out.writeLong(startHi[i]);
+      out.writeLong(startLo[i]);
+      out.writeLong(endHi[i]);
+      out.writeLong(endLo[i]);
+    }
+  }
+
+  static MaxMindIntervalSet read(DataInputStream in) throws IOException {
+    if (in.readInt() != FORMAT_VERSION) {
+      throw new IOException("Unsupported range set format");
+    }
+    int size = in.readInt();
+    if (size < 0) {
+      throw new IOException("Invalid range set size " + size);
+    }
+    long[] sHi = new long[size];
+    long[] sLo = new long[size];
+    long[] eHi = new long[size];
+    long[] eLo = new long[size];
+    for (int i = 0; i < size; i++) {
+      sHi[i] = in.readLong();
+      sLo[i] = in.readLong();
+      eHi[i] = in.readLong();
+      eLo[i] = in.readLong();
+    }
+    return new MaxMindIntervalSet(sHi, sLo, eHi, eLo);
+  }
+
+  private static int compare(long hiA, long loA, long hiB, long loB) {
+    int c = Long.compareUnsigned(hiA, hiB);
+    return (c != 0) ? c : Long.compareUnsigned(loA, loB);
+  }
+
+  /**
+   * Collects networks in any order.
+   */
+  static final class Builder {
+    private long[] startHi = new long[64];
+    private long[] startLo = new long[64];
+    private long[] endHi = new long[64];
+    private long[] endLo = new long[64];
+    private int size;
+
+    /**
+     * @param address first address of the network, 4 or 16 bytes
+     * @param prefixLength number of network bits of address
+     */
+    Builder add(byte[] address, int prefixLength) {
+      byte[] last = MaxMindNetworkWalker.lastAddress(address, prefixLength);
+      return add(MaxMindIpParser.keyHi(address), MaxMindIpParser.keyLo(address), MaxMindIpParser.keyHi(last),
+          MaxMindIpParser.keyLo(last));
+    }
+
+    Builder add(long fromHi, long fromLo, long toHi, long toLo) {
+      if (size == startHi.length) {
+        startHi = Arrays.copyOf(startHi, size * 2);
+        startLo = Arrays.copyOf(startLo, size * 2);
+        endHi = Arrays.copyOf(endHi, size * 2);
+        endLo = Arrays.copyOf(endLo, size * 2);
+      }
+      startHi[size] = fromHi;
+      startLo[size] = fromLo;
+      endHi[size] = toHi;
+      endLo[size] = toLo;
+      size++;
+      return this;
+    }
+
+    MaxMindIntervalSet build() {
+      int[] order = MaxMindIpParser.sortByKey(Arrays.copyOf(startHi, size), Arrays.copyOf(startLo, size));
+      long[] sHi = new long[size];
+      long[] sLo = new long[size];
+      long[] eHi = new long[size];
+      long[] eLo = new long[size];
+      int n = 0;
+      for (int i : order) {
+        if (n > 0 && touches(eHi[n - 1], eLo[n - 1], startHi[i], startLo[i])) {
+          // overlapping or adjacent, extends the previous range
+          if (compare(endHi[i], endLo[i], eHi[n - 1], eLo[n - 1]) > 0) {
+            eHi[n - 1] = endHi[i];
+            eLo[n - 1] = endLo[i];
+          }
+          continue;
+        }
+        sHi[n] = startHi[i];
+        sLo[n] = startLo[i];
+        eHi[n] = endHi[i];
+        eLo[n] = endLo[i];
+        n++;
+      }
+      return new MaxMindIntervalSet(Arrays.copyOf(sHi, n), Arrays.copyOf(sLo, n), Arrays.copyOf(eHi, n),
+          Arrays.copyOf(eLo, n));
+    }
+
+    /*
+     * true if the range ending at (endHi, endLo) reaches the key right before (hi, lo) or beyond it
+     */
+    private static boolean touches(long endHi, long endLo, long hi, long lo) {
+      if (compare(hi, lo, endHi, endLo) <= 0) {
+        return true;
+      }
+      long nextLo = endLo + 1;
+      long nextHi = (nextLo == 0) ? endHi + 1 : endHi;
+      return nextHi == hi && nextLo == lo && !(endHi == -1L && endLo == -1L);
+    }
+  }
+}
@@ -0,0 +1,193 @@
+package com.maxmind.geoip;
+
+/*
+ * Picks the address to look up out of values like "203.0.113.7, 10.0.0.2" (X-Forwarded-For) or "[2001:db8::1]:443".
+ * The value is scanned once and only the position of the address is returned, the caller hands that range to
+ * MaxMindIpParser, so dotted quads go from the raw value to the cache key without creating any objects.
+ */
+final class MaxMindIpExtractor {
+
+  /**
+   * Which address of a comma separated list is looked up.  Every mode strips brackets, ports and quotes.
+   */
+  enum Mode {
+    none, // the value is taken as it is
+    first,
+    last,
+    first_public; // the first address not in a private, loopback, link local or otherwise reserved range
+
+    /**
+     * @return the mode for code, none for an empty or unknown code
+     */
+    static Mode fromCode(String code) {
+      for (Mode mode : values()) {
+        if (mode.name().equalsIgnoreCase(code)) {
+          return mode;
+        }
+      }
+      return none;
+    }
+  }
+
+  private MaxMindIpExtractor() {
+  }
+
+  /**
+   * Finds the address to look up.
+   *
+   * @param value the field value
+   * @param mode which address of a list to pick, not none
+   * @return the position of the address packed as (start << 32) | end, -1 if the value holds no address at all
+   */
+  static long find(CharSequence value, Mode mode) {
+    int length = value.length();
+    long first = -1;
+    long last = -1;
+    int start = 0;
+    while (start <= length) {
+      int end = start;
+      while (end < length && value.charAt(end) != ',') {
+        end++;
+      }
+      long host = host(value, start, end);
+      if (host >= 0) {
+        if (mode == Mode.first || (mode == Mode.first_public && isPublic(value, start(host), end(host)))) {
+          return host;
+        }
+        if (first < 0) {
+          first = host;
+        }
+        last = host;
+      }
+      start = end + 1;
+    }
+    // without any public address the first one is looked up, it will just not be found
+    return (mode == Mode.last) ? last : first;
+  }
+
+  static int start(long range) {
+    return (int) (range >>> 32);
+  }
+
+  static int end(long range) {
+    return (int) range;
+  }
+
+  /*
+   * Strips blanks, quotes, brackets and a port from one list entry.
+   */
+  private static long host(CharSequence value, int start, int end) {
+    while (start < end && isBlank(value.charAt(start))) {
+      start++;
+    }
+    while (end > start && isBlank(value.charAt(end - 1))) {
+      end--;
+    }
+    if (start == end) {
+      return -1;
+    }
+    if (value.charAt(start) == '[') {
+      // [v6]:port, or just [v6]
+      for (int i = start + 1; i < end; i++) {
+        if (value.charAt(i) == ']') {
+          return ((long) (start + 1) << 32) | i;
+        }
+      }
+      return pack(start, end);
+    }
+    int colon = -1;
+    for (int i = start; i < end; i++) {
+      if (value.charAt(i) == ':') {
+        if (colon >= 0) {
+          return pack(start, end); // more than one colon is an IPv6 address, which can't carry a port unbracketed
+        }
+        colon = i;
+      }
+    }
+    return (colon > start) ? pack(start, colon) : pack(start, end);
+  }
+
+  private static long pack(int start, int end) {
+    return ((long) start << 32) | end;
+  }
+
+  private static boolean isBlank(char c) {
+    return c == ' ' || c == '\t' || c == '"' || c == '\'';
+  }
+
+  private static boolean isPublic(CharSequence value, int start, int end) {
+    long ipv4 = MaxMindIpParser.parseIpv4(value, start, end);
+    if (ipv4 >= 0) {
+      return isPublicIpv4(ipv4);
+    }
+    // IPv6, decided by the first group: unspecified, loopback and mapped addresses (::...), ULA (fc00::/7),
+    // link local (fe80::/10) and multicast (ff00::/8) are not public
+    int group = 0;
+    int digits = 0;
+    for (int i = start; i < end; i++) {
+      int digit = Character.digit(value.charAt(i), 16);
+      if (digit < 0) {
+        if (value.charAt(i) != ':' || digits == 0) {
+          return false;
+        }
+        return (group & 0xFE00) != 0xFC00 && (group & 0xFFC0) != 0xFE80 && (group & 0xFF00) != 0xFF00;
+      }
+      group = (group << 4) | digit;
+      if (++digits > 4) {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return false for the private (RFC 1918), shared (RFC 6598), loopback, link local, "this network", multicast and
+   * reserved IPv4 ranges
+   */
+  static boolean isPublicIpv4(long ipv4) {
+    int a = (int) (ipv4 >>> 24);
+    int b = (int) (ipv4 >>> 16) & 0xFF;
+    return a != 0 && a != 10 && a != 127 && a < 224
+        && !(a == 100 && (b & 0xC0) == 64)
+        && !(a == 169 && b == 254)
+        && !(a == 172 && (b & 0xF0) == 16)
+        && !(a == 192 && b == 168);
+  }
+
+  /**
+   * Reusable view of the raw bytes of a lazily converted field, the address characters are all ASCII.
+   */
+  static final class ByteSequence implements CharSequence {
+    private byte[] bytes;
+    private int offset;
+    private int length;
+
+    ByteSequence wrap(byte[] bytes, int offset, int length) {
+      this.bytes = bytes;
+      this.offset = offset;
+      this.length = length;
+      return this;
+    }
+
+    public int length() {
+      return length;
+    }
+
+    public char charAt(int index) {
+      return (char) (bytes[offset + index] & 0xFF);
+    }
+
+    public CharSequence subSequence(int start, int end) {
+      return new ByteSequence().wrap(bytes, offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder s = new StringBuilder(length);
+      for (int i = 0; i < length; i++) {
+        s.append(charAt(i));
+      }
+      return s.toString();
+    }
+  }
+}
@@ -0,0 +1,217 @@
+package com.maxmind.geoip;
+
+import java.net.InetAddress;
+
+/*
+ * Turns IP addresses into the primitive (hi, lo) key pair the caches are keyed by.  IPv4 addresses are
+ * stored in their IPv4-mapped IPv6 form (::ffff:a.b.c.d), so one 128 bit key space covers both families.
+ */
+final class MaxMindIpParser {
+
+  static final long IPV4_MAPPED_PREFIX = 0x0000FFFF00000000L;
+
+  private MaxMindIpParser() {
+  }
+
+  /**
+   * Parses a well formed dotted quad without creating any objects.  Anything else (IPv6, leading zeros,
+   * stray characters) returns -1 so the caller can fall back to the full InetAddresses parser.
+   *
+   * @param ip the address to parse
+   * @return the unsigned 32 bit address, or -1 if ip is not a plain dotted quad
+   */
+  static long parseIpv4(String ip) {
+    return (ip == null) ? -1 : parseIpv4(ip, 0, ip.length());
+  }
+
+  /**
+   * Range version of parseIpv4(String), for an address embedded in a longer value.
+   *
+   * @param ip the value holding the address
+   * @param start index of the first character of the address
+   * @param end index after the last character of the address
+   * @return the unsigned 32 bit address, or -1 if the range is not a plain dotted quad
+   */
+  static long parseIpv4(CharSequence ip, int start, int end) {
+    int length = end - start;
+    if (length < 7 || length > 15) {
+      return -1;
+    }
+    long result = 0;
+    int blockNumber = 0;
+    int block = 0;
+    int digits = 0;
+    for (int i = start; i < end; i++) {
+      char c = ip.charAt(i);
+      if (c == '.') {
+        if (digits == 0 || blockNumber == 3) {
+          return -1;
+        }
+        result = (result << 8) | block;
+        blockNumber++;
+        block = 0;
+        digits = 0;
+      } else if (c >= '0' && c <= '9') {
+        if (digits > 0 && block == 0) {
+          return -1; // leading zero, InetAddresses rejects these too
+        }
+        block = block * 10 + (c - '0');
+        if (++digits > 3 || block > 255) {
+          return -1;
+        }
+      } else {
+        return -1;
+      }
+    }
+    if (digits == 0 || blockNumber != 3) {
+      return -1;
+    }
+    return (result << 8) | block;
+  }
+
+  /**
+   * Byte version of parseIpv4(String), for the raw input of lazily converted fields.  The bytes must be in an ASCII
+   * compatible encoding, anything else is not recognized and left to the String based parsing.
+   *
+   * @param ip buffer holding the address
+   * @param offset start of the address in ip
+   * @param length number of bytes of the address
+   * @return the unsigned 32 bit address, or -1 if the bytes are not a plain dotted quad
+   */
+  static long parseIpv4(byte[] ip, int offset, int length) {
+    if (ip == null || length < 7 || length > 15) {
+      return -1;
+    }
+    long result = 0;
+    int blockNumber = 0;
+    int block = 0;
+    int digits = 0;
+    for (int i = offset; i < offset + length; i++) {
+      int c = ip[i];
+      if (c == '.') {
+        if (digits == 0 || blockNumber == 3) {
+          return -1;
+        }
+        result = (result << 8) | block;
+        blockNumber++;
+        block = 0;
+        digits = 0;
+      } else if (c >= '0' && c <= '9') {
+        if (digits > 0 && block == 0) {
+          return -1;
+        }
+        block = block * 10 + (c - '0');
+        if (++digits > 3 || block > 255) {
+          return -1;
+        }
+      } else {
+        return -1;
+      }
+    }
+    if (digits == 0 || blockNumber != 3) {
+      return -1;
+    }
+    return (result << 8) | block;
+  }
+
+  static long keyHi(byte[] address) {
+    if (address.length == 4) {
+      return 0L;
+    }
+    return readLong(address, 0);
+  }
+
+  static long keyLo(byte[] address) {
+    if (address.length == 4) {
+      return IPV4_MAPPED_PREFIX | (readLong(address, 0) >>> 32);
+    }
+    return readLong(address, 8);
+  }
+
+  static long keyLo(long ipv4) {
+    return IPV4_MAPPED_PREFIX | ipv4;
+  }
+
+  static boolean isIpv4(long hi, long lo) {
+    return hi == 0L && (lo & 0xFFFFFFFF00000000L) == IPV4_MAPPED_PREFIX;
+  }
+
+  /**
+   * Rebuilds the address for a key, needed on a cache miss to call the DatabaseReader.
+   */
+  static InetAddress toInetAddress(long hi, long lo) {
+    byte[] address;
+    if (isIpv4(hi, lo)) {
+      address = new byte[4];
+      writeInt(address, 0, (int) lo);
+    } else {
+      address = new byte[16];
+      writeInt(address, 0, (int) (hi >>> 32));
+      writeInt(address, 4, (int) hi);
+      writeInt(address, 8, (int) (lo >>> 32));
+      writeInt(address, 12, (int) lo);
+    }
+    try {
+      return InetAddress.getByAddress(address);
+    } catch (java.net.UnknownHostException e) {
+      // Only thrown for an illegal address length
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Sorts keys in address order without boxing them.
+   *
+   * @return the indexes of the keys, ordered by their (unsigned) 128 bit value
+   */
+  static int[] sortByKey(long[] hi, long[] lo) {
+    int n = hi.length;
+    int[] order = new int[n];
+    for (int i = 0; i < n; i++) {
+      order[i] = i;
+    }
+    // bottom up merge sort, stable so rows with the same key keep their order
+    int[] buffer = new int[n];
+    for (int width = 1; width < n; width *= 2) {
+      for (int left = 0; left < n - width; left += 2 * width) {
+        int middle = left + width;
+        int right = Math.min(left + 2 * width, n);
+        int i = left;
+        int j = middle;
+        int k = left;
+        while (i < middle && j < right) {
+          buffer[k++] = (compare(hi, lo, order[j], order[i]) < 0) ? order[j++] : order[i++];
+        }
+        while (i < middle) {
+          buffer[k++] = order[i++];
+        }
+        while (j < right) {
+          buffer[k++] = order[j++];
+        }
+        System.arraycopy(buffer, left, order, left, right - left);
+      }
+    }
+    return order;
+  }
+
+  private static int compare(long[] hi, long[] lo, int a, int b) {
+    int c = Long.compareUnsigned(hi[a], hi[b]);
+    return (c != 0) ? c : Long.compareUnsigned(lo[a], lo[b]);
+  }
+
+  private static long readLong(byte[] b, int offset) {
+    long result = 0;
+    int end = Math.min(b.length, offset + 8);
+    for (int i = offset; i < end; i++) {
+      result = (result << 8) | (b[i] & 0xFF);
+    }
+    return result << (8 * (offset + 8 - end));
+  }
+
+  private static void writeInt(byte[] b, int offset, int value) {
+    b[offset] = (byte) (value >>> 24);
+    b[offset + 1] = (byte) (value >>> 16);
+    b[offset + 2] = (byte) (value >>> 8);
+    b[offset + 3] = (byte) value;
+  }
+}
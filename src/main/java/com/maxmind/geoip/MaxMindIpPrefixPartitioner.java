@@ -0,0 +1,175 @@
+package com.maxmind.geoip;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.annotations.PartitionerPlugin;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.exception.KettleXMLException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.xml.XMLHandler;
+import org.pentaho.di.repository.ObjectId;
+import org.pentaho.di.repository.Repository;
+import org.pentaho.di.trans.BasePartitioner;
+import org.pentaho.di.trans.Partitioner;
+import org.w3c.dom.Node;
+
+import com.google.common.net.InetAddresses;
+
+/*
+ * Partitions rows by the network prefix of an IP address field, so every copy of a lookup step (or every slave
+ * server of a cluster) only sees its own slice of the address space and its caches hold far fewer distinct records.
+ *
+ * IPv4 addresses (including IPv4 mapped IPv6 addresses) are grouped by their first ipv4PrefixLength bits, IPv6
+ * addresses by their first ipv6PrefixLength bits.  Values that are not IP addresses are spread by their hash code,
+ * null goes to the first partition.
+ */
+@PartitionerPlugin(id = "MaxMindIpPrefixPartitioner", name = "MaxMindIpPrefixPartitioner.Name", description = "MaxMindIpPrefixPartitioner.Description", i18nPackageName = "com.maxmind.geoip")
+public class MaxMindIpPrefixPartitioner extends BasePartitioner {
+
+  public static final int DEFAULT_IPV4_PREFIX_LENGTH = 24;
+  public static final int DEFAULT_IPV6_PREFIX_LENGTH = 48;
+
+  private String fieldName;
+  private int ipv4PrefixLength = DEFAULT_IPV4_PREFIX_LENGTH;
+  private int ipv6PrefixLength = DEFAULT_IPV6_PREFIX_LENGTH;
+
+  protected int partitionColumnIndex = -1;
+
+  public MaxMindIpPrefixPartitioner() {
+    super();
+  }
+
+  public Partitioner getInstance() {
+    Partitioner partitioner = new MaxMindIpPrefixPartitioner();
+    partitioner.setId(getId());
+    partitioner.setDescription(getDescription());
+    return partitioner;
+  }
+
+  public MaxMindIpPrefixPartitioner clone() {
+    MaxMindIpPrefixPartitioner partitioner = (MaxMindIpPrefixPartitioner) super.clone();
+    partitioner.fieldName = fieldName;
+    partitioner.ipv4PrefixLength = ipv4PrefixLength;
+    partitioner.ipv6PrefixLength = ipv6PrefixLength;
+    return partitioner;
+  }
+
+  public String getDialogClassName() {
+    return MaxMindIpPrefixPartitionerDialog.class.getName();
+  }
+
+  public int getPartition(RowMetaInterface rowMeta, Object[] row) throws KettleException {
+    init(rowMeta);
+
+    if (partitionColumnIndex < 0) {
+      partitionColumnIndex = rowMeta.indexOfValue(fieldName);
+      if (partitionColumnIndex < 0) {
+        throw new KettleStepException("Unable to find partitioning field name [" + fieldName + "] in the output row..." + rowMeta); //$NON-NLS-1$ //$NON-NLS-2$
+      }
+    }
+
+    String ip = rowMeta.getString(row, partitionColumnIndex);
+    if (ip == null) {
+      return 0;
+    }
+    return (int) ((mix(getPrefix(ip.trim())) >>> 1) % getNrPartitions());
+  }
+
+  /*
+   * The network part of the address, with the prefix length mixed in so an IPv4 and an IPv6 network of the same value
+   * don't always land together.
+   */
+  long getPrefix(String ip) {
+    long hi;
+    long lo;
+    long ipv4 = MaxMindIpParser.parseIpv4(ip);
+    if (ipv4 >= 0) {
+      hi = 0L;
+      lo = MaxMindIpParser.keyLo(ipv4);
+    } else if (InetAddresses.isInetAddress(ip)) {
+      byte[] address = InetAddresses.forString(ip).getAddress();
+      hi = MaxMindIpParser.keyHi(address);
+      lo = MaxMindIpParser.keyLo(address);
+    } else {
+      return ip.hashCode();
+    }
+
+    if (MaxMindIpParser.isIpv4(hi, lo)) {
+      int bits = Math.max(1, Math.min(32, ipv4PrefixLength));
+      return (((lo & 0xFFFFFFFFL) >>> (32 - bits)) << 8) | bits;
+    }
+    int bits = Math.max(1, Math.min(128, ipv6PrefixLength));
+    if (bits <= 64) {
+      return (hi >>> (64 - bits)) * 31 + bits;
+    }
+    return (hi * 31 + (lo >>> (128 - bits))) * 31 + bits;
+  }
+
+  /*
+   * Spreads neighbouring prefixes over the partitions.
+   */
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+    h *= 0xC4CEB9FE1A85EC53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  public String getXML() {
+    StringBuilder xml = new StringBuilder(150);
+    xml.append("           ").append(XMLHandler.addTagValue("field_name", fieldName)); //$NON-NLS-1$ //$NON-NLS-2$
+    xml.append("           ").append(XMLHandler.addTagValue("ipv4_prefix_length", ipv4PrefixLength)); //$NON-NLS-1$ //$NON-NLS-2$
+    xml.append("           ").append(XMLHandler.addTagValue("ipv6_prefix_length", ipv6PrefixLength)); //$NON-NLS-1$ //$NON-NLS-2$
+    return xml.toString();
+  }
+
+  public void loadXML(Node partitioningMethodNode) throws KettleXMLException {
+    fieldName = XMLHandler.getTagValue(partitioningMethodNode, "field_name"); //$NON-NLS-1$
+    ipv4PrefixLength = Const.toInt(XMLHandler.getTagValue(partitioningMethodNode, "ipv4_prefix_length"), DEFAULT_IPV4_PREFIX_LENGTH); //$NON-NLS-1$
+    ipv6PrefixLength = Const.toInt(XMLHandler.getTagValue(partitioningMethodNode, "ipv6_prefix_length"), DEFAULT_IPV6_PREFIX_LENGTH); //$NON-NLS-1$
+  }
+
+  public void saveRep(Repository rep, ObjectId id_transformation, ObjectId id_step) throws KettleException {
+    rep.saveStepAttribute(id_transformation, id_step, "PARTITIONING_FIELDNAME", fieldName); //$NON-NLS-1$
+    rep.saveStepAttribute(id_transformation, id_step, "PARTITIONING_IPV4_PREFIX_LENGTH", ipv4PrefixLength); //$NON-NLS-1$
+    rep.saveStepAttribute(id_transformation, id_step, "PARTITIONING_IPV6_PREFIX_LENGTH", ipv6PrefixLength); //$NON-NLS-1$
+  }
+
+  public void loadRep(Repository rep, ObjectId id_step) throws KettleException {
+    fieldName = rep.getStepAttributeString(id_step, "PARTITIONING_FIELDNAME"); //$NON-NLS-1$
+    ipv4PrefixLength = (int) rep.getStepAttributeInteger(id_step, "PARTITIONING_IPV4_PREFIX_LENGTH"); //$NON-NLS-1$
+    ipv6PrefixLength = (int) rep.getStepAttributeInteger(id_step, "PARTITIONING_IPV6_PREFIX_LENGTH"); //$NON-NLS-1$
+    if (ipv4PrefixLength <= 0) {
+      ipv4PrefixLength = DEFAULT_IPV4_PREFIX_LENGTH;
+    }
+    if (ipv6PrefixLength <= 0) {
+      ipv6PrefixLength = DEFAULT_IPV6_PREFIX_LENGTH;
+    }
+  }
+
+  public String getFieldName() {
+    return fieldName;
+  }
+
+  public void setFieldName(String fieldName) {
+    this.fieldName = fieldName;
+  }
+
+  public int getIpv4PrefixLength() {
+    return ipv4PrefixLength;
+  }
+
+  public void setIpv4PrefixLength(int ipv4PrefixLength) {
+    this.ipv4PrefixLength = ipv4PrefixLength;
+  }
+
+  public int getIpv6PrefixLength() {
+    return ipv6PrefixLength;
+  }
+
+  public void setIpv6PrefixLength(int ipv6PrefixLength) {
+    this.ipv6PrefixLength = ipv6PrefixLength;
+  }
+}
@@ -0,0 +1,181 @@
+package com.maxmind.geoip;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.custom.CCombo;
+import org.eclipse.swt.events.ModifyEvent;
+import org.eclipse.swt.events.ModifyListener;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
+import org.eclipse.swt.events.ShellAdapter;
+import org.eclipse.swt.events.ShellEvent;
+import org.eclipse.swt.layout.FormAttachment;
+import org.eclipse.swt.layout.FormData;
+import org.eclipse.swt.layout.FormLayout;
+import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Event;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Listener;
+import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.Text;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.i18n.BaseMessages;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.BaseStepMeta;
+import org.pentaho.di.trans.step.StepDialogInterface;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.step.StepPartitioningMeta;
+import org.pentaho.di.ui.core.dialog.ErrorDialog;
+import org.pentaho.di.ui.trans.step.BaseStepDialog;
+
+/*
+ * Settings of the IP prefix partitioner, opened by Spoon when the partitioning method is chosen for a step.
+ */
+public class MaxMindIpPrefixPartitionerDialog extends BaseStepDialog implements StepDialogInterface {
+  private static Class<?> PKG = MaxMindGeoIPLookup.class;
+
+  private StepMeta stepMeta;
+  private MaxMindIpPrefixPartitioner partitioner;
+
+  private CCombo wFieldname;
+  private Text wIpv4PrefixLength;
+  private Text wIpv6PrefixLength;
+
+  public MaxMindIpPrefixPartitionerDialog(Shell parent, StepMeta stepMeta, StepPartitioningMeta partitioningMeta, TransMeta transMeta) {
+    super(parent, (BaseStepMeta) stepMeta.getStepMetaInterface(), transMeta, partitioningMeta.getPartitioner().getDescription());
+    this.stepMeta = stepMeta;
+    this.partitioner = (MaxMindIpPrefixPartitioner) partitioningMeta.getPartitioner();
+  }
+
+  public String open() {
+    Shell parent = getParent();
+    Display display = parent.getDisplay();
+
+    shell = new Shell(parent, SWT.DIALOG_TRIM | SWT.RESIZE | SWT.MAX | SWT.MIN);
+    props.setLook(shell);
+    setShellImage(shell, stepMeta.getStepMetaInterface());
+
+    ModifyListener lsMod = new ModifyListener() {
+      public void modifyText(ModifyEvent e) {
+        stepMeta.setChanged();
+      }
+    };
+    changed = stepMeta.hasChanged();
+
+    FormLayout formLayout = new FormLayout();
+    formLayout.marginWidth = Const.FORM_MARGIN;
+    formLayout.marginHeight = Const.FORM_MARGIN;
+
+    shell.setLayout(formLayout);
+    shell.setText(partitioner.getDescription());
+
+    int middle = props.getMiddlePct();
+    int margin = Const.MARGIN;
+
+    Label wlFieldname = new Label(shell, SWT.RIGHT);
+    wlFieldname.setText(BaseMessages.getString(PKG, "MaxMindIpPrefixPartitionerDialog.FieldName.Label")); //$NON-NLS-1$
+    props.setLook(wlFieldname);
+    FormData fdlFieldname = new FormData();
+    fdlFieldname.left = new FormAttachment(0, 0);
+    fdlFieldname.right = new FormAttachment(middle, -margin);
+    fdlFieldname.top = new FormAttachment(0, margin);
+    wlFieldname.setLayoutData(fdlFieldname);
+    wFieldname = new CCombo(shell, SWT.BORDER);
+    props.setLook(wFieldname);
+    wFieldname.addModifyListener(lsMod);
+    FormData fdFieldname = new FormData();
+    fdFieldname.left = new FormAttachment(middle, 0);
+    fdFieldname.right = new FormAttachment(100, 0);
+    fdFieldname.top = new FormAttachment(0, margin);
+    wFieldname.setLayoutData(fdFieldname);
+
+    wIpv4PrefixLength = addText(wFieldname, "MaxMindIpPrefixPartitionerDialog.Ipv4PrefixLength", lsMod); //$NON-NLS-1$
+    wIpv6PrefixLength = addText(wIpv4PrefixLength, "MaxMindIpPrefixPartitionerDialog.Ipv6PrefixLength", lsMod); //$NON-NLS-1$
+
+    wOK = new Button(shell, SWT.PUSH);
+    wOK.setText(BaseMessages.getString(PKG, "System.Button.OK")); //$NON-NLS-1$
+    wCancel = new Button(shell, SWT.PUSH);
+    wCancel.setText(BaseMessages.getString(PKG, "System.Button.Cancel")); //$NON-NLS-1$
+    setButtonPositions(new Button[] { wOK, wCancel }, margin, wIpv6PrefixLength);
+
+    lsOK = new Listener() { public void handleEvent(Event e) { ok(); } };
+    lsCancel = new Listener() { public void handleEvent(Event e) { cancel(); } };
+    wOK.addListener(SWT.Selection, lsOK);
+    wCancel.addListener(SWT.Selection, lsCancel);
+
+    lsDef = new SelectionAdapter() { public void widgetDefaultSelected(SelectionEvent e) { ok(); } };
+    wIpv4PrefixLength.addSelectionListener(lsDef);
+    wIpv6PrefixLength.addSelectionListener(lsDef);
+
+    // Detect X or ALT-F4 or something that kills this window...
+    shell.addShellListener(new ShellAdapter() { public void shellClosed(ShellEvent e) { cancel(); } });
+
+    setSize();
+    getData();
+    stepMeta.setChanged(changed);
+
+    shell.open();
+    while (!shell.isDisposed()) {
+      if (!display.readAndDispatch()) display.sleep();
+    }
+    return stepname;
+  }
+
+  private Text addText(Control lastControl, String messageKey, ModifyListener lsMod) {
+    int middle = props.getMiddlePct();
+    int margin = Const.MARGIN;
+
+    Label wlText = new Label(shell, SWT.RIGHT);
+    wlText.setText(BaseMessages.getString(PKG, messageKey + ".Label")); //$NON-NLS-1$
+    wlText.setToolTipText(BaseMessages.getString(PKG, messageKey + ".Tooltip")); //$NON-NLS-1$
+    props.setLook(wlText);
+    FormData fdlText = new FormData();
+    fdlText.left = new FormAttachment(0, 0);
+    fdlText.right = new FormAttachment(middle, -margin);
+    fdlText.top = new FormAttachment(lastControl, margin);
+    wlText.setLayoutData(fdlText);
+
+    Text wText = new Text(shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+    props.setLook(wText);
+    wText.addModifyListener(lsMod);
+    FormData fdText = new FormData();
+    fdText.left = new FormAttachment(middle, 0);
+    fdText.right = new FormAttachment(100, 0);
+    fdText.top = new FormAttachment(lastControl, margin);
+    wText.setLayoutData(fdText);
+    return wText;
+  }
+
+  public void getData() {
+    try {
+      RowMetaInterface r = transMeta.getPrevStepFields(stepMeta);
+      if (r != null) {
+        for (int i = 0; i < r.size(); i++) {
+          wFieldname.add(r.getValueMeta(i).getName());
+        }
+      }
+    } catch (KettleException ke) {
+      new ErrorDialog(shell, BaseMessages.getString(PKG, "MaxMindIpPrefixPartitionerDialog.FailedToGetFields.DialogTitle"), //$NON-NLS-1$
+          BaseMessages.getString(PKG, "MaxMindIpPrefixPartitionerDialog.FailedToGetFields.DialogMessage"), ke); //$NON-NLS-1$
+    }
+    wFieldname.setText(Const.NVL(partitioner.getFieldName(), "")); //$NON-NLS-1$
+    wIpv4PrefixLength.setText(Integer.toString(partitioner.getIpv4PrefixLength()));
+    wIpv6PrefixLength.setText(Integer.toString(partitioner.getIpv6PrefixLength()));
+  }
+
+  private void cancel() {
+    stepname = null;
+    stepMeta.setChanged(changed);
+    dispose();
+  }
+
+  private void ok() {
+    partitioner.setFieldName(wFieldname.getText());
+    partitioner.setIpv4PrefixLength(Const.toInt(wIpv4PrefixLength.getText(), MaxMindIpPrefixPartitioner.DEFAULT_IPV4_PREFIX_LENGTH));
+    partitioner.setIpv6PrefixLength(Const.toInt(wIpv6PrefixLength.getText(), MaxMindIpPrefixPartitioner.DEFAULT_IPV6_PREFIX_LENGTH));
+    dispose();
+  }
+}
@@ -0,0 +1,239 @@
+package com.maxmind.geoip;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.vfs2.FileContent;
+import org.apache.commons.vfs2.FileObject;
+import org.apache.commons.vfs2.FileSystemException;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.vfs.KettleVFS;
+
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.ByteStreams;
+
+/*
+ * Keeps local copies of databases that live on a remote VFS (S3, HDFS, HTTP, ...), so a job start doesn't have to
+ * download the whole file again.
+ *
+ * Every source URI gets its own file in the cache directory, plus a small properties file with the remote size,
+ * modification time and checksum attribute (if the file system offers one) seen at download time.  A copy is only
+ * reused when those still match the remote file, and when its SHA-256 still matches the download.  The hash is
+ * checked once per copy and process, not on every open.  Downloads go to a temporary file that is renamed into place, and a
+ * lock file per source serializes concurrent JVMs, so readers never see a half written database.
+ */
+class MaxMindLocalDatabaseCache {
+
+  /** Kettle variable (or system property) pointing to the cache directory */
+  static final String CACHE_DIR_VARIABLE = "MAXMIND_GEOIP_CACHE_DIR"; //$NON-NLS-1$
+
+  private static final String PROP_SOURCE = "source"; //$NON-NLS-1$
+  private static final String PROP_SIZE = "remote.size"; //$NON-NLS-1$
+  private static final String PROP_MODIFIED = "remote.modified"; //$NON-NLS-1$
+  private static final String PROP_CHECKSUM = "remote.checksum"; //$NON-NLS-1$
+  private static final String PROP_SHA256 = "local.sha256"; //$NON-NLS-1$
+
+  // Content attributes some VFS providers expose, in order of preference
+  private static final String[] CHECKSUM_ATTRIBUTES = { "Content-MD5", "ETag", "checksum" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+  private final File cacheDir;
+  private int downloads = 0;
+
+  // "path:length:modified" of the copies whose hash was checked
+  private final HashSet<String> verifiedCopies = new HashSet<String>();
+
+  MaxMindLocalDatabaseCache(File cacheDir) {
+    this.cacheDir = cacheDir;
+  }
+
+  /**
+   * @return the cache in the directory configured by the MAXMIND_GEOIP_CACHE_DIR system property, the temp directory
+   * otherwise
+   */
+  static MaxMindLocalDatabaseCache getDefault() {
+    return new MaxMindLocalDatabaseCache(getDirectory(null));
+  }
+
+  /**
+   * @param dir the value of MAXMIND_GEOIP_CACHE_DIR in the variables of a step, empty for the system property or the
+   * temp directory
+   * @return the cache directory to use
+   */
+  static File getDirectory(String dir) {
+    if (Const.isEmpty(dir)) {
+      dir = System.getProperty(CACHE_DIR_VARIABLE);
+    }
+    if (Const.isEmpty(dir)) {
+      dir = System.getProperty("java.io.tmpdir") + File.separator + "pdi-maxmind-cache"; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    return new File(dir);
+  }
+
+  File getCacheDir() {
+    return cacheDir;
+  }
+
+  /**
+   * Returns an up to date local copy of the source, downloading it only if the cached copy is missing or stale.
+   *
+   * @param source remote database file
+   * @return the local copy
+   * @throws IOException
+   */
+  synchronized File getLocalCopy(FileObject source) throws IOException {
+    if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+      throw new IOException("Unable to create the database cache directory '" + cacheDir + "'");
+    }
+
+    String uri = source.getName().getURI();
+    String key = Hashing.sha256().hashUnencodedChars(uri).toString().substring(0, 32);
+    File localFile = new File(cacheDir, key + "-" + source.getName().getBaseName()); //$NON-NLS-1$
+    File propertiesFile = new File(cacheDir, key + ".properties"); //$NON-NLS-1$
+
+    RandomAccessFile lockFile = new RandomAccessFile(new File(cacheDir, key + ".lock"), "rw"); //$NON-NLS-1$ //$NON-NLS-2$
+    try {
+      FileLock lock = lockFile.getChannel().lock(); // waits for another JVM that is downloading the same source
+      try {
+        FileContent content = source.getContent();
+        Properties remote = new Properties();
+        remote.setProperty(PROP_SOURCE, uri);
+        remote.setProperty(PROP_SIZE, Long.toString(content.getSize()));
+        remote.setProperty(PROP_MODIFIED, Long.toString(getLastModified(content)));
+        String checksum = getChecksum(content);
+        if (checksum != null) {
+          remote.setProperty(PROP_CHECKSUM, checksum);
+        }
+
+        if (isCurrent(localFile, propertiesFile, remote)) {
+          return localFile;
+        }
+
+        download(source, localFile, propertiesFile, remote);
+        return localFile;
+      } finally {
+        lock.release();
+      }
+    } finally {
+      lockFile.close();
+    }
+  }
+
+  /**
+   * @return number of times a source had to be downloaded
+   */
+  int getDownloads() {
+    return downloads;
+  }
+
+  private boolean isCurrent(File localFile, File propertiesFile, Properties remote) throws IOException {
+    if (!localFile.isFile() || !propertiesFile.isFile()) {
+      return false;
+    }
+    Properties cached = new Properties();
+    InputStream in = new FileInputStream(propertiesFile);
+    try {
+      cached.load(in);
+    } finally {
+      in.close();
+    }
+    for (String name : remote.stringPropertyNames()) {
+      if (!remote.getProperty(name).equals(cached.getProperty(name))) {
+        return false;
+      }
+    }
+    // guards against a copy that was truncated or replaced behind our back
+    if (!Long.toString(localFile.length()).equals(cached.getProperty(PROP_SIZE))) {
+      return false;
+    }
+    if (!verifiedCopies.contains(stamp(localFile))) {
+      if (!sha256(localFile).equals(cached.getProperty(PROP_SHA256))) {
+        return false; // damaged on disk
+      }
+      verifiedCopies.add(stamp(localFile));
+    }
+    return true;
+  }
+
+  private static String stamp(File file) {
+    return file.getPath() + ":" + file.length() + ":" + file.lastModified(); //$NON-NLS-1$ //$NON-NLS-2$
+  }
+
+  private static String sha256(File file) throws IOException {
+    HashingInputStream in = new HashingInputStream(Hashing.sha256(), new FileInputStream(file));
+    try {
+      ByteStreams.copy(in, ByteStreams.nullOutputStream());
+    } finally {
+      in.close();
+    }
+    return in.hash().toString();
+  }
+
+  private void download(FileObject source, File localFile, File propertiesFile, Properties remote) throws IOException {
+    File partFile = File.createTempFile(localFile.getName(), ".part", cacheDir); //$NON-NLS-1$
+    try {
+      HashingInputStream in = new HashingInputStream(Hashing.sha256(), KettleVFS.getInputStream(source));
+      try {
+        OutputStream out = new FileOutputStream(partFile);
+        try {
+          ByteStreams.copy(in, out);
+        } finally {
+          out.close();
+        }
+      } finally {
+        in.close();
+      }
+      remote.setProperty(PROP_SHA256, in.hash().toString());
+
+      // The database first, then the properties that vouch for it
+      Files.move(partFile.toPath(), localFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      verifiedCopies.add(stamp(localFile));
+      File partProperties = File.createTempFile(propertiesFile.getName(), ".part", cacheDir); //$NON-NLS-1$
+      OutputStream out = new FileOutputStream(partProperties);
+      try {
+        remote.store(out, "MaxMind database copy"); //$NON-NLS-1$
+      } finally {
+        out.close();
+      }
+      Files.move(partProperties.toPath(), propertiesFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+      downloads++;
+    } finally {
+      partFile.delete();
+    }
+  }
+
+  private static long getLastModified(FileContent content) {
+    try {
+      return content.getLastModifiedTime();
+    } catch (FileSystemException e) {
+      return 0; // not every provider knows, size and checksum still apply
+    }
+  }
+
+  private static String getChecksum(FileContent content) {
+    try {
+      Map<String, Object> attributes = content.getAttributes();
+      for (String name : CHECKSUM_ATTRIBUTES) {
+        Object value = attributes.get(name);
+        if (value != null) {
+          return value.toString();
+        }
+      }
+    } catch (FileSystemException e) {
+      // no attributes on this file system
+    }
+    return null;
+  }
+}
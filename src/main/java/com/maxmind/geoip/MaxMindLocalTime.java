@@ -0,0 +1,102 @@
+package com.maxmind.geoip;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Turns UTC timestamps into the local time of a time zone given by name, like the timezone field of the City
+ * database.
+ *
+ * The rules of a zone are resolved once per process and name.  On top of that each instance remembers, per zone, the
+ * last offset it found and the transitions around it: a timestamp between them gets the offset without asking the
+ * rules again, so the rules are only consulted when a stream crosses a DST change.  Instances are not thread safe,
+ * every step copy has its own.
+ */
+final class MaxMindLocalTime {
+
+  // the rules of each zone name, null for a name that isn't a zone (kept as UNKNOWN)
+  private static final ConcurrentHashMap<String, ZoneRules> zoneRules = new ConcurrentHashMap<String, ZoneRules>();
+  private static final ZoneRules UNKNOWN = ZoneRules.of(ZoneOffset.UTC);
+
+  private static final class Window {
+    final ZoneRules rules;
+    long from; // in epoch seconds, inclusive
+    long to; // exclusive
+    ZoneOffset offset;
+
+    Window(ZoneRules rules) {
+      this.rules = rules;
+    }
+  }
+
+  private final HashMap<String, Window> windows = new HashMap<String, Window>();
+
+  /**
+   * @param zone a time zone name, like America/New_York
+   * @param epochMillis the UTC timestamp
+   * @return the offset of the zone at the timestamp, null for an unknown zone
+   */
+  ZoneOffset getOffset(String zone, long epochMillis) {
+    Window window = windows.get(zone);
+    if (window == null) {
+      ZoneRules rules = getRules(zone);
+      if (rules == null) {
+        return null;
+      }
+      window = new Window(rules);
+      window.to = Long.MIN_VALUE; // empty
+      windows.put(zone, window);
+    }
+    long epochSecond = Math.floorDiv(epochMillis, 1000);
+    if (epochSecond >= window.from && epochSecond < window.to) {
+      return window.offset;
+    }
+    Instant instant = Instant.ofEpochSecond(epochSecond);
+    window.offset = window.rules.getOffset(instant);
+    ZoneOffsetTransition previous = window.rules.previousTransition(instant.plusSeconds(1));
+    ZoneOffsetTransition next = window.rules.nextTransition(instant);
+    window.from = (previous == null) ? Long.MIN_VALUE : previous.toEpochSecond();
+    window.to = (next == null) ? Long.MAX_VALUE : next.toEpochSecond();
+    return window.offset;
+  }
+
+  /**
+   * @return the local date and time in the zone, like 2016-03-27T03:30:00, null for an unknown zone
+   */
+  String getLocalTime(String zone, long epochMillis) {
+    ZoneOffset offset = getOffset(zone, epochMillis);
+    if (offset == null) {
+      return null;
+    }
+    long epochSecond = Math.floorDiv(epochMillis, 1000);
+    int nanos = (int) Math.floorMod(epochMillis, 1000) * 1000000;
+    return DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(LocalDateTime.ofEpochSecond(epochSecond, nanos, offset));
+  }
+
+  /*
+   * @return the rules of a zone name, null if it isn't one
+   */
+  static ZoneRules getRules(String zone) {
+    if (zone == null) {
+      return null;
+    }
+    ZoneRules rules = zoneRules.get(zone);
+    if (rules == null) {
+      try {
+        rules = ZoneId.of(zone).getRules();
+      } catch (DateTimeException e) {
+        rules = UNKNOWN;
+      }
+      zoneRules.put(zone, rules);
+    }
+    return (rules == UNKNOWN) ? null : rules;
+  }
+}
@@ -0,0 +1,63 @@
+package com.maxmind.geoip;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * An engine answering the lookups of a database instead of the DatabaseReader every database type uses by default.
+ * Backends are found with a ServiceLoader: a jar lists its implementations in
+ * META-INF/services/com.maxmind.geoip.MaxMindLookupBackend, and the step selects one by name.
+ *
+ * A lookup resolves the key of an address (see MaxMindIpParser) to a handle of its record, and projects the record
+ * of a handle onto the field paths given when the backend was opened.  Projected values are Strings, Longs for
+ * integral numbers, Doubles, Booleans, and JSON text for objects and arrays, null for a record that doesn't have the
+ * path.  The database turns them into the types of its fields.
+ */
+public interface MaxMindLookupBackend {
+
+  /**
+   * @return the name the step selects the backend by
+   */
+  String getName();
+
+  /**
+   * Opens the backend for one step copy.
+   *
+   * @param databaseFile the local database file
+   * @param paths the field paths to project the records onto
+   * @param address where the backend finds its engine, like the port of a lookup server, null for none
+   * @throws IOException if the backend can't answer for the database
+   */
+  Lookup open(File databaseFile, String[] paths, String address) throws IOException;
+
+  /**
+   * The lookups of one step copy, not called from several threads at once.
+   */
+  interface Lookup {
+
+    /**
+     * @return the database type of the records, like GeoIP2-City
+     */
+    String getDatabaseType();
+
+    /**
+     * @return the build date of the records in millis
+     */
+    long getBuildDate();
+
+    /**
+     * Resolves the first n keys.  Backends with a cost per call should resolve them together.
+     *
+     * @return a handle for the record of each key, null for an address that is not in the database
+     */
+    Object[] resolve(long[] his, long[] los, int n) throws IOException;
+
+    /**
+     * @param handle a handle returned by resolve()
+     * @return the values of the record at the field paths
+     */
+    Object[] project(Object handle) throws IOException;
+
+    void close();
+  }
+}
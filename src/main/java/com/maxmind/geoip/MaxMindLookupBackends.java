@@ -0,0 +1,67 @@
+package com.maxmind.geoip;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/*
+ * The lookup backends on the class path of the plugin, see MaxMindLookupBackend.  They are loaded once, with the
+ * class loader of the plugin so jars in its lib folder are found.
+ */
+final class MaxMindLookupBackends {
+
+  // the DatabaseReader of each database type, it isn't a backend of its own
+  static final String DEFAULT = "DatabaseReader"; //$NON-NLS-1$
+
+  private static Map<String, MaxMindLookupBackend> backends = null;
+
+  private MaxMindLookupBackends() {
+  }
+
+  private static synchronized Map<String, MaxMindLookupBackend> getBackends() {
+    if (backends == null) {
+      Map<String, MaxMindLookupBackend> loaded = new LinkedHashMap<String, MaxMindLookupBackend>();
+      for (MaxMindLookupBackend backend : ServiceLoader.load(MaxMindLookupBackend.class,
+          MaxMindLookupBackend.class.getClassLoader())) {
+        if (!DEFAULT.equals(backend.getName()) && !loaded.containsKey(backend.getName())) {
+          loaded.put(backend.getName(), backend);
+        }
+      }
+      backends = loaded;
+    }
+    return backends;
+  }
+
+  /**
+   * @return the names to select a backend by, the default first
+   */
+  static String[] getNames() {
+    Map<String, MaxMindLookupBackend> loaded = getBackends();
+    String[] names = new String[loaded.size() + 1];
+    names[0] = DEFAULT;
+    int i = 1;
+    for (String name : loaded.keySet()) {
+      names[i++] = name;
+    }
+    return names;
+  }
+
+  static boolean isDefault(String name) {
+    return name == null || name.trim().length() == 0 || DEFAULT.equals(name);
+  }
+
+  /**
+   * @return the backend of that name, null for the default
+   * @throws IllegalArgumentException if there is no backend of that name
+   */
+  static MaxMindLookupBackend get(String name) {
+    if (isDefault(name)) {
+      return null;
+    }
+    MaxMindLookupBackend backend = getBackends().get(name);
+    if (backend == null) {
+      throw new IllegalArgumentException("Unknown lookup backend '" + name + "'");
+    }
+    return backend;
+  }
+}
@@ -0,0 +1,161 @@
+package com.maxmind.geoip;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/*
+ * Connection of one database to a MaxMindLookupServer on the same host.  The server projects the records onto the
+ * paths given when connecting, a lookup returns the projected values, null for an address the database doesn't
+ * have.
+ *
+ * Batches are pipelined: the next batch is sent before the answer to the previous one is read, so the server is
+ * never idle waiting for the client.  Not thread safe, every step copy has its own connection.
+ */
+final class MaxMindLookupClient {
+
+  // addresses per request, small enough that a request always fits into the socket buffers
+  static final int BATCH_SIZE = 256;
+
+  private static final int CONNECT_TIMEOUT = 5000;
+
+  private final Socket socket;
+  private final DataInputStream in;
+  private final DataOutputStream out;
+  private final String databaseType;
+  private final long buildDate;
+
+  // the encoded record last read from the server
+  private byte[] buffer = new byte[1024];
+
+  /**
+   * @param address "port" or "host:port" of the server
+   * @param paths the field paths to project the records onto
+   * @throws IOException if the server can't be reached or refuses the paths
+   */
+  MaxMindLookupClient(String address, String[] paths) throws IOException {
+    socket = new Socket();
+    try {
+      socket.connect(parseAddress(address), CONNECT_TIMEOUT);
+      socket.setTcpNoDelay(true);
+      in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+      out.writeInt(MaxMindLookupServer.MAGIC);
+      out.writeByte(MaxMindLookupServer.VERSION);
+      out.writeShort(paths.length);
+      for (String path : paths) {
+        out.writeUTF(path);
+      }
+      out.flush();
+      if (in.readInt() != MaxMindLookupServer.MAGIC) {
+        throw new IOException("'" + address + "' is not a MaxMind lookup server");
+      }
+      if (in.readByte() != MaxMindLookupServer.STATUS_OK) {
+        throw new IOException("Lookup server at '" + address + "' refused the fields: " + in.readUTF());
+      }
+      databaseType = in.readUTF();
+      buildDate = in.readLong();
+    } catch (IOException e) {
+      socket.close();
+      throw e;
+    }
+  }
+
+  static InetSocketAddress parseAddress(String address) throws IOException {
+    int colon = address.lastIndexOf(':');
+    try {
+      int port = Integer.parseInt(address.substring(colon + 1).trim());
+      return (colon < 0) ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port)
+          : new InetSocketAddress(address.substring(0, colon).trim(), port);
+    } catch (NumberFormatException e) {
+      throw new IOException("Lookup server address '" + address + "' is not port or host:port");
+    }
+  }
+
+  /**
+   * @return the database type of the served database, like GeoIP2-City
+   */
+  String getDatabaseType() {
+    return databaseType;
+  }
+
+  /**
+   * @return the build date of the served database in millis
+   */
+  long getBuildDate() {
+    return buildDate;
+  }
+
+  /**
+   * @return the projected values of one address, null if it is not in the database
+   */
+  Object[] lookup(long hi, long lo) throws IOException {
+    return lookup(new long[] { hi }, new long[] { lo }, 1)[0];
+  }
+
+  /**
+   * @return the projected values of the first n addresses, null for the ones that are not in the database
+   */
+  Object[][] lookup(long[] his, long[] los, int n) throws IOException {
+    Object[][] records = new Object[n][];
+    int sent = send(his, los, 0, n);
+    for (int received = 0; received < n;) {
+      int next = (sent < n) ? send(his, los, sent, n) : sent;
+      for (int end = sent; received < end; received++) {
+        records[received] = receive();
+      }
+      sent = next;
+    }
+    return records;
+  }
+
+  /*
+   * Sends the batch starting at from.
+   *
+   * @return the end of the batch
+   */
+  private int send(long[] his, long[] los, int from, int n) throws IOException {
+    int end = Math.min(n, from + BATCH_SIZE);
+    out.writeByte(MaxMindLookupServer.OP_LOOKUP);
+    out.writeInt(end - from);
+    for (int i = from; i < end; i++) {
+      out.writeLong(his[i]);
+      out.writeLong(los[i]);
+    }
+    out.flush();
+    return end;
+  }
+
+  private Object[] receive() throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    if (length > buffer.length) {
+      buffer = new byte[Math.max(length, 2 * buffer.length)];
+    }
+    in.readFully(buffer, 0, length);
+    return MaxMindRecordCodec.decode(ByteBuffer.wrap(buffer, 0, length));
+  }
+
+  void close() {
+    try {
+      out.writeByte(MaxMindLookupServer.OP_CLOSE);
+      out.flush();
+    } catch (IOException e) {
+      // closed anyway
+    }
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // nothing left to do
+    }
+  }
+}
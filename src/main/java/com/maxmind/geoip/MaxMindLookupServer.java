@@ -0,0 +1,242 @@
+package com.maxmind.geoip;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.maxmind.db.Reader;
+
+/*
+ * A small lookup daemon for hosts running many Kettle JVMs: it maps one database and answers the lookups of all of
+ * them, so the decoded records and node caches exist once per host instead of once per JVM.  It only listens on the
+ * loopback interface.
+ *
+ *   java -cp "<plugin jars>" com.maxmind.geoip.MaxMindLookupServer GeoIP2-City.mmdb [port]
+ *
+ * The protocol is binary and pipelined, every connection has a thread of its own:
+ *
+ *   handshake  client: int MAGIC, byte VERSION, short n, n UTF field paths
+ *              server: int MAGIC, byte status (0 ok, 1 error followed by UTF message), UTF database type,
+ *                      long build date
+ *   lookup     client: byte OP_LOOKUP, int n, n times long hi and long lo (see MaxMindIpParser)
+ *              server: n times int length, followed by the projected values as a MaxMindRecordCodec record of
+ *                      that length, -1 and nothing for an address that is not in the database
+ *   close      client: byte OP_CLOSE
+ *
+ * The server projects the records onto the field paths of the client, so only the values travel: Strings, Longs
+ * for integral numbers, Doubles, Booleans, and JSON text for objects and arrays.  Clients may send the next batch
+ * before reading the answer to the previous one.
+ */
+public final class MaxMindLookupServer {
+
+  static final int DEFAULT_PORT = 7363;
+
+  static final int MAGIC = 0x4D4D4C53; // "MMLS"
+  static final byte VERSION = 1;
+
+  static final byte OP_LOOKUP = 1;
+  static final byte OP_CLOSE = 2;
+
+  static final byte STATUS_OK = 0;
+  static final byte STATUS_ERROR = 1;
+
+  // more addresses per batch are refused, it keeps the answers of a pipelined client bounded
+  static final int MAX_BATCH = 1 << 16;
+
+  /*
+   * The database the server answers from.
+   */
+  interface Records {
+    JsonNode get(InetAddress address) throws IOException;
+
+    String getDatabaseType();
+
+    long getBuildDate();
+  }
+
+  private final Records records;
+  private final ServerSocket serverSocket;
+  private final AtomicInteger connections = new AtomicInteger();
+
+  /**
+   * @param database the database file to serve
+   * @param port the loopback port to listen on, 0 for any free one
+   */
+  public MaxMindLookupServer(File database, int port) throws IOException {
+    this(open(database), port);
+  }
+
+  MaxMindLookupServer(Records records, int port) throws IOException {
+    this.records = records;
+    this.serverSocket = new ServerSocket();
+    serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+  }
+
+  private static Records open(File database) throws IOException {
+    final Reader reader = new Reader(database, new MaxMindNodeCache());
+    return new Records() {
+      public JsonNode get(InetAddress address) throws IOException {
+        return reader.get(address);
+      }
+
+      public String getDatabaseType() {
+        return reader.getMetadata().getDatabaseType();
+      }
+
+      public long getBuildDate() {
+        return reader.getMetadata().getBuildDate().getTime();
+      }
+    };
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1 || args.length > 2) {
+      System.err.println("Usage: MaxMindLookupServer <database file> [port]"); //$NON-NLS-1$
+      System.exit(2);
+    }
+    int port = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+    MaxMindLookupServer server = new MaxMindLookupServer(new File(args[0]), port);
+    System.out.println("Serving " + server.records.getDatabaseType() + " from '" + args[0] + "' on port " //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        + server.getPort());
+    server.run();
+  }
+
+  /**
+   * @return the port the server listens on
+   */
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  /**
+   * Accepts connections until the server is closed.
+   */
+  public void run() {
+    while (!serverSocket.isClosed()) {
+      final Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (IOException e) {
+        continue; // closed, or a connection that failed early
+      }
+      Thread thread = new Thread(new Runnable() {
+        public void run() {
+          serve(socket);
+        }
+      }, "MaxMind lookup connection " + connections.incrementAndGet()); //$NON-NLS-1$
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /**
+   * Runs the server in a daemon thread of its own.
+   */
+  void start() {
+    Thread thread = new Thread(new Runnable() {
+      public void run() {
+        MaxMindLookupServer.this.run();
+      }
+    }, "MaxMind lookup server"); //$NON-NLS-1$
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Stops accepting connections, the open ones end with their clients.
+   */
+  public void close() throws IOException {
+    serverSocket.close();
+  }
+
+  private void serve(Socket socket) {
+    try {
+      socket.setTcpNoDelay(true);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      Object[][] paths = handshake(in, out);
+      if (paths == null) {
+        return;
+      }
+      for (;;) {
+        byte op;
+        try {
+          op = in.readByte();
+        } catch (EOFException e) {
+          return;
+        }
+        if (op != OP_LOOKUP) {
+          return; // OP_CLOSE or garbage
+        }
+        int n = in.readInt();
+        if (n < 0 || n > MAX_BATCH) {
+          return;
+        }
+        long[] keys = new long[2 * n];
+        for (int i = 0; i < keys.length; i++) {
+          keys[i] = in.readLong();
+        }
+        for (int i = 0; i < n; i++) {
+          JsonNode record = records.get(MaxMindIpParser.toInetAddress(keys[2 * i], keys[2 * i + 1]));
+          if (record == null) {
+            out.writeInt(-1);
+          } else {
+            byte[] values = MaxMindRecordCodec.encode(MaxMindFieldPath.project(record, paths));
+            out.writeInt(values.length);
+            out.write(values);
+          }
+        }
+        out.flush();
+      }
+    } catch (IOException e) {
+      // the client went away
+    } finally {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // nothing left to do
+      }
+    }
+  }
+
+  /*
+   * @return the compiled field paths of the client, null after a failed handshake
+   */
+  private Object[][] handshake(DataInputStream in, DataOutputStream out) throws IOException {
+    if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+      return null;
+    }
+    Object[][] paths = new Object[in.readUnsignedShort()][];
+    String error = null;
+    for (int i = 0; i < paths.length; i++) {
+      String path = in.readUTF();
+      try {
+        paths[i] = MaxMindFieldPath.compile(path);
+      } catch (IllegalArgumentException e) {
+        error = e.getMessage();
+      }
+    }
+    out.writeInt(MAGIC);
+    if (error != null) {
+      out.writeByte(STATUS_ERROR);
+      out.writeUTF(error);
+      out.flush();
+      return null;
+    }
+    out.writeByte(STATUS_OK);
+    out.writeUTF(records.getDatabaseType());
+    out.writeLong(records.getBuildDate());
+    out.flush();
+    return paths;
+  }
+}
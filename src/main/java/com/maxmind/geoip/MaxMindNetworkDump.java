@@ -0,0 +1,208 @@
+package com.maxmind.geoip;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowDataUtil;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.BaseStep;
+import org.pentaho.di.trans.step.StepDataInterface;
+import org.pentaho.di.trans.step.StepInterface;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.step.StepMetaInterface;
+
+import com.google.common.net.InetAddresses;
+import com.maxmind.db.NoCache;
+import com.maxmind.db.Reader;
+
+/*
+ * Writes out every network of a MaxMind database.  The search tree is split into subtrees that are walked by a pool
+ * of threads, each one into its own bounded queue.  The queues are drained in address order, so the rows come out
+ * sorted and only a few subtrees worth of rows are held in memory at any time.
+ */
+public class MaxMindNetworkDump extends BaseStep implements StepInterface
+{
+  // Rows a worker may get ahead of the step
+  private static final int QUEUE_SIZE = 1000;
+
+  // Marks the end of the rows of a subtree
+  private static final Object[] END_OF_SUBTREE = new Object[0];
+
+  private MaxMindNetworkDumpData data;
+  private MaxMindNetworkDumpMeta meta;
+  private MaxMindDatabase maxMindDatabase;
+
+  public MaxMindNetworkDump(StepMeta s, StepDataInterface stepDataInterface, int c, TransMeta t, Trans dis)
+  {
+    super(s, stepDataInterface, c, t, dis);
+  }
+
+  public boolean processRow(StepMetaInterface smi, StepDataInterface sdi) throws KettleException
+  {
+    meta = (MaxMindNetworkDumpMeta) smi;
+    data = (MaxMindNetworkDumpData) sdi;
+
+    if (first)
+    {
+      first = false;
+
+      data.outputRowMeta = new RowMeta();
+      meta.getFields(data.outputRowMeta, getStepname(), null, null, this);
+      startWorkers();
+    }
+
+    while (data.currentSubtree < data.queues.size())
+    {
+      Object[] row;
+      try {
+        row = data.queues.get(data.currentSubtree).poll(1, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        throw new KettleException("Interrupted while waiting for the networks of the database", e);
+      }
+      if (row == null) {
+        if (isStopped()) {
+          return false;
+        }
+      } else if (row == END_OF_SUBTREE) {
+        if (data.error != null) {
+          throw new KettleException("Unable to read the networks of the database", data.error);
+        }
+        data.queues.set(data.currentSubtree++, null);
+      } else {
+        putRow(data.outputRowMeta, row);
+        if (checkFeedback(getLinesWritten())) logBasic("Linenr " + getLinesWritten()); // Some basic logging every 5000 rows.
+        return true;
+      }
+    }
+
+    setOutputDone();
+    return false;
+  }
+
+  /*
+   * Hands the subtrees to the worker threads, in address order.
+   */
+  private void startWorkers() {
+    int threads = (int) Const.toLong(environmentSubstitute(meta.getThreads()), 0);
+    if (threads <= 0) {
+      threads = Runtime.getRuntime().availableProcessors();
+    }
+    data.queues = new ArrayList<BlockingQueue<Object[]>>(data.subtrees.size());
+    data.executor = Executors.newFixedThreadPool(threads);
+    for (final MaxMindNetworkWalker.Subtree subtree : data.subtrees) {
+      final BlockingQueue<Object[]> queue = new LinkedBlockingQueue<Object[]>(QUEUE_SIZE);
+      data.queues.add(queue);
+      data.executor.submit(new Callable<Void>() {
+        public Void call() throws InterruptedException {
+          try {
+            data.walker.walk(subtree, new MaxMindNetworkWalker.Visitor() {
+              public void network(byte[] address, int prefixLength, long dataOffset) throws Exception {
+                queue.put(networkRow(address, prefixLength, dataOffset));
+              }
+            });
+          } catch (InterruptedException e) {
+            throw e; // stopped, nobody waits for the rest
+          } catch (Exception e) {
+            data.error = e;
+          }
+          queue.put(END_OF_SUBTREE);
+          return null;
+        }
+      });
+    }
+    data.executor.shutdown(); // the threads end with the last subtree
+  }
+
+  /*
+   * Called by the worker threads.  Each record is decoded and projected by the first network pointing to it.
+   */
+  private Object[] networkRow(byte[] address, int prefixLength, long dataOffset) throws IOException {
+    InetAddress start = InetAddress.getByAddress(address);
+    Long key = dataOffset;
+    Object[] record = data.records.get(key);
+    if (record == null) {
+      record = maxMindDatabase.getRecordData(data.fieldPaths, data.reader.get(start));
+      Object[] previous = data.records.putIfAbsent(key, record);
+      if (previous != null) {
+        record = previous;
+      }
+    }
+
+    Object[] row = RowDataUtil.allocateRowData(data.outputRowMeta.size());
+    String startAddress = InetAddresses.toAddrString(start);
+    row[0] = startAddress;
+    row[1] = InetAddresses.toAddrString(InetAddress.getByAddress(MaxMindNetworkWalker.lastAddress(address, prefixLength)));
+    row[2] = startAddress + "/" + prefixLength;
+    row[3] = Long.valueOf(prefixLength);
+    System.arraycopy(record, 0, row, 4, record.length);
+    return row;
+  }
+
+  public boolean init(StepMetaInterface smi, StepDataInterface sdi)
+  {
+    meta = (MaxMindNetworkDumpMeta) smi;
+    data = (MaxMindNetworkDumpData) sdi;
+
+    if (super.init(smi, sdi))
+    {
+      MaxMindHelper helper = new MaxMindHelper(this, meta);
+      try {
+        helper.setupMaxMindDatabase();
+        maxMindDatabase = helper.getMaxMindDatabase();
+        if (maxMindDatabase == null) {
+          logError("Unknown MaxMind database type '" + meta.getDbType() + "'");
+          return false;
+        }
+
+        File dbFile = maxMindDatabase.getLocalDatabaseFile();
+        data.walker = new MaxMindNetworkWalker(dbFile);
+        data.subtrees = data.walker.split();
+        data.reader = new Reader(dbFile, NoCache.getInstance());
+        data.fieldPaths = maxMindDatabase.getOutputFieldPaths();
+        maxMindDatabase.getDefaultRecord(); // converted once, before the workers share it
+        logDetailed("Walking " + data.walker.getNodeCount() + " nodes of database '" + dbFile + "' in "
+            + data.subtrees.size() + " subtrees");
+      } catch(Exception e) {
+        logError("Error initializing max mind database file location '"+helper.getFilenameLocation()+"'", e);
+        return false;
+      }
+      return true;
+    }
+    else
+    {
+      return false;
+    }
+  }
+
+  public void dispose(StepMetaInterface smi, StepDataInterface sdi)
+  {
+    meta = (MaxMindNetworkDumpMeta) smi;
+    data = (MaxMindNetworkDumpData) sdi;
+
+    if (data.executor != null) {
+      data.executor.shutdownNow(); // stops the workers of an aborted run
+    }
+    logDetailed("Decoded " + data.records.size() + " distinct records");
+    data.records.clear();
+    if (data.reader != null) {
+      try {
+        data.reader.close();
+      } catch (IOException e) {
+        logError("Unable to close the database reader", e);
+      }
+    }
+
+    super.dispose(smi, sdi);
+  }
+}
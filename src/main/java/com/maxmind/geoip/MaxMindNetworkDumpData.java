@@ -0,0 +1,38 @@
+package com.maxmind.geoip;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.trans.step.BaseStepData;
+import org.pentaho.di.trans.step.StepDataInterface;
+
+import com.maxmind.db.Reader;
+
+public class MaxMindNetworkDumpData extends BaseStepData implements StepDataInterface
+{
+	public RowMetaInterface outputRowMeta;
+
+	MaxMindNetworkWalker walker;
+	Reader reader; // decodes the records, without a node cache as each one is only read once
+	MaxMindFieldPath[] fieldPaths;
+
+	// one queue of rows per subtree, drained in address order while the workers fill the following ones
+	List<MaxMindNetworkWalker.Subtree> subtrees;
+	List<BlockingQueue<Object[]>> queues;
+	int currentSubtree;
+	ExecutorService executor;
+
+	// projected records by their offset in the data section, shared by all networks pointing to them
+	final ConcurrentHashMap<Long, Object[]> records = new ConcurrentHashMap<Long, Object[]>();
+
+	// first failure of a worker
+	volatile Exception error;
+
+	protected MaxMindNetworkDumpData()
+	{
+		super();
+	}
+}
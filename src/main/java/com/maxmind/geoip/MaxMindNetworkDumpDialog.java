@@ -0,0 +1,374 @@
+package com.maxmind.geoip;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.custom.CCombo;
+import org.eclipse.swt.events.ModifyEvent;
+import org.eclipse.swt.events.ModifyListener;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
+import org.eclipse.swt.events.ShellAdapter;
+import org.eclipse.swt.events.ShellEvent;
+import org.eclipse.swt.layout.FormAttachment;
+import org.eclipse.swt.layout.FormData;
+import org.eclipse.swt.layout.FormLayout;
+import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Event;
+import org.eclipse.swt.widgets.FileDialog;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Listener;
+import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.Table;
+import org.eclipse.swt.widgets.TableItem;
+import org.eclipse.swt.widgets.Text;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.i18n.BaseMessages;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.BaseStepMeta;
+import org.pentaho.di.trans.step.StepDialogInterface;
+import org.pentaho.di.ui.core.widget.ColumnInfo;
+import org.pentaho.di.ui.core.widget.TableView;
+import org.pentaho.di.ui.core.widget.TextVar;
+import org.pentaho.di.ui.trans.step.BaseStepDialog;
+
+public class MaxMindNetworkDumpDialog extends BaseStepDialog implements StepDialogInterface
+{
+  private static Class<?> PKG = MaxMindNetworkDump.class;
+
+  private TextVar      wFilename;
+  private CCombo       wDbType;
+  private TextVar      wThreads;
+  private Button       wBinaryStringOutput;
+  private TextVar      wReferencePoints;
+  private TextVar      wGeohashPrecision;
+  private TableView    wFields;
+  private ColumnInfo[] colinf;
+
+  private MaxMindNetworkDumpMeta input;
+
+  public MaxMindNetworkDumpDialog(Shell parent, Object in, TransMeta transMeta, String sname)
+  {
+    super(parent, (BaseStepMeta)in, transMeta, sname);
+    input=(MaxMindNetworkDumpMeta)in;
+  }
+
+  public String open()
+  {
+    Shell parent = getParent();
+    Display display = parent.getDisplay();
+
+    shell = new Shell(parent, SWT.DIALOG_TRIM | SWT.RESIZE | SWT.MAX | SWT.MIN);
+    props.setLook(shell);
+    setShellImage(shell, input);
+
+    ModifyListener lsMod = new ModifyListener()
+    {
+      public void modifyText(ModifyEvent e)
+      {
+        input.setChanged();
+      }
+    };
+    changed = input.hasChanged();
+
+    FormLayout formLayout = new FormLayout ();
+    formLayout.marginWidth  = Const.FORM_MARGIN;
+    formLayout.marginHeight = Const.FORM_MARGIN;
+
+    shell.setLayout(formLayout);
+    shell.setText(BaseMessages.getString(PKG, "MaxMindNetworkDumpDialog.Shell.Title")); //$NON-NLS-1$
+
+    int middle = props.getMiddlePct();
+    int margin = Const.MARGIN;
+
+    // Stepname line
+    wlStepname=new Label(shell, SWT.RIGHT);
+    wlStepname.setText(BaseMessages.getString(PKG, "MaxMindGeoIPLookupDialog.StepName.Label")); //$NON-NLS-1$
+    props.setLook(wlStepname);
+    fdlStepname=new FormData();
+    fdlStepname.left = new FormAttachment(0, 0);
+    fdlStepname.right= new FormAttachment(middle, -margin);
+    fdlStepname.top  = new FormAttachment(0, margin);
+    wlStepname.setLayoutData(fdlStepname);
+    wStepname=new Text(shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+    wStepname.setText(stepname);
+    props.setLook(wStepname);
+    wStepname.addModifyListener(lsMod);
+    fdStepname=new FormData();
+    fdStepname.left = new FormAttachment(middle, 0);
+    fdStepname.top  = new FormAttachment(0, margin);
+    fdStepname.right= new FormAttachment(100, 0);
+    wStepname.setLayoutData(fdStepname);
+
+    // Filename with its browse button
+    Button wbbFilename = new Button(shell, SWT.PUSH | SWT.CENTER);
+    props.setLook(wbbFilename);
+    wbbFilename.setText(BaseMessages.getString(PKG, "System.Button.Browse")); //$NON-NLS-1$
+    wbbFilename.setToolTipText(BaseMessages.getString(PKG, "System.Tooltip.BrowseForFileOrDirAndAdd")); //$NON-NLS-1$
+    FormData fdbFilename = new FormData();
+    fdbFilename.top = new FormAttachment(wStepname, margin);
+    fdbFilename.right = new FormAttachment(100, 0);
+    wbbFilename.setLayoutData(fdbFilename);
+
+    Label wlFilename = new Label(shell, SWT.RIGHT);
+    wlFilename.setText(BaseMessages.getString(PKG, "MaxMindGeoIPLookupDialog.DBLocation.Label")); //$NON-NLS-1$
+    wlFilename.setToolTipText(BaseMessages.getString(PKG, "MaxMindGeoIPLookupDialog.DBLocation.Tooltip")); //$NON-NLS-1$
+    props.setLook(wlFilename);
+    FormData fdlFilename = new FormData();
+    fdlFilename.top = new FormAttachment(wStepname, margin);
+    fdlFilename.left = new FormAttachment(0, 0);
+    fdlFilename.right = new FormAttachment(middle, -margin);
+    wlFilename.setLayoutData(fdlFilename);
+    wFilename = new TextVar(transMeta, shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+    props.setLook(wFilename);
+    wFilename.addModifyListener(lsMod);
+    FormData fdFilename = new FormData();
+    fdFilename.top = new FormAttachment(wStepname, margin);
+    fdFilename.left = new FormAttachment(middle, 0);
+    fdFilename.right = new FormAttachment(wbbFilename, -margin);
+    wFilename.setLayoutData(fdFilename);
+
+    // DB Type
+    Label wlDbType=new Label(shell, SWT.RIGHT);
+    wlDbType.setText("MaxMind Database Type"); //$NON-NLS-1$
+    props.setLook(wlDbType);
+    FormData fdlDbType=new FormData();
+    fdlDbType.left = new FormAttachment(0, 0);
+    fdlDbType.right= new FormAttachment(middle, -margin);
+    fdlDbType.top  = new FormAttachment(wFilename, margin);
+    wlDbType.setLayoutData(fdlDbType);
+    wDbType=new CCombo(shell, SWT.BORDER | SWT.READ_ONLY);
+    props.setLook(wDbType);
+    wDbType.addModifyListener(lsMod);
+    FormData fdDbType=new FormData();
+    fdDbType.left = new FormAttachment(middle, 0);
+    fdDbType.top  = new FormAttachment(wFilename, margin);
+    fdDbType.right= new FormAttachment(100, 0);
+    wDbType.setLayoutData(fdDbType);
+    wDbType.setItems( MaxMindGeoIP.getDatabaseTypes() );
+
+    // Threads
+    Label wlThreads = new Label(shell, SWT.RIGHT);
+    wlThreads.setText(BaseMessages.getString(PKG, "MaxMindNetworkDumpDialog.Threads.Label")); //$NON-NLS-1$
+    wlThreads.setToolTipText(BaseMessages.getString(PKG, "MaxMindNetworkDumpDialog.Threads.Tooltip")); //$NON-NLS-1$
+    props.setLook(wlThreads);
+    FormData fdlThreads = new FormData();
+    fdlThreads.left = new FormAttachment(0, 0);
+    fdlThreads.right = new FormAttachment(middle, -margin);
+    fdlThreads.top = new FormAttachment(wDbType, margin);
+    wlThreads.setLayoutData(fdlThreads);
+    wThreads = new TextVar(transMeta, shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+    props.setLook(wThreads);
+    wThreads.addModifyListener(lsMod);
+    FormData fdThreads = new FormData();
+    fdThreads.left = new FormAttachment(middle, 0);
+    fdThreads.top = new FormAttachment(wDbType, margin);
+    fdThreads.right = new FormAttachment(100, 0);
+    wThreads.setLayoutData(fdThreads);
+
+    // Binary string output
+    Label wlBinaryStringOutput = new Label(shell, SWT.RIGHT);
+    wlBinaryStringOutput.setText(BaseMessages.getString(PKG, "MaxMindGeoIPLookupDialog.BinaryStringOutput.Label")); //$NON-NLS-1$
+    wlBinaryStringOutput.setToolTipText(BaseMessages.getString(PKG, "MaxMindGeoIPLookupDialog.BinaryStringOutput.Tooltip")); //$NON-NLS-1$
+    props.setLook(wlBinaryStringOutput);
+    FormData fdlBinaryStringOutput = new FormData();
+    fdlBinaryStringOutput.left = new FormAttachment(0, 0);
+    fdlBinaryStringOutput.right = new FormAttachment(middle, -margin);
+    fdlBinaryStringOutput.top = new FormAttachment(wThreads, margin);
+    wlBinaryStringOutput.setLayoutData(fdlBinaryStringOutput);
+    wBinaryStringOutput = new Button(shell, SWT.CHECK);
+    props.setLook(wBinaryStringOutput);
+    FormData fdBinaryStringOutput = new FormData();
+    fdBinaryStringOutput.left = new FormAttachment(middle, 0);
+    fdBinaryStringOutput.top = new FormAttachment(wThreads, margin);
+    fdBinaryStringOutput.right = new FormAttachment(100, 0);
+    wBinaryStringOutput.setLayoutData(fdBinaryStringOutput);
+    wBinaryStringOutput.addSelectionListener(new SelectionAdapter() {
+      public void widgetSelected(SelectionEvent e) {
+        input.setChanged();
+      }
+    });
+
+    // Reference points
+    Label wlReferencePoints = new Label(shell, SWT.RIGHT);
+    wlReferencePoints.setText(BaseMessages.getString(PKG, "MaxMindGeoIPLookupDialog.ReferencePoints.Label")); //$NON-NLS-1$
+    wlReferencePoints.setToolTipText(BaseMessages.getString(PKG, "MaxMindGeoIPLookupDialog.ReferencePoints.Tooltip")); //$NON-NLS-1$
+    props.setLook(wlReferencePoints);
+    FormData fdlReferencePoints = new FormData();
+    fdlReferencePoints.left = new FormAttachment(0, 0);
+    fdlReferencePoints.right = new FormAttachment(middle, -margin);
+    fdlReferencePoints.top = new FormAttachment(wBinaryStringOutput, margin);
+    wlReferencePoints.setLayoutData(fdlReferencePoints);
+    wReferencePoints = new TextVar(transMeta, shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+    props.setLook(wReferencePoints);
+    wReferencePoints.addModifyListener(lsMod);
+    FormData fdReferencePoints = new FormData();
+    fdReferencePoints.left = new FormAttachment(middle, 0);
+    fdReferencePoints.top = new FormAttachment(wBinaryStringOutput, margin);
+    fdReferencePoints.right = new FormAttachment(100, 0);
+    wReferencePoints.setLayoutData(fdReferencePoints);
+
+    // Geohash precision
+    Label wlGeohashPrecision = new Label(shell, SWT.RIGHT);
+    wlGeohashPrecision.setText(BaseMessages.getString(PKG, "MaxMindGeoIPLookupDialog.GeohashPrecision.Label")); //$NON-NLS-1$
+    wlGeohashPrecision.setToolTipText(BaseMessages.getString(PKG, "MaxMindGeoIPLookupDialog.GeohashPrecision.Tooltip")); //$NON-NLS-1$
+    props.setLook(wlGeohashPrecision);
+    FormData fdlGeohashPrecision = new FormData();
+    fdlGeohashPrecision.left = new FormAttachment(0, 0);
+    fdlGeohashPrecision.right = new FormAttachment(middle, -margin);
+    fdlGeohashPrecision.top = new FormAttachment(wReferencePoints, margin);
+    wlGeohashPrecision.setLayoutData(fdlGeohashPrecision);
+    wGeohashPrecision = new TextVar(transMeta, shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+    props.setLook(wGeohashPrecision);
+    wGeohashPrecision.addModifyListener(lsMod);
+    FormData fdGeohashPrecision = new FormData();
+    fdGeohashPrecision.left = new FormAttachment(middle, 0);
+    fdGeohashPrecision.top = new FormAttachment(wReferencePoints, margin);
+    fdGeohashPrecision.right = new FormAttachment(100, 0);
+    wGeohashPrecision.setLayoutData(fdGeohashPrecision);
+
+    wOK=new Button(shell, SWT.PUSH);
+    wOK.setText(BaseMessages.getString(PKG, "System.Button.OK")); //$NON-NLS-1$
+    wCancel=new Button(shell, SWT.PUSH);
+    wCancel.setText(BaseMessages.getString(PKG, "System.Button.Cancel")); //$NON-NLS-1$
+
+    setButtonPositions(new Button[] { wOK, wCancel }, margin, null);
+
+    // Fields
+    Label wlFields=new Label(shell, SWT.RIGHT);
+    wlFields.setText(BaseMessages.getString(PKG, "MaxMindGeoIPLookupDialog.Fields.Label")); //$NON-NLS-1$
+    props.setLook(wlFields);
+    FormData fdlFields=new FormData();
+    fdlFields.left = new FormAttachment(0, 0);
+    fdlFields.top  = new FormAttachment(wGeohashPrecision, margin);
+    wlFields.setLayoutData(fdlFields);
+
+    colinf = new ColumnInfo[] {
+        new ColumnInfo(
+            BaseMessages.getString(PKG, "MaxMindGeoIPLookupDialog.ColumnInfo.NewField"), ColumnInfo.COLUMN_TYPE_TEXT, false), //$NON-NLS-1$
+        new ColumnInfo(
+            BaseMessages.getString(PKG, "MaxMindGeoIPLookupDialog.ColumnInfo.LookupType"), ColumnInfo.COLUMN_TYPE_CCOMBO, new String[] { "" }), //$NON-NLS-1$ //$NON-NLS-2$
+        new ColumnInfo(
+            BaseMessages.getString(PKG, "MaxMindGeoIPLookupDialog.ColumnInfo.IfNull"), ColumnInfo.COLUMN_TYPE_TEXT, false) }; //$NON-NLS-1$
+    wFields = new TableView(transMeta, shell, SWT.BORDER | SWT.FULL_SELECTION | SWT.MULTI, colinf, 0, lsMod, props);
+
+    FormData fdFields = new FormData();
+    fdFields.left = new FormAttachment(0, 0);
+    fdFields.top = new FormAttachment(wlFields, margin);
+    fdFields.right  = new FormAttachment(100, 0);
+    fdFields.bottom = new FormAttachment(wOK, -2*margin);
+    wFields.setLayoutData(fdFields);
+
+    // Add listeners
+    lsOK       = new Listener() { public void handleEvent(Event e) { ok();     } };
+    lsCancel   = new Listener() { public void handleEvent(Event e) { cancel(); } };
+
+    wOK.addListener    (SWT.Selection, lsOK    );
+    wCancel.addListener(SWT.Selection, lsCancel);
+
+    lsDef=new SelectionAdapter() { public void widgetDefaultSelected(SelectionEvent e) { ok(); } };
+
+    wStepname.addSelectionListener( lsDef );
+
+    // Detect X or ALT-F4 or something that kills this window...
+    shell.addShellListener( new ShellAdapter() { public void shellClosed(ShellEvent e) { cancel(); } } );
+
+    // DBTYPE field Selector - set the field selections when DB type changes
+    wDbType.addModifyListener(new ModifyListener() {
+      public void modifyText(ModifyEvent arg0) {
+        colinf[1].setComboValues( MaxMindGeoIP.getDbFieldanmes( wDbType.getText() ) );
+      }
+    } );
+
+    // Listen to the browse button next to the file name
+    wbbFilename.addSelectionListener(new SelectionAdapter() {
+        public void widgetSelected(SelectionEvent e) {
+          FileDialog dialog = new FileDialog(shell, SWT.OPEN);
+          dialog.setFilterExtensions(new String[] { "*.mmdb", "*" });  //$NON-NLS-1$//$NON-NLS-2$
+          dialog.setFilterNames(new String[] { "MaxMind GeoIP data", BaseMessages.getString(PKG, "System.FileType.AllFiles") }); //$NON-NLS-2$
+
+          if (wFilename.getText() != null) {
+            dialog.setFileName(transMeta.environmentSubstitute(wFilename.getText()));
+          }
+
+          if (dialog.open() != null) {
+            wFilename.setText(dialog.getFilterPath() + System.getProperty("file.separator") + dialog.getFileName()); //$NON-NLS-1$
+          }
+        }
+      }
+    );
+
+    // Set the shell size, based upon previous time...
+    setSize();
+
+    getData();
+    input.setChanged(changed);
+
+    shell.open();
+    while (!shell.isDisposed())
+    {
+        if (!display.readAndDispatch()) display.sleep();
+    }
+    return stepname;
+  }
+
+  public void getData()
+  {
+    wFilename.setText(Const.NVL(input.getDbLocation(), "")); //$NON-NLS-1$
+    wDbType.setText(Const.NVL(input.getDbType(), "")); //$NON-NLS-1$
+    wThreads.setText(Const.NVL(input.getThreads(), "")); //$NON-NLS-1$
+    wBinaryStringOutput.setSelection(input.isBinaryStringOutput());
+    wReferencePoints.setText(Const.NVL(input.getReferencePoints(), "")); //$NON-NLS-1$
+    wGeohashPrecision.setText(Const.NVL(input.getGeohashPrecision(), "")); //$NON-NLS-1$
+
+    Table table = wFields.table;
+    if (input.getFieldName().length>0) table.removeAll();
+    for (int i=0;i<input.getFieldName().length;i++)
+    {
+      TableItem ti = new TableItem(table, SWT.NONE);
+      ti.setText(0, ""+(i+1)); //$NON-NLS-1$
+      ti.setText(1, Const.NVL(input.getFieldName()[i], "")); //$NON-NLS-1$
+      ti.setText(2, Const.NVL(input.getFieldLookupType()[i], "")); //$NON-NLS-1$
+      ti.setText(3, Const.NVL(input.getFieldIfNull()[i], "")); //$NON-NLS-1$
+    }
+    wFields.setRowNums();
+    wFields.optWidth(true);
+
+    wStepname.selectAll();
+  }
+
+  private void cancel()
+  {
+    stepname=null;
+    input.setChanged(changed);
+    dispose();
+  }
+
+  private void ok()
+  {
+    if (Const.isEmpty(wStepname.getText())) return;
+    stepname = wStepname.getText(); // return value
+    getInfo(input);
+    dispose();
+  }
+
+  public void getInfo(MaxMindNetworkDumpMeta meta) {
+    meta.setDbLocation(wFilename.getText());
+    meta.setDbType(wDbType.getText());
+    meta.setThreads(wThreads.getText());
+    meta.setBinaryStringOutput(wBinaryStringOutput.getSelection());
+    meta.setReferencePoints(wReferencePoints.getText());
+    meta.setGeohashPrecision(wGeohashPrecision.getText());
+
+    int nrfields = wFields.nrNonEmpty();
+
+    meta.allocate(nrfields);
+
+    for (int i = 0; i < nrfields; i++)
+    {
+      final TableItem ti = wFields.getNonEmpty(i);
+      meta.getFieldName()[i] = ti.getText(1);
+      meta.getFieldLookupType()[i] = ti.getText(2);
+      meta.getFieldIfNull()[i] = ti.getText(3);
+    }
+  }
+}
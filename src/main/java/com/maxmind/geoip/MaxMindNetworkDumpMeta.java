@@ -0,0 +1,348 @@
+package com.maxmind.geoip;
+
+import java.util.List;
+
+import org.eclipse.swt.widgets.Shell;
+import org.pentaho.di.core.CheckResult;
+import org.pentaho.di.core.CheckResultInterface;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.annotations.Step;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettlePluginException;
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.exception.KettleXMLException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaFactory;
+import org.pentaho.di.core.variables.VariableSpace;
+import org.pentaho.di.core.xml.XMLHandler;
+import org.pentaho.di.repository.ObjectId;
+import org.pentaho.di.repository.Repository;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.BaseStepMeta;
+import org.pentaho.di.trans.step.StepDataInterface;
+import org.pentaho.di.trans.step.StepDialogInterface;
+import org.pentaho.di.trans.step.StepInterface;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.step.StepMetaInterface;
+import org.pentaho.metastore.api.IMetaStore;
+import org.w3c.dom.Node;
+
+/*
+ * Input step that writes out every network of a MaxMind database with the selected fields, e.g. to load it into a
+ * table for range joins.
+ */
+@Step(id = "MaxMindNetworkDump", name = "MaxMindNetworkDumpMeta.TypeLongDesc.MaxMindNetworkDump", image = "com/maxmind/geoip/MGL.png", description = "MaxMindNetworkDumpMeta.TypeTooltipDesc.MaxMindNetworkDump", i18nPackageName = "com.maxmind.geoip", categoryDescription = "MaxMindNetworkDumpMeta.Category", isSeparateClassLoaderNeeded = true)
+public class MaxMindNetworkDumpMeta extends BaseStepMeta implements StepMetaInterface {
+
+  // The fields describing the network, in front of the selected ones
+  static final String NETWORK_START_FIELD = "network_start"; //$NON-NLS-1$
+  static final String NETWORK_END_FIELD = "network_end"; //$NON-NLS-1$
+  static final String NETWORK_FIELD = "network"; //$NON-NLS-1$
+  static final String PREFIX_LENGTH_FIELD = "prefix_length"; //$NON-NLS-1$
+
+  private String dbLocation;
+
+  private String dbType;
+
+  private String threads;
+
+  private boolean binaryStringOutput;
+
+  private String fieldName[];
+
+  private String fieldLookupType[];
+
+  private String fieldIfNull[];
+
+  private String referencePoints;
+
+  private String geohashPrecision;
+
+  public String getDbLocation() {
+    return dbLocation;
+  }
+
+  public void setDbLocation(String dbLocation) {
+    this.dbLocation = dbLocation;
+  }
+
+  public String getDbType() {
+    return dbType;
+  }
+
+  public void setDbType(String dbType) {
+    this.dbType = dbType;
+  }
+
+  /**
+   * @return number of threads walking the database, empty for one per processor
+   */
+  public String getThreads() {
+    return threads;
+  }
+
+  public void setThreads(String threads) {
+    this.threads = threads;
+  }
+
+  /**
+   * @return true to hand the text fields on as UTF-8 bytes (binary string storage) instead of Strings
+   */
+  public boolean isBinaryStringOutput() {
+    return binaryStringOutput;
+  }
+
+  public void setBinaryStringOutput(boolean binaryStringOutput) {
+    this.binaryStringOutput = binaryStringOutput;
+  }
+
+  public String[] getFieldName() {
+    return fieldName;
+  }
+
+  public void setFieldName(String[] fieldName) {
+    this.fieldName = fieldName;
+  }
+
+  public String[] getFieldLookupType() {
+    return fieldLookupType;
+  }
+
+  public void setFieldLookupType(String[] fieldLookupType) {
+    this.fieldLookupType = fieldLookupType;
+  }
+
+  public String[] getFieldIfNull() {
+    return fieldIfNull;
+  }
+
+  public void setFieldIfNull(String[] fieldIfNull) {
+    this.fieldIfNull = fieldIfNull;
+  }
+
+  /**
+   * @return points like "FRA=50.11,8.68; IAD=38.95,-77.45" the reference_distance and nearest_reference fields are
+   * computed for
+   */
+  public String getReferencePoints() {
+    return referencePoints;
+  }
+
+  public void setReferencePoints(String referencePoints) {
+    this.referencePoints = referencePoints;
+  }
+
+  /**
+   * @return number of characters of the geohash field
+   */
+  public String getGeohashPrecision() {
+    return geohashPrecision;
+  }
+
+  public void setGeohashPrecision(String geohashPrecision) {
+    this.geohashPrecision = geohashPrecision;
+  }
+
+  public MaxMindNetworkDumpMeta() {
+    super(); // allocate BaseStepInfo
+  }
+
+  @Override
+  public String getXML() {
+    final StringBuilder retval = new StringBuilder(300);
+
+    retval.append("   ").append(XMLHandler.addTagValue("db_location", dbLocation)); //$NON-NLS-1$ //$NON-NLS-2$
+    retval.append("   ").append(XMLHandler.addTagValue("db_type", dbType)); //$NON-NLS-1$ //$NON-NLS-2$
+    retval.append("   ").append(XMLHandler.addTagValue("threads", threads)); //$NON-NLS-1$ //$NON-NLS-2$
+    retval.append("   ").append(XMLHandler.addTagValue("binary_string_output", binaryStringOutput)); //$NON-NLS-1$ //$NON-NLS-2$
+    retval.append("   ").append(XMLHandler.addTagValue("reference_points", referencePoints)); //$NON-NLS-1$ //$NON-NLS-2$
+    retval.append("   ").append(XMLHandler.addTagValue("geohash_precision", geohashPrecision)); //$NON-NLS-1$ //$NON-NLS-2$
+
+    retval.append("    <fields>"); //$NON-NLS-1$
+    for (int i = 0; i < fieldName.length; i++) {
+      retval.append("      <field>"); //$NON-NLS-1$
+      retval.append("        ").append(XMLHandler.addTagValue("name", fieldName[i])); //$NON-NLS-1$ //$NON-NLS-2$
+      retval.append("        ").append(XMLHandler.addTagValue("lookup_type", fieldLookupType[i])); //$NON-NLS-1$ //$NON-NLS-2$
+      retval.append("        ").append(XMLHandler.addTagValue("ifnull", fieldIfNull[i])); //$NON-NLS-1$ //$NON-NLS-2$
+      retval.append("      </field>"); //$NON-NLS-1$
+    }
+    retval.append("    </fields>"); //$NON-NLS-1$
+    return retval.toString();
+  }
+
+  @Override
+  public void getFields(RowMetaInterface r, String origin, RowMetaInterface[] info, StepMeta nextStep,
+      VariableSpace space) throws KettleStepException {
+    try {
+      for (String name : new String[] { NETWORK_START_FIELD, NETWORK_END_FIELD, NETWORK_FIELD }) {
+        ValueMetaInterface v = ValueMetaFactory.createValueMeta(name, ValueMetaInterface.TYPE_STRING);
+        v.setOrigin(origin);
+        r.addValueMeta(v);
+      }
+      ValueMetaInterface v = ValueMetaFactory.createValueMeta(PREFIX_LENGTH_FIELD, ValueMetaInterface.TYPE_INTEGER);
+      v.setOrigin(origin);
+      r.addValueMeta(v);
+    } catch (KettlePluginException e) {
+      throw new KettleStepException(e);
+    }
+
+    MaxMindHelper helper = new MaxMindHelper(space, this);
+    helper.setupMaxMindDatabase();
+    if (helper.getMaxMindDatabase() != null) {
+      helper.getMaxMindDatabase().getFields(r, origin);
+    }
+  }
+
+  public void allocate(int nrfields) {
+    fieldName = new String[nrfields];
+    fieldLookupType = new String[nrfields];
+    fieldIfNull = new String[nrfields];
+  }
+
+  @Override
+  public Object clone() {
+    MaxMindNetworkDumpMeta retval = (MaxMindNetworkDumpMeta) super.clone();
+    final int nrfields = fieldName.length;
+
+    retval.allocate(nrfields);
+
+    for (int i = 0; i < nrfields; i++) {
+      retval.fieldName[i] = fieldName[i];
+      retval.fieldLookupType[i] = fieldLookupType[i];
+      retval.fieldIfNull[i] = fieldIfNull[i];
+    }
+    return retval;
+  }
+
+  public void loadXML(Node stepnode, List<DatabaseMeta> databases, IMetaStore metaStore)
+      throws KettleXMLException {
+    try {
+      setDbLocation(XMLHandler.getTagValue(stepnode, "db_location")); //$NON-NLS-1$
+      setDbType(XMLHandler.getTagValue(stepnode, "db_type")); //$NON-NLS-1$
+      setThreads(XMLHandler.getTagValue(stepnode, "threads")); //$NON-NLS-1$
+      setBinaryStringOutput("Y".equalsIgnoreCase(XMLHandler.getTagValue(stepnode, "binary_string_output"))); //$NON-NLS-1$ //$NON-NLS-2$
+      setReferencePoints(XMLHandler.getTagValue(stepnode, "reference_points")); //$NON-NLS-1$
+      setGeohashPrecision(XMLHandler.getTagValue(stepnode, "geohash_precision")); //$NON-NLS-1$
+
+      final Node fields = XMLHandler.getSubNode(stepnode, "fields"); //$NON-NLS-1$
+      final int nrfields = XMLHandler.countNodes(fields, "field"); //$NON-NLS-1$
+
+      allocate(nrfields);
+
+      for (int i = 0; i < nrfields; i++) {
+        final Node fnode = XMLHandler.getSubNodeByNr(fields, "field", i); //$NON-NLS-1$
+
+        fieldName[i] = XMLHandler.getTagValue(fnode, "name"); //$NON-NLS-1$
+        fieldLookupType[i] = XMLHandler.getTagValue(fnode, "lookup_type"); //$NON-NLS-1$
+        fieldIfNull[i] = XMLHandler.getTagValue(fnode, "ifnull"); //$NON-NLS-1$
+      }
+    } catch (Exception e) {
+      throw new KettleXMLException("Unable to read step info from XML node", e);
+    }
+  }
+
+  public void setDefault() {
+    dbLocation = ""; //$NON-NLS-1$
+    dbType = ""; //$NON-NLS-1$
+    threads = ""; //$NON-NLS-1$
+    binaryStringOutput = false;
+    referencePoints = ""; //$NON-NLS-1$
+    geohashPrecision = "7"; //$NON-NLS-1$
+
+    allocate(0);
+  }
+
+  public void readRep(Repository rep, IMetaStore metaStore, ObjectId idStep, List<DatabaseMeta> databases)
+      throws KettleException {
+    try {
+      setDbLocation(rep.getStepAttributeString(idStep, "db_location")); //$NON-NLS-1$
+      setDbType(rep.getStepAttributeString(idStep, "db_type")); //$NON-NLS-1$
+      setThreads(rep.getStepAttributeString(idStep, "threads")); //$NON-NLS-1$
+      setBinaryStringOutput(rep.getStepAttributeBoolean(idStep, "binary_string_output")); //$NON-NLS-1$
+      setReferencePoints(rep.getStepAttributeString(idStep, "reference_points")); //$NON-NLS-1$
+      setGeohashPrecision(rep.getStepAttributeString(idStep, "geohash_precision")); //$NON-NLS-1$
+
+      int nrfields = rep.countNrStepAttributes(idStep, "field_name"); //$NON-NLS-1$
+
+      allocate(nrfields);
+
+      for (int i = 0; i < nrfields; i++) {
+        fieldName[i] = rep.getStepAttributeString(idStep, i, "field_name"); //$NON-NLS-1$
+        fieldLookupType[i] = rep.getStepAttributeString(idStep, i, "field_lookup_type"); //$NON-NLS-1$
+        fieldIfNull[i] = rep.getStepAttributeString(idStep, i, "field_ifnull"); //$NON-NLS-1$
+      }
+    } catch (KettleDatabaseException dbe) {
+      throw new KettleException("error reading step with id_step=" + idStep + " from the repository", dbe);
+    } catch (Exception e) {
+      throw new KettleException("Unexpected error reading step with id_step=" + idStep + " from the repository", e);
+    }
+  }
+
+  @Override
+  public void saveRep(Repository rep, IMetaStore metaStore, ObjectId idTransformation, ObjectId idStep) throws KettleException {
+    try {
+      rep.saveStepAttribute(idTransformation, idStep, "db_location", getDbLocation()); //$NON-NLS-1$
+      rep.saveStepAttribute(idTransformation, idStep, "db_type", getDbType()); //$NON-NLS-1$
+      rep.saveStepAttribute(idTransformation, idStep, "threads", getThreads()); //$NON-NLS-1$
+      rep.saveStepAttribute(idTransformation, idStep, "binary_string_output", isBinaryStringOutput()); //$NON-NLS-1$
+      rep.saveStepAttribute(idTransformation, idStep, "reference_points", getReferencePoints()); //$NON-NLS-1$
+      rep.saveStepAttribute(idTransformation, idStep, "geohash_precision", getGeohashPrecision()); //$NON-NLS-1$
+
+      for (int i = 0; i < fieldName.length; i++) {
+        rep.saveStepAttribute(idTransformation, idStep, i, "field_name", fieldName[i]); //$NON-NLS-1$
+        rep.saveStepAttribute(idTransformation, idStep, i, "field_lookup_type", fieldLookupType[i]); //$NON-NLS-1$
+        rep.saveStepAttribute(idTransformation, idStep, i, "field_ifnull", fieldIfNull[i]); //$NON-NLS-1$
+      }
+    } catch (KettleDatabaseException dbe) {
+      throw new KettleException("Unable to save step information to the repository, id_step=" + idStep, dbe);
+    }
+  }
+
+  public void check(List<CheckResultInterface> remarks, TransMeta transmeta, StepMeta stepMeta, RowMetaInterface prev,
+      String input[], String output[], RowMetaInterface info) {
+    CheckResult cr;
+    if (input.length > 0) {
+      cr = new CheckResult(CheckResult.TYPE_RESULT_ERROR, "This step is an input step and doesn't expect any input.", stepMeta);
+      remarks.add(cr);
+    }
+
+    if (getDbLocation() == null || getDbLocation().length() == 0) {
+      cr = new CheckResult(CheckResult.TYPE_RESULT_ERROR, "MaxMind GeoIP DB Location not specified.", stepMeta);
+      remarks.add(cr);
+    }
+
+    if (getDbType() == null || getDbType().length() == 0) {
+      cr = new CheckResult(CheckResult.TYPE_RESULT_ERROR, "MaxMind GeoIP DB Type not specified.", stepMeta);
+      remarks.add(cr);
+    }
+
+    try {
+      MaxMindHelper helper = new MaxMindHelper(transmeta, this);
+      helper.setupMaxMindDatabase();
+
+      cr = new CheckResult(CheckResult.TYPE_RESULT_OK, "MaxMind database initialized successfully.", stepMeta);
+      remarks.add(cr);
+    } catch (Exception e) {
+      cr = new CheckResult(CheckResult.TYPE_RESULT_ERROR, "MaxMind database did not initialize successfully: "
+          + Const.getStackTracker(e), stepMeta);
+      remarks.add(cr);
+    }
+  }
+
+  public StepDialogInterface getDialog(Shell shell, StepMetaInterface meta, TransMeta transMeta, String name) {
+    return new MaxMindNetworkDumpDialog(shell, meta, transMeta, name);
+  }
+
+  public StepInterface getStep(StepMeta stepMeta, StepDataInterface stepDataInterface, int cnr, TransMeta transMeta,
+      Trans disp) {
+    return new MaxMindNetworkDump(stepMeta, stepDataInterface, cnr, transMeta, disp);
+  }
+
+  public StepDataInterface getStepData() {
+    return new MaxMindNetworkDumpData();
+  }
+}
@@ -0,0 +1,296 @@
+package com.maxmind.geoip;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Walks the search tree of a MaxMind DB file and reports every network that has data, with the offset of its record
+ * in the data section.  Networks sharing a record report the same offset, so the caller decodes each record once.
+ *
+ * The tree is split into subtrees that can be walked by different threads.  In IPv6 databases the IPv4 space
+ * (::/96) comes first and is reported with IPv4 addresses, the aliases pointing to it (::ffff:0:0/96, 2002::/16) are
+ * skipped.  The file format is described at https://maxmind.github.io/MaxMind-DB/
+ */
+final class MaxMindNetworkWalker {
+
+  private static final byte[] METADATA_MARKER = { (byte) 0xAB, (byte) 0xCD, (byte) 0xEF, 'M', 'a', 'x', 'M', 'i', 'n',
+    'd', '.', 'c', 'o', 'm' };
+
+  private static final int METADATA_MAX_BYTES = 128 * 1024;
+
+  // Levels split off the IPv4 and IPv6 trees, at most 2^SPLIT_DEPTH subtrees each
+  private static final int SPLIT_DEPTH = 8;
+
+  /**
+   * Receives the networks of a subtree, in address order.
+   */
+  interface Visitor {
+    /**
+     * @param address first address of the network, 4 or 16 bytes, only valid during the call
+     * @param prefixLength number of network bits of address
+     * @param dataOffset offset of the record in the data section
+     */
+    void network(byte[] address, int prefixLength, long dataOffset) throws Exception;
+  }
+
+  /**
+   * A part of the tree: a node to walk, or a single data record covering the whole subtree.
+   */
+  static final class Subtree {
+    final long record;
+    final byte[] address;
+    final int prefixLength;
+    final boolean ipv4;
+
+    Subtree(long record, byte[] address, int prefixLength, boolean ipv4) {
+      this.record = record;
+      this.address = address;
+      this.prefixLength = prefixLength;
+      this.ipv4 = ipv4;
+    }
+  }
+
+  private final ByteBuffer tree;
+  private final long nodeCount;
+  private final int recordSize;
+  private final int ipVersion;
+
+  // Root of the IPv4 space, the record reached from the IPv6 root through 96 zero bits
+  private final long ipv4Root;
+
+  MaxMindNetworkWalker(File dbFile) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(dbFile, "r"); //$NON-NLS-1$
+    try {
+      tree = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+    } finally {
+      file.close(); // the mapping stays valid
+    }
+
+    Map<String, Object> metadata = readMetadata(tree);
+    nodeCount = toLong(metadata.get("node_count")); //$NON-NLS-1$
+    recordSize = (int) toLong(metadata.get("record_size")); //$NON-NLS-1$
+    ipVersion = (int) toLong(metadata.get("ip_version")); //$NON-NLS-1$
+    if (recordSize != 24 && recordSize != 28 && recordSize != 32) {
+      throw new IOException("Unsupported record size " + recordSize + " in '" + dbFile + "'");
+    }
+
+    long record = 0;
+    for (int i = 0; i < 96 && ipVersion == 6 && record < nodeCount; i++) {
+      record = readRecord(record, 0);
+    }
+    ipv4Root = record;
+  }
+
+  long getNodeCount() {
+    return nodeCount;
+  }
+
+  int getIpVersion() {
+    return ipVersion;
+  }
+
+  /**
+   * @return the subtrees covering every network of the database, in address order (IPv4 first)
+   */
+  List<Subtree> split() {
+    List<Subtree> subtrees = new ArrayList<Subtree>();
+    split(ipv4Root, new byte[4], 0, true, SPLIT_DEPTH, subtrees);
+    if (ipVersion == 6) {
+      split(0, new byte[16], 0, false, SPLIT_DEPTH, subtrees);
+    }
+    return subtrees;
+  }
+
+  private void split(long record, byte[] address, int prefixLength, boolean ipv4, int depth, List<Subtree> subtrees) {
+    if (record == nodeCount || (!ipv4 && record == ipv4Root && record < nodeCount)) {
+      return; // empty, or the IPv4 space which has its own subtrees
+    }
+    if (record > nodeCount || depth == 0) {
+      subtrees.add(new Subtree(record, address.clone(), prefixLength, ipv4));
+      return;
+    }
+    split(readRecord(record, 0), address, prefixLength + 1, ipv4, depth - 1, subtrees);
+    setBit(address, prefixLength);
+    split(readRecord(record, 1), address, prefixLength + 1, ipv4, depth - 1, subtrees);
+    clearBit(address, prefixLength);
+  }
+
+  /**
+   * Reports every network of a subtree to visitor.
+   */
+  void walk(Subtree subtree, Visitor visitor) throws Exception {
+    visit(subtree.record, subtree.address.clone(), subtree.prefixLength, subtree.ipv4, visitor);
+  }
+
+  private void visit(long record, byte[] address, int prefixLength, boolean ipv4, Visitor visitor) throws Exception {
+    if (record == nodeCount) {
+      return;
+    }
+    if (record > nodeCount) {
+      visitor.network(address, prefixLength, record - nodeCount - 16);
+      return;
+    }
+    if (!ipv4 && record == ipv4Root) {
+      return;
+    }
+    visit(readRecord(record, 0), address, prefixLength + 1, ipv4, visitor);
+    setBit(address, prefixLength);
+    visit(readRecord(record, 1), address, prefixLength + 1, ipv4, visitor);
+    clearBit(address, prefixLength);
+  }
+
+  /*
+   * Left (0) or right (1) record of a node.
+   */
+  private long readRecord(long node, int bit) {
+    switch (recordSize) {
+      case 24: {
+        int offset = (int) (node * 6 + bit * 3);
+        return readUnsigned(tree, offset, 3);
+      }
+      case 28: {
+        int offset = (int) (node * 7);
+        int middle = tree.get(offset + 3) & 0xFF;
+        if (bit == 0) {
+          return ((long) (middle & 0xF0) << 20) | readUnsigned(tree, offset, 3);
+        }
+        return ((long) (middle & 0x0F) << 24) | readUnsigned(tree, offset + 4, 3);
+      }
+      default: {
+        int offset = (int) (node * 8 + bit * 4);
+        return readUnsigned(tree, offset, 4);
+      }
+    }
+  }
+
+  private static long readUnsigned(ByteBuffer buffer, int offset, int length) {
+    long value = 0;
+    for (int i = 0; i < length; i++) {
+      value = (value << 8) | (buffer.get(offset + i) & 0xFF);
+    }
+    return value;
+  }
+
+  private static void setBit(byte[] address, int bit) {
+    address[bit >>> 3] |= (byte) (0x80 >>> (bit & 7));
+  }
+
+  private static void clearBit(byte[] address, int bit) {
+    address[bit >>> 3] &= (byte) ~(0x80 >>> (bit & 7));
+  }
+
+  /**
+   * @return the last address of a network, for the first address and prefix length reported to a Visitor
+   */
+  static byte[] lastAddress(byte[] address, int prefixLength) {
+    byte[] last = address.clone();
+    for (int bit = prefixLength; bit < last.length * 8; bit++) {
+      setBit(last, bit);
+    }
+    return last;
+  }
+
+  private static long toLong(Object value) throws IOException {
+    if (!(value instanceof Long)) {
+      throw new IOException("Invalid MaxMind DB metadata");
+    }
+    return (Long) value;
+  }
+
+  /*
+   * Finds the metadata map after the last marker in the file and decodes the parts of it that are needed here.
+   */
+  private static Map<String, Object> readMetadata(ByteBuffer buffer) throws IOException {
+    int end = buffer.limit();
+    int stop = Math.max(0, end - METADATA_MAX_BYTES);
+    for (int start = end - METADATA_MARKER.length; start >= stop; start--) {
+      int i = 0;
+      while (i < METADATA_MARKER.length && buffer.get(start + i) == METADATA_MARKER[i]) {
+        i++;
+      }
+      if (i == METADATA_MARKER.length) {
+        ByteBuffer metadata = buffer.duplicate();
+        metadata.position(start + i);
+        Object map = decode(metadata);
+        if (map instanceof Map) {
+          @SuppressWarnings("unchecked")
+          Map<String, Object> result = (Map<String, Object>) map;
+          return result;
+        }
+        break;
+      }
+    }
+    throw new IOException("Not a MaxMind DB file, no metadata found");
+  }
+
+  /*
+   * Minimal decoder of the data section format, enough for the metadata: maps, strings and unsigned integers are
+   * returned, everything else is skipped.
+   */
+  private static Object decode(ByteBuffer buffer) throws IOException {
+    int control = buffer.get() & 0xFF;
+    int type = control >>> 5;
+    if (type == 1) {
+      throw new IOException("Unexpected pointer in MaxMind DB metadata");
+    }
+    if (type == 0) {
+      type = 7 + (buffer.get() & 0xFF);
+    }
+    int size = control & 0x1F;
+    if (size >= 29) {
+      int bytes = size - 28;
+      int value = (int) readUnsigned(buffer, buffer.position(), bytes);
+      buffer.position(buffer.position() + bytes);
+      size = (bytes == 1) ? 29 + value : (bytes == 2) ? 285 + value : 65821 + value;
+    }
+    switch (type) {
+      case 2: { // utf8 string
+        byte[] bytes = new byte[size];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+      }
+      case 5: // uint16
+      case 6: // uint32
+      case 9: // uint64
+      case 10: { // uint128, only the low bytes matter here
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+          value = (value << 8) | (buffer.get() & 0xFF);
+        }
+        return Long.valueOf(value);
+      }
+      case 7: { // map
+        Map<String, Object> map = new HashMap<String, Object>();
+        for (int i = 0; i < size; i++) {
+          Object key = decode(buffer);
+          map.put(String.valueOf(key), decode(buffer));
+        }
+        return map;
+      }
+      case 11: // array
+        for (int i = 0; i < size; i++) {
+          decode(buffer);
+        }
+        return null;
+      case 3: // double
+        buffer.position(buffer.position() + 8);
+        return null;
+      case 15: // float
+        buffer.position(buffer.position() + 4);
+        return null;
+      case 14: // boolean, the value is the size
+        return null;
+      default: // bytes, int32
+        buffer.position(buffer.position() + size);
+        return null;
+    }
+  }
+}
@@ -0,0 +1,141 @@
+package com.maxmind.geoip;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.maxmind.db.NodeCache;
+
+/*
+ * Decoded node cache of a DatabaseReader that lives within the MaxMindCacheGovernor budget.  Unlike the CHMCache it
+ * replaces, it keeps caching once it is full: a new node pushes out one old node, and a larger share of the budget
+ * lets it grow past its default size.
+ *
+ * Nodes are admitted by a MaxMindCacheAdmission policy: once the cache is full the victim is the least read of a few
+ * randomly sampled nodes, and the new node only replaces it if it is read more often.  While hardly any read hits,
+ * most reads go straight to the loader.
+ *
+ * Shared by every step copy reading the same database, so it is thread safe.  Hits don't lock, new nodes are put in
+ * under the cache's lock.
+ */
+class MaxMindNodeCache implements NodeCache, MaxMindCacheGovernor.Participant {
+
+  // Same size as the CHMCache default, used as long as the governor has no budget
+  static final int DEFAULT_CAPACITY = 4096;
+
+  // Rough heap cost of a decoded node with its map entry, city records with all their names are about this size
+  static final int ESTIMATED_NODE_BYTES = 1024;
+
+  // nodes sampled for the eviction victim
+  static final int SAMPLES = 8;
+
+  private final ConcurrentHashMap<Integer, JsonNode> cache = new ConcurrentHashMap<Integer, JsonNode>();
+  // the cached keys, the victims are sampled from them; guarded by this
+  private int[] keys = new int[64];
+  private int size = 0;
+  private volatile int capacity = DEFAULT_CAPACITY;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong bypassed = new AtomicLong();
+  private volatile MaxMindCacheAdmission admission = new MaxMindCacheAdmission(DEFAULT_CAPACITY);
+
+  MaxMindNodeCache() {
+    MaxMindCacheGovernor.register(this);
+  }
+
+  public JsonNode get(int key, Loader loader) throws IOException {
+    MaxMindCacheAdmission admission = this.admission;
+    long hash = MaxMindCacheAdmission.hash(0L, key);
+    if (admission.isBypassed(hash)) {
+      bypassed.incrementAndGet();
+      return loader.load(key);
+    }
+    Integer k = key;
+    JsonNode value = cache.get(k);
+    if (value != null) {
+      hits.incrementAndGet();
+      admission.record(hash, true);
+      return value;
+    }
+    admission.record(hash, false);
+    value = loader.load(key);
+    put(k, value, hash, admission);
+    return value;
+  }
+
+  private synchronized void put(Integer key, JsonNode value, long hash, MaxMindCacheAdmission admission) {
+    if (cache.containsKey(key)) {
+      return; // put in by another thread meanwhile
+    }
+    int limit = capacity;
+    trim(limit);
+    if (size < limit) {
+      if (size == keys.length) {
+        keys = Arrays.copyOf(keys, (int) Math.min(limit, 2L * keys.length));
+      }
+      keys[size++] = key;
+      cache.put(key, value);
+      return;
+    }
+
+    int victim = 0;
+    int victimFrequency = Integer.MAX_VALUE;
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    for (int i = 0; i < SAMPLES; i++) {
+      int slot = random.nextInt(size);
+      int frequency = admission.frequency(MaxMindCacheAdmission.hash(0L, keys[slot]));
+      if (frequency < victimFrequency) {
+        victim = slot;
+        victimFrequency = frequency;
+      }
+    }
+    if (admission.admit(hash, MaxMindCacheAdmission.hash(0L, keys[victim]))) {
+      cache.remove(keys[victim]);
+      keys[victim] = key;
+      cache.put(key, value);
+    }
+  }
+
+  public void setBudget(long maxBytes) {
+    int newCapacity = (int) Math.max(16, Math.min(Integer.MAX_VALUE, maxBytes == MaxMindCacheGovernor.NO_LIMIT
+        ? DEFAULT_CAPACITY : maxBytes / ESTIMATED_NODE_BYTES));
+    if (newCapacity != capacity) {
+      // a sketch of the new size, the frequencies are learned again within a few thousand reads
+      admission = new MaxMindCacheAdmission(newCapacity);
+    }
+    synchronized (this) {
+      capacity = newCapacity;
+      trim(newCapacity);
+    }
+  }
+
+  public long getEstimatedBytes() {
+    return (long) cache.size() * ESTIMATED_NODE_BYTES;
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * @return the reads that went straight to the loader while the cache was bypassed
+   */
+  long getBypassed() {
+    return bypassed.get();
+  }
+
+  int size() {
+    return cache.size();
+  }
+
+  /*
+   * Removes nodes until at most maxSize are left, after the budget was cut.
+   */
+  private void trim(int maxSize) {
+    while (size > maxSize) {
+      cache.remove(keys[--size]);
+    }
+  }
+}
@@ -0,0 +1,481 @@
+package com.maxmind.geoip;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/*
+ * Result cache for the lookup step that keeps its key table outside of the Java heap.
+ *
+ * The table is open addressed (linear probing) over direct ByteBuffers and keyed by the primitive 128 bit IP key
+ * from MaxMindIpParser.  Each slot only holds an index into a dictionary of projected records, so the millions of
+ * addresses that resolve to the same city share one Object[] on the heap.  When the table is full a clock hand
+ * sweeps the slots and evicts the first one that has not been referenced since the last sweep.
+ *
+ * The table starts small and doubles while it fills, up to the configured size or the share the MaxMindCacheGovernor
+ * grants, whichever is lower.  A smaller share shrinks the table again on the next put.
+ *
+ * An adaptive cache also follows a MaxMindCacheAdmission policy: a full table only takes a new key that is looked
+ * up more often than the victim of the clock, and the cache bypasses itself while it hardly has any hits.
+ *
+ * Not thread safe, every step copy owns its own cache.  Only the budget may be set from another thread.
+ */
+class MaxMindOffHeapCache implements MaxMindCacheGovernor.Participant {
+
+  // Slot layout: key hi (8), key lo (8), record index + 1 (4, 0 = empty), referenced flag (4)
+  static final int SLOT_BYTES = 24;
+  private static final int OFFSET_LO = 8;
+  private static final int OFFSET_VALUE = 16;
+  private static final int OFFSET_REF = 20;
+
+  // 2^25 slots * 24 bytes stays well below the 2GB limit of a single ByteBuffer
+  private static final int SEGMENT_SHIFT = 25;
+  private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+
+  // Rough heap cost of the dictionary bookkeeping per record (list slot, map entry, key wrapper)
+  private static final int RECORD_OVERHEAD_BYTES = 96;
+
+  // Table size a new cache starts with, it grows on demand
+  private static final long INITIAL_TABLE_BYTES = 1024L * 1024;
+
+  private final long maxBytes;
+  private volatile long budget = MaxMindCacheGovernor.NO_LIMIT;
+  private long appliedBudget = MaxMindCacheGovernor.NO_LIMIT;
+  private long maxCapacity;
+  private long maxDictionaryBytes;
+
+  private ByteBuffer[] segments;
+  private long capacity;
+  private long maxEntries;
+
+  private final List<Object[]> records = new ArrayList<Object[]>();
+  private final HashMap<List<Object>, Integer> recordIndex = new HashMap<List<Object>, Integer>();
+  private long dictionaryBytes = 0;
+
+  private long size = 0;
+  private long hand = 0;
+  private long stride = 1;
+
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+  private long rejections = 0;
+  private long bypassed = 0;
+
+  // null when every key is cached
+  private final MaxMindCacheAdmission admission;
+
+  /**
+   * @param maxBytes upper bound for the off-heap slot table plus the estimated heap size of the record dictionary
+   */
+  MaxMindOffHeapCache(long maxBytes) {
+    this(maxBytes, false);
+  }
+
+  /**
+   * @param maxBytes upper bound for the off-heap slot table plus the estimated heap size of the record dictionary
+   * @param adaptive true to admit keys by their frequency and bypass the cache while it doesn't pay off
+   */
+  MaxMindOffHeapCache(long maxBytes, boolean adaptive) {
+    this.maxBytes = maxBytes;
+    setLimits(maxBytes);
+    admission = adaptive ? new MaxMindCacheAdmission(maxCapacity * 3 / 4) : null;
+    allocate(Math.min(maxCapacity, INITIAL_TABLE_BYTES / SLOT_BYTES));
+    MaxMindCacheGovernor.register(this);
+  }
+
+  /*
+   * A quarter of the limit goes to the distinct records, the rest to the slot table.
+   */
+  private void setLimits(long limitBytes) {
+    maxDictionaryBytes = limitBytes / 4;
+    maxCapacity = Math.max(16, (limitBytes - maxDictionaryBytes) / SLOT_BYTES);
+  }
+
+  private void allocate(long slots) {
+    capacity = Math.max(16, slots);
+    maxEntries = capacity * 3 / 4; // keeps the probe sequences short
+
+    // The hand visits every slot once per sweep, but in an order spread over the table.  Sweeping in slot order would
+    // empty the region behind the hand and pack the rest of the table into ever longer probe sequences.
+    stride = (long) (capacity * 0.6180339887) | 1;
+    while (gcd(stride, capacity) != 1) {
+      stride += 2;
+    }
+
+    int nrSegments = (int) ((capacity + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+    segments = new ByteBuffer[nrSegments];
+    for (int i = 0; i < nrSegments; i++) {
+      long segmentSlots = Math.min(capacity - ((long) i << SEGMENT_SHIFT), 1L << SEGMENT_SHIFT);
+      segments[i] = ByteBuffer.allocateDirect((int) (segmentSlots * SLOT_BYTES));
+    }
+    size = 0;
+    hand = 0;
+  }
+
+  /**
+   * @return the cached record for the key, or null when the key is not cached
+   */
+  Object[] get(long hi, long lo) {
+    long hash = MaxMindCacheAdmission.hash(hi, lo);
+    if (admission != null && admission.isBypassed(hash)) {
+      bypassed++;
+      return null;
+    }
+    long slot = home(hash);
+    while (true) {
+      int value = getInt(slot, OFFSET_VALUE);
+      if (value == 0) {
+        misses++;
+        if (admission != null) {
+          admission.record(hash, false);
+        }
+        return null;
+      }
+      if (getLong(slot, 0) == hi && getLong(slot, OFFSET_LO) == lo) {
+        putInt(slot, OFFSET_REF, 1);
+        hits++;
+        if (admission != null) {
+          admission.record(hash, true);
+        }
+        return records.get(value - 1);
+      }
+      slot = next(slot);
+    }
+  }
+
+  /**
+   * @return false if the cache is bypassed for the key, a lookup of it neither reads nor fills the cache
+   */
+  boolean isActive(long hi, long lo) {
+    return admission == null || !admission.isBypassed(MaxMindCacheAdmission.hash(hi, lo));
+  }
+
+  /**
+   * Caches a projected record for the key.  The record must not be modified afterwards.
+   */
+  void put(long hi, long lo, Object[] record) {
+    if (budget != appliedBudget) {
+      applyBudget();
+    }
+    long hash = MaxMindCacheAdmission.hash(hi, lo);
+    long victim = -1;
+    if (admission != null) {
+      if (admission.isBypassed(hash)) {
+        return;
+      }
+      if (size >= maxEntries && capacity >= maxCapacity && !contains(hash, hi, lo)) {
+        // decided before the record enters the dictionary, a rejected one would only take up space there
+        victim = nextVictim();
+        if (!admission.admit(hash, MaxMindCacheAdmission.hash(getLong(victim, 0), getLong(victim, OFFSET_LO)))) {
+          rejections++;
+          return;
+        }
+      }
+    }
+    int value = indexOf(record);
+    if (value < 0) {
+      return;
+    }
+    long slot = home(hash);
+    while (true) {
+      int current = getInt(slot, OFFSET_VALUE);
+      if (current == 0) {
+        break;
+      }
+      if (getLong(slot, 0) == hi && getLong(slot, OFFSET_LO) == lo) {
+        putInt(slot, OFFSET_VALUE, value + 1);
+        return;
+      }
+      slot = next(slot);
+    }
+    if (size >= maxEntries && capacity < maxCapacity) {
+      resize(Math.min(maxCapacity, capacity * 2));
+      slot = home(hash);
+      while (getInt(slot, OFFSET_VALUE) != 0) {
+        slot = next(slot);
+      }
+    } else if (size >= maxEntries) {
+      // the dictionary didn't start over, so the victim picked for the admission is still in place
+      remove((victim >= 0) ? victim : nextVictim());
+      evictions++;
+      // the eviction may have shifted entries into our probe sequence, look for the new first free slot
+      slot = home(hash);
+      while (getInt(slot, OFFSET_VALUE) != 0) {
+        slot = next(slot);
+      }
+    }
+    putLong(slot, 0, hi);
+    putLong(slot, OFFSET_LO, lo);
+    putInt(slot, OFFSET_VALUE, value + 1);
+    putInt(slot, OFFSET_REF, 0);
+    size++;
+  }
+
+  void clear() {
+    for (ByteBuffer segment : segments) {
+      for (int i = 0; i < segment.capacity(); i += 8) {
+        segment.putLong(i, 0L);
+      }
+    }
+    records.clear();
+    recordIndex.clear();
+    dictionaryBytes = 0;
+    size = 0;
+    hand = 0;
+  }
+
+  long size() {
+    return size;
+  }
+
+  /**
+   * Called by the governor, possibly from another thread.  The cache adapts on its next put.
+   */
+  public void setBudget(long maxBytes) {
+    budget = maxBytes;
+  }
+
+  /**
+   * @return the slot table plus the estimated size of the record dictionary and the admission sketch
+   */
+  public long getEstimatedBytes() {
+    return capacity * SLOT_BYTES + dictionaryBytes + ((admission == null) ? 0 : admission.getEstimatedBytes());
+  }
+
+  /**
+   * Frees the slot table and leaves the governor, the cache must not be used afterwards.
+   */
+  void close() {
+    MaxMindCacheGovernor.unregister(this);
+    segments = new ByteBuffer[0];
+    capacity = 0;
+    size = 0;
+    records.clear();
+    recordIndex.clear();
+    dictionaryBytes = 0;
+  }
+
+  private void applyBudget() {
+    appliedBudget = budget;
+    setLimits(Math.min(maxBytes, appliedBudget));
+    if (dictionaryBytes > maxDictionaryBytes) {
+      clear();
+    }
+    if (capacity > maxCapacity) {
+      resize(maxCapacity);
+    }
+  }
+
+  /*
+   * Moves the entries into a table of the new size.  When shrinking, the referenced entries are kept first and the
+   * rest is dropped once the new table is full.
+   */
+  private void resize(long newCapacity) {
+    ByteBuffer[] oldSegments = segments;
+    long oldCapacity = capacity;
+    allocate(newCapacity);
+    for (int referenced = 1; referenced >= 0; referenced--) {
+      for (long slot = 0; slot < oldCapacity && size < maxEntries; slot++) {
+        ByteBuffer segment = oldSegments[(int) (slot >>> SEGMENT_SHIFT)];
+        int offset = (int) (slot & SEGMENT_MASK) * SLOT_BYTES;
+        int value = segment.getInt(offset + OFFSET_VALUE);
+        if (value != 0 && segment.getInt(offset + OFFSET_REF) == referenced) {
+          long hi = segment.getLong(offset);
+          long lo = segment.getLong(offset + OFFSET_LO);
+          long target = home(MaxMindCacheAdmission.hash(hi, lo));
+          while (getInt(target, OFFSET_VALUE) != 0) {
+            target = next(target);
+          }
+          putLong(target, 0, hi);
+          putLong(target, OFFSET_LO, lo);
+          putInt(target, OFFSET_VALUE, value);
+          putInt(target, OFFSET_REF, referenced);
+          size++;
+        }
+      }
+    }
+  }
+
+  /*
+   * Receives the cached keys, return false to stop the walk.
+   */
+  interface KeyVisitor {
+    boolean visit(long hi, long lo, boolean referenced);
+  }
+
+  void visitKeys(KeyVisitor visitor) {
+    for (long slot = 0; slot < capacity; slot++) {
+      if (getInt(slot, OFFSET_VALUE) != 0
+          && !visitor.visit(getLong(slot, 0), getLong(slot, OFFSET_LO), getInt(slot, OFFSET_REF) != 0)) {
+        return;
+      }
+    }
+  }
+
+  int getRecordCount() {
+    return records.size();
+  }
+
+  public long getHits() {
+    return hits;
+  }
+
+  long getMisses() {
+    return misses;
+  }
+
+  long getEvictions() {
+    return evictions;
+  }
+
+  /**
+   * @return the new keys the admission policy kept out of the full cache
+   */
+  long getRejections() {
+    return rejections;
+  }
+
+  /**
+   * @return the lookups that went past the cache while it was bypassed
+   */
+  long getBypassed() {
+    return bypassed;
+  }
+
+  boolean isBypassing() {
+    return admission != null && admission.isBypassing();
+  }
+
+  private boolean contains(long hash, long hi, long lo) {
+    for (long slot = home(hash); getInt(slot, OFFSET_VALUE) != 0; slot = next(slot)) {
+      if (getLong(slot, 0) == hi && getLong(slot, OFFSET_LO) == lo) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private int indexOf(Object[] record) {
+    List<Object> key = Arrays.asList(record);
+    Integer index = recordIndex.get(key);
+    if (index != null) {
+      return index;
+    }
+    long recordBytes = estimateBytes(record);
+    if (dictionaryBytes + recordBytes > maxDictionaryBytes) {
+      if (recordBytes > maxDictionaryBytes) {
+        return -1;
+      }
+      // The slots only point into the dictionary, so both have to start over
+      clear();
+    }
+    index = records.size();
+    records.add(record);
+    recordIndex.put(key, index);
+    dictionaryBytes += recordBytes;
+    return index;
+  }
+
+  /*
+   * Second chance sweep: referenced slots lose their flag, the first unreferenced one is the victim.
+   */
+  private long nextVictim() {
+    while (true) {
+      long slot = hand;
+      hand += stride;
+      if (hand >= capacity) {
+        hand -= capacity;
+      }
+      if (getInt(slot, OFFSET_VALUE) != 0) {
+        if (getInt(slot, OFFSET_REF) == 0) {
+          return slot;
+        }
+        putInt(slot, OFFSET_REF, 0);
+      }
+    }
+  }
+
+  private static long gcd(long a, long b) {
+    while (b != 0) {
+      long t = a % b;
+      a = b;
+      b = t;
+    }
+    return a;
+  }
+
+  /*
+   * Backward shift deletion, keeps every probe sequence free of holes without tombstones.
+   */
+  private void remove(long hole) {
+    long slot = hole;
+    while (true) {
+      slot = next(slot);
+      if (getInt(slot, OFFSET_VALUE) == 0) {
+        break;
+      }
+      long home = home(MaxMindCacheAdmission.hash(getLong(slot, 0), getLong(slot, OFFSET_LO)));
+      boolean stays = (hole <= slot) ? (hole < home && home <= slot) : (hole < home || home <= slot);
+      if (!stays) {
+        putLong(hole, 0, getLong(slot, 0));
+        putLong(hole, OFFSET_LO, getLong(slot, OFFSET_LO));
+        putInt(hole, OFFSET_VALUE, getInt(slot, OFFSET_VALUE));
+        putInt(hole, OFFSET_REF, getInt(slot, OFFSET_REF));
+        hole = slot;
+      }
+    }
+    putLong(hole, 0, 0L);
+    putLong(hole, OFFSET_LO, 0L);
+    putInt(hole, OFFSET_VALUE, 0);
+    putInt(hole, OFFSET_REF, 0);
+    size--;
+  }
+
+  /*
+   * @param hash the MaxMindCacheAdmission hash of the key
+   */
+  private long home(long hash) {
+    // maps the upper 32 hash bits onto [0, capacity) without a modulo
+    return ((hash >>> 32) * capacity) >>> 32;
+  }
+
+  private long next(long slot) {
+    return (slot + 1 == capacity) ? 0 : slot + 1;
+  }
+
+  private long getLong(long slot, int offset) {
+    return segments[(int) (slot >>> SEGMENT_SHIFT)].getLong((int) (slot & SEGMENT_MASK) * SLOT_BYTES + offset);
+  }
+
+  private int getInt(long slot, int offset) {
+    return segments[(int) (slot >>> SEGMENT_SHIFT)].getInt((int) (slot & SEGMENT_MASK) * SLOT_BYTES + offset);
+  }
+
+  private void putLong(long slot, int offset, long value) {
+    segments[(int) (slot >>> SEGMENT_SHIFT)].putLong((int) (slot & SEGMENT_MASK) * SLOT_BYTES + offset, value);
+  }
+
+  private void putInt(long slot, int offset, int value) {
+    segments[(int) (slot >>> SEGMENT_SHIFT)].putInt((int) (slot & SEGMENT_MASK) * SLOT_BYTES + offset, value);
+  }
+
+  /*
+   * Estimated heap footprint of a projected record, good enough for budgeting.
+   */
+  static long estimateBytes(Object[] record) {
+    long bytes = RECORD_OVERHEAD_BYTES + 16 + 8L * record.length;
+    for (Object o : record) {
+      if (o instanceof String) {
+        bytes += 40 + 2L * ((String) o).length();
+      } else if (o instanceof byte[]) {
+        bytes += 16 + ((byte[]) o).length;
+      } else if (o != null) {
+        bytes += 16;
+      }
+    }
+    return bytes;
+  }
+}
@@ -0,0 +1,263 @@
+package com.maxmind.geoip;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/*
+ * Lookup results kept in a memory mapped file so they survive the transformation.
+ *
+ * The file holds a header, an open addressed slot table keyed by the primitive IP key and a data region with the
+ * encoded records.  The header is tagged with the build epoch of the MaxMind database and a signature of the selected
+ * fields; when either differs at attach time the file is wiped, so a new .mmdb never serves stale results.
+ *
+ * All step copies of a JVM share one instance per file (see attach/release), access is synchronized.  Other JVMs are
+ * kept out with a file lock for as long as the file is attached.  A file that is in use elsewhere is refused with an
+ * InUseException, the step then runs without the persistent cache.
+ */
+class MaxMindPersistentCache {
+
+  private static final long MAGIC = 0x4D4D47454F504331L; // "MMGEOPC1"
+  private static final int FORMAT_VERSION = 1;
+
+  private static final int HEADER_BYTES = 64;
+  private static final int H_MAGIC = 0;
+  private static final int H_VERSION = 8;
+  private static final int H_BUILD_EPOCH = 16;
+  private static final int H_SIGNATURE = 24;
+  private static final int H_SLOTS = 32;
+  private static final int H_DATA_CAPACITY = 40;
+  private static final int H_DATA_USED = 48;
+  private static final int H_ENTRIES = 56;
+
+  // Slot layout: key hi (8), key lo (8), data offset + 1 (8, 0 = empty)
+  private static final int SLOT_BYTES = 24;
+
+  // a single MappedByteBuffer can't address more than this
+  static final long MAX_FILE_BYTES = Integer.MAX_VALUE;
+
+  // Records written in this session, so IPs of the same city share one copy in the data region
+  private static final int MAX_WRITTEN_RECORDS = 100000;
+
+  /*
+   * The file is locked by another process, or attached for another database or field selection in this one.
+   */
+  static class InUseException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    InUseException(String message) {
+      super(message);
+    }
+  }
+
+  private static final HashMap<String, MaxMindPersistentCache> openCaches = new HashMap<String, MaxMindPersistentCache>();
+
+  private final String path;
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+  private final FileLock lock;
+  private final MappedByteBuffer buffer;
+  private final ByteBuffer view;
+  private final long slots;
+  private final long maxEntries;
+  private final int dataStart;
+  private final int dataCapacity;
+  private final HashMap<List<Object>, Integer> writtenRecords = new HashMap<List<Object>, Integer>();
+  private int references = 0;
+
+  private MaxMindPersistentCache(String path, long maxBytes, long buildEpoch, long signature) throws IOException {
+    long size = Math.min(Math.max(maxBytes, 64 * 1024), MAX_FILE_BYTES);
+    // half of the file for the slots, half for the records
+    long slotCount = (size - HEADER_BYTES) / 2 / SLOT_BYTES;
+
+    this.path = path;
+    file = new RandomAccessFile(path, "rw");
+    channel = file.getChannel();
+    try {
+      lock = channel.tryLock();
+      if (lock == null) {
+        throw new InUseException("Persistent cache file '" + path + "' is in use by another process");
+      }
+      boolean valid = file.length() == size;
+      if (!valid) {
+        file.setLength(size);
+      }
+      buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      view = buffer.duplicate();
+
+      valid = valid
+          && buffer.getLong(H_MAGIC) == MAGIC
+          && buffer.getInt(H_VERSION) == FORMAT_VERSION
+          && buffer.getLong(H_BUILD_EPOCH) == buildEpoch
+          && buffer.getLong(H_SIGNATURE) == signature
+          && buffer.getLong(H_SLOTS) == slotCount;
+
+      slots = slotCount;
+      maxEntries = slotCount * 3 / 4;
+      dataStart = (int) (HEADER_BYTES + slotCount * SLOT_BYTES);
+      dataCapacity = (int) (size - dataStart);
+      if (!valid) {
+        reset(buildEpoch, signature);
+      }
+    } catch (IOException e) {
+      channel.close();
+      file.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Attaches to the cache file, creating or wiping it when it doesn't match the database and fields.
+   *
+   * @param cacheFile the file to keep the results in
+   * @param maxBytes size of the file
+   * @param buildEpoch build date of the MaxMind database, in ms
+   * @param signature signature of the database type and selected fields
+   * @return the shared cache, call release() once done with it
+   * @throws InUseException when the file is used by another process, or for other fields in this one
+   * @throws IOException when the file can't be mapped
+   */
+  static synchronized MaxMindPersistentCache attach(File cacheFile, long maxBytes, long buildEpoch, long signature)
+      throws IOException {
+    String path = cacheFile.getCanonicalPath();
+    MaxMindPersistentCache cache = openCaches.get(path);
+    if (cache == null) {
+      cache = new MaxMindPersistentCache(path, maxBytes, buildEpoch, signature);
+      openCaches.put(path, cache);
+    } else if (!cache.matches(buildEpoch, signature)) {
+      throw new InUseException("Persistent cache file '" + path + "' is already used for a different database or"
+          + " field selection in this process");
+    }
+    cache.references++;
+    return cache;
+  }
+
+  /**
+   * Drops one reference, the last one flushes the file to disk and unlocks it.
+   */
+  void release() throws IOException {
+    synchronized (MaxMindPersistentCache.class) {
+      if (--references > 0) {
+        return;
+      }
+      openCaches.remove(path);
+    }
+    synchronized (this) {
+      buffer.force();
+      lock.release();
+      channel.close();
+      file.close();
+    }
+  }
+
+  synchronized Object[] get(long hi, long lo) {
+    long slot = home(hi, lo);
+    while (true) {
+      long offset = buffer.getLong(slotPosition(slot) + 16);
+      if (offset == 0) {
+        return null;
+      }
+      int position = slotPosition(slot);
+      if (buffer.getLong(position) == hi && buffer.getLong(position + 8) == lo) {
+        try {
+          view.position((int) (dataStart + offset - 1));
+          return MaxMindRecordCodec.decode(view);
+        } catch (RuntimeException e) {
+          // A damaged file (torn write, edited by hand) is a miss, and the whole file is suspect then
+          reset(buffer.getLong(H_BUILD_EPOCH), buffer.getLong(H_SIGNATURE));
+          return null;
+        }
+      }
+      slot = next(slot);
+    }
+  }
+
+  synchronized void put(long hi, long lo, Object[] record) {
+    long slot = home(hi, lo);
+    while (buffer.getLong(slotPosition(slot) + 16) != 0) {
+      int position = slotPosition(slot);
+      if (buffer.getLong(position) == hi && buffer.getLong(position + 8) == lo) {
+        return; // results never change for a given database build
+      }
+      slot = next(slot);
+    }
+
+    List<Object> key = Arrays.asList(record);
+    Integer offset = writtenRecords.get(key);
+    if (offset == null) {
+      byte[] encoded = MaxMindRecordCodec.encode(record);
+      if (encoded.length > dataCapacity) {
+        return;
+      }
+      int used = (int) buffer.getLong(H_DATA_USED);
+      if (buffer.getLong(H_ENTRIES) >= maxEntries || used + encoded.length > dataCapacity) {
+        // Full, start over rather than keep serving an ever older population
+        reset(buffer.getLong(H_BUILD_EPOCH), buffer.getLong(H_SIGNATURE));
+        put(hi, lo, record);
+        return;
+      }
+      view.position(dataStart + used);
+      view.put(encoded);
+      buffer.putLong(H_DATA_USED, used + encoded.length);
+      offset = used;
+      if (writtenRecords.size() >= MAX_WRITTEN_RECORDS) {
+        writtenRecords.clear();
+      }
+      writtenRecords.put(key, offset);
+    } else if (buffer.getLong(H_ENTRIES) >= maxEntries) {
+      reset(buffer.getLong(H_BUILD_EPOCH), buffer.getLong(H_SIGNATURE));
+      put(hi, lo, record);
+      return;
+    }
+
+    int position = slotPosition(slot);
+    buffer.putLong(position, hi);
+    buffer.putLong(position + 8, lo);
+    buffer.putLong(position + 16, offset + 1L);
+    buffer.putLong(H_ENTRIES, buffer.getLong(H_ENTRIES) + 1);
+  }
+
+  synchronized long size() {
+    return buffer.getLong(H_ENTRIES);
+  }
+
+  private synchronized boolean matches(long buildEpoch, long signature) {
+    return buffer.getLong(H_BUILD_EPOCH) == buildEpoch && buffer.getLong(H_SIGNATURE) == signature;
+  }
+
+  private void reset(long buildEpoch, long signature) {
+    // Invalidate first, a crash half way through the wipe must not leave a valid looking header
+    buffer.putLong(H_MAGIC, 0L);
+    for (int i = HEADER_BYTES; i < dataStart; i += 8) {
+      buffer.putLong(i, 0L);
+    }
+    writtenRecords.clear();
+    buffer.putInt(H_VERSION, FORMAT_VERSION);
+    buffer.putLong(H_BUILD_EPOCH, buildEpoch);
+    buffer.putLong(H_SIGNATURE, signature);
+    buffer.putLong(H_SLOTS, slots);
+    buffer.putLong(H_DATA_CAPACITY, dataCapacity);
+    buffer.putLong(H_DATA_USED, 0L);
+    buffer.putLong(H_ENTRIES, 0L);
+    buffer.putLong(H_MAGIC, MAGIC);
+  }
+
+  private long home(long hi, long lo) {
+    return ((MaxMindCacheAdmission.hash(hi, lo) >>> 32) * slots) >>> 32;
+  }
+
+  private long next(long slot) {
+    return (slot + 1 == slots) ? 0 : slot + 1;
+  }
+
+  private int slotPosition(long slot) {
+    return (int) (HEADER_BYTES + slot * SLOT_BYTES);
+  }
+}
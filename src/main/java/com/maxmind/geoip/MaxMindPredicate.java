@@ -0,0 +1,398 @@
+package com.maxmind.geoip;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.maxmind.db.NoCache;
+import com.maxmind.db.Reader;
+
+/*
+ * A condition on the fields of the database records, like "country_code IN ('US', 'CA') AND NOT is_anonymous_proxy = true".
+ * Fields are the predefined fields of the database or field paths, values are compared in their text form, and a
+ * missing value is not equal to anything.  Supported are =, !=, <>, IN (...), NOT IN (...), AND, OR, NOT and
+ * parentheses, keywords in any case.
+ *
+ * Instead of evaluating it per row, resolve() walks the whole database once and turns the condition into the set of
+ * address ranges it holds for, evaluating it once per distinct record.  The static resolve() shares those ranges
+ * within the process as long as memory allows and can keep them in a file for the next run.
+ */
+final class MaxMindPredicate {
+
+  private static final String SET_FILE_MAGIC = "MaxMind range set"; //$NON-NLS-1$
+
+  // ranges per database file, database type and condition, with the size and modification time they were built for
+  private static final class SharedSet {
+    String version;
+    volatile SoftReference<MaxMindIntervalSet> set = new SoftReference<MaxMindIntervalSet>(null);
+    volatile boolean resolved = false;
+  }
+
+  private static final Map<String, SharedSet> sharedSets = new HashMap<String, SharedSet>();
+
+  private interface Node {
+    boolean matches(JsonNode record);
+  }
+
+  private static final class Compare implements Node {
+    final MaxMindFieldPath path;
+    final Set<String> values;
+    final boolean negated;
+
+    Compare(MaxMindFieldPath path, Set<String> values, boolean negated) {
+      this.path = path;
+      this.values = values;
+      this.negated = negated;
+    }
+
+    public boolean matches(JsonNode record) {
+      Object value = path.getVal(record);
+      return (value != null && values.contains(value.toString())) != negated;
+    }
+  }
+
+  private static final class Not implements Node {
+    final Node node;
+
+    Not(Node node) {
+      this.node = node;
+    }
+
+    public boolean matches(JsonNode record) {
+      return !node.matches(record);
+    }
+  }
+
+  private static final class And implements Node {
+    final Node left;
+    final Node right;
+
+    And(Node left, Node right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    public boolean matches(JsonNode record) {
+      return left.matches(record) && right.matches(record);
+    }
+  }
+
+  private static final class Or implements Node {
+    final Node left;
+    final Node right;
+
+    Or(Node left, Node right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    public boolean matches(JsonNode record) {
+      return left.matches(record) || right.matches(record);
+    }
+  }
+
+  private final String condition;
+  private final MaxMindDatabase database;
+  private final List<String> tokens;
+  private int position;
+  private final Node root;
+
+  /**
+   * @param condition the condition to compile
+   * @param database resolves the field names
+   * @throws IllegalArgumentException if condition is not valid
+   */
+  MaxMindPredicate(String condition, MaxMindDatabase database) {
+    this.condition = condition;
+    this.database = database;
+    this.tokens = tokenize(condition);
+    this.root = parseOr();
+    if (position < tokens.size()) {
+      throw error("unexpected '" + tokens.get(position) + "'");
+    }
+  }
+
+  /**
+   * @param record a raw database record, null for none
+   */
+  boolean matches(JsonNode record) {
+    return record != null && root.matches(record);
+  }
+
+  /**
+   * Finds the address ranges of the database the condition holds for.
+   */
+  MaxMindIntervalSet resolve(File dbFile) throws IOException {
+    MaxMindNetworkWalker walker = new MaxMindNetworkWalker(dbFile);
+    final Reader reader = new Reader(dbFile, NoCache.getInstance());
+    final HashMap<Long, Boolean> matching = new HashMap<Long, Boolean>();
+    final MaxMindIntervalSet.Builder builder = new MaxMindIntervalSet.Builder();
+    try {
+      for (MaxMindNetworkWalker.Subtree subtree : walker.split()) {
+        walker.walk(subtree, new MaxMindNetworkWalker.Visitor() {
+          public void network(byte[] address, int prefixLength, long dataOffset) throws IOException {
+            Boolean match = matching.get(dataOffset);
+            if (match == null) {
+              match = matches(reader.get(InetAddress.getByAddress(address)));
+              matching.put(dataOffset, match);
+            }
+            if (match) {
+              builder.add(address, prefixLength);
+            }
+          }
+        });
+      }
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException("Unable to resolve condition '" + condition + "'", e);
+    } finally {
+      reader.close();
+    }
+    return builder.build();
+  }
+
+  /**
+   * Resolves a condition for a database file, or returns the ranges resolved before in this process, as long as the
+   * file didn't change since and memory didn't run short.  With a set file the ranges are read from it if it was written for the same database
+   * file, computed field options and condition, otherwise they are resolved and written to it.
+   *
+   * @param setFile file to keep the ranges in, null for none
+   */
+  static MaxMindIntervalSet resolve(String condition, MaxMindDatabase database, File dbFile, File setFile)
+      throws IOException {
+    // conditions on computed fields resolve differently with other reference points or geohash precision
+    String key = dbFile.getAbsolutePath() + "|" + database.getClass().getName() + "|" //$NON-NLS-1$ //$NON-NLS-2$
+        + ((database.geoComputer == null) ? "" : database.geoComputer.getSignature()) + "|" + condition; //$NON-NLS-1$ //$NON-NLS-2$
+    String version = dbFile.length() + "|" + dbFile.lastModified(); //$NON-NLS-1$
+    SharedSet shared;
+    synchronized (sharedSets) {
+      // the entries of sets the garbage collector took go, unless they are being resolved
+      for (Iterator<SharedSet> it = sharedSets.values().iterator(); it.hasNext();) {
+        SharedSet entry = it.next();
+        if (entry.resolved && entry.set.get() == null) {
+          it.remove();
+        }
+      }
+      shared = sharedSets.get(key);
+      if (shared == null) {
+        shared = new SharedSet();
+        sharedSets.put(key, shared);
+      }
+    }
+    synchronized (shared) {
+      // step copies starting together wait here for the first one to resolve, other conditions don't
+      MaxMindIntervalSet set = shared.set.get();
+      if (set != null && version.equals(shared.version)) {
+        return set;
+      }
+      try {
+        String header = key + "|" + version; //$NON-NLS-1$
+        set = (setFile == null) ? null : readSetFile(setFile, header);
+        if (set == null) {
+          set = new MaxMindPredicate(condition, database).resolve(dbFile);
+          if (setFile != null) {
+            writeSetFile(setFile, header, set);
+          }
+        }
+        shared.version = version;
+        shared.set = new SoftReference<MaxMindIntervalSet>(set);
+        return set;
+      } finally {
+        shared.resolved = true;
+      }
+    }
+  }
+
+  /*
+   * @return the ranges of the file, null if it is missing, unreadable or was written for something else
+   */
+  private static MaxMindIntervalSet readSetFile(File setFile, String header) {
+    if (!setFile.isFile()) {
+      return null;
+    }
+    try {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(setFile)));
+      try {
+        if (!SET_FILE_MAGIC.equals(in.readUTF()) || !header.equals(in.readUTF())) {
+          return null;
+        }
+        return MaxMindIntervalSet.read(in);
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      return null; // resolved again and rewritten
+    }
+  }
+
+  /*
+   * Writes to a temporary file that is renamed into place, so readers never see a half written set.
+   */
+  private static void writeSetFile(File setFile, String header, MaxMindIntervalSet set) throws IOException {
+    File dir = setFile.getAbsoluteFile().getParentFile();
+    if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Unable to create the directory of range set file '" + setFile + "'");
+    }
+    File tmpFile = File.createTempFile(setFile.getName(), ".tmp", dir); //$NON-NLS-1$
+    try {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+      try {
+        out.writeUTF(SET_FILE_MAGIC);
+        out.writeUTF(header);
+        set.write(out);
+      } finally {
+        out.close();
+      }
+      Files.move(tmpFile.toPath(), setFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      tmpFile.delete();
+    }
+  }
+
+  private Node parseOr() {
+    Node node = parseAnd();
+    while (accept("OR")) { //$NON-NLS-1$
+      node = new Or(node, parseAnd());
+    }
+    return node;
+  }
+
+  private Node parseAnd() {
+    Node node = parseNot();
+    while (accept("AND")) { //$NON-NLS-1$
+      node = new And(node, parseNot());
+    }
+    return node;
+  }
+
+  private Node parseNot() {
+    if (accept("NOT")) { //$NON-NLS-1$
+      return new Not(parseNot());
+    }
+    if (accept("(")) { //$NON-NLS-1$
+      Node node = parseOr();
+      expect(")"); //$NON-NLS-1$
+      return node;
+    }
+    return parseCompare();
+  }
+
+  private Node parseCompare() {
+    String field = next();
+    MaxMindFieldPath path;
+    try {
+      path = database.getFieldPath(field);
+    } catch (IllegalArgumentException e) {
+      throw error("invalid field '" + field + "'");
+    }
+    Set<String> values = new HashSet<String>();
+    boolean negated = false;
+    if (accept("=")) { //$NON-NLS-1$
+      values.add(value());
+    } else if (accept("!=") || accept("<>")) { //$NON-NLS-1$ //$NON-NLS-2$
+      values.add(value());
+      negated = true;
+    } else {
+      negated = accept("NOT"); //$NON-NLS-1$
+      expect("IN"); //$NON-NLS-1$
+      expect("("); //$NON-NLS-1$
+      do {
+        values.add(value());
+      } while (accept(",")); //$NON-NLS-1$
+      expect(")"); //$NON-NLS-1$
+    }
+    return new Compare(path, values, negated);
+  }
+
+  private String value() {
+    String token = next();
+    if (token.length() >= 2 && (token.charAt(0) == '\'' || token.charAt(0) == '"')) {
+      return token.substring(1, token.length() - 1);
+    }
+    if ("(".equals(token) || ")".equals(token) || ",".equals(token)) { //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+      throw error("value expected instead of '" + token + "'");
+    }
+    return token;
+  }
+
+  private boolean accept(String token) {
+    if (position < tokens.size() && tokens.get(position).equalsIgnoreCase(token)) {
+      position++;
+      return true;
+    }
+    return false;
+  }
+
+  private void expect(String token) {
+    if (!accept(token)) {
+      throw error("'" + token + "' expected");
+    }
+  }
+
+  private String next() {
+    if (position == tokens.size()) {
+      throw error("unexpected end");
+    }
+    return tokens.get(position++);
+  }
+
+  private IllegalArgumentException error(String message) {
+    return new IllegalArgumentException("Invalid condition '" + condition + "': " + message);
+  }
+
+  /*
+   * Splits into quoted strings (quotes kept), the operators and parentheses, and words.
+   */
+  private static List<String> tokenize(String condition) {
+    List<String> tokens = new ArrayList<String>();
+    int length = (condition == null) ? 0 : condition.length();
+    int i = 0;
+    while (i < length) {
+      char c = condition.charAt(i);
+      if (Character.isWhitespace(c)) {
+        i++;
+      } else if (c == '\'' || c == '"') {
+        int close = condition.indexOf(c, i + 1);
+        if (close < 0) {
+          throw new IllegalArgumentException("Invalid condition '" + condition + "': missing " + c);
+        }
+        tokens.add(condition.substring(i, close + 1));
+        i = close + 1;
+      } else if (c == '(' || c == ')' || c == ',' || c == '=') {
+        tokens.add(String.valueOf(c));
+        i++;
+      } else if ((c == '!' || c == '<') && i + 1 < length && "=>".indexOf(condition.charAt(i + 1)) >= 0) {
+        tokens.add(condition.substring(i, i + 2));
+        i += 2;
+      } else {
+        int start = i;
+        while (i < length && !Character.isWhitespace(condition.charAt(i)) && "()',=!<\"".indexOf(condition.charAt(i)) < 0) {
+          i++;
+        }
+        if (i == start) {
+          throw new IllegalArgumentException("Invalid condition '" + condition + "' at position " + i);
+        }
+        tokens.add(condition.substring(start, i));
+      }
+    }
+    return tokens;
+  }
+}
@@ -0,0 +1,53 @@
+package com.maxmind.geoip;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.maxmind.db.Reader;
+
+/**
+ * Backend reading the raw records of the database file with the shared record reader, like the field paths do.  It
+ * skips the response objects of the DatabaseReader, every field is read straight from the decoded record.
+ */
+public class MaxMindReaderBackend implements MaxMindLookupBackend {
+
+  public static final String NAME = "Reader"; //$NON-NLS-1$
+
+  public String getName() {
+    return NAME;
+  }
+
+  public Lookup open(File databaseFile, String[] paths, String address) throws IOException {
+    final Reader reader = MaxMindGeoIP.initRecordReader(databaseFile.getPath());
+    final Object[][] steps = new Object[paths.length][];
+    for (int i = 0; i < paths.length; i++) {
+      steps[i] = MaxMindFieldPath.compile(paths[i]);
+    }
+    return new Lookup() {
+      public String getDatabaseType() {
+        return reader.getMetadata().getDatabaseType();
+      }
+
+      public long getBuildDate() {
+        return reader.getMetadata().getBuildDate().getTime();
+      }
+
+      public Object[] resolve(long[] his, long[] los, int n) throws IOException {
+        Object[] records = new Object[n];
+        for (int i = 0; i < n; i++) {
+          records[i] = reader.get(MaxMindIpParser.toInetAddress(his[i], los[i]));
+        }
+        return records;
+      }
+
+      public Object[] project(Object handle) {
+        return MaxMindFieldPath.project((JsonNode) handle, steps);
+      }
+
+      public void close() {
+        // the reader is shared with everything else using this database
+      }
+    };
+  }
+}
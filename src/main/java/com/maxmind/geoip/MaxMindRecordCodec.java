@@ -0,0 +1,109 @@
+package com.maxmind.geoip;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Date;
+
+/*
+ * Compact binary form of a projected record (the Object[] of selected field values), used wherever records
+ * leave the heap.  Each value is a one byte tag followed by its payload.
+ */
+final class MaxMindRecordCodec {
+
+  static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final byte TAG_NULL = 0;
+  private static final byte TAG_STRING = 1;
+  private static final byte TAG_DOUBLE = 2;
+  private static final byte TAG_LONG = 3;
+  private static final byte TAG_BOOLEAN = 4;
+  private static final byte TAG_BYTES = 5;
+  private static final byte TAG_DATE = 6;
+
+  private MaxMindRecordCodec() {
+  }
+
+  /**
+   * Encodes a record.  Values of a type without a tag of their own are stored as their String representation.
+   */
+  static byte[] encode(Object[] record) {
+    byte[][] strings = new byte[record.length][];
+    int size = 2;
+    for (int i = 0; i < record.length; i++) {
+      Object o = record[i];
+      size++;
+      if (o instanceof Double || o instanceof Long || o instanceof Date) {
+        size += 8;
+      } else if (o instanceof Boolean) {
+        size++;
+      } else if (o instanceof byte[]) {
+        size += 4 + ((byte[]) o).length;
+      } else if (o != null) {
+        strings[i] = o.toString().getBytes(UTF8);
+        size += 4 + strings[i].length;
+      }
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(size);
+    buffer.putShort((short) record.length);
+    for (int i = 0; i < record.length; i++) {
+      Object o = record[i];
+      if (o == null) {
+        buffer.put(TAG_NULL);
+      } else if (o instanceof Double) {
+        buffer.put(TAG_DOUBLE).putDouble((Double) o);
+      } else if (o instanceof Long) {
+        buffer.put(TAG_LONG).putLong((Long) o);
+      } else if (o instanceof Date) {
+        buffer.put(TAG_DATE).putLong(((Date) o).getTime());
+      } else if (o instanceof Boolean) {
+        buffer.put(TAG_BOOLEAN).put((byte) (((Boolean) o) ? 1 : 0));
+      } else if (o instanceof byte[]) {
+        byte[] bytes = (byte[]) o;
+        buffer.put(TAG_BYTES).putInt(bytes.length).put(bytes);
+      } else {
+        buffer.put(TAG_STRING).putInt(strings[i].length).put(strings[i]);
+      }
+    }
+    return buffer.array();
+  }
+
+  /**
+   * Decodes the record at the current position of the buffer and leaves the position right behind it.
+   */
+  static Object[] decode(ByteBuffer buffer) {
+    Object[] record = new Object[buffer.getShort()];
+    for (int i = 0; i < record.length; i++) {
+      byte tag = buffer.get();
+      switch (tag) {
+        case TAG_NULL:
+          break;
+        case TAG_STRING:
+          byte[] string = new byte[buffer.getInt()];
+          buffer.get(string);
+          record[i] = new String(string, UTF8);
+          break;
+        case TAG_DOUBLE:
+          record[i] = buffer.getDouble();
+          break;
+        case TAG_LONG:
+          record[i] = buffer.getLong();
+          break;
+        case TAG_BOOLEAN:
+          record[i] = buffer.get() != 0;
+          break;
+        case TAG_BYTES:
+          byte[] bytes = new byte[buffer.getInt()];
+          buffer.get(bytes);
+          record[i] = bytes;
+          break;
+        case TAG_DATE:
+          record[i] = new Date(buffer.getLong());
+          break;
+        default:
+          throw new IllegalStateException("Corrupt record, unknown value tag " + tag);
+      }
+    }
+    return record;
+  }
+}
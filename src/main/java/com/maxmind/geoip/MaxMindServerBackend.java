@@ -0,0 +1,45 @@
+package com.maxmind.geoip;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Backend sending the lookups to a MaxMindLookupServer on the same host, in pipelined batches.  The server projects
+ * the records, so a handle already holds the projected values.
+ */
+public class MaxMindServerBackend implements MaxMindLookupBackend {
+
+  public static final String NAME = "Lookup server"; //$NON-NLS-1$
+
+  public String getName() {
+    return NAME;
+  }
+
+  public Lookup open(File databaseFile, String[] paths, String address) throws IOException {
+    if (address == null || address.trim().length() == 0) {
+      throw new IOException("The lookup server backend needs the address of a lookup server");
+    }
+    final MaxMindLookupClient client = new MaxMindLookupClient(address, paths);
+    return new Lookup() {
+      public String getDatabaseType() {
+        return client.getDatabaseType();
+      }
+
+      public long getBuildDate() {
+        return client.getBuildDate();
+      }
+
+      public Object[] resolve(long[] his, long[] los, int n) throws IOException {
+        return client.lookup(his, los, n);
+      }
+
+      public Object[] project(Object handle) {
+        return (Object[]) handle;
+      }
+
+      public void close() {
+        client.close();
+      }
+    };
+  }
+}
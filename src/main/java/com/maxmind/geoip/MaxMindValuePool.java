@@ -0,0 +1,132 @@
+package com.maxmind.geoip;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/*
+ * Bounded pool of canonical output values.  Every lookup result (from the database or the persistent cache) is run
+ * through it, so rows that stay in memory downstream (sorts, stream lookups, memory group by) share one String per
+ * country, region or time zone name and one Double per coordinate instead of holding millions of equal copies.
+ *
+ * When the pool outgrows its limit it starts over, which keeps it adapted to the values currently flowing.  The limit
+ * follows the MaxMindCacheGovernor budget when there is one.  The pool only joins the governor with its first value,
+ * the many databases that are only set up for their field metadata never do.
+ *
+ * For binary string output the pool also keeps the UTF-8 encoding of each text value, so it is encoded once and all
+ * rows share the same bytes.
+ *
+ * Not thread safe, every step copy owns its own pool.
+ */
+class MaxMindValuePool implements MaxMindCacheGovernor.Participant {
+
+  // Limit used as long as the governor has no budget
+  static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+  // Encoding of the binary string values
+  static final Charset ENCODING = StandardCharsets.UTF_8;
+
+  // Rough heap cost of a map entry and its boxed value
+  private static final int ENTRY_OVERHEAD_BYTES = 64;
+
+  // byte[] values are keyed by a ByteBuffer wrapping them, which compares the content
+  private final HashMap<Object, Object> values = new HashMap<Object, Object>();
+  private final HashMap<String, byte[]> encoded = new HashMap<String, byte[]>();
+  private volatile long maxBytes = DEFAULT_MAX_BYTES;
+  private long bytes = 0;
+  private long hits = 0;
+  private boolean registered = false;
+
+  /**
+   * @return the canonical instance equal to value
+   */
+  Object intern(Object value) {
+    Object key = value;
+    long valueBytes = ENTRY_OVERHEAD_BYTES;
+    if (value instanceof String) {
+      valueBytes += 2L * ((String) value).length();
+    } else if (value instanceof byte[]) {
+      key = ByteBuffer.wrap((byte[]) value);
+      valueBytes += ENTRY_OVERHEAD_BYTES + ((byte[]) value).length;
+    } else if (!(value instanceof Double) && !(value instanceof Long)) {
+      return value;
+    }
+    Object canonical = values.get(key);
+    if (canonical != null) {
+      hits++;
+      return canonical;
+    }
+    if (!registered) {
+      MaxMindCacheGovernor.register(this);
+      registered = true;
+    }
+    makeRoom(valueBytes);
+    values.put(key, value);
+    bytes += valueBytes;
+    return value;
+  }
+
+  /**
+   * @return the canonical UTF-8 encoding of value
+   */
+  byte[] utf8(String value) {
+    byte[] canonical = encoded.get(value);
+    if (canonical != null) {
+      hits++;
+      return canonical;
+    }
+    canonical = (byte[]) intern(value.getBytes(ENCODING));
+    long valueBytes = ENTRY_OVERHEAD_BYTES + 2L * value.length();
+    makeRoom(valueBytes);
+    encoded.put(value, canonical);
+    bytes += valueBytes;
+    return canonical;
+  }
+
+  private void makeRoom(long valueBytes) {
+    if (bytes + valueBytes > maxBytes) {
+      values.clear();
+      encoded.clear();
+      bytes = 0;
+    }
+  }
+
+  /**
+   * Replaces the values of a block of a row by their canonical instances.
+   */
+  void internAll(Object[] row, int offset, int length) {
+    for (int i = offset; i < offset + length; i++) {
+      row[i] = intern(row[i]);
+    }
+  }
+
+  int size() {
+    return values.size();
+  }
+
+  /**
+   * Empties the pool and leaves the governor, it joins again when it is used afterwards.
+   */
+  void close() {
+    if (registered) {
+      MaxMindCacheGovernor.unregister(this);
+      registered = false;
+    }
+    values.clear();
+    encoded.clear();
+    bytes = 0;
+  }
+
+  public long getEstimatedBytes() {
+    return bytes;
+  }
+
+  public long getHits() {
+    return hits;
+  }
+
+  public void setBudget(long maxBytes) {
+    this.maxBytes = (maxBytes == MaxMindCacheGovernor.NO_LIMIT) ? DEFAULT_MAX_BYTES : maxBytes;
+  }
+}
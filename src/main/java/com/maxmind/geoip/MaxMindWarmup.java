@@ -0,0 +1,177 @@
+package com.maxmind.geoip;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.net.InetAddresses;
+import com.maxmind.geoip2.exception.GeoIp2Exception;
+
+/*
+ * Gets a lookup step to full speed before the first row arrives: loads the mapped database pages into memory and
+ * fills the node and result caches from a list of frequent addresses.  The same list format (one address per line)
+ * is used for the snapshot a step writes at dispose for the next run.  With several step copies every copy writes a
+ * snapshot of its own, see getSnapshotFile().
+ */
+final class MaxMindWarmup {
+
+  private static final long CHUNK_BYTES = 64L * 1024 * 1024;
+
+  // Most addresses a snapshot keeps, referenced ones first
+  static final int MAX_SNAPSHOT_ADDRESSES = 100000;
+
+  // Database files that were already preloaded in this JVM (path and modification time)
+  private static final HashSet<String> preloaded = new HashSet<String>();
+
+  private MaxMindWarmup() {
+  }
+
+  /**
+   * Loads every page of the database file into memory, one chunk per thread.  The pages are shared through the OS
+   * page cache with the mapping of the DatabaseReader.  Each file is only preloaded once per JVM.
+   *
+   * @return the number of bytes loaded, 0 when the file was preloaded before
+   */
+  static long preloadPages(File dbFile) throws IOException {
+    String key = dbFile.getCanonicalPath() + "@" + dbFile.lastModified(); //$NON-NLS-1$
+    synchronized (preloaded) {
+      if (!preloaded.add(key)) {
+        return 0;
+      }
+    }
+
+    final RandomAccessFile file = new RandomAccessFile(dbFile, "r"); //$NON-NLS-1$
+    try {
+      final FileChannel channel = file.getChannel();
+      final long size = channel.size();
+      int threads = (int) Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), size / CHUNK_BYTES));
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try {
+        List<Future<?>> chunks = new ArrayList<Future<?>>();
+        for (long position = 0; position < size; position += CHUNK_BYTES) {
+          final long start = position;
+          chunks.add(executor.submit(new Callable<Void>() {
+            public Void call() throws IOException {
+              channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_BYTES, size - start)).load();
+              return null;
+            }
+          }));
+        }
+        for (Future<?> chunk : chunks) {
+          chunk.get();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while preloading '" + dbFile + "'", e);
+      } catch (ExecutionException e) {
+        throw new IOException("Unable to preload '" + dbFile + "'", e.getCause());
+      } finally {
+        executor.shutdown();
+      }
+      return size;
+    } finally {
+      file.close();
+    }
+  }
+
+  /**
+   * Looks up every address in the file, which fills the node cache of the reader and the result caches of the
+   * database.  Empty lines, lines starting with # and invalid addresses are skipped.
+   *
+   * @return the number of addresses looked up
+   */
+  static int prepopulate(MaxMindDatabase database, File ipFile) throws IOException, GeoIp2Exception {
+    Object[] row = new Object[database.getOutputFields().length];
+    int count = 0;
+    BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(ipFile), MaxMindRecordCodec.UTF8));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.length() == 0 || line.charAt(0) == '#' || !InetAddresses.isInetAddress(line)) {
+          continue;
+        }
+        database.getRowData(row, 0, line);
+        count++;
+      }
+    } finally {
+      reader.close();
+    }
+    return count;
+  }
+
+  /**
+   * The copies of a step don't see the same addresses, with a partitioner each one sees its own share.  So every copy
+   * keeps a snapshot of its own, the copy number is appended to the configured name.
+   *
+   * @param snapshotFile the configured snapshot file
+   * @param copy the number of the step copy
+   * @param copies the number of step copies
+   * @return the snapshot file of the copy, the configured file itself for a single copy
+   */
+  static File getSnapshotFile(String snapshotFile, int copy, int copies) {
+    return (copies > 1) ? new File(snapshotFile + "." + copy) : new File(snapshotFile); //$NON-NLS-1$
+  }
+
+  /**
+   * Writes the addresses held by the result cache, the ones referenced since the last eviction sweep first.
+   *
+   * @return the number of addresses written
+   */
+  static int writeSnapshot(MaxMindOffHeapCache cache, File snapshotFile) throws IOException {
+    return writeSnapshot(cache, snapshotFile, MAX_SNAPSHOT_ADDRESSES);
+  }
+
+  static int writeSnapshot(MaxMindOffHeapCache cache, File snapshotFile, final int maxAddresses) throws IOException {
+    final List<String> addresses = new ArrayList<String>();
+    for (final boolean referenced : new boolean[] { true, false }) {
+      cache.visitKeys(new MaxMindOffHeapCache.KeyVisitor() {
+        public boolean visit(long hi, long lo, boolean isReferenced) {
+          if (addresses.size() >= maxAddresses) {
+            return false;
+          }
+          if (isReferenced == referenced) {
+            addresses.add(InetAddresses.toAddrString(MaxMindIpParser.toInetAddress(hi, lo)));
+          }
+          return true;
+        }
+      });
+    }
+
+    // written next to the target and renamed, so a parallel init never reads half a snapshot
+    File partFile = File.createTempFile(snapshotFile.getName(), ".part", snapshotFile.getAbsoluteFile().getParentFile()); //$NON-NLS-1$
+    try {
+      Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(partFile), MaxMindRecordCodec.UTF8));
+      try {
+        for (String address : addresses) {
+          writer.write(address);
+          writer.write('\n');
+        }
+      } finally {
+        writer.close();
+      }
+      Files.move(partFile.toPath(), snapshotFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      partFile.delete();
+    }
+    return addresses.size();
+  }
+}
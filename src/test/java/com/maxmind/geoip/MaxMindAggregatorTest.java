@@ -0,0 +1,64 @@
+package com.maxmind.geoip;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MaxMindAggregatorTest {
+
+  @Test
+  public void testCounts() {
+    MaxMindAggregator aggregator = new MaxMindAggregator();
+    Object[] key = new Object[2];
+    String[][] rows = { { "web", "US" }, { "web", "DE" }, { "web", "US" }, { "api", "US" }, { "web", "US" } };
+    double value = 1;
+    for ( String[] row : rows ) {
+      key[0] = row[0];
+      key[1] = row[1];
+      aggregator.add( key, value++ );
+    }
+    assertEquals( 3, aggregator.size() );
+
+    List<Object[]> counted = aggregator.drain();
+    assertArrayEquals( new Object[] { "web", "US", 3L, 9.0 }, counted.get( 0 ) );
+    assertArrayEquals( new Object[] { "web", "DE", 1L, 2.0 }, counted.get( 1 ) );
+    assertArrayEquals( new Object[] { "api", "US", 1L, 4.0 }, counted.get( 2 ) );
+    assertEquals( 0, aggregator.size() );
+  }
+
+  @Test
+  public void testBinaryValuesAndNulls() {
+    MaxMindAggregator aggregator = new MaxMindAggregator();
+    // equal binary strings in different arrays are the same key
+    aggregator.add( new Object[] { "Z\u00fcrich".getBytes( StandardCharsets.UTF_8 ), null }, null );
+    aggregator.add( new Object[] { "Z\u00fcrich".getBytes( StandardCharsets.UTF_8 ), null }, null );
+
+    List<Object[]> counted = aggregator.drain();
+    assertEquals( 1, counted.size() );
+    assertEquals( 2L, counted.get( 0 )[2] );
+    assertEquals( null, counted.get( 0 )[3] );
+  }
+
+  @Test
+  public void testManyGroups() {
+    MaxMindAggregator aggregator = new MaxMindAggregator();
+    for ( int round = 0; round < 3; round++ ) {
+      for ( int i = 0; i < 1000; i++ ) {
+        // new but equal objects every round, the way input fields come in
+        aggregator.add( new Object[] { new String( "host" + i ), Long.valueOf( i % 7 ) }, 1.0 );
+      }
+    }
+    assertEquals( 1000, aggregator.size() );
+
+    List<Object[]> counted = aggregator.drain();
+    assertArrayEquals( new Object[] { "host0", 0L, 3L, 3.0 }, counted.get( 0 ) );
+    assertArrayEquals( new Object[] { "host999", 5L, 3L, 3.0 }, counted.get( 999 ) );
+
+    aggregator.add( new Object[] { "host1", 1L }, null );
+    assertArrayEquals( new Object[] { "host1", 1L, 1L, null }, aggregator.drain().get( 0 ) );
+  }
+}
@@ -0,0 +1,68 @@
+package com.maxmind.geoip;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MaxMindCacheAdmissionTest {
+
+  @Test
+  public void testFrequency() {
+    MaxMindCacheAdmission admission = new MaxMindCacheAdmission( 1024 );
+    long hot = MaxMindCacheAdmission.hash( 0L, 1L );
+    long cold = MaxMindCacheAdmission.hash( 0L, 2L );
+    for ( int i = 0; i < 5; i++ ) {
+      admission.record( hot, false );
+    }
+    admission.record( cold, false );
+    assertEquals( 5, admission.frequency( hot ) );
+    assertEquals( 1, admission.frequency( cold ) );
+    assertTrue( admission.admit( hot, cold ) );
+    assertFalse( admission.admit( cold, hot ) );
+    // ties keep the victim
+    assertFalse( admission.admit( cold, cold ) );
+
+    for ( int i = 0; i < 100; i++ ) {
+      admission.record( hot, true );
+    }
+    assertEquals( 15, admission.frequency( hot ) );
+  }
+
+  @Test
+  public void testAging() {
+    MaxMindCacheAdmission admission = new MaxMindCacheAdmission( 1024 );
+    long hot = MaxMindCacheAdmission.hash( 0L, 1L );
+    for ( int i = 0; i < 15; i++ ) {
+      admission.record( hot, true );
+    }
+    // ten lookups per entry halve the counters
+    for ( long key = 2; key < 20000; key++ ) {
+      admission.record( MaxMindCacheAdmission.hash( 0L, key ), true );
+    }
+    assertTrue( admission.frequency( hot ) < 15 );
+  }
+
+  @Test
+  public void testBypass() {
+    MaxMindCacheAdmission admission = new MaxMindCacheAdmission( 1024 );
+    long key = 0;
+    for ( int i = 0; i < 2 * MaxMindCacheAdmission.WINDOW; i++ ) {
+      admission.record( MaxMindCacheAdmission.hash( 0L, key++ ), false );
+    }
+    assertTrue( admission.isBypassing() );
+    int sampled = 0;
+    for ( int i = 0; i < 1600; i++ ) {
+      if ( !admission.isBypassed( MaxMindCacheAdmission.hash( 0L, i ) ) ) {
+        sampled++;
+      }
+    }
+    assertTrue( sampled > 50 && sampled < 150 );
+
+    for ( int i = 0; i < MaxMindCacheAdmission.SAMPLE_WINDOW; i++ ) {
+      admission.record( 0L, i % 2 == 0 );
+    }
+    assertFalse( admission.isBypassing() );
+  }
+}
@@ -1,10 +1,15 @@
 package com.maxmind.geoip;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
@@ -15,9 +20,11 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.pentaho.di.core.exception.KettlePluginException;
 import org.pentaho.di.core.plugins.PluginRegistry;
+import org.pentaho.di.core.row.RowMeta;
 import org.pentaho.di.core.row.ValueMetaInterface;
 import org.pentaho.di.core.row.value.ValueMetaPluginType;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ImmutableMap;
 import com.maxmind.geoip.MaxMindCityData.CityFields;
 import com.maxmind.geoip.MaxMindCountryData.CountryFields;
@@ -25,6 +32,7 @@ import com.maxmind.geoip.MaxMindDomainData.DomainFields;
 import com.maxmind.geoip.MaxMindIspData.IspFields;
 import com.maxmind.geoip.MaxMindOrgData.OrgFields;
 import com.maxmind.geoip2.DatabaseReader;
+import com.maxmind.geoip2.exception.AddressNotFoundException;
 import com.maxmind.geoip2.exception.GeoIp2Exception;
 import com.maxmind.geoip2.model.CityResponse;
 import com.maxmind.geoip2.model.CountryResponse;
@@ -56,7 +64,7 @@ public class MaxMindDatabaseTest {
     assertEquals( -1, CountryFields.country_name.getValueMetadata().getPrecision() );
 
     // CityFields Enum
-    assertEquals( 8, CityFields.values().length );
+    assertEquals( 11, CityFields.values().length );
     assertEquals( ValueMetaInterface.TYPE_STRING, CityFields.city_name.getValueMetadata().getType() );
     assertEquals( 255, CityFields.city_name.getValueMetadata().getLength() );
     assertEquals( -1, CityFields.city_name.getValueMetadata().getPrecision() );
@@ -81,6 +89,9 @@ public class MaxMindDatabaseTest {
     assertEquals( ValueMetaInterface.TYPE_STRING, CityFields.timezone.getValueMetadata().getType() );
     assertEquals( 255, CityFields.timezone.getValueMetadata().getLength() );
     assertEquals( -1, CityFields.timezone.getValueMetadata().getPrecision() );
+    assertEquals( ValueMetaInterface.TYPE_STRING, CityFields.geohash.getValueMetadata().getType() );
+    assertEquals( ValueMetaInterface.TYPE_NUMBER, CityFields.reference_distance.getValueMetadata().getType() );
+    assertEquals( ValueMetaInterface.TYPE_STRING, CityFields.nearest_reference.getValueMetadata().getType() );
 
     // DomainFields Enum
     assertEquals( 1, DomainFields.values().length );
@@ -195,6 +206,33 @@ public class MaxMindDatabaseTest {
     assertEquals( DELTA, (double) 45.123, (double) rowData[12] );
   }
 
+  @Test
+  public void testCityComputedData() throws IOException, GeoIp2Exception {
+    MaxMindCityData data = spy( new MaxMindCityData() );
+    DatabaseReader service = mock( DatabaseReader.class );
+    CityResponse cityResponse = mock( CityResponse.class );
+    Location location = new Location( null, null, 40.7128, -74.0060, null, null, "America/New_York" );
+    data.lookupService = service;
+    when( service.city( any(InetAddress.class) ) ).thenReturn( cityResponse );
+    when( cityResponse.getLocation() ).thenReturn( location );
+
+    data.setComputedFieldOptions( "JFK=40.6413,-73.7781; FRA=50.1109,8.6821", 5 );
+    data.setSelectedFields( new String[] {
+      CityFields.geohash.name(), CityFields.nearest_reference.name(), CityFields.reference_distance.name() } );
+    Object[] rowData = new Object[3];
+    data.getRowData( rowData, 0, "1.1.1.1" );
+    assertEquals( "dr5re", rowData[0] );
+    assertEquals( "JFK", rowData[1] );
+    assertEquals( 20.6, (Double) rowData[2], 0.5 );
+
+    // no reference points, no distance
+    data.setComputedFieldOptions( null, 5 );
+    data.getRowData( rowData, 0, "1.1.1.1" );
+    assertEquals( "dr5re", rowData[0] );
+    assertNull( rowData[1] );
+    assertNull( rowData[2] );
+  }
+
   @Test
   public void testDomainData() throws IOException, GeoIp2Exception {
     MaxMindDomainData data = spy( new MaxMindDomainData() );
@@ -260,4 +298,161 @@ public class MaxMindDatabaseTest {
     data.getRowData( rowData, 2, "1.1.1.1" );
     assertEquals( "ACME Corporation", rowData[2] );
   }
+
+  @Test
+  public void testBulkRowData() throws IOException, GeoIp2Exception {
+    MaxMindDomainData data = spy( new MaxMindDomainData() );
+    DatabaseReader service = mock( DatabaseReader.class );
+    data.lookupService = service;
+    when( service.domain( InetAddress.getByName( "1.1.1.1" ) ) ).thenReturn( new DomainResponse( "one.com", null ) );
+    when( service.domain( InetAddress.getByName( "2.2.2.2" ) ) ).thenReturn( new DomainResponse( "two.com", null ) );
+    data.setSelectedFields( new String[] { DomainFields.domain_name.name() } );
+
+    Object[][] rows = new Object[][] { new Object[3], new Object[3], new Object[3], new Object[3] };
+    data.getRowData( rows, 2, new String[] { "2.2.2.2", "1.1.1.1", "2.2.2.2", "::ffff:1.1.1.1" } );
+    assertEquals( "two.com", rows[0][2] );
+    assertEquals( "one.com", rows[1][2] );
+    assertEquals( "two.com", rows[2][2] );
+    assertEquals( "one.com", rows[3][2] );
+
+    // every distinct address is only resolved once
+    verify( service, times( 1 ) ).domain( InetAddress.getByName( "1.1.1.1" ) );
+    verify( service, times( 1 ) ).domain( InetAddress.getByName( "2.2.2.2" ) );
+  }
+
+  @Test
+  public void testValuesAreShared() throws IOException, GeoIp2Exception {
+    MaxMindDomainData data = spy( new MaxMindDomainData() );
+    DatabaseReader service = mock( DatabaseReader.class );
+    data.lookupService = service;
+    when( service.domain( InetAddress.getByName( "1.1.1.1" ) ) ).thenReturn( new DomainResponse( new String( "same.com" ), null ) );
+    when( service.domain( InetAddress.getByName( "2.2.2.2" ) ) ).thenReturn( new DomainResponse( new String( "same.com" ), null ) );
+    data.setSelectedFields( new String[] { DomainFields.domain_name.name() } );
+
+    Object[] first = new Object[1];
+    Object[] second = new Object[1];
+    data.getRowData( first, 0, "1.1.1.1" );
+    data.getRowData( second, 0, "2.2.2.2" );
+    assertSame( first[0], second[0] );
+  }
+
+  @Test
+  public void testTypedDefaults() throws IOException, GeoIp2Exception {
+    MaxMindCityData data = spy( new MaxMindCityData() );
+    DatabaseReader service = mock( DatabaseReader.class );
+    data.lookupService = service;
+    when( service.city( any( InetAddress.class ) ) ).thenThrow( new AddressNotFoundException( "not found" ) );
+    data.setSelectedFields( new String[] { CityFields.country_code.name(), CityFields.latitude.name(), CityFields.longitude.name() },
+        new String[] { null, null, null }, new String[] { "--", "12.5", "" } );
+
+    Object[] rowData = new Object[4];
+    data.getRowData( rowData, 1, "1.1.1.1" );
+    assertEquals( "--", rowData[1] );
+    assertEquals( Double.valueOf( 12.5 ), rowData[2] );
+    assertNull( rowData[3] );
+  }
+
+  @Test
+  public void testMissWithoutResponse() throws IOException, GeoIp2Exception {
+    MaxMindIspData data = spy( new MaxMindIspData() );
+    DatabaseReader service = mock( DatabaseReader.class );
+    data.lookupService = service;
+    when( service.isp( any( InetAddress.class ) ) ).thenThrow( new AddressNotFoundException( "not found" ) );
+    data.setSelectedFields( new String[] { IspFields.isp_name.name() }, new String[] { null }, new String[] { "unknown" } );
+
+    Object[] rowData = new Object[1];
+    data.getRowData( rowData, 0, "1.1.1.1" );
+    assertEquals( "unknown", rowData[0] );
+  }
+
+  @Test
+  public void testBinaryStringOutput() throws Exception {
+    MaxMindIspData data = spy( new MaxMindIspData() );
+    DatabaseReader service = mock( DatabaseReader.class );
+    data.lookupService = service;
+    when( service.isp( InetAddress.getByName( "1.1.1.1" ) ) ).thenReturn( new IspResponse( null, null, null, "Z\u00fcrich Net", null ) );
+    when( service.isp( InetAddress.getByName( "2.2.2.2" ) ) ).thenReturn( new IspResponse( null, null, null, new String( "Z\u00fcrich Net" ), null ) );
+    data.setBinaryStringOutput( true );
+    data.setSelectedFields( new String[] { IspFields.isp_name.name() }, new String[] { null }, new String[] { null } );
+
+    RowMeta rowMeta = new RowMeta();
+    data.getFields( rowMeta, "origin" );
+    ValueMetaInterface valueMeta = rowMeta.getValueMeta( 0 );
+    assertEquals( ValueMetaInterface.STORAGE_TYPE_BINARY_STRING, valueMeta.getStorageType() );
+    assertEquals( ValueMetaInterface.STORAGE_TYPE_NORMAL, IspFields.isp_name.getValueMetadata().getStorageType() );
+
+    Object[] first = new Object[1];
+    Object[] second = new Object[1];
+    data.getRowData( first, 0, "1.1.1.1" );
+    data.getRowData( second, 0, "2.2.2.2" );
+    assertSame( first[0], second[0] );
+    assertEquals( "Z\u00fcrich Net", valueMeta.getString( first[0] ) );
+  }
+
+  @Test
+  public void testBinaryRecordData() throws Exception {
+    MaxMindCountryData data = new MaxMindCountryData();
+    data.setBinaryStringOutput( true );
+    data.setSelectedFields( new String[] { CountryFields.country_code.name(), CountryFields.country_name.name() },
+        new String[] { null, null }, new String[] { "--", null } );
+    MaxMindFieldPath[] paths = data.getOutputFieldPaths();
+
+    // the text default of a network without the field is encoded like the looked up values
+    Object[] record = data.getRecordData( paths, new ObjectMapper().readTree( "{\"country\":{\"names\":{\"en\":\"Z\u00fcrich\"}}}" ) );
+    assertArrayEquals( "--".getBytes( MaxMindValuePool.ENCODING ), (byte[]) record[0] );
+    assertArrayEquals( "Z\u00fcrich".getBytes( MaxMindValuePool.ENCODING ), (byte[]) record[1] );
+
+    record = data.getRecordData( paths, null );
+    assertArrayEquals( "--".getBytes( MaxMindValuePool.ENCODING ), (byte[]) record[0] );
+    assertNull( record[1] );
+  }
+
+  @Test
+  public void testPrefixedFields() {
+    MaxMindCountryData data = new MaxMindCountryData();
+    data.setSelectedFields( new String[] { CountryFields.country_code.name(), CountryFields.country_name.name() },
+        new String[] { "cc", null }, new String[] { null, null } );
+
+    RowMeta rowMeta = new RowMeta();
+    data.getFields( rowMeta, "origin" );
+    data.getFields( rowMeta, "origin", "dst_" );
+    assertEquals( 4, rowMeta.size() );
+    assertEquals( "cc", rowMeta.getValueMeta( 0 ).getName() );
+    assertEquals( "country_name", rowMeta.getValueMeta( 1 ).getName() );
+    assertEquals( "dst_cc", rowMeta.getValueMeta( 2 ).getName() );
+    assertEquals( "dst_country_name", rowMeta.getValueMeta( 3 ).getName() );
+  }
+
+  @Test
+  public void testFieldPathSelection() {
+    MaxMindCityData data = new MaxMindCityData();
+    data.setSelectedFields( new String[] { CityFields.country_code.name(), "location.accuracy_radius" },
+        new String[] { null, "radius" }, new String[] { null, "-1" } );
+
+    assertEquals( 2, data.getOutputFields().length );
+    assertEquals( ValueMetaInterface.TYPE_STRING, data.getOutputFields()[0].getValueMetadata().getType() );
+    assertEquals( ValueMetaInterface.TYPE_INTEGER, data.getOutputFields()[1].getValueMetadata().getType() );
+    assertEquals( Long.valueOf( -1 ), data.getDefaultRecord()[1] );
+
+    RowMeta rowMeta = new RowMeta();
+    data.getFields( rowMeta, "origin" );
+    assertEquals( "country_code", rowMeta.getValueMeta( 0 ).getName() );
+    assertEquals( "radius", rowMeta.getValueMeta( 1 ).getName() );
+
+    // only predefined fields keep the typed lookups
+    data.setSelectedFields( new String[] { CityFields.country_code.name() }, new String[] { null }, new String[] { null } );
+    assertSame( data.getSelectedFields(), data.getOutputFields() );
+  }
+
+  @Test( expected = IllegalArgumentException.class )
+  public void testUnknownFieldName() {
+    // a stale or misspelled name is not taken for a path
+    new MaxMindCityData().setSelectedFields( new String[] { "country_cod" }, new String[] { null }, new String[] { null } );
+  }
+
+  @Test( expected = IllegalArgumentException.class )
+  public void testInvalidDefault() {
+    new MaxMindCityData().setSelectedFields( new String[] { CityFields.latitude.name() }, new String[] { null },
+        new String[] { "north" } );
+  }
 }
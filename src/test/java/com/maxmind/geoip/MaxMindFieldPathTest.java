@@ -0,0 +1,95 @@
+package com.maxmind.geoip;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.plugins.PluginRegistry;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaPluginType;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.maxmind.geoip.MaxMindCityData.CityFields;
+
+public class MaxMindFieldPathTest {
+
+  private static JsonNode record;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    PluginRegistry.addPluginType( ValueMetaPluginType.getInstance() );
+    PluginRegistry.init();
+    record = new ObjectMapper().readTree( "{"
+      + "\"city\":{\"names\":{\"en\":\"Munich\",\"de\":\"M\\u00fcnchen\"}},"
+      + "\"location\":{\"accuracy_radius\":20,\"latitude\":48.1,\"time_zone\":\"Europe/Berlin\"},"
+      + "\"subdivisions\":[{\"iso_code\":\"BY\"},{\"iso_code\":\"09\"}],"
+      + "\"traits\":{\"is_anonymous_proxy\":true}}" );
+  }
+
+  @Test
+  public void testValues() {
+    assertEquals( "M\u00fcnchen", new MaxMindFieldPath( "city.names.de" ).getVal( record ) );
+    assertEquals( Long.valueOf( 20 ), new MaxMindFieldPath( "location.accuracy_radius" ).getVal( record ) );
+    assertEquals( Double.valueOf( 48.1 ), new MaxMindFieldPath( "location.latitude" ).getVal( record ) );
+    assertEquals( Boolean.TRUE, new MaxMindFieldPath( "traits.is_anonymous_proxy" ).getVal( record ) );
+    assertEquals( "BY", new MaxMindFieldPath( "subdivisions[0].iso_code" ).getVal( record ) );
+    assertEquals( "09", new MaxMindFieldPath( "subdivisions[-1].iso_code" ).getVal( record ) );
+    assertNull( new MaxMindFieldPath( "subdivisions[2].iso_code" ).getVal( record ) );
+    assertNull( new MaxMindFieldPath( "postal.code" ).getVal( record ) );
+    assertTrue( ( (String) new MaxMindFieldPath( "subdivisions" ).getVal( record ) ).startsWith( "[{" ) );
+  }
+
+  @Test
+  public void testMetadata() {
+    MaxMindFieldPath path = new MaxMindFieldPath( "subdivisions[0].names.de" );
+    assertEquals( "subdivisions_0_names_de", path.toString() );
+    assertEquals( ValueMetaInterface.TYPE_STRING, path.getValueMetadata().getType() );
+    assertEquals( ValueMetaInterface.TYPE_INTEGER, new MaxMindFieldPath( "location.metro_code" ).getValueMetadata().getType() );
+    assertEquals( ValueMetaInterface.TYPE_BOOLEAN, new MaxMindFieldPath( "traits.is_satellite_provider" ).getValueMetadata().getType() );
+
+    // every predefined field can be read through its path
+    for ( CityFields field : CityFields.values() ) {
+      new MaxMindFieldPath( field.getPath(), field.name(), field.getValueMetadata() );
+    }
+  }
+
+  @Test
+  public void testProjectedValues() {
+    // a backend projects the record, the path turns the projected values into the same values as from the record
+    String[] paths = { "city.names.de", "location.accuracy_radius", "location.latitude", "traits.is_anonymous_proxy",
+      "subdivisions[-1]", "postal.code" };
+    Object[][] steps = new Object[paths.length][];
+    for ( int i = 0; i < paths.length; i++ ) {
+      steps[i] = MaxMindFieldPath.compile( paths[i] );
+    }
+    Object[] values = MaxMindFieldPath.project( record, steps );
+    assertEquals( Long.valueOf( 20 ), values[1] );
+    assertEquals( "{\"iso_code\":\"09\"}", values[4] );
+    for ( int i = 0; i < paths.length; i++ ) {
+      MaxMindFieldPath path = new MaxMindFieldPath( paths[i] );
+      assertEquals( path.getVal( record ), path.getVal( values, i ) );
+    }
+  }
+
+  @Test
+  public void testIsFieldPath() {
+    assertTrue( MaxMindFieldPath.isFieldPath( "location.accuracy_radius" ) );
+    assertTrue( MaxMindFieldPath.isFieldPath( "subdivisions[0]" ) );
+    assertFalse( MaxMindFieldPath.isFieldPath( "country_code" ) );
+    assertFalse( MaxMindFieldPath.isFieldPath( null ) );
+  }
+
+  @Test( expected = IllegalArgumentException.class )
+  public void testInvalidPath() {
+    new MaxMindFieldPath( "city..names" );
+  }
+
+  @Test( expected = IllegalArgumentException.class )
+  public void testInvalidIndex() {
+    new MaxMindFieldPath( "subdivisions[first]" );
+  }
+}
@@ -0,0 +1,54 @@
+package com.maxmind.geoip;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class MaxMindGeoComputerTest {
+
+  @Test
+  public void testGeohash() {
+    assertEquals( "u4pruydqqvj", MaxMindGeoComputer.geohash( 57.64911, 10.40744, 11 ) );
+    assertEquals( "dr5re", MaxMindGeoComputer.geohash( 40.7128, -74.0060, 5 ) );
+    assertEquals( "s", MaxMindGeoComputer.geohash( 0, 0, 1 ) );
+  }
+
+  @Test
+  public void testDistance() {
+    // Paris to London
+    assertEquals( 343.5, MaxMindGeoComputer.distance( 48.8566, 2.3522, 51.5074, -0.1278 ), 1.0 );
+    assertEquals( 0.0, MaxMindGeoComputer.distance( 10, 20, 10, 20 ), 0.0 );
+    // antipodes, half the circumference
+    assertEquals( Math.PI * 6371.0088, MaxMindGeoComputer.distance( 0, 0, 0, 180 ), 0.001 );
+  }
+
+  @Test
+  public void testNearestReference() {
+    MaxMindGeoComputer computer = new MaxMindGeoComputer( "LHR=51.47,-0.4543;\nFRA = 50.1109, 8.6821", 7 );
+    assertEquals( "FRA", computer.getVal( MaxMindGeoComputer.NEAREST_REFERENCE, 48.1351, 11.5820 ) );
+    assertEquals( "LHR", computer.getVal( MaxMindGeoComputer.NEAREST_REFERENCE, 53.4808, -2.2426 ) );
+    assertEquals( 304.0, (Double) computer.getVal( MaxMindGeoComputer.REFERENCE_DISTANCE, 48.1351, 11.5820 ), 5.0 );
+    assertEquals( 7, ( (String) computer.getVal( MaxMindGeoComputer.GEOHASH, 48.1351, 11.5820 ) ).length() );
+    assertNull( computer.getVal( MaxMindGeoComputer.GEOHASH, null, 11.5820 ) );
+  }
+
+  @Test
+  public void testComputedOncePerLocation() {
+    MaxMindGeoComputer computer = new MaxMindGeoComputer( "", 9 );
+    Object first = computer.getVal( MaxMindGeoComputer.GEOHASH, 1.5, 2.5 );
+    assertSame( first, computer.getVal( MaxMindGeoComputer.GEOHASH, 1.5, 2.5 ) );
+    assertNull( computer.getVal( MaxMindGeoComputer.NEAREST_REFERENCE, 1.5, 2.5 ) );
+  }
+
+  @Test( expected = IllegalArgumentException.class )
+  public void testInvalidReferencePoint() {
+    new MaxMindGeoComputer( "FRA=50.1109", 7 );
+  }
+
+  @Test( expected = IllegalArgumentException.class )
+  public void testInvalidPrecision() {
+    new MaxMindGeoComputer( null, 13 );
+  }
+}
@@ -1,6 +1,7 @@
 package com.maxmind.geoip;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Arrays;
@@ -12,6 +13,8 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 import org.pentaho.di.core.KettleEnvironment;
 import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.step.errorhandling.StreamInterface;
 import org.pentaho.di.trans.steps.loadsave.LoadSaveTester;
 import org.pentaho.di.trans.steps.loadsave.validator.ArrayLoadSaveValidator;
 import org.pentaho.di.trans.steps.loadsave.validator.FieldLoadSaveValidator;
@@ -27,16 +30,33 @@ public class MaxMindGeoIPLookupMetaTest {
   @Test
   public void testRoundTrip() throws KettleException {
     List<String> attributes =
-      Arrays.asList( "IpAddressFieldName", "DbLocation", "DbType", "FieldName", "FieldLookupType", "FieldIfNull" );
+      Arrays.asList( "IpAddressFieldName", "IpExtraction", "DbLocation", "DbType", "FieldName", "FieldLookupType", "FieldIfNull",
+        "ResultCacheSize", "PersistentCacheFile", "PersistentCacheSize", "WarmupPreload", "WarmupIpFile",
+        "WarmupSnapshotFile", "BinaryStringOutput", "AdditionalIpFieldName", "AdditionalIpFieldPrefix", "Aggregate",
+        "AggregateGroupField", "AggregateTimeField", "AggregateWindow", "AggregateSumField", "AggregateCountField",
+        "FilterCondition", "FilterTrueStepName", "FilterFalseStepName", "FilterFlagField", "FilterSetFile",
+        "ReferencePoints", "GeohashPrecision", "LocalTimeInputField", "LocalTimeField", "UtcOffsetField",
+        "HistoryDirectory", "HistoryTimeField", "HistoryMaxOpen", "LookupServer", "LookupBackend",
+        "AdaptiveCaching" );
+
+    HashMap<String, String> getterMap = new HashMap<String, String>();
+    getterMap.put( "WarmupPreload", "isWarmupPreload" );
+    getterMap.put( "AdaptiveCaching", "isAdaptiveCaching" );
+    getterMap.put( "BinaryStringOutput", "isBinaryStringOutput" );
+    getterMap.put( "Aggregate", "isAggregate" );
 
     HashMap<String, FieldLoadSaveValidator<?>> fieldValidators = new HashMap<String,FieldLoadSaveValidator<?>>();
     int records = new Random().nextInt( 9 ) + 1;
     fieldValidators.put( "FieldName", new ArrayLoadSaveValidator<String>( new StringLoadSaveValidator(), records ) );
     fieldValidators.put( "FieldLookupType", new ArrayLoadSaveValidator<String>( new StringLoadSaveValidator(), records ) );
     fieldValidators.put( "FieldIfNull", new ArrayLoadSaveValidator<String>( new StringLoadSaveValidator(), records ) );
+    int ipFields = new Random().nextInt( 3 ) + 1;
+    fieldValidators.put( "AdditionalIpFieldName", new ArrayLoadSaveValidator<String>( new StringLoadSaveValidator(), ipFields ) );
+    fieldValidators.put( "AdditionalIpFieldPrefix", new ArrayLoadSaveValidator<String>( new StringLoadSaveValidator(), ipFields ) );
+    fieldValidators.put( "AggregateGroupField", new ArrayLoadSaveValidator<String>( new StringLoadSaveValidator(), new Random().nextInt( 3 ) + 1 ) );
     LoadSaveTester loadSaveTester =
       new LoadSaveTester( MaxMindGeoIPLookupMeta.class, attributes,
-        new HashMap<String, String>(), new HashMap<String, String>(), fieldValidators,
+        getterMap, new HashMap<String, String>(), fieldValidators,
         new HashMap<String,FieldLoadSaveValidator<?>>() );
 
     loadSaveTester.testRepoRoundTrip();
@@ -48,11 +68,68 @@ public class MaxMindGeoIPLookupMetaTest {
 	  MaxMindGeoIPLookupMeta meta = new MaxMindGeoIPLookupMeta();
 	  meta.setDefault();
 	  assertEquals( "", meta.getIpAddressFieldName() );
+	  assertEquals( "none", meta.getIpExtraction() );
 	  assertEquals( "", meta.getDbLocation() );
 	  assertEquals( "", meta.getDbType() );
+	  assertEquals( "", meta.getResultCacheSize() );
+	  assertTrue( meta.isAdaptiveCaching() );
+	  assertEquals( "", meta.getPersistentCacheFile() );
+	  assertEquals( "256", meta.getPersistentCacheSize() );
+	  assertFalse( meta.isWarmupPreload() );
+	  assertEquals( "", meta.getWarmupIpFile() );
+	  assertEquals( "", meta.getWarmupSnapshotFile() );
+	  assertFalse( meta.isBinaryStringOutput() );
 	  assertEquals( 0, meta.getFieldName().length );
 	  assertEquals( 0, meta.getFieldLookupType().length );
 	  assertEquals( 0, meta.getFieldIfNull().length );
+	  assertEquals( 0, meta.getAdditionalIpFieldName().length );
+	  assertEquals( 0, meta.getAdditionalIpFieldPrefix().length );
+	  assertFalse( meta.isAggregate() );
+	  assertEquals( 0, meta.getAggregateGroupField().length );
+	  assertEquals( "", meta.getAggregateTimeField() );
+	  assertEquals( "3600", meta.getAggregateWindow() );
+	  assertEquals( "", meta.getAggregateSumField() );
+	  assertEquals( "count", meta.getAggregateCountField() );
+	  assertEquals( "", meta.getFilterCondition() );
+	  assertEquals( "", meta.getFilterTrueStepName() );
+	  assertEquals( "", meta.getFilterFalseStepName() );
+	  assertEquals( "", meta.getFilterFlagField() );
+	  assertEquals( "", meta.getFilterSetFile() );
+	  assertEquals( "", meta.getReferencePoints() );
+	  assertEquals( "7", meta.getGeohashPrecision() );
+	  assertEquals( "", meta.getLocalTimeInputField() );
+	  assertEquals( "local_time", meta.getLocalTimeField() );
+	  assertEquals( "utc_offset", meta.getUtcOffsetField() );
+	  assertEquals( "", meta.getHistoryDirectory() );
+	  assertEquals( "", meta.getHistoryTimeField() );
+	  assertEquals( "4", meta.getHistoryMaxOpen() );
+	  assertEquals( "", meta.getLookupServer() );
+	  assertEquals( "DatabaseReader", meta.getLookupBackend() );
+  }
+
+  @Test
+  public void testTargetStreams() {
+    MaxMindGeoIPLookupMeta meta = new MaxMindGeoIPLookupMeta();
+    meta.setDefault();
+    meta.setFilterTrueStepName( "matching" );
+    meta.setFilterFalseStepName( "other" );
+    List<StreamInterface> targets = meta.getStepIOMeta().getTargetStreams();
+    assertEquals( 2, targets.size() );
+    assertEquals( "matching", targets.get( 0 ).getSubject() );
+    assertEquals( "other", targets.get( 1 ).getSubject() );
+
+    // the names follow the steps once they are found
+    StepMeta matching = new StepMeta( "matching", null );
+    StepMeta other = new StepMeta( "other", null );
+    meta.searchInfoAndTargetSteps( Arrays.asList( matching, other ) );
+    assertEquals( matching, targets.get( 0 ).getStepMeta() );
+    other.setName( "renamed" );
+    assertEquals( "renamed", meta.getFilterFalseStepName() );
+
+    MaxMindGeoIPLookupMeta copy = (MaxMindGeoIPLookupMeta) meta.clone();
+    assertEquals( "renamed", copy.getStepIOMeta().getTargetStreams().get( 1 ).getSubject() );
+    copy.setFilterTrueStepName( "" );
+    assertEquals( "matching", meta.getFilterTrueStepName() );
   }
 
   @Test
@@ -0,0 +1,79 @@
+package com.maxmind.geoip;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MaxMindHistoryTest {
+
+  private static final long DAY = 86400000L;
+  private static final long MARCH_1 = 1456790400000L; // 2016-03-01T00:00:00Z
+
+  private static File directory( String... names ) throws IOException {
+    File dir = File.createTempFile( "maxmind-history", "" );
+    dir.delete();
+    dir.mkdir();
+    dir.deleteOnExit();
+    for ( String name : names ) {
+      File file = new File( dir, name );
+      file.createNewFile();
+      file.deleteOnExit();
+    }
+    return dir;
+  }
+
+  @Test
+  public void testParseDate() {
+    assertEquals( MARCH_1, MaxMindHistory.parseDate( "GeoIP2-City_20160301.mmdb" ) );
+    assertEquals( MARCH_1, MaxMindHistory.parseDate( "city-2016-03-01.mmdb" ) );
+    assertEquals( -1, MaxMindHistory.parseDate( "GeoIP2-City.mmdb" ) );
+  }
+
+  @Test
+  public void testVersionAt() throws IOException {
+    MaxMindHistory<File> history = new MaxMindHistory<File>(
+      directory( "City_20160315.mmdb", "City_20160301.mmdb", "City.mmdb", "City_20160308.txt" ), 2, null );
+    assertEquals( 2, history.size() );
+    assertEquals( "City_20160301.mmdb", history.getFile( 0 ).getName() );
+    assertEquals( 0, history.versionAt( MARCH_1 - DAY ) );
+    assertEquals( 0, history.versionAt( MARCH_1 ) );
+    assertEquals( 0, history.versionAt( MARCH_1 + 14 * DAY - 1 ) );
+    assertEquals( 1, history.versionAt( MARCH_1 + 14 * DAY ) );
+    assertEquals( 1, history.versionAt( MARCH_1 + 100 * DAY ) );
+  }
+
+  @Test
+  public void testLeastRecentlyUsed() throws Exception {
+    final List<String> opened = Collections.synchronizedList( new ArrayList<String>() );
+    MaxMindHistory<File> history = new MaxMindHistory<File>(
+      directory( "a_20160101.mmdb", "b_20160201.mmdb", "c_20160301.mmdb", "d_20160401.mmdb" ), 2,
+      new MaxMindHistory.Opener<File>() {
+        public File open( File file ) {
+          opened.add( file.getName() );
+          return file;
+        }
+      } );
+    File a = history.get( 0 );
+    assertEquals( "a_20160101.mmdb", a.getName() );
+    assertArrayEquals( new int[] { 1, 0 }, history.getOpenVersions() );
+    assertSame( a, history.get( 0 ) );
+    history.get( 2 );
+    assertArrayEquals( new int[] { 3, 2 }, history.getOpenVersions() );
+    history.get( 1 );
+    history.close();
+    assertEquals( 5, opened.size() ); // a, b, c, d and b again
+  }
+
+  @Test( expected = IOException.class )
+  public void testNoVersions() throws IOException {
+    new MaxMindHistory<File>( directory( "City.mmdb" ), 2, null );
+  }
+}
@@ -0,0 +1,113 @@
+package com.maxmind.geoip;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class MaxMindIntervalSetTest {
+
+  private static boolean contains( MaxMindIntervalSet set, int a, int b, int c, int d ) {
+    byte[] address = new byte[] { (byte) a, (byte) b, (byte) c, (byte) d };
+    return set.contains( MaxMindIpParser.keyHi( address ), MaxMindIpParser.keyLo( address ) );
+  }
+
+  @Test
+  public void testContains() {
+    MaxMindIntervalSet set = new MaxMindIntervalSet.Builder()
+      .add( new byte[] { 10, 0, 0, 0 }, 8 )
+      .add( new byte[] { (byte) 192, (byte) 168, 1, 0 }, 24 )
+      .build();
+    assertEquals( 2, set.size() );
+    assertTrue( contains( set, 10, 0, 0, 0 ) );
+    assertTrue( contains( set, 10, 255, 255, 255 ) );
+    assertTrue( contains( set, 192, 168, 1, 77 ) );
+    assertFalse( contains( set, 9, 255, 255, 255 ) );
+    assertFalse( contains( set, 11, 0, 0, 0 ) );
+    assertFalse( contains( set, 192, 168, 2, 0 ) );
+    assertFalse( contains( set, 0, 0, 0, 0 ) );
+  }
+
+  @Test
+  public void testMerge() {
+    // out of order, adjacent and overlapping networks end up as one range
+    MaxMindIntervalSet set = new MaxMindIntervalSet.Builder()
+      .add( new byte[] { 64, 0, 0, 0 }, 3 )
+      .add( new byte[] { (byte) 128, 0, 0, 0 }, 1 )
+      .add( new byte[] { 96, 0, 0, 0 }, 3 )
+      .add( new byte[] { (byte) 200, 0, 0, 0 }, 8 )
+      .build();
+    assertEquals( 1, set.size() );
+    assertTrue( contains( set, 64, 0, 0, 0 ) );
+    assertTrue( contains( set, 255, 255, 255, 255 ) );
+    assertFalse( contains( set, 63, 255, 255, 255 ) );
+  }
+
+  @Test
+  public void testIpv6() {
+    byte[] network = new byte[16];
+    network[0] = 0x20;
+    network[1] = 0x01;
+    MaxMindIntervalSet set = new MaxMindIntervalSet.Builder().add( network, 16 ).build();
+    byte[] inside = network.clone();
+    inside[15] = 1;
+    byte[] outside = network.clone();
+    outside[1] = 0x02;
+    assertTrue( set.contains( MaxMindIpParser.keyHi( inside ), MaxMindIpParser.keyLo( inside ) ) );
+    assertFalse( set.contains( MaxMindIpParser.keyHi( outside ), MaxMindIpParser.keyLo( outside ) ) );
+    assertFalse( contains( set, 32, 1, 0, 0 ) );
+  }
+
+  @Test
+  public void testPartialBlocks() {
+    // 10.0.0.128/25 only covers half a /24, 10.1.0.0/16 and 10.4.0.0/15 whole /16 containers
+    MaxMindIntervalSet set = new MaxMindIntervalSet.Builder()
+      .add( new byte[] { 10, 0, 0, (byte) 128 }, 25 )
+      .add( new byte[] { 10, 0, 1, 0 }, 24 )
+      .add( new byte[] { 10, 1, 0, 0 }, 16 )
+      .add( new byte[] { 10, 4, 0, 0 }, 15 )
+      .add( new byte[] { 10, 7, 0, 0 }, 32 )
+      .build();
+    assertFalse( set.contains( 0x0A00007FL ) );
+    assertTrue( set.contains( 0x0A000080L ) );
+    assertTrue( set.contains( 0x0A0001FFL ) );
+    assertFalse( set.contains( 0x0A000200L ) );
+    assertTrue( set.contains( 0x0A01ABCDL ) );
+    assertFalse( set.contains( 0x0A020000L ) );
+    assertTrue( set.contains( 0x0A05FFFFL ) );
+    assertTrue( set.contains( 0x0A070000L ) );
+    assertFalse( set.contains( 0x0A070001L ) );
+    assertTrue( contains( set, 10, 0, 0, 255 ) );
+  }
+
+  @Test
+  public void testWriteRead() throws IOException {
+    byte[] ipv6 = new byte[16];
+    ipv6[0] = 0x20;
+    MaxMindIntervalSet set = new MaxMindIntervalSet.Builder()
+      .add( new byte[] { 10, 0, 0, (byte) 128 }, 25 )
+      .add( ipv6, 8 )
+      .build();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    set.write( new DataOutputStream( bytes ) );
+    MaxMindIntervalSet read = MaxMindIntervalSet.read( new DataInputStream( new ByteArrayInputStream( bytes.toByteArray() ) ) );
+    assertEquals( 2, read.size() );
+    assertTrue( read.contains( 0x0A0000FFL ) );
+    assertFalse( read.contains( 0x0A00007FL ) );
+    assertTrue( read.contains( MaxMindIpParser.keyHi( ipv6 ), MaxMindIpParser.keyLo( ipv6 ) ) );
+  }
+
+  @Test
+  public void testEmpty() {
+    MaxMindIntervalSet set = new MaxMindIntervalSet.Builder().build();
+    assertEquals( 0, set.size() );
+    assertFalse( contains( set, 1, 2, 3, 4 ) );
+  }
+}
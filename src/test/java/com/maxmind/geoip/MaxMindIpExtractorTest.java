@@ -0,0 +1,66 @@
+package com.maxmind.geoip;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.maxmind.geoip.MaxMindIpExtractor.Mode;
+
+public class MaxMindIpExtractorTest {
+
+  private static String extract( String value, Mode mode ) {
+    long range = MaxMindIpExtractor.find( value, mode );
+    return ( range < 0 ) ? null : value.substring( MaxMindIpExtractor.start( range ), MaxMindIpExtractor.end( range ) );
+  }
+
+  @Test
+  public void testLists() {
+    assertEquals( "203.0.113.7", extract( "203.0.113.7, 10.0.0.2", Mode.first ) );
+    assertEquals( "10.0.0.2", extract( "203.0.113.7, 10.0.0.2", Mode.last ) );
+    assertEquals( "198.51.100.1", extract( "10.0.0.1,192.168.1.1 , 198.51.100.1, 203.0.113.7", Mode.first_public ) );
+    assertEquals( "2001:db8::1", extract( "fd00::1, fe80::2, ::1, 2001:db8::1", Mode.first_public ) );
+    // without a public address the first one is used
+    assertEquals( "10.0.0.1", extract( "10.0.0.1, 172.16.0.1", Mode.first_public ) );
+    assertEquals( "1.2.3.4", extract( " , 1.2.3.4,", Mode.last ) );
+    assertEquals( -1L, MaxMindIpExtractor.find( " , ", Mode.first ) );
+  }
+
+  @Test
+  public void testPortsAndBrackets() {
+    assertEquals( "2001:db8::1", extract( "[2001:db8::1]:443", Mode.first ) );
+    assertEquals( "2001:db8::1", extract( "[2001:db8::1]", Mode.first ) );
+    assertEquals( "203.0.113.7", extract( "203.0.113.7:8080", Mode.first ) );
+    assertEquals( "2001:db8::1", extract( "2001:db8::1", Mode.first ) );
+    assertEquals( "203.0.113.7", extract( "\"203.0.113.7\"", Mode.first ) );
+  }
+
+  @Test
+  public void testBytes() {
+    byte[] bytes = "10.0.0.2, 203.0.113.7:80".getBytes( StandardCharsets.US_ASCII );
+    long range = MaxMindIpExtractor.find( new MaxMindIpExtractor.ByteSequence().wrap( bytes, 0, bytes.length ), Mode.first_public );
+    int start = MaxMindIpExtractor.start( range );
+    assertEquals( 0xCB007107L, MaxMindIpParser.parseIpv4( bytes, start, MaxMindIpExtractor.end( range ) - start ) );
+  }
+
+  @Test
+  public void testPublicIpv4() {
+    for ( String ip : new String[] { "10.1.2.3", "172.16.0.1", "172.31.255.255", "192.168.0.1", "127.0.0.1", "169.254.1.1",
+      "100.64.0.1", "0.1.2.3", "224.0.0.1", "255.255.255.255" } ) {
+      assertFalse( ip, MaxMindIpExtractor.isPublicIpv4( MaxMindIpParser.parseIpv4( ip ) ) );
+    }
+    for ( String ip : new String[] { "8.8.8.8", "172.32.0.1", "100.128.0.1", "203.0.113.7" } ) {
+      assertTrue( ip, MaxMindIpExtractor.isPublicIpv4( MaxMindIpParser.parseIpv4( ip ) ) );
+    }
+  }
+
+  @Test
+  public void testModeFromCode() {
+    assertEquals( Mode.first_public, Mode.fromCode( "first_public" ) );
+    assertEquals( Mode.none, Mode.fromCode( null ) );
+    assertEquals( Mode.none, Mode.fromCode( "bogus" ) );
+  }
+}
@@ -0,0 +1,67 @@
+package com.maxmind.geoip;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.google.common.net.InetAddresses;
+
+public class MaxMindIpParserTest {
+
+  @Test
+  public void testParseIpv4() {
+    assertEquals( 0x01020304L, MaxMindIpParser.parseIpv4( "1.2.3.4" ) );
+    assertEquals( 0xFFFFFFFFL, MaxMindIpParser.parseIpv4( "255.255.255.255" ) );
+    assertEquals( 0L, MaxMindIpParser.parseIpv4( "0.0.0.0" ) );
+    assertEquals( -1L, MaxMindIpParser.parseIpv4( "256.1.1.1" ) );
+    assertEquals( -1L, MaxMindIpParser.parseIpv4( "01.1.1.1" ) );
+    assertEquals( -1L, MaxMindIpParser.parseIpv4( "1.1.1" ) );
+    assertEquals( -1L, MaxMindIpParser.parseIpv4( "1.1.1.1.1" ) );
+    assertEquals( -1L, MaxMindIpParser.parseIpv4( "1..1.1" ) );
+    assertEquals( -1L, MaxMindIpParser.parseIpv4( "2001:db8::1" ) );
+    assertEquals( -1L, MaxMindIpParser.parseIpv4( null ) );
+  }
+
+  @Test
+  public void testParseIpv4Bytes() {
+    byte[] line = "x,203.0.113.7,y".getBytes( StandardCharsets.US_ASCII );
+    assertEquals( 0xCB007107L, MaxMindIpParser.parseIpv4( line, 2, 11 ) );
+    assertEquals( -1L, MaxMindIpParser.parseIpv4( line, 0, 13 ) );
+    for ( String ip : new String[] { "1.2.3.4", "255.255.255.255", "256.1.1.1", "01.1.1.1", "1.1.1", "1..1.1", " 1.1.1.1" } ) {
+      byte[] bytes = ip.getBytes( StandardCharsets.US_ASCII );
+      assertEquals( MaxMindIpParser.parseIpv4( ip ), MaxMindIpParser.parseIpv4( bytes, 0, bytes.length ) );
+    }
+    assertEquals( -1L, MaxMindIpParser.parseIpv4( (byte[]) null, 0, 0 ) );
+  }
+
+  @Test
+  public void testKeyRoundTrip() {
+    for ( String ip : new String[] { "1.2.3.4", "203.0.113.7", "2001:db8::1", "::1" } ) {
+      InetAddress address = InetAddresses.forString( ip );
+      byte[] bytes = address.getAddress();
+      assertEquals( address, MaxMindIpParser.toInetAddress( MaxMindIpParser.keyHi( bytes ), MaxMindIpParser.keyLo( bytes ) ) );
+    }
+    byte[] v4 = InetAddresses.forString( "203.0.113.7" ).getAddress();
+    assertEquals( MaxMindIpParser.keyLo( MaxMindIpParser.parseIpv4( "203.0.113.7" ) ), MaxMindIpParser.keyLo( v4 ) );
+    assertTrue( MaxMindIpParser.isIpv4( MaxMindIpParser.keyHi( v4 ), MaxMindIpParser.keyLo( v4 ) ) );
+  }
+
+  @Test
+  public void testSortByKey() {
+    String[] ips = { "10.0.0.2", "2001:db8::1", "10.0.0.1", "255.255.255.255", "10.0.0.2", "::1" };
+    long[] hi = new long[ips.length];
+    long[] lo = new long[ips.length];
+    for ( int i = 0; i < ips.length; i++ ) {
+      byte[] bytes = InetAddresses.forString( ips[i] ).getAddress();
+      hi[i] = MaxMindIpParser.keyHi( bytes );
+      lo[i] = MaxMindIpParser.keyLo( bytes );
+    }
+    // ::1 < IPv4 mapped < 2001:db8::, equal keys keep their order
+    assertArrayEquals( new int[] { 5, 2, 0, 4, 3, 1 }, MaxMindIpParser.sortByKey( hi, lo ) );
+  }
+}
@@ -0,0 +1,71 @@
+package com.maxmind.geoip;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.partition.PartitionSchema;
+import org.pentaho.di.trans.step.StepPartitioningMeta;
+
+public class MaxMindIpPrefixPartitionerTest {
+
+  @Test
+  public void testPrefix() {
+    MaxMindIpPrefixPartitioner partitioner = new MaxMindIpPrefixPartitioner();
+
+    assertEquals( partitioner.getPrefix( "203.0.113.7" ), partitioner.getPrefix( "203.0.113.250" ) );
+    assertEquals( partitioner.getPrefix( "203.0.113.7" ), partitioner.getPrefix( "::ffff:203.0.113.9" ) );
+    assertNotEquals( partitioner.getPrefix( "203.0.113.7" ), partitioner.getPrefix( "203.0.114.7" ) );
+
+    assertEquals( partitioner.getPrefix( "2001:db8:1::1" ), partitioner.getPrefix( "2001:db8:1:ffff::2" ) );
+    assertNotEquals( partitioner.getPrefix( "2001:db8:1::1" ), partitioner.getPrefix( "2001:db8:2::1" ) );
+
+    partitioner.setIpv4PrefixLength( 16 );
+    assertEquals( partitioner.getPrefix( "203.0.113.7" ), partitioner.getPrefix( "203.0.1.7" ) );
+  }
+
+  @Test
+  public void testPartition() throws Exception {
+    StepPartitioningMeta partitioningMeta = new StepPartitioningMeta();
+    partitioningMeta.setPartitionSchema( new PartitionSchema( "schema", Arrays.asList( "P1", "P2", "P3", "P4" ) ) );
+    MaxMindIpPrefixPartitioner partitioner = new MaxMindIpPrefixPartitioner();
+    partitioner.setMeta( partitioningMeta );
+    partitioner.setFieldName( "ip" );
+
+    RowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "ip" ) );
+
+    assertEquals( partitioner.getPartition( rowMeta, new Object[] { "198.51.100.1" } ),
+        partitioner.getPartition( rowMeta, new Object[] { "198.51.100.200" } ) );
+    assertEquals( 0, partitioner.getPartition( rowMeta, new Object[] { null } ) );
+
+    // neighbouring networks are spread over all partitions
+    Set<Integer> partitions = new HashSet<Integer>();
+    for ( int i = 0; i < 64; i++ ) {
+      int partition = partitioner.getPartition( rowMeta, new Object[] { "10.0." + i + ".1" } );
+      assertTrue( partition >= 0 && partition < 4 );
+      partitions.add( partition );
+    }
+    assertEquals( 4, partitions.size() );
+  }
+
+  @Test
+  public void testClone() {
+    MaxMindIpPrefixPartitioner partitioner = new MaxMindIpPrefixPartitioner();
+    partitioner.setFieldName( "ip" );
+    partitioner.setIpv4PrefixLength( 20 );
+    partitioner.setIpv6PrefixLength( 56 );
+
+    MaxMindIpPrefixPartitioner clone = partitioner.clone();
+    assertEquals( "ip", clone.getFieldName() );
+    assertEquals( 20, clone.getIpv4PrefixLength() );
+    assertEquals( 56, clone.getIpv6PrefixLength() );
+  }
+}
@@ -0,0 +1,105 @@
+package com.maxmind.geoip;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.OutputStream;
+
+import org.apache.commons.vfs2.FileObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.di.core.vfs.KettleVFS;
+
+import com.google.common.io.Files;
+
+public class MaxMindLocalDatabaseCacheTest {
+
+  private File cacheDir;
+  private FileObject remote;
+
+  @Before
+  public void setUp() throws Exception {
+    cacheDir = Files.createTempDir();
+    cacheDir.deleteOnExit();
+    remote = KettleVFS.getFileObject( "ram:///maxmind/GeoLite2-Test.mmdb" );
+    write( remote, "first version".getBytes( "UTF-8" ), 1000000L );
+  }
+
+  @Test
+  public void testReusesUnchangedCopy() throws Exception {
+    MaxMindLocalDatabaseCache cache = new MaxMindLocalDatabaseCache( cacheDir );
+
+    File local = cache.getLocalCopy( remote );
+    assertTrue( local.isFile() );
+    assertTrue( local.getName().endsWith( "GeoLite2-Test.mmdb" ) );
+    assertArrayEquals( "first version".getBytes( "UTF-8" ), Files.toByteArray( local ) );
+    assertEquals( 1, cache.getDownloads() );
+
+    assertEquals( local, cache.getLocalCopy( remote ) );
+    assertEquals( 1, cache.getDownloads() );
+
+    // another JVM (or a restart) finds the copy through the cache directory alone
+    MaxMindLocalDatabaseCache restarted = new MaxMindLocalDatabaseCache( cacheDir );
+    assertEquals( local, restarted.getLocalCopy( remote ) );
+    assertEquals( 0, restarted.getDownloads() );
+  }
+
+  @Test
+  public void testDownloadsChangedSource() throws Exception {
+    MaxMindLocalDatabaseCache cache = new MaxMindLocalDatabaseCache( cacheDir );
+    File local = cache.getLocalCopy( remote );
+
+    write( remote, "second version, longer".getBytes( "UTF-8" ), 2000000L );
+    assertEquals( local, cache.getLocalCopy( remote ) );
+    assertEquals( 2, cache.getDownloads() );
+    assertArrayEquals( "second version, longer".getBytes( "UTF-8" ), Files.toByteArray( local ) );
+
+    // same size, newer modification time
+    write( remote, "second version, LONGER".getBytes( "UTF-8" ), 3000000L );
+    cache.getLocalCopy( remote );
+    assertEquals( 3, cache.getDownloads() );
+    assertArrayEquals( "second version, LONGER".getBytes( "UTF-8" ), Files.toByteArray( local ) );
+  }
+
+  @Test
+  public void testDownloadsTruncatedCopy() throws Exception {
+    MaxMindLocalDatabaseCache cache = new MaxMindLocalDatabaseCache( cacheDir );
+    File local = cache.getLocalCopy( remote );
+    Files.write( "first".getBytes( "UTF-8" ), local );
+
+    cache.getLocalCopy( remote );
+    assertEquals( 2, cache.getDownloads() );
+    assertArrayEquals( "first version".getBytes( "UTF-8" ), Files.toByteArray( local ) );
+  }
+
+  @Test
+  public void testDownloadsDamagedCopy() throws Exception {
+    MaxMindLocalDatabaseCache cache = new MaxMindLocalDatabaseCache( cacheDir );
+    File local = cache.getLocalCopy( remote );
+    // same size, so only the hash tells
+    Files.write( "first VERSION".getBytes( "UTF-8" ), local );
+
+    MaxMindLocalDatabaseCache restarted = new MaxMindLocalDatabaseCache( cacheDir );
+    restarted.getLocalCopy( remote );
+    assertEquals( 1, restarted.getDownloads() );
+    assertArrayEquals( "first version".getBytes( "UTF-8" ), Files.toByteArray( local ) );
+  }
+
+  @Test
+  public void testDirectoryFromVariable() {
+    assertEquals( cacheDir, MaxMindLocalDatabaseCache.getDirectory( cacheDir.getPath() ) );
+    assertTrue( MaxMindLocalDatabaseCache.getDirectory( "" ).getPath().length() > 0 );
+  }
+
+  private static void write( FileObject file, byte[] content, long lastModified ) throws Exception {
+    OutputStream out = file.getContent().getOutputStream();
+    try {
+      out.write( content );
+    } finally {
+      out.close();
+    }
+    file.getContent().setLastModifiedTime( lastModified );
+  }
+}
@@ -0,0 +1,44 @@
+package com.maxmind.geoip;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.time.ZoneOffset;
+
+import org.junit.Test;
+
+public class MaxMindLocalTimeTest {
+
+  // 2016-03-27T00:59:59Z, one second before summer time starts in Europe
+  private static final long BEFORE_DST = 1459040399000L;
+
+  @Test
+  public void testLocalTime() {
+    MaxMindLocalTime localTime = new MaxMindLocalTime();
+    assertEquals( "2016-03-27T01:59:59", localTime.getLocalTime( "Europe/Berlin", BEFORE_DST ) );
+    assertEquals( "2016-03-27T03:00:00", localTime.getLocalTime( "Europe/Berlin", BEFORE_DST + 1000 ) );
+    assertEquals( "2016-03-26T20:59:59.5", localTime.getLocalTime( "America/New_York", BEFORE_DST + 500 ) );
+    assertEquals( "2016-03-27T00:59:59", localTime.getLocalTime( "UTC", BEFORE_DST ) );
+  }
+
+  @Test
+  public void testOffsetAcrossTransitions() {
+    MaxMindLocalTime localTime = new MaxMindLocalTime();
+    assertEquals( ZoneOffset.ofHours( 2 ), localTime.getOffset( "Europe/Berlin", BEFORE_DST + 1000 ) );
+    // back in time, outside of the remembered window
+    assertEquals( ZoneOffset.ofHours( 1 ), localTime.getOffset( "Europe/Berlin", BEFORE_DST ) );
+    assertEquals( ZoneOffset.ofHours( 1 ), localTime.getOffset( "Europe/Berlin", BEFORE_DST - 86400000L * 30 ) );
+    // 2016-10-30T01:00:00Z summer time ends
+    assertEquals( ZoneOffset.ofHours( 2 ), localTime.getOffset( "Europe/Berlin", 1477789199000L ) );
+    assertEquals( ZoneOffset.ofHours( 1 ), localTime.getOffset( "Europe/Berlin", 1477789200000L ) );
+    assertEquals( ZoneOffset.ofHoursMinutes( 5, 30 ), localTime.getOffset( "Asia/Kolkata", 0L ) );
+  }
+
+  @Test
+  public void testUnknownZone() {
+    MaxMindLocalTime localTime = new MaxMindLocalTime();
+    assertNull( localTime.getOffset( "Nowhere/Special", BEFORE_DST ) );
+    assertNull( localTime.getLocalTime( null, BEFORE_DST ) );
+    assertNull( localTime.getLocalTime( "", BEFORE_DST ) );
+  }
+}
@@ -0,0 +1,40 @@
+package com.maxmind.geoip;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MaxMindLookupBackendsTest {
+
+  @Test
+  public void testNames() {
+    List<String> names = Arrays.asList( MaxMindLookupBackends.getNames() );
+    assertEquals( MaxMindLookupBackends.DEFAULT, names.get( 0 ) );
+    assertTrue( names.contains( MaxMindReaderBackend.NAME ) );
+    assertTrue( names.contains( MaxMindServerBackend.NAME ) );
+  }
+
+  @Test
+  public void testGet() {
+    assertNull( MaxMindLookupBackends.get( MaxMindLookupBackends.DEFAULT ) );
+    assertNull( MaxMindLookupBackends.get( "" ) );
+    assertNull( MaxMindLookupBackends.get( null ) );
+    assertEquals( MaxMindServerBackend.NAME, MaxMindLookupBackends.get( MaxMindServerBackend.NAME ).getName() );
+  }
+
+  @Test( expected = IllegalArgumentException.class )
+  public void testUnknown() {
+    MaxMindLookupBackends.get( "Compiled tables" );
+  }
+
+  @Test( expected = IOException.class )
+  public void testServerWithoutAddress() throws IOException {
+    new MaxMindServerBackend().open( null, new String[] { "country.iso_code" }, null );
+  }
+}
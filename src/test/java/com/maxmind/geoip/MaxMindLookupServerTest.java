@@ -0,0 +1,118 @@
+package com.maxmind.geoip;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class MaxMindLookupServerTest {
+
+  private static final String RECORD = "{\"country\":{\"iso_code\":\"US\",\"geoname_id\":6252001},"
+      + "\"location\":{\"latitude\":40.7,\"longitude\":-74.0},\"subdivisions\":[{\"iso_code\":\"NY\"}],"
+      + "\"traits\":{\"is_anonymous_proxy\":false}}";
+
+  private MaxMindLookupServer server;
+
+  @Before
+  public void setUp() throws Exception {
+    final JsonNode record = new ObjectMapper().readTree( RECORD );
+    server = new MaxMindLookupServer( new MaxMindLookupServer.Records() {
+      public JsonNode get( InetAddress address ) {
+        // only 10.0.0.0/8 is in the database
+        return ( address.getAddress().length == 4 && address.getAddress()[0] == 10 ) ? record : null;
+      }
+
+      public String getDatabaseType() {
+        return "GeoIP2-City";
+      }
+
+      public long getBuildDate() {
+        return 1456790400000L;
+      }
+    }, 0 );
+    server.start();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    server.close();
+  }
+
+  @Test
+  public void testLookup() throws Exception {
+    MaxMindLookupClient client = connect( "country.iso_code", "location.latitude" );
+    try {
+      assertEquals( "GeoIP2-City", client.getDatabaseType() );
+      assertEquals( 1456790400000L, client.getBuildDate() );
+      assertArrayEquals( new Object[] { "US", 40.7 }, client.lookup( 0L, MaxMindIpParser.keyLo( 0x0A010203L ) ) );
+      assertNull( client.lookup( 0L, MaxMindIpParser.keyLo( 0xC0A80001L ) ) );
+    } finally {
+      client.close();
+    }
+  }
+
+  @Test
+  public void testPipelinedBatches() throws Exception {
+    MaxMindLookupClient client = connect( "country.iso_code" );
+    try {
+      int n = 3 * MaxMindLookupClient.BATCH_SIZE + 7;
+      long[] his = new long[n];
+      long[] los = new long[n];
+      for ( int i = 0; i < n; i++ ) {
+        // every other address is in the database
+        los[i] = MaxMindIpParser.keyLo( ( ( i % 2 == 0 ) ? 0x0A000000L : 0xC0A80000L ) + i );
+      }
+      Object[][] records = client.lookup( his, los, n );
+      assertEquals( n, records.length );
+      for ( int i = 0; i < n; i++ ) {
+        if ( i % 2 == 0 ) {
+          assertArrayEquals( new Object[] { "US" }, records[i] );
+        } else {
+          assertNull( records[i] );
+        }
+      }
+      // the connection is still in step for the next call
+      assertArrayEquals( new Object[] { "US" }, client.lookup( 0L, MaxMindIpParser.keyLo( 0x0A000001L ) ) );
+    } finally {
+      client.close();
+    }
+  }
+
+  @Test
+  public void testInvalidPath() throws Exception {
+    try {
+      connect( "country..iso_code" );
+      fail( "the server accepted an invalid path" );
+    } catch ( IOException e ) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testParseAddress() throws IOException {
+    InetSocketAddress address = MaxMindLookupClient.parseAddress( "7363" );
+    assertEquals( InetAddress.getLoopbackAddress(), address.getAddress() );
+    assertEquals( 7363, address.getPort() );
+    assertEquals( 8000, MaxMindLookupClient.parseAddress( "localhost:8000" ).getPort() );
+  }
+
+  @Test( expected = IOException.class )
+  public void testParseInvalidAddress() throws IOException {
+    MaxMindLookupClient.parseAddress( "localhost" );
+  }
+
+  private MaxMindLookupClient connect( String... paths ) throws IOException {
+    return new MaxMindLookupClient( Integer.toString( server.getPort() ), paths );
+  }
+}
@@ -0,0 +1,71 @@
+package com.maxmind.geoip;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.KettleEnvironment;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.trans.steps.loadsave.LoadSaveTester;
+import org.pentaho.di.trans.steps.loadsave.validator.ArrayLoadSaveValidator;
+import org.pentaho.di.trans.steps.loadsave.validator.FieldLoadSaveValidator;
+import org.pentaho.di.trans.steps.loadsave.validator.StringLoadSaveValidator;
+
+public class MaxMindNetworkDumpMetaTest {
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws KettleException {
+    KettleEnvironment.init( false );
+  }
+
+  @Test
+  public void testRoundTrip() throws KettleException {
+    List<String> attributes =
+      Arrays.asList( "DbLocation", "DbType", "Threads", "BinaryStringOutput", "FieldName", "FieldLookupType", "FieldIfNull",
+        "ReferencePoints", "GeohashPrecision" );
+
+    HashMap<String, String> getterMap = new HashMap<String, String>();
+    getterMap.put( "BinaryStringOutput", "isBinaryStringOutput" );
+
+    HashMap<String, FieldLoadSaveValidator<?>> fieldValidators = new HashMap<String,FieldLoadSaveValidator<?>>();
+    int records = new Random().nextInt( 9 ) + 1;
+    fieldValidators.put( "FieldName", new ArrayLoadSaveValidator<String>( new StringLoadSaveValidator(), records ) );
+    fieldValidators.put( "FieldLookupType", new ArrayLoadSaveValidator<String>( new StringLoadSaveValidator(), records ) );
+    fieldValidators.put( "FieldIfNull", new ArrayLoadSaveValidator<String>( new StringLoadSaveValidator(), records ) );
+    LoadSaveTester loadSaveTester =
+      new LoadSaveTester( MaxMindNetworkDumpMeta.class, attributes,
+        getterMap, new HashMap<String, String>(), fieldValidators,
+        new HashMap<String,FieldLoadSaveValidator<?>>() );
+
+    loadSaveTester.testRepoRoundTrip();
+    loadSaveTester.testXmlRoundTrip();
+  }
+
+  @Test
+  public void testDefault() {
+    MaxMindNetworkDumpMeta meta = new MaxMindNetworkDumpMeta();
+    meta.setDefault();
+    assertEquals( "", meta.getDbLocation() );
+    assertEquals( "", meta.getDbType() );
+    assertEquals( "", meta.getThreads() );
+    assertFalse( meta.isBinaryStringOutput() );
+    assertEquals( 0, meta.getFieldName().length );
+    assertEquals( 0, meta.getFieldLookupType().length );
+    assertEquals( 0, meta.getFieldIfNull().length );
+    assertEquals( "", meta.getReferencePoints() );
+    assertEquals( "7", meta.getGeohashPrecision() );
+  }
+
+  @Test
+  public void testGetStepData() {
+    MaxMindNetworkDumpMeta meta = new MaxMindNetworkDumpMeta();
+    assertTrue( meta.getStepData() instanceof MaxMindNetworkDumpData );
+  }
+}
@@ -0,0 +1,153 @@
+package com.maxmind.geoip;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MaxMindNetworkWalkerTest {
+
+  // Records of the test trees: node numbers, or one of these
+  static final int EMPTY = -1;
+  static final int DATA_A = -2; // offset 0
+  static final int DATA_B = -3; // after A, offset 2 for the strings
+
+  /*
+   * 0.0.0.0/2 empty, 64.0.0.0/3 B, 96.0.0.0/3 A, 128.0.0.0/1 A
+   */
+  static int[][] ipv4Tree( int first ) {
+    return new int[][] { { first + 1, DATA_A }, { EMPTY, first + 2 }, { DATA_B, DATA_A } };
+  }
+
+  private static final List<String> IPV4_NETWORKS = Arrays.asList( "64.0.0.0/3@2", "96.0.0.0/3@0", "128.0.0.0/1@0" );
+
+  @Test
+  public void testIpv4() throws Exception {
+    MaxMindNetworkWalker walker = new MaxMindNetworkWalker( writeDatabase( 4, ipv4Tree( 0 ) ) );
+    assertEquals( 3, walker.getNodeCount() );
+    assertEquals( 4, walker.getIpVersion() );
+    assertEquals( IPV4_NETWORKS, walk( walker ) );
+  }
+
+  @Test
+  public void testIpv6() throws Exception {
+    // 96 nodes down to the IPv4 space, which is also linked from 8000::/1 like the aliases of real databases
+    int[][] nodes = new int[99][];
+    for ( int i = 0; i < 96; i++ ) {
+      nodes[i] = new int[] { i + 1, EMPTY };
+    }
+    nodes[0][1] = 96;
+    nodes[1][1] = DATA_B;
+    System.arraycopy( ipv4Tree( 96 ), 0, nodes, 96, 3 );
+
+    MaxMindNetworkWalker walker = new MaxMindNetworkWalker( writeDatabase( 6, nodes ) );
+    List<String> expected = new ArrayList<String>( IPV4_NETWORKS );
+    expected.add( "4000:0:0:0:0:0:0:0/2@2" );
+    assertEquals( expected, walk( walker ) );
+  }
+
+  @Test
+  public void testLastAddress() {
+    assertArrayEquals( new byte[] { 95, -1, -1, -1 }, MaxMindNetworkWalker.lastAddress( new byte[] { 64, 0, 0, 0 }, 3 ) );
+    assertArrayEquals( new byte[] { 10, 1, 2, 3 }, MaxMindNetworkWalker.lastAddress( new byte[] { 10, 1, 2, 3 }, 32 ) );
+  }
+
+  @Test( expected = IOException.class )
+  public void testNotADatabase() throws IOException {
+    File file = File.createTempFile( "maxmind", ".mmdb" );
+    file.deleteOnExit();
+    FileOutputStream out = new FileOutputStream( file );
+    out.write( "not a database".getBytes( StandardCharsets.US_ASCII ) );
+    out.close();
+    new MaxMindNetworkWalker( file );
+  }
+
+  private static List<String> walk( MaxMindNetworkWalker walker ) throws Exception {
+    final List<String> networks = new ArrayList<String>();
+    for ( MaxMindNetworkWalker.Subtree subtree : walker.split() ) {
+      walker.walk( subtree, new MaxMindNetworkWalker.Visitor() {
+        public void network( byte[] address, int prefixLength, long dataOffset ) throws Exception {
+          networks.add( InetAddress.getByAddress( address ).getHostAddress() + "/" + prefixLength + "@" + dataOffset );
+        }
+      } );
+    }
+    return networks;
+  }
+
+  /*
+   * Writes a database with 24 bit records and the two strings "a" and "b" as its data section.
+   */
+  private static File writeDatabase( int ipVersion, int[][] nodes ) throws IOException {
+    return writeDatabase( ipVersion, nodes, new byte[] { 0x41, 'a' }, new byte[] { 0x41, 'b' } );
+  }
+
+  /*
+   * Writes a database with 24 bit records and the two encoded records DATA_A and DATA_B as its data section, with
+   * all the metadata a Reader needs.
+   */
+  static File writeDatabase( int ipVersion, int[][] nodes, byte[] recordA, byte[] recordB ) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for ( int[] node : nodes ) {
+      for ( int record : node ) {
+        int value = ( record >= 0 ) ? record : ( record == EMPTY ) ? nodes.length
+          : nodes.length + 16 + ( ( record == DATA_A ) ? 0 : recordA.length );
+        out.write( value >>> 16 );
+        out.write( value >>> 8 );
+        out.write( value );
+      }
+    }
+    out.write( new byte[16] );
+    out.write( recordA );
+    out.write( recordB );
+
+    out.write( new byte[] { (byte) 0xAB, (byte) 0xCD, (byte) 0xEF } );
+    out.write( "MaxMind.com".getBytes( StandardCharsets.US_ASCII ) );
+    out.write( 0xE9 ); // map of 9
+    writeString( out, "node_count" );
+    out.write( new byte[] { (byte) 0xC2, (byte) ( nodes.length >>> 8 ), (byte) nodes.length } ); // uint32
+    writeString( out, "record_size" );
+    out.write( new byte[] { (byte) 0xA1, 24 } ); // uint16
+    writeString( out, "ip_version" );
+    out.write( new byte[] { (byte) 0xA1, (byte) ipVersion } );
+    writeString( out, "binary_format_major_version" );
+    out.write( new byte[] { (byte) 0xA1, 2 } );
+    writeString( out, "binary_format_minor_version" );
+    out.write( new byte[] { (byte) 0xA0 } );
+    writeString( out, "build_epoch" );
+    out.write( new byte[] { 0x01, 0x02, 1 } ); // uint64
+    writeString( out, "database_type" );
+    writeString( out, "Test" );
+    writeString( out, "languages" );
+    out.write( new byte[] { 0x01, 0x04 } ); // array of 1
+    writeString( out, "en" );
+    writeString( out, "description" );
+    out.write( 0xE1 );
+    writeString( out, "en" );
+    writeString( out, "Test" );
+
+    File file = File.createTempFile( "maxmind", ".mmdb" );
+    file.deleteOnExit();
+    FileOutputStream fos = new FileOutputStream( file );
+    try {
+      out.writeTo( fos );
+    } finally {
+      fos.close();
+    }
+    return file;
+  }
+
+  static void writeString( ByteArrayOutputStream out, String s ) throws IOException {
+    out.write( 0x40 | s.length() );
+    out.write( s.getBytes( StandardCharsets.US_ASCII ) );
+  }
+}
@@ -0,0 +1,82 @@
+package com.maxmind.geoip;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.IntNode;
+import com.maxmind.db.NodeCache;
+
+public class MaxMindNodeCacheTest {
+
+  private final MaxMindNodeCache cache = new MaxMindNodeCache();
+  private int loads = 0;
+
+  private final NodeCache.Loader loader = new NodeCache.Loader() {
+    public JsonNode load( int key ) throws IOException {
+      loads++;
+      return IntNode.valueOf( key );
+    }
+  };
+
+  @After
+  public void tearDown() {
+    MaxMindCacheGovernor.unregister( cache );
+  }
+
+  @Test
+  public void testHotNodesStay() throws IOException {
+    cache.setBudget( 16 * MaxMindNodeCache.ESTIMATED_NODE_BYTES );
+    for ( int round = 0; round < 10; round++ ) {
+      for ( int key = 0; key < 16; key++ ) {
+        assertEquals( key, cache.get( key, loader ).intValue() );
+      }
+    }
+    assertEquals( 16, loads );
+
+    // a flood of nodes read once doesn't push out the ones read all the time
+    for ( int key = 1000; key < 1500; key++ ) {
+      cache.get( key, loader );
+      assertTrue( cache.size() <= 16 );
+    }
+    loads = 0;
+    for ( int key = 0; key < 16; key++ ) {
+      cache.get( key, loader );
+    }
+    assertEquals( 0, loads );
+  }
+
+  @Test
+  public void testEvictsOneNodePerNewNode() throws IOException {
+    cache.setBudget( 16 * MaxMindNodeCache.ESTIMATED_NODE_BYTES );
+    for ( int key = 0; key < 16; key++ ) {
+      cache.get( key, loader );
+    }
+    assertEquals( 16, cache.size() );
+
+    // read more often than all the cached nodes, so it is let in, in place of exactly one of them
+    for ( int i = 0; i < 3; i++ ) {
+      cache.get( 100, loader );
+    }
+    assertEquals( 16, cache.size() );
+    loads = 0;
+    cache.get( 100, loader );
+    assertEquals( 0, loads );
+  }
+
+  @Test
+  public void testBudgetCut() throws IOException {
+    for ( int key = 0; key < 100; key++ ) {
+      cache.get( key, loader );
+    }
+    assertEquals( 100, cache.size() );
+    cache.setBudget( 16 * MaxMindNodeCache.ESTIMATED_NODE_BYTES );
+    assertEquals( 16, cache.size() );
+    assertEquals( 16 * MaxMindNodeCache.ESTIMATED_NODE_BYTES, cache.getEstimatedBytes() );
+  }
+}
@@ -0,0 +1,212 @@
+package com.maxmind.geoip;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.ref.WeakReference;
+
+import org.junit.Test;
+
+public class MaxMindOffHeapCacheTest {
+
+  @Test
+  public void testGetPut() {
+    MaxMindOffHeapCache cache = new MaxMindOffHeapCache( 1024 * 1024 );
+    Object[] us = new Object[] { "US", "United States" };
+
+    assertNull( cache.get( 0L, MaxMindIpParser.keyLo( 1L ) ) );
+    cache.put( 0L, MaxMindIpParser.keyLo( 1L ), us );
+    cache.put( 0L, MaxMindIpParser.keyLo( 2L ), new Object[] { "US", "United States" } );
+    cache.put( 0x20010db800000000L, 1L, new Object[] { "DE", null } );
+
+    assertSame( us, cache.get( 0L, MaxMindIpParser.keyLo( 1L ) ) );
+    // equal records share one dictionary entry
+    assertSame( us, cache.get( 0L, MaxMindIpParser.keyLo( 2L ) ) );
+    assertEquals( "DE", cache.get( 0x20010db800000000L, 1L )[0] );
+    assertEquals( 3, cache.size() );
+    assertEquals( 2, cache.getRecordCount() );
+    assertEquals( 3, cache.getHits() );
+    assertEquals( 1, cache.getMisses() );
+  }
+
+  @Test
+  public void testEviction() {
+    MaxMindOffHeapCache cache = new MaxMindOffHeapCache( 64 * 1024 );
+    Object[] record = new Object[] { "US" };
+    int keys = 100000;
+    for ( long ip = 0; ip < keys; ip++ ) {
+      cache.put( 0L, MaxMindIpParser.keyLo( ip ), record );
+    }
+    assertTrue( cache.size() < keys );
+    assertTrue( cache.getEvictions() > 0 );
+
+    // every key that is still in the table must be reachable after all the backward shifts
+    long found = 0;
+    for ( long ip = 0; ip < keys; ip++ ) {
+      if ( cache.get( 0L, MaxMindIpParser.keyLo( ip ) ) != null ) {
+        found++;
+      }
+    }
+    assertEquals( cache.size(), found );
+  }
+
+  @Test
+  public void testReferencedKeySurvives() {
+    MaxMindOffHeapCache cache = new MaxMindOffHeapCache( 64 * 1024 );
+    Object[] record = new Object[] { "US" };
+    long ip = 0;
+    while ( cache.getEvictions() == 0 ) {
+      cache.put( 0L, MaxMindIpParser.keyLo( ip++ ), record );
+    }
+    assertNotNull( cache.get( 0L, MaxMindIpParser.keyLo( ip - 1 ) ) );
+    long size = cache.size();
+    for ( int i = 0; i < size / 2; i++ ) {
+      cache.put( 0L, MaxMindIpParser.keyLo( ip++ ), record );
+    }
+    assertNotNull( cache.get( 0L, MaxMindIpParser.keyLo( ip - 1 - size / 2 ) ) );
+  }
+
+  @Test
+  public void testDictionaryOverflowClears() {
+    MaxMindOffHeapCache cache = new MaxMindOffHeapCache( 16 * 1024 );
+    for ( int i = 0; i < 1000; i++ ) {
+      cache.put( 0L, MaxMindIpParser.keyLo( i ), new Object[] { "City " + i } );
+    }
+    assertTrue( cache.getRecordCount() < 1000 );
+    assertEquals( "City 999", cache.get( 0L, MaxMindIpParser.keyLo( 999 ) )[0] );
+  }
+
+  @Test
+  public void testGrowsAndShrinksToBudget() {
+    MaxMindOffHeapCache cache = new MaxMindOffHeapCache( 64L * 1024 * 1024 );
+    Object[] record = new Object[] { "US" };
+    for ( long ip = 0; ip < 200000; ip++ ) {
+      cache.put( 0L, MaxMindIpParser.keyLo( ip ), record );
+    }
+    // grew past the initial table instead of evicting
+    assertEquals( 200000, cache.size() );
+    assertEquals( 0, cache.getEvictions() );
+
+    assertNotNull( cache.get( 0L, MaxMindIpParser.keyLo( 7L ) ) );
+    cache.setBudget( 256 * 1024 );
+    cache.put( 0L, MaxMindIpParser.keyLo( 200000L ), record );
+    assertTrue( cache.getEstimatedBytes() <= 256 * 1024 );
+    // referenced entries are kept first when the table shrinks
+    assertNotNull( cache.get( 0L, MaxMindIpParser.keyLo( 7L ) ) );
+    assertNotNull( cache.get( 0L, MaxMindIpParser.keyLo( 200000L ) ) );
+    cache.close();
+  }
+
+  @Test
+  public void testGovernorDropsCollectedCaches() {
+    MaxMindValuePool pool = new MaxMindValuePool();
+    // only a pool that holds values takes part
+    assertFalse( MaxMindCacheGovernor.isRegistered( pool ) );
+    pool.intern( "US" );
+    assertTrue( MaxMindCacheGovernor.isRegistered( pool ) );
+    pool.close();
+    assertFalse( MaxMindCacheGovernor.isRegistered( pool ) );
+
+    // without a budget, the next registration drops what was collected
+    WeakReference<MaxMindValuePool> collected = new WeakReference<MaxMindValuePool>( new MaxMindValuePool() );
+    collected.get().intern( "DE" );
+    for ( int i = 0; i < 20 && collected.get() != null; i++ ) {
+      System.gc();
+    }
+    int before = MaxMindCacheGovernor.size();
+    pool.intern( "US" );
+    if ( collected.get() == null ) {
+      assertTrue( MaxMindCacheGovernor.size() <= before );
+    }
+    pool.close();
+  }
+
+  @Test
+  public void testGovernorSplitsBudgetByHits() {
+    MaxMindOffHeapCache busy = new MaxMindOffHeapCache( 64L * 1024 * 1024 );
+    MaxMindOffHeapCache idle = new MaxMindOffHeapCache( 64L * 1024 * 1024 );
+    try {
+      MaxMindCacheGovernor.setBudget( 8L * 1024 * 1024 );
+      Object[] record = new Object[] { "US" };
+      for ( long ip = 0; ip < 1000; ip++ ) {
+        busy.put( 0L, MaxMindIpParser.keyLo( ip ), record );
+        busy.get( 0L, MaxMindIpParser.keyLo( ip ) );
+      }
+      MaxMindCacheGovernor.rebalance();
+      for ( long ip = 0; ip < 300000; ip++ ) {
+        busy.put( 0L, MaxMindIpParser.keyLo( ip ), record );
+        idle.put( 0L, MaxMindIpParser.keyLo( ip ), record );
+      }
+      assertTrue( busy.size() > idle.size() );
+      assertTrue( busy.getEstimatedBytes() + idle.getEstimatedBytes() <= 8L * 1024 * 1024 );
+    } finally {
+      MaxMindCacheGovernor.setBudget( 0 );
+      busy.close();
+      idle.close();
+    }
+  }
+
+  @Test
+  public void testScanDoesNotEvictHotKeys() {
+    MaxMindOffHeapCache cache = new MaxMindOffHeapCache( 64 * 1024, true );
+    Object[] record = new Object[] { "US" };
+    for ( int round = 0; round < 20; round++ ) {
+      for ( long ip = 0; ip < 100; ip++ ) {
+        lookup( cache, ip, record );
+      }
+    }
+    for ( long ip = 1000000; ip < 1100000; ip++ ) {
+      lookup( cache, ip, record );
+    }
+    assertTrue( cache.getRejections() > 0 );
+    final int[] hot = new int[1];
+    cache.visitKeys( new MaxMindOffHeapCache.KeyVisitor() {
+      public boolean visit( long hi, long lo, boolean referenced ) {
+        if ( lo - MaxMindIpParser.keyLo( 0L ) < 100 ) {
+          hot[0]++;
+        }
+        return true;
+      }
+    } );
+    assertEquals( 100, hot[0] );
+    cache.close();
+  }
+
+  @Test
+  public void testBypassesWithoutRepeats() {
+    MaxMindOffHeapCache cache = new MaxMindOffHeapCache( 64 * 1024, true );
+    Object[] record = new Object[] { "US" };
+    for ( long ip = 0; ip < 100000; ip++ ) {
+      lookup( cache, ip, record );
+    }
+    assertTrue( cache.isBypassing() );
+    assertTrue( cache.getBypassed() > 0 );
+
+    // locality returns
+    for ( int round = 0; round < 1000; round++ ) {
+      for ( long ip = 200000; ip < 200064; ip++ ) {
+        lookup( cache, ip, record );
+      }
+    }
+    assertFalse( cache.isBypassing() );
+    long hits = cache.getHits();
+    for ( long ip = 200000; ip < 200064; ip++ ) {
+      lookup( cache, ip, record );
+    }
+    assertEquals( hits + 64, cache.getHits() );
+    cache.close();
+  }
+
+  /*
+   * What the step does per row: the record is looked up and cached on a miss.
+   */
+  private static void lookup( MaxMindOffHeapCache cache, long ip, Object[] record ) {
+    if ( cache.get( 0L, MaxMindIpParser.keyLo( ip ) ) == null ) {
+      cache.put( 0L, MaxMindIpParser.keyLo( ip ), record );
+    }
+  }
+}
@@ -0,0 +1,139 @@
+package com.maxmind.geoip;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MaxMindPersistentCacheTest {
+
+  private static final long SIZE = 1024 * 1024;
+  private static final long EPOCH = 1500000000000L;
+  private static final long SIGNATURE = 42L;
+
+  private File cacheFile;
+
+  @Before
+  public void setUp() throws IOException {
+    cacheFile = File.createTempFile( "maxmind", ".cache" );
+    cacheFile.deleteOnExit();
+  }
+
+  @Test
+  public void testCodecRoundTrip() {
+    Object[] record = new Object[] { "US", null, 45.123, 7L, Boolean.TRUE, new Date( 1000L ), "Z\u00fcrich" };
+    byte[] encoded = MaxMindRecordCodec.encode( record );
+    assertArrayEquals( record, MaxMindRecordCodec.decode( ByteBuffer.wrap( encoded ) ) );
+  }
+
+  @Test
+  public void testSurvivesRelease() throws IOException {
+    MaxMindPersistentCache cache = MaxMindPersistentCache.attach( cacheFile, SIZE, EPOCH, SIGNATURE );
+    cache.put( 0L, MaxMindIpParser.keyLo( 1L ), new Object[] { "US", 45.123 } );
+    cache.put( 0x20010db800000000L, 1L, new Object[] { "DE", null } );
+    cache.release();
+
+    cache = MaxMindPersistentCache.attach( cacheFile, SIZE, EPOCH, SIGNATURE );
+    assertEquals( 2, cache.size() );
+    assertArrayEquals( new Object[] { "US", 45.123 }, cache.get( 0L, MaxMindIpParser.keyLo( 1L ) ) );
+    assertArrayEquals( new Object[] { "DE", null }, cache.get( 0x20010db800000000L, 1L ) );
+    assertNull( cache.get( 0L, MaxMindIpParser.keyLo( 2L ) ) );
+    cache.release();
+  }
+
+  @Test
+  public void testInvalidatedByNewDatabase() throws IOException {
+    MaxMindPersistentCache cache = MaxMindPersistentCache.attach( cacheFile, SIZE, EPOCH, SIGNATURE );
+    cache.put( 0L, MaxMindIpParser.keyLo( 1L ), new Object[] { "US" } );
+    cache.release();
+
+    cache = MaxMindPersistentCache.attach( cacheFile, SIZE, EPOCH + 1, SIGNATURE );
+    assertEquals( 0, cache.size() );
+    assertNull( cache.get( 0L, MaxMindIpParser.keyLo( 1L ) ) );
+    cache.release();
+
+    cache = MaxMindPersistentCache.attach( cacheFile, SIZE, EPOCH + 1, SIGNATURE + 1 );
+    assertEquals( 0, cache.size() );
+    cache.release();
+  }
+
+  @Test
+  public void testSharedBetweenStepCopies() throws IOException {
+    MaxMindPersistentCache first = MaxMindPersistentCache.attach( cacheFile, SIZE, EPOCH, SIGNATURE );
+    MaxMindPersistentCache second = MaxMindPersistentCache.attach( cacheFile, SIZE, EPOCH, SIGNATURE );
+    assertSame( first, second );
+    try {
+      MaxMindPersistentCache.attach( cacheFile, SIZE, EPOCH, SIGNATURE + 1 );
+      fail( "a different field selection must not share an attached file" );
+    } catch ( MaxMindPersistentCache.InUseException e ) {
+      // expected
+    }
+
+    first.put( 0L, MaxMindIpParser.keyLo( 1L ), new Object[] { "US" } );
+    first.release();
+    assertArrayEquals( new Object[] { "US" }, second.get( 0L, MaxMindIpParser.keyLo( 1L ) ) );
+    second.release();
+  }
+
+  @Test
+  public void testDamagedRecordIsMiss() throws IOException {
+    MaxMindPersistentCache cache = MaxMindPersistentCache.attach( cacheFile, SIZE, EPOCH, SIGNATURE );
+    cache.put( 0L, MaxMindIpParser.keyLo( 1L ), new Object[] { "US" } );
+    cache.put( 0L, MaxMindIpParser.keyLo( 2L ), new Object[] { "DE" } );
+    cache.release();
+
+    // an unknown value tag in place of the one of the first record
+    byte[] encoded = MaxMindRecordCodec.encode( new Object[] { "US" } );
+    byte[] content = Files.readAllBytes( cacheFile.toPath() );
+    RandomAccessFile file = new RandomAccessFile( cacheFile, "rw" );
+    try {
+      file.seek( indexOf( content, encoded ) + 2 );
+      file.write( 0x7F );
+    } finally {
+      file.close();
+    }
+
+    cache = MaxMindPersistentCache.attach( cacheFile, SIZE, EPOCH, SIGNATURE );
+    assertEquals( 2, cache.size() );
+    assertNull( cache.get( 0L, MaxMindIpParser.keyLo( 1L ) ) );
+    assertEquals( 0, cache.size() );
+    assertNull( cache.get( 0L, MaxMindIpParser.keyLo( 2L ) ) );
+    cache.put( 0L, MaxMindIpParser.keyLo( 1L ), new Object[] { "US" } );
+    assertArrayEquals( new Object[] { "US" }, cache.get( 0L, MaxMindIpParser.keyLo( 1L ) ) );
+    cache.release();
+  }
+
+  private static int indexOf( byte[] content, byte[] part ) {
+    search:
+    for ( int i = 0; i + part.length <= content.length; i++ ) {
+      for ( int j = 0; j < part.length; j++ ) {
+        if ( content[i + j] != part[j] ) {
+          continue search;
+        }
+      }
+      return i;
+    }
+    throw new AssertionError( "not found" );
+  }
+
+  @Test
+  public void testStartsOverWhenFull() throws IOException {
+    MaxMindPersistentCache cache = MaxMindPersistentCache.attach( cacheFile, 64 * 1024, EPOCH, SIGNATURE );
+    for ( long ip = 0; ip < 10000; ip++ ) {
+      cache.put( 0L, MaxMindIpParser.keyLo( ip ), new Object[] { "City " + ( ip % 50 ) } );
+    }
+    assertArrayEquals( new Object[] { "City " + ( 9999 % 50 ) }, cache.get( 0L, MaxMindIpParser.keyLo( 9999 ) ) );
+    cache.release();
+  }
+}
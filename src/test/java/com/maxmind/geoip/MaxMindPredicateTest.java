@@ -0,0 +1,173 @@
+package com.maxmind.geoip;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.plugins.PluginRegistry;
+import org.pentaho.di.core.row.value.ValueMetaPluginType;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class MaxMindPredicateTest {
+
+  private static MaxMindDatabase database;
+  private static JsonNode us;
+  private static JsonNode usProxy;
+  private static JsonNode ca;
+  private static JsonNode caProxy;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    PluginRegistry.addPluginType( ValueMetaPluginType.getInstance() );
+    PluginRegistry.init();
+    database = new MaxMindCountryData();
+    ObjectMapper mapper = new ObjectMapper();
+    us = mapper.readTree( "{\"country\":{\"iso_code\":\"US\"}}" );
+    usProxy = mapper.readTree( "{\"country\":{\"iso_code\":\"US\"},\"traits\":{\"is_anonymous_proxy\":true}}" );
+    ca = mapper.readTree( "{\"country\":{\"iso_code\":\"CA\"}}" );
+    caProxy = mapper.readTree( "{\"country\":{\"iso_code\":\"CA\"},\"traits\":{\"is_anonymous_proxy\":true}}" );
+  }
+
+  private static MaxMindPredicate predicate( String condition ) {
+    return new MaxMindPredicate( condition, database );
+  }
+
+  @Test
+  public void testPrecedence() {
+    // AND binds tighter than OR
+    MaxMindPredicate predicate = predicate( "country_code = 'CA' OR country_code = 'US' AND traits.is_anonymous_proxy = true" );
+    assertTrue( predicate.matches( ca ) );
+    assertFalse( predicate.matches( us ) );
+    assertTrue( predicate.matches( usProxy ) );
+
+    predicate = predicate( "(country_code = 'CA' OR country_code = 'US') AND traits.is_anonymous_proxy = true" );
+    assertFalse( predicate.matches( ca ) );
+    assertTrue( predicate.matches( caProxy ) );
+
+    // and NOT tighter than AND
+    predicate = predicate( "NOT country_code = 'US' AND traits.is_anonymous_proxy = true" );
+    assertTrue( predicate.matches( caProxy ) );
+    assertFalse( predicate.matches( usProxy ) );
+    assertFalse( predicate.matches( ca ) );
+    assertFalse( predicate.matches( null ) );
+  }
+
+  @Test
+  public void testNot() {
+    // a missing value is not equal to anything
+    MaxMindPredicate predicate = predicate( "NOT traits.is_anonymous_proxy = true" );
+    assertTrue( predicate.matches( us ) );
+    assertFalse( predicate.matches( usProxy ) );
+
+    predicate = predicate( "country_code NOT IN ('US', 'DE')" );
+    assertTrue( predicate.matches( ca ) );
+    assertFalse( predicate.matches( us ) );
+    assertTrue( predicate( "NOT NOT country_code IN ('US')" ).matches( us ) );
+  }
+
+  @Test
+  public void testNotEqual() {
+    assertTrue( predicate( "country_code != 'US'" ).matches( ca ) );
+    assertFalse( predicate( "country_code != 'US'" ).matches( us ) );
+    assertTrue( predicate( "country_code <> 'US'" ).matches( ca ) );
+    assertFalse( predicate( "country_code<>'US'" ).matches( us ) );
+  }
+
+  @Test
+  public void testQuoting() {
+    assertTrue( predicate( "country_code IN (\"US\", 'C A')" ).matches( us ) );
+    assertFalse( predicate( "country_code IN (\"US\", 'C A')" ).matches( ca ) );
+    assertTrue( predicate( "country_code = US" ).matches( us ) );
+    // keywords in any case
+    assertTrue( predicate( "country_code not in ('US') and not traits.is_anonymous_proxy = true" ).matches( ca ) );
+  }
+
+  @Test
+  public void testErrors() {
+    String[] conditions = { "", "country_code", "country_code =", "country_code = 'US", "(country_code = 'US'",
+      "country_code IN 'US'", "country_code IN ()", "country_code = 'US' 'CA'", "country_code = 'US' AND",
+      "unknown = 'x'", "country_code ~ 'US'" };
+    for ( String condition : conditions ) {
+      try {
+        predicate( condition );
+        fail( "Accepted '" + condition + "'" );
+      } catch ( IllegalArgumentException e ) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testResolve() throws IOException {
+    File dbFile = writeDatabase();
+    MaxMindIntervalSet set = predicate( "country_code = 'US'" ).resolve( dbFile );
+    assertTrue( contains( set, 96, 0, 0, 1 ) );
+    assertTrue( contains( set, 200, 1, 2, 3 ) );
+    assertFalse( contains( set, 64, 0, 0, 1 ) );
+    assertFalse( contains( set, 1, 2, 3, 4 ) );
+
+    // addresses without a record never match, not even a negated condition
+    set = predicate( "NOT traits.is_anonymous_proxy = true" ).resolve( dbFile );
+    assertTrue( contains( set, 64, 0, 0, 1 ) );
+    assertFalse( contains( set, 96, 0, 0, 1 ) );
+    assertFalse( contains( set, 1, 2, 3, 4 ) );
+  }
+
+  @Test
+  public void testSharedResolve() throws IOException {
+    File dbFile = writeDatabase();
+    File setFile = File.createTempFile( "maxmind", ".set" );
+    setFile.delete();
+    setFile.deleteOnExit();
+
+    MaxMindIntervalSet set = MaxMindPredicate.resolve( "country_code = 'CA'", database, dbFile, setFile );
+    assertTrue( contains( set, 64, 0, 0, 1 ) );
+    assertTrue( setFile.isFile() );
+    assertSame( set, MaxMindPredicate.resolve( "country_code = 'CA'", database, dbFile, setFile ) );
+    assertNotSame( set, MaxMindPredicate.resolve( "country_code = 'US'", database, dbFile, null ) );
+
+    // other computed field options don't reuse the ranges, neither shared nor from the set file
+    MaxMindDatabase computed = new MaxMindCountryData();
+    computed.setComputedFieldOptions( "FRA=50.11,8.68", 5 );
+    assertNotSame( set, MaxMindPredicate.resolve( "country_code = 'CA'", computed, dbFile, setFile ) );
+  }
+
+  /*
+   * 0.0.0.0/2 empty, 64.0.0.0/3 CA, 96.0.0.0/3 and 128.0.0.0/1 US behind an anonymous proxy
+   */
+  private static File writeDatabase() throws IOException {
+    ByteArrayOutputStream a = new ByteArrayOutputStream();
+    a.write( 0xE2 );
+    MaxMindNetworkWalkerTest.writeString( a, "country" );
+    a.write( 0xE1 );
+    MaxMindNetworkWalkerTest.writeString( a, "iso_code" );
+    MaxMindNetworkWalkerTest.writeString( a, "US" );
+    MaxMindNetworkWalkerTest.writeString( a, "traits" );
+    a.write( 0xE1 );
+    MaxMindNetworkWalkerTest.writeString( a, "is_anonymous_proxy" );
+    a.write( new byte[] { 0x01, 0x07 } ); // true
+    ByteArrayOutputStream b = new ByteArrayOutputStream();
+    b.write( 0xE1 );
+    MaxMindNetworkWalkerTest.writeString( b, "country" );
+    b.write( 0xE1 );
+    MaxMindNetworkWalkerTest.writeString( b, "iso_code" );
+    MaxMindNetworkWalkerTest.writeString( b, "CA" );
+    return MaxMindNetworkWalkerTest.writeDatabase( 4, MaxMindNetworkWalkerTest.ipv4Tree( 0 ), a.toByteArray(),
+      b.toByteArray() );
+  }
+
+  private static boolean contains( MaxMindIntervalSet set, int a, int b, int c, int d ) {
+    byte[] address = new byte[] { (byte) a, (byte) b, (byte) c, (byte) d };
+    return set.contains( MaxMindIpParser.keyHi( address ), MaxMindIpParser.keyLo( address ) );
+  }
+}
@@ -0,0 +1,92 @@
+package com.maxmind.geoip;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.exception.KettlePluginException;
+import org.pentaho.di.core.plugins.PluginRegistry;
+import org.pentaho.di.core.row.value.ValueMetaPluginType;
+
+import com.google.common.io.Files;
+
+public class MaxMindWarmupTest {
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws KettlePluginException {
+    PluginRegistry.addPluginType( ValueMetaPluginType.getInstance() );
+    PluginRegistry.init();
+  }
+
+  @Test
+  public void testPreloadPages() throws Exception {
+    File file = File.createTempFile( "maxmind", ".mmdb" );
+    file.deleteOnExit();
+    Files.write( new byte[10000], file );
+    assertEquals( 10000, MaxMindWarmup.preloadPages( file ) );
+    // only once per file and JVM
+    assertEquals( 0, MaxMindWarmup.preloadPages( file ) );
+  }
+
+  @Test
+  public void testPrepopulate() throws Exception {
+    File ipFile = File.createTempFile( "maxmind", ".txt" );
+    ipFile.deleteOnExit();
+    Files.write( "# frequent addresses\n\n10.0.0.1\nnot an address\n 2001:db8::1 \n".getBytes( StandardCharsets.UTF_8 ), ipFile );
+
+    MaxMindCountryData database = spy( new MaxMindCountryData() );
+    doNothing().when( database ).getRowData( any( Object[].class ), anyInt(), anyString() );
+    assertEquals( 2, MaxMindWarmup.prepopulate( database, ipFile ) );
+    verify( database ).getRowData( any( Object[].class ), eq( 0 ), eq( "10.0.0.1" ) );
+    verify( database ).getRowData( any( Object[].class ), eq( 0 ), eq( "2001:db8::1" ) );
+    verify( database, times( 2 ) ).getRowData( any( Object[].class ), anyInt(), anyString() );
+  }
+
+  @Test
+  public void testSnapshot() throws Exception {
+    MaxMindOffHeapCache cache = new MaxMindOffHeapCache( 1024 * 1024 );
+    Object[] record = new Object[] { "US" };
+    for ( long ip = 0x0A000001L; ip <= 0x0A00000AL; ip++ ) {
+      cache.put( 0L, MaxMindIpParser.keyLo( ip ), record );
+    }
+    cache.get( 0L, MaxMindIpParser.keyLo( 0x0A000003L ) );
+    cache.get( 0L, MaxMindIpParser.keyLo( 0x0A000007L ) );
+
+    File snapshotFile = File.createTempFile( "maxmind", ".snapshot" );
+    snapshotFile.deleteOnExit();
+    assertEquals( 10, MaxMindWarmup.writeSnapshot( cache, snapshotFile ) );
+    List<String> lines = Files.readLines( snapshotFile, StandardCharsets.UTF_8 );
+    assertEquals( 10, lines.size() );
+    // referenced addresses first
+    assertEquals( new HashSet<String>( Arrays.asList( "10.0.0.3", "10.0.0.7" ) ), new HashSet<String>( lines.subList( 0, 2 ) ) );
+
+    // the cap holds, also when it is reached with the referenced addresses
+    assertEquals( 2, MaxMindWarmup.writeSnapshot( cache, snapshotFile, 2 ) );
+    assertEquals( 2, Files.readLines( snapshotFile, StandardCharsets.UTF_8 ).size() );
+    assertEquals( 5, MaxMindWarmup.writeSnapshot( cache, snapshotFile, 5 ) );
+    assertEquals( 5, Files.readLines( snapshotFile, StandardCharsets.UTF_8 ).size() );
+    cache.close();
+  }
+
+  @Test
+  public void testSnapshotFilePerCopy() {
+    assertEquals( new File( "cache.txt" ), MaxMindWarmup.getSnapshotFile( "cache.txt", 0, 1 ) );
+    assertEquals( new File( "cache.txt.0" ), MaxMindWarmup.getSnapshotFile( "cache.txt", 0, 3 ) );
+    assertFalse( MaxMindWarmup.getSnapshotFile( "cache.txt", 1, 3 ).equals( MaxMindWarmup.getSnapshotFile( "cache.txt", 2, 3 ) ) );
+  }
+}